@@ -30,6 +30,8 @@ import org.syncany.config.to.RepoTOFactory;
 import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.CipherSpecs;
 import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.MultiCipherOutputStream;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseFormat;
 import org.syncany.operations.OperationResult;
 import org.syncany.operations.init.GenlinkOperationOptions;
 import org.syncany.operations.init.InitOperation;
@@ -97,6 +99,11 @@ public class InitCommand extends AbstractInitCommand {
 		OptionSpec<Void> optionShortUrl = parser.acceptsAll(asList("s", "short"));
 		OptionSpec<Void> optionHeadlessMode = parser.acceptsAll(asList("l", "headless"));
 		OptionSpec<String> optionPassword = parser.acceptsAll(asList("password")).withRequiredArg();
+		OptionSpec<String> optionChunker = parser.acceptsAll(asList("chunker")).withRequiredArg().defaultsTo(DefaultRepoTOFactory.DEFAULT_CHUNKER_TYPE);
+		OptionSpec<String> optionDigest = parser.acceptsAll(asList("digest")).withRequiredArg().defaultsTo(DefaultRepoTOFactory.DEFAULT_DIGEST_ALGORITHM);
+		OptionSpec<String> optionDatabaseFormat = parser.acceptsAll(asList("database-format")).withRequiredArg()
+				.defaultsTo(DefaultRepoTOFactory.DEFAULT_DATABASE_FORMAT.toString().toLowerCase());
+		OptionSpec<Void> optionSegmentedEncryption = parser.acceptsAll(asList("segmented-encryption"));
 
 		OptionSet options = parser.parse(operationArguments);
 
@@ -114,13 +121,19 @@ public class InitCommand extends AbstractInitCommand {
 		boolean advancedModeEnabled = options.has(optionAdvanced);
 		boolean encryptionEnabled = !options.has(optionNoEncryption);
 		boolean compressionEnabled = !options.has(optionNoCompression);
+		String chunkerType = options.valueOf(optionChunker);
+		String digestAlgorithm = options.valueOf(optionDigest);
+		DatabaseFormat databaseFormat = parseDatabaseFormat(options.valueOf(optionDatabaseFormat));
+		byte cipherStreamVersion = (options.has(optionSegmentedEncryption)) ? MultiCipherOutputStream.STREAM_VERSION_SEGMENTED
+				: DefaultRepoTOFactory.DEFAULT_CIPHER_STREAM_VERSION;
 
 		// Cipher specs: --no-encryption, --advanced
 		List<CipherSpec> cipherSpecs = getCipherSpecs(encryptionEnabled, advancedModeEnabled);
 
-		// Compression: --no-compression
-		// DefaultRepoTOFactory also creates default chunkers
-		RepoTOFactory repoTOFactory = new DefaultRepoTOFactory(compressionEnabled, cipherSpecs);
+		// Compression: --no-compression, Chunker: --chunker, --digest, Database: --database-format,
+		// Encryption format: --segmented-encryption; DefaultRepoTOFactory also creates default chunkers
+		RepoTOFactory repoTOFactory = new DefaultRepoTOFactory(compressionEnabled, cipherSpecs, chunkerType, digestAlgorithm, databaseFormat,
+				cipherStreamVersion);
 
 		// Genlink options: --short
 		GenlinkOperationOptions genlinkOptions = new GenlinkOperationOptions();
@@ -147,6 +160,15 @@ public class InitCommand extends AbstractInitCommand {
 		return operationOptions;
 	}
 
+	private DatabaseFormat parseDatabaseFormat(String databaseFormatStr) {
+		try {
+			return DatabaseFormat.valueOf(databaseFormatStr.toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown database format: " + databaseFormatStr + ". Must be 'xml' or 'binary'.");
+		}
+	}
+
 	private String validateAndGetPassword(OptionSet options, OptionSpec<Void> optionNoEncryption, OptionSpec<String> optionPassword) {
 		if (!isInteractive) {
 			if (options.has(optionPassword) && options.has(optionNoEncryption)) {
@@ -17,15 +17,23 @@
  */
 package org.syncany.chunk;
 
+import java.nio.ByteBuffer;
+
 /**
  * A chunk represents a certain part of a file. It is created during the
  * deduplication process by a {@link Chunker}. 
  * 
+ * <p>A chunk's contents are either held in a byte array, or in a (read-only) byte
+ * buffer, e.g. a slice of a memory-mapped file. In the latter case, the contents are
+ * only copied to a byte array when {@link #getContent()} is called, i.e. typically only
+ * if the chunk is new and has to be written to a multichunk.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Chunk {
     private byte[] checksum;
     private byte[] contents;
+    private ByteBuffer contentBuffer;
     private int size;
     private byte[] fileChecksum;
 
@@ -36,14 +44,35 @@ public class Chunk {
         this.fileChecksum = fileChecksum;
     }
 
+    /*package*/ Chunk(byte[] checksum, ByteBuffer contentBuffer, byte[] fileChecksum) {
+        this.checksum = checksum;
+        this.contentBuffer = contentBuffer;
+        this.size = contentBuffer.remaining();
+        this.fileChecksum = fileChecksum;
+    }
+
     public byte[] getChecksum() {
         return checksum;
     }
 
     public byte[] getContent() {
+        if (contents == null && contentBuffer != null) {
+            contents = new byte[size];
+            contentBuffer.duplicate().get(contents);
+        }
+
         return contents;
     }
 
+    /**
+     * Returns the buffer holding the chunk's contents, or <tt>null</tt>
+     * if the contents are held in a byte array. Unlike the array returned by
+     * {@link #getContent()}, the buffer is never reused by the chunker.
+     */
+    /*package*/ ByteBuffer getContentBuffer() {
+        return contentBuffer;
+    }
+
     public byte[] getFileChecksum() {
         return fileChecksum;
     }
@@ -0,0 +1,355 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The chunk prefetcher runs a {@link Chunker} on upcoming files using a pool of worker
+ * threads. It allows the {@link Deduper} to chunk and hash multiple files in parallel
+ * (both pure CPU work), while the deduper itself still processes the files and writes
+ * the multichunks strictly in the order of the file list.
+ *
+ * <p>Each worker hands its chunks to the deduper through a small bounded queue, so only
+ * a few chunks per in-flight file are held in memory. Since the deduper consumes the files
+ * one after the other, the chunk order within a file as well as the order of all
+ * {@link DeduperListener} callbacks are identical to sequential chunking.
+ *
+ * <p>Files are the unit of parallelism: A file is always chunked by a single worker, because
+ * chunk boundaries (e.g. of a content-defined chunker) depend on all preceding bytes of the
+ * file. The queue only lets a worker run a few chunks ahead of the deduper. Hence, a single
+ * large file is chunked at the speed of one
+ * thread; parallelism only helps when many files are indexed.
+ *
+ * <p>Because a worker starts chunking before the listener has looked at the file, the
+ * prefetcher remembers the size and last modified date of a file before chunking it. If
+ * they have changed when the deduper gets to the file, the prefetched chunks are thrown
+ * away and the file is chunked again by the calling thread.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ChunkPrefetcher {
+	private static final Logger logger = Logger.getLogger(ChunkPrefetcher.class.getSimpleName());
+
+	private static final int CHUNK_QUEUE_SIZE = 4;
+	private static final int MAX_LOOKAHEAD_PER_THREAD = 16;
+
+	private static final Chunk END_OF_FILE = new Chunk(null, null, 0, null);
+	private static final Chunk NULL_CHUNK = new Chunk(null, null, 0, null);
+
+	private Chunker chunker;
+	private int threadCount;
+
+	private ExecutorService executor;
+	private Map<File, PrefetchTask> prefetchedFiles;
+	private int runningTaskCount;
+
+	/**
+	 * Creates a new chunk prefetcher. The worker threads are only started
+	 * when the first file is prefetched.
+	 *
+	 * @param chunker Chunker used by the worker threads to break files into chunks
+	 * @param threadCount Number of worker threads (and thereby files) chunked in parallel
+	 */
+	public ChunkPrefetcher(Chunker chunker, int threadCount) {
+		this.chunker = chunker;
+		this.threadCount = threadCount;
+
+		this.executor = null;
+		this.prefetchedFiles = new HashMap<File, PrefetchTask>();
+		this.runningTaskCount = 0;
+	}
+
+	/**
+	 * Starts chunking the first regular files of the given list, but never more
+	 * files than there are worker threads. This method must be called by the deduper
+	 * before a file is taken off the list.
+	 *
+	 * <p>Only files at the head of the list are considered, because every prefetched file
+	 * holds a worker thread until the deduper has consumed all of its chunks.
+	 *
+	 * @param files List of files to be deduplicated (not modified)
+	 */
+	public void prefetch(List<File> files) {
+		int maxLookahead = threadCount * MAX_LOOKAHEAD_PER_THREAD;
+		int lookahead = 0;
+
+		for (File file : files) {
+			if (runningTaskCount >= threadCount || lookahead++ >= maxLookahead) {
+				break;
+			}
+
+			if (!prefetchedFiles.containsKey(file)) {
+				boolean isRegularFile = Files.isRegularFile(file.toPath(), LinkOption.NOFOLLOW_LINKS);
+
+				if (isRegularFile) {
+					PrefetchTask prefetchTask = new PrefetchTask(file);
+
+					getExecutor().submit(prefetchTask);
+					prefetchedFiles.put(file, prefetchTask);
+
+					runningTaskCount++;
+				}
+				else {
+					prefetchedFiles.put(file, null); // Remember that we looked at it
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns an enumeration of chunks for the given file. If the file has been
+	 * prefetched and has not changed since, the chunks are taken from the worker thread.
+	 * Otherwise, the file is chunked by the calling thread using the {@link Chunker}.
+	 *
+	 * <p>Like {@link Chunker#createChunks(File)}, this method throws an exception if
+	 * the file cannot be opened. The enumeration must be closed after processing.
+	 *
+	 * @param file The file that is supposed to be chunked
+	 * @return An enumeration of chunks, must be closed at the end of processing
+	 * @throws IOException If the file cannot be opened or read
+	 */
+	public ChunkEnumeration createChunks(File file) throws IOException {
+		PrefetchTask prefetchTask = removePrefetchTask(file);
+
+		if (prefetchTask != null) {
+			boolean fileUnchanged = prefetchTask.fileSize == file.length() && prefetchTask.fileLastModified == file.lastModified();
+
+			if (fileUnchanged) {
+				return prefetchTask.openEnumeration();
+			}
+			else {
+				logger.log(Level.FINE, "File {0} changed after it was prefetched; chunking it again.", file);
+				prefetchTask.cancel();
+			}
+		}
+
+		return chunker.createChunks(file);
+	}
+
+	/**
+	 * Discards the prefetched chunks of a file, e.g. because the deduper
+	 * decided not to deduplicate the file's contents.
+	 *
+	 * @param file File for which prefetched chunks (if any) should be discarded
+	 */
+	public void discard(File file) {
+		PrefetchTask prefetchTask = removePrefetchTask(file);
+
+		if (prefetchTask != null) {
+			prefetchTask.cancel();
+		}
+	}
+
+	/**
+	 * Cancels all running tasks and stops the worker threads. The prefetcher can
+	 * be used again afterwards; worker threads are re-created on demand.
+	 */
+	public void shutdown() {
+		for (PrefetchTask prefetchTask : prefetchedFiles.values()) {
+			if (prefetchTask != null) {
+				prefetchTask.cancel();
+			}
+		}
+
+		prefetchedFiles.clear();
+		runningTaskCount = 0;
+
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	private PrefetchTask removePrefetchTask(File file) {
+		PrefetchTask prefetchTask = prefetchedFiles.remove(file);
+
+		if (prefetchTask != null) {
+			runningTaskCount--;
+		}
+
+		return prefetchTask;
+	}
+
+	private ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder().setNameFormat("Chunker/%d").setDaemon(true).build());
+		}
+
+		return executor;
+	}
+
+	private class PrefetchTask implements Runnable {
+		private File file;
+		private long fileSize;
+		private long fileLastModified;
+
+		private BlockingQueue<Chunk> chunkQueue;
+		private volatile boolean cancelled;
+		private volatile Exception exception;
+
+		public PrefetchTask(File file) {
+			this.file = file;
+			this.fileSize = file.length();
+			this.fileLastModified = file.lastModified();
+
+			this.chunkQueue = new ArrayBlockingQueue<Chunk>(CHUNK_QUEUE_SIZE);
+			this.cancelled = false;
+			this.exception = null;
+		}
+
+		@Override
+		public void run() {
+			ChunkEnumeration chunkEnumeration = null;
+
+			try {
+				chunkEnumeration = chunker.createChunks(file);
+
+				while (!cancelled && chunkEnumeration.hasMoreElements()) {
+					Chunk chunk = chunkEnumeration.nextElement();
+
+					// Copy content, because chunkers may reuse their buffers (content buffers are never reused)
+					if (chunk != null && chunk.getContentBuffer() != null) {
+						enqueue(chunk);
+					}
+					else if (chunk != null) {
+						byte[] chunkContents = Arrays.copyOf(chunk.getContent(), chunk.getSize());
+						enqueue(new Chunk(chunk.getChecksum(), chunkContents, chunk.getSize(), chunk.getFileChecksum()));
+					}
+					else {
+						enqueue(NULL_CHUNK);
+					}
+				}
+			}
+			catch (Exception e) {
+				logger.log(Level.FINE, "Prefetching chunks for file " + file + " failed.", e);
+				exception = e;
+			}
+			finally {
+				if (chunkEnumeration != null) {
+					chunkEnumeration.close();
+				}
+
+				enqueue(END_OF_FILE);
+			}
+		}
+
+		private void enqueue(Chunk chunk) {
+			try {
+				while (!cancelled && !chunkQueue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+					// Wait for the deduper to take chunks (or cancel)
+				}
+			}
+			catch (InterruptedException e) {
+				cancelled = true;
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		public void cancel() {
+			cancelled = true;
+			chunkQueue.clear();
+		}
+
+		public ChunkEnumeration openEnumeration() throws IOException {
+			Chunk firstChunk = dequeue();
+
+			// Surface errors opening the file like Chunker.createChunks() would
+			if (firstChunk == END_OF_FILE && exception != null) {
+				if (exception instanceof IOException) {
+					throw (IOException) exception;
+				}
+				else {
+					throw new IOException("Cannot chunk file " + file, exception);
+				}
+			}
+
+			return new PrefetchedChunkEnumeration(this, firstChunk);
+		}
+
+		private Chunk dequeue() {
+			try {
+				return chunkQueue.take();
+			}
+			catch (InterruptedException e) {
+				cancel();
+				Thread.currentThread().interrupt();
+
+				throw new RuntimeException("Interrupted while waiting for chunks of file " + file, e);
+			}
+		}
+	}
+
+	private class PrefetchedChunkEnumeration implements ChunkEnumeration {
+		private PrefetchTask prefetchTask;
+		private Chunk nextChunk;
+
+		public PrefetchedChunkEnumeration(PrefetchTask prefetchTask, Chunk firstChunk) {
+			this.prefetchTask = prefetchTask;
+			this.nextChunk = firstChunk;
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			if (nextChunk == null) {
+				nextChunk = prefetchTask.dequeue();
+			}
+
+			if (nextChunk == END_OF_FILE && prefetchTask.exception != null) {
+				throw new RuntimeException("Error while chunking file " + prefetchTask.file, prefetchTask.exception);
+			}
+
+			return nextChunk != END_OF_FILE;
+		}
+
+		@Override
+		public Chunk nextElement() {
+			if (!hasMoreElements()) {
+				return null;
+			}
+
+			Chunk chunk = nextChunk;
+			nextChunk = null;
+
+			return (chunk != NULL_CHUNK) ? chunk : null;
+		}
+
+		@Override
+		public void close() {
+			prefetchTask.cancel();
+		}
+	}
+}
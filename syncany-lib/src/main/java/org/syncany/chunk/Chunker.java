@@ -19,7 +19,14 @@ package org.syncany.chunk;
 
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.util.StringUtil;
 
 /**
  * The chunker implements a core part of the deduplication process by breaking
@@ -32,11 +39,41 @@ import java.util.Enumeration;
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public abstract class Chunker {	
+	private static final Logger logger = Logger.getLogger(Chunker.class.getSimpleName());
+
 	/**
 	 * Property used by the config to indicate the exact or 
 	 * approximate size of a chunk. In bytes. 
 	 */
 	public static final String PROPERTY_SIZE = "size";
+
+	/**
+	 * Property used by the config to define the digest algorithm used for
+	 * the chunk and file checksums, e.g. <tt>SHA1</tt> or <tt>SHA-256</tt>. The
+	 * property is optional; chunkers default to <tt>SHA1</tt> if it is not set.
+	 */
+	public static final String PROPERTY_DIGEST = "digest";
+	
+	/**
+	 * Initializes the chunker using a settings map. Chunkers created with
+	 * {@link #getInstance(String) getInstance()} must be initialized using this
+	 * method before they can be used.
+	 * 
+	 * <br>
+	 * Required settings are: 
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_SIZE}, value: integer encoded as String 
+	 * </ul>
+	 * 
+	 * Optional settings are:
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_DIGEST}, value: name of a {@link MessageDigest} algorithm
+	 * </ul>
+	 * 
+	 * @param settings Chunker-specific settings (as defined in the repository config)
+	 * @throws IllegalArgumentException If a required setting is missing or invalid
+	 */
+	public abstract void init(Map<String, String> settings);
 	
     /**
      * Opens the given file and creates enumeration of {@link Chunk}s. This method 
@@ -61,9 +98,88 @@ public abstract class Chunker {
      * Returns the checksum algorithm used by the chunker to calculate the chunk
      * and file checksums. For the deduplication process to function properly,
      * the checksum algorithms of all chunkers must be equal. 
+     * 
+     * <p>The algorithm is a repository-wide setting (see {@link #PROPERTY_DIGEST}), so the
+     * length of the checksums differs between repositories (e.g. 20 bytes for <tt>SHA1</tt>,
+     * 32 bytes for <tt>SHA-256</tt>).
      */
     public abstract String getChecksumAlgorithm();
     
+	/**
+	 * Instantiates a chunker by its name using the default constructor. 
+	 * <br>
+	 * After creating a new chunker, it must be initialized using the 
+	 * {@link #init(Map) init()} method. The given type attribute is mapped to fully 
+	 * qualified class name (FQCN) of the form <tt>org.syncany.chunk.XChunker</tt>, 
+	 * where <tt>X</tt> is the camel-cased type attribute.  
+	 * 
+	 * @param type Type/name of the chunker (corresponds to its camel case class name)
+	 * @return a new chunker, or <tt>null</tt> if the chunker cannot be found
+	 */
+	public static Chunker getInstance(String type) {
+		String thisPackage = Chunker.class.getPackage().getName();
+		String camelCaseName = StringUtil.toCamelCase(type);
+		String fqClassName = thisPackage + "." + camelCaseName + Chunker.class.getSimpleName();
+
+		// Try to load!
+		try {
+			Class<?> clazz = Class.forName(fqClassName);
+			return (Chunker) clazz.newInstance();
+		}
+		catch (Exception ex) {
+			logger.log(Level.INFO, "Could not find chunker FQCN " + fqClassName, ex);
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads and parses the {@link #PROPERTY_SIZE size} property from the given settings.
+	 * 
+	 * @throws IllegalArgumentException If the property is missing or not a positive integer
+	 */
+	protected static int getSizeProperty(Map<String, String> settings) {
+		String size = (settings != null) ? settings.get(PROPERTY_SIZE) : null;
+
+		if (size == null) {
+			throw new IllegalArgumentException(String.format("Property %s must not be null.", PROPERTY_SIZE));
+		}
+
+		try {
+			int sizeInt = Integer.parseInt(size);
+
+			if (sizeInt <= 0) {
+				throw new IllegalArgumentException(String.format("Property %s must be greater than zero.", PROPERTY_SIZE));
+			}
+
+			return sizeInt;
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Property %s could not be parsed as Integer.", PROPERTY_SIZE));
+		}
+	}
+
+	/**
+	 * Reads the {@link #PROPERTY_DIGEST digest} property from the given settings, and
+	 * returns the given default algorithm if it is not set.
+	 * 
+	 * @throws IllegalArgumentException If the digest algorithm is not supported
+	 */
+	protected static String getDigestProperty(Map<String, String> settings, String defaultDigestAlgorithm) {
+		String digestAlgorithm = (settings != null) ? settings.get(PROPERTY_DIGEST) : null;
+
+		if (digestAlgorithm == null) {
+			return defaultDigestAlgorithm;
+		}
+
+		try {
+			MessageDigest.getInstance(digestAlgorithm);
+			return digestAlgorithm;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException(String.format("Property %s: unsupported digest algorithm %s.", PROPERTY_DIGEST, digestAlgorithm), e);
+		}
+	}
+    
     /**
      * The chunk enumeration is implemented by the actual chunkers and emits a new
      * chunk when {@link ChunkEnumeration#nextElement() nextElement()} is called. When no more 
@@ -50,24 +50,33 @@ public class CipherTransformer extends Transformer {
 	public static final String PROPERTY_CIPHER_SPECS = "cipherspecs";
 	public static final String PROPERTY_MASTER_KEY = "masterkey";
 	public static final String PROPERTY_MASTER_KEY_SALT = "mastersalt";
+	public static final String PROPERTY_STREAM_VERSION = "streamversion";
 	
 	private List<CipherSpec> cipherSpecs;
 	private CipherSession cipherSession;
+	private byte streamVersion;
 	
 	public CipherTransformer() {
 		this.cipherSpecs = new ArrayList<CipherSpec>();
 		this.cipherSession = null;
+		this.streamVersion = MultiCipherOutputStream.STREAM_VERSION;
 	}
 	
     public CipherTransformer(List<CipherSpec> cipherSpecs, SaltedSecretKey masterKey) {
+    	this(cipherSpecs, masterKey, MultiCipherOutputStream.STREAM_VERSION);
+    }    
+    
+    public CipherTransformer(List<CipherSpec> cipherSpecs, SaltedSecretKey masterKey, byte streamVersion) {
     	this.cipherSpecs = cipherSpecs;
     	this.cipherSession = new CipherSession(masterKey);
+    	this.streamVersion = streamVersion;
     }    
     
     /**
      * Initializes the cipher transformer using a settings map. Required settings
      * are: {@link #PROPERTY_CIPHER_SPECS}, {@link #PROPERTY_MASTER_KEY} and 
-     * {@link #PROPERTY_MASTER_KEY_SALT}.
+     * {@link #PROPERTY_MASTER_KEY_SALT}. The optional setting {@link #PROPERTY_STREAM_VERSION}
+     * selects the format written by the {@link MultiCipherOutputStream}; all formats can be read.
      */
     @Override
     public void init(Map<String, String> settings) throws Exception {
@@ -81,6 +90,7 @@ public class CipherTransformer extends Transformer {
     	
     	initCipherSpecs(cipherSpecsListStr);
     	initCipherSession(masterKeyStr, masterKeySaltStr);    	
+    	initStreamVersion(settings.get(PROPERTY_STREAM_VERSION));
     }
     
     private void initCipherSpecs(String cipherSpecListStr) throws Exception {
@@ -106,13 +116,23 @@ public class CipherTransformer extends Transformer {
 		cipherSession = new CipherSession(masterKey);
 	}
 
+	private void initStreamVersion(String streamVersionStr) throws Exception {
+		if (streamVersionStr != null) {
+			streamVersion = Byte.parseByte(streamVersionStr);
+			
+			if (streamVersion != MultiCipherOutputStream.STREAM_VERSION_UNSEGMENTED && streamVersion != MultiCipherOutputStream.STREAM_VERSION_SEGMENTED) {
+				throw new Exception("Unsupported cipher stream version '" + streamVersionStr + "'");
+			}
+		}
+	}
+
 	@Override
 	public OutputStream createOutputStream(OutputStream out) throws IOException {
 		if (cipherSession == null) {
 			throw new RuntimeException("Cipher session is not initialized. Call init() before!");
 		}
 		
-    	return new MultiCipherOutputStream(out, cipherSpecs, cipherSession);    	
+    	return new MultiCipherOutputStream(out, cipherSpecs, cipherSession, streamVersion, MultiCipherOutputStream.DEFAULT_SEGMENT_SIZE);    	
     }
 
     @Override
@@ -49,13 +49,30 @@ public class Deduper {
 	private Transformer transformer;
 	private long maxTotalSize;
 	private long maxNumberOfFiles;
+	private ChunkPrefetcher chunkPrefetcher;
 
 	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer, long maxTotalSize, long maxNumberOfFiles) {
+		this(chunker, multiChunker, transformer, maxTotalSize, maxNumberOfFiles, 1);
+	}
+
+	/**
+	 * Creates a new deduper. If more than one thread is given, files are chunked
+	 * and hashed in parallel by a {@link ChunkPrefetcher}. Multichunks are always written 
+	 * by the thread calling {@link #deduplicate(List, DeduperListener) deduplicate()}, and 
+	 * files are always processed in the order of the given file list.
+	 * 
+	 * <p>Note that the parallelism is per file: A single large file is chunked by one thread
+	 * only, so it does not benefit from more threads.
+	 * 
+	 * @param threadCount Number of threads used to chunk files (1 = no additional threads)
+	 */
+	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer, long maxTotalSize, long maxNumberOfFiles, int threadCount) {
 		this.chunker = chunker;
 		this.multiChunker = multiChunker;
 		this.transformer = transformer;
 		this.maxTotalSize = maxTotalSize;
 		this.maxNumberOfFiles = maxNumberOfFiles;
+		this.chunkPrefetcher = (threadCount > 1) ? new ChunkPrefetcher(chunker, threadCount) : null;
 	}
 	
 	/**
@@ -69,12 +86,32 @@ public class Deduper {
 	 * @throws IOException If a file cannot be read or an unexpected exception occurs
 	 */
 	public void deduplicate(List<File> files, DeduperListener listener) throws IOException {
+		try {
+			deduplicateFiles(files, listener);
+		}
+		catch (IOException | RuntimeException e) {
+			shutdownChunkPrefetcher();
+			throw e;
+		}
+
+		// Stop the worker threads once all files are processed, even if the transaction
+		// limit was reached on the last file (the caller does not call again in that case)
+		if (files.isEmpty()) {
+			shutdownChunkPrefetcher();
+		}
+	}
+
+	private void deduplicateFiles(List<File> files, DeduperListener listener) throws IOException {
 		Chunk chunk = null;
 		MultiChunk multiChunk = null;
 		long totalMultiChunkSize = 0L;
 		long totalNumFiles = 0L;
 		
 		while (!files.isEmpty()) {
+			if (chunkPrefetcher != null) {
+				chunkPrefetcher.prefetch(files);
+			}
+			
 			File file = files.remove(0);
 			totalNumFiles++;
 			
@@ -82,6 +119,7 @@ public class Deduper {
 			boolean fileAccepted = listener.onFileFilter(file);
 			
 			if (!fileAccepted) {
+				discardChunks(file);
 				continue;
 			}
 			
@@ -90,7 +128,7 @@ public class Deduper {
 
 			if (dedupContents) {
 				// Create chunks from file
-				ChunkEnumeration chunksEnum = chunker.createChunks(file);
+				ChunkEnumeration chunksEnum = createChunks(file);
 
 				while (chunksEnum.hasMoreElements()) {
 					chunk = chunksEnum.nextElement();
@@ -135,6 +173,9 @@ public class Deduper {
 				chunksEnum.close();
 
 			}
+			else {
+				discardChunks(file);
+			}
 
 			if (chunk != null) {			
 				listener.onFileEnd(file, chunk.getFileChecksum());
@@ -171,5 +212,26 @@ public class Deduper {
 		listener.onFinish();
 
 		return;
-	}	
+	}
+	
+	private ChunkEnumeration createChunks(File file) throws IOException {
+		if (chunkPrefetcher != null) {
+			return chunkPrefetcher.createChunks(file);
+		}
+		else {
+			return chunker.createChunks(file);
+		}
+	}
+	
+	private void discardChunks(File file) {
+		if (chunkPrefetcher != null) {
+			chunkPrefetcher.discard(file);
+		}
+	}
+	
+	private void shutdownChunkPrefetcher() {
+		if (chunkPrefetcher != null) {
+			chunkPrefetcher.shutdown();
+		}
+	}
 }
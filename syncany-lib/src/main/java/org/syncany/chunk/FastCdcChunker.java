@@ -0,0 +1,338 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The FastCDC chunker is a content-based {@link Chunker} that uses a gear-based
+ * rolling hash to determine chunk boundaries. It is based on the FastCDC algorithm
+ * by Wen Xia et al., 2016.
+ *
+ * <p>Like the {@link TttdChunker}, it breaks files at positions that depend on the
+ * content rather than the offset, so inserting or removing bytes only affects the chunks
+ * around the change. Compared to TTTD, it is much faster: the gear hash needs only a shift,
+ * an addition and a table lookup per byte, and the first bytes of every chunk (up to the
+ * minimum chunk size) are not hashed at all.
+ *
+ * <p>The chunker uses <i>normalized chunking</i> to keep the chunk sizes close to the
+ * average: Before the average chunk size is reached, a stricter mask (more bits) is used
+ * to find a breakpoint; afterwards, a looser mask is used. Chunks are never smaller than
+ * a quarter of the average size (except for the last chunk of a file), and never larger
+ * than eight times the average size.
+ *
+ * <p>Chunk boundaries only depend on the gear table and the average chunk size. The gear
+ * table is generated from a fixed seed and must never be changed, because all clients of
+ * a repository must produce the same chunks.
+ *
+ * @see <a href="https://www.usenix.org/conference/atc16/technical-sessions/presentation/xia">FastCDC: a Fast and Efficient Content-Defined Chunking Approach for Data Deduplication (2016, Wen Xia et al.)</a>
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class FastCdcChunker extends Chunker {
+	private static final Logger logger = Logger.getLogger(FastCdcChunker.class.getSimpleName());
+
+	public static final String TYPE = "fast-cdc";
+	public static final String DEFAULT_DIGEST_ALG = "SHA1";
+
+	private static final int MIN_SIZE_DIVISOR = 4;
+	private static final int MAX_SIZE_MULTIPLIER = 8;
+	private static final int NORMALIZATION_LEVEL = 2;
+	private static final long GEAR_SEED = 0x5379636e616e7921L; // "Syncany!"
+	private static final long[] GEAR = createGearTable(GEAR_SEED);
+
+	private int avgChunkSize;
+	private int minChunkSize;
+	private int maxChunkSize;
+	private long maskS;
+	private long maskL;
+	private String checksumAlgorithm;
+
+	/**
+	 * Creates a new FastCDC chunker without setting the chunk size. The chunker
+	 * must be initialized using {@link #init(Map) init()} before it can be used.
+	 */
+	public FastCdcChunker() {
+		this.checksumAlgorithm = DEFAULT_DIGEST_ALG;
+	}
+
+	/**
+	 * Creates a new FastCDC chunker with the default file/chunk checksum algorithm SHA1.
+	 *
+	 * @param avgChunkSize Average (expected) size of a chunk in bytes
+	 */
+	public FastCdcChunker(int avgChunkSize) {
+		this(avgChunkSize, DEFAULT_DIGEST_ALG);
+	}
+
+	/**
+	 * Creates a new FastCDC chunker.
+	 *
+	 * @param avgChunkSize Average (expected) size of a chunk in bytes
+	 * @param checksumAlgorithm Algorithm to calculate the chunk and file checksums (e.g. SHA1, MD5)
+	 */
+	public FastCdcChunker(int avgChunkSize, String checksumAlgorithm) {
+		this.checksumAlgorithm = checksumAlgorithm;
+		init(avgChunkSize);
+	}
+
+	/**
+	 * Initializes the chunker from the repository settings. The {@link #PROPERTY_SIZE size}
+	 * property is the average chunk size in bytes.
+	 */
+	@Override
+	public void init(Map<String, String> settings) {
+		this.checksumAlgorithm = getDigestProperty(settings, DEFAULT_DIGEST_ALG);
+		init(getSizeProperty(settings));
+	}
+
+	private void init(int avgChunkSize) {
+		int bits = 31 - Integer.numberOfLeadingZeros(avgChunkSize); // floor(log2(avg))
+
+		if (bits < 6) {
+			throw new IllegalArgumentException("Average chunk size must be at least 64 bytes.");
+		}
+
+		this.avgChunkSize = avgChunkSize;
+		this.minChunkSize = avgChunkSize / MIN_SIZE_DIVISOR;
+		this.maxChunkSize = avgChunkSize * MAX_SIZE_MULTIPLIER;
+		this.maskS = createMask(bits + NORMALIZATION_LEVEL);
+		this.maskL = createMask(bits - NORMALIZATION_LEVEL);
+	}
+
+	@Override
+	public ChunkEnumeration createChunks(File file) throws IOException {
+		return new FastCdcEnumeration(new FileInputStream(file));
+	}
+
+	@Override
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	@Override
+	public String toString() {
+		return "FastCDC-" + avgChunkSize + "-" + checksumAlgorithm;
+	}
+
+	/**
+	 * Returns the length of the next chunk in the given buffer, i.e. the offset of the
+	 * next breakpoint relative to <tt>offset</tt>.
+	 *
+	 * @param buffer Buffer holding the data to be chunked
+	 * @param offset Position in the buffer at which the chunk starts
+	 * @param length Number of bytes available (or left in the file)
+	 * @return Returns the size of the next chunk
+	 */
+	protected int findBreakpoint(byte[] buffer, int offset, int length) {
+		if (length <= minChunkSize) {
+			return length;
+		}
+
+		int end = Math.min(length, maxChunkSize);
+		int normalEnd = Math.min(end, avgChunkSize);
+
+		long hash = 0;
+		int i = minChunkSize;
+
+		for (; i < normalEnd; i++) {
+			hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+
+			if ((hash & maskS) == 0) {
+				return i + 1;
+			}
+		}
+
+		for (; i < end; i++) {
+			hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+
+			if ((hash & maskL) == 0) {
+				return i + 1;
+			}
+		}
+
+		return end;
+	}
+
+	/**
+	 * Creates a mask with the given number of bits set, using the most significant bits
+	 * of the hash. The gear hash shifts older bytes towards the high bits, so the top bits
+	 * depend on the last 64 bytes, whereas the low bits only depend on the last few bytes.
+	 */
+	private static long createMask(int bits) {
+		return -1L << (64 - bits);
+	}
+
+	/**
+	 * Creates the gear table using the SplitMix64 generator. The generator is implemented
+	 * here (instead of using {@link java.util.Random}) to make the table independent of
+	 * any library implementation.
+	 */
+	private static long[] createGearTable(long seed) {
+		long[] gear = new long[256];
+		long state = seed;
+
+		for (int i = 0; i < gear.length; i++) {
+			state += 0x9e3779b97f4a7c15L;
+
+			long z = state;
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+			gear[i] = z ^ (z >>> 31);
+		}
+
+		return gear;
+	}
+
+	/**
+	 * Chunk enumeration for the FastCDC chunker. The enumeration reads the input
+	 * stream in large blocks, and reuses a single chunk buffer, i.e. the contents of
+	 * an emitted {@link Chunk} are only valid until the next call to {@link #nextElement()}.
+	 */
+	public class FastCdcEnumeration implements ChunkEnumeration {
+		private InputStream in;
+		private boolean endOfStream;
+		private boolean closed;
+
+		private byte[] buffer;
+		private int bufferPos;
+		private int bufferLimit;
+		private byte[] chunkBuffer;
+
+		private MessageDigest chunkDigest;
+		private MessageDigest fileDigest;
+
+		public FastCdcEnumeration(InputStream in) {
+			this.in = in;
+			this.endOfStream = false;
+			this.closed = false;
+
+			this.buffer = new byte[Math.max(2 * maxChunkSize, 128 * 1024)];
+			this.bufferPos = 0;
+			this.bufferLimit = 0;
+			this.chunkBuffer = new byte[maxChunkSize];
+
+			try {
+				this.chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
+				this.fileDigest = MessageDigest.getInstance(checksumAlgorithm);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			if (closed) {
+				return false;
+			}
+
+			try {
+				fillBuffer();
+				return bufferLimit > bufferPos;
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Error while reading from file input stream.", e);
+				return false;
+			}
+		}
+
+		@Override
+		public Chunk nextElement() {
+			try {
+				if (!hasMoreElements()) {
+					return null;
+				}
+
+				int chunkSize = findBreakpoint(buffer, bufferPos, bufferLimit - bufferPos);
+
+				System.arraycopy(buffer, bufferPos, chunkBuffer, 0, chunkSize);
+				bufferPos += chunkSize;
+
+				// Chunk checksum
+				chunkDigest.reset();
+				chunkDigest.update(chunkBuffer, 0, chunkSize);
+
+				// File checksum (if this was the last chunk)
+				fileDigest.update(chunkBuffer, 0, chunkSize);
+				fillBuffer();
+
+				byte[] fileChecksum = null;
+
+				if (bufferPos == bufferLimit) {
+					fileChecksum = fileDigest.digest();
+					close();
+				}
+
+				return new Chunk(chunkDigest.digest(), chunkBuffer, chunkSize, fileChecksum);
+			}
+			catch (IOException e) {
+				logger.log(Level.SEVERE, "Error while retrieving next chunk.", e);
+				return null;
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				logger.log(Level.INFO, "Error while closing", e);
+			}
+		}
+
+		/**
+		 * Makes sure that at least <tt>maxChunkSize</tt> bytes are available in the buffer,
+		 * unless the end of the stream has been reached.
+		 */
+		private void fillBuffer() throws IOException {
+			if (endOfStream || bufferLimit - bufferPos >= maxChunkSize) {
+				return;
+			}
+
+			// Move remaining bytes to the beginning of the buffer
+			int remaining = bufferLimit - bufferPos;
+
+			System.arraycopy(buffer, bufferPos, buffer, 0, remaining);
+			bufferPos = 0;
+			bufferLimit = remaining;
+
+			// Fill the rest of the buffer
+			while (bufferLimit < buffer.length) {
+				int read = in.read(buffer, bufferLimit, buffer.length - bufferLimit);
+
+				if (read == -1) {
+					endOfStream = true;
+					break;
+				}
+
+				bufferLimit += read;
+			}
+		}
+	}
+}
@@ -21,10 +21,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.syncany.util.EnvironmentUtil;
+
 /**
  * The fixed chunker is an implementation of the {@link Chunker}. It implements a simple
  * fixed-offset chunking, i.e. it breaks files at multiples of the given chunk size
@@ -33,6 +41,13 @@ import java.util.logging.Logger;
  * <p>While it is very fast due to its offset-based approach (and not content-based), it
  * performs very badly when bytes are added or removed from the beginning of a file.
  *
+ * <p>Files larger than the {@link #setMemoryMapThreshold(long) memory map threshold} are
+ * memory-mapped instead of read through a stream. Chunk and file checksums are then
+ * calculated directly from the mapped buffer, and a chunk's contents are only copied to the
+ * heap if the chunk is new and needs to be written to a multichunk (see {@link Chunk}).
+ * Memory-mapping is disabled by default on Windows, because a mapped file cannot be
+ * modified or deleted by other applications until it is unmapped by the garbage collector.
+ *
  * <p>Details can be found in chapter 3.4 of the thesis at <a href="http://blog.philippheckel.com/2013/05/20/minimizing-remote-storage-usage-and-synchronization-time-using-deduplication-and-multichunking-syncany-as-an-example/3/#Fixed-Size%20Chunking">blog.philippheckel.com</a>.
  * The <tt>FixedChunker</tt> implements the chunker described in chapter 3.4.2.
  *
@@ -44,8 +59,21 @@ public class FixedChunker extends Chunker {
 	public static final String DEFAULT_DIGEST_ALG = "SHA1";
 	public static final String TYPE = "fixed";
 
+	public static final long DEFAULT_MEMORY_MAP_THRESHOLD = (EnvironmentUtil.isWindows()) ? -1 : 16 * 1024 * 1024;
+	private static final long MAX_MEMORY_MAP_WINDOW_SIZE = 128 * 1024 * 1024;
+
 	private int chunkSize;
 	private String checksumAlgorithm;
+	private long memoryMapThreshold;
+
+	/**
+	 * Creates a new fixed offset chunker without setting the chunk size. The chunker
+	 * must be initialized using {@link #init(Map) init()} before it can be used.
+	 */
+	public FixedChunker() {
+		this.checksumAlgorithm = DEFAULT_DIGEST_ALG;
+		this.memoryMapThreshold = DEFAULT_MEMORY_MAP_THRESHOLD;
+	}
 
 	/**
 	 * Creates a new fixed offset chunker with the default file/chunk 
@@ -66,11 +94,37 @@ public class FixedChunker extends Chunker {
 	public FixedChunker(int chunkSize, String checksumAlgorithm) {
 		this.chunkSize = chunkSize;
 		this.checksumAlgorithm = checksumAlgorithm;
+		this.memoryMapThreshold = DEFAULT_MEMORY_MAP_THRESHOLD;
+	}
+
+	@Override
+	public void init(Map<String, String> settings) {
+		this.chunkSize = getSizeProperty(settings);
+		this.checksumAlgorithm = getDigestProperty(settings, DEFAULT_DIGEST_ALG);
+	}
+
+	/**
+	 * Sets the minimum size of a file (in bytes) for it to be memory-mapped
+	 * instead of read through a stream. A negative value disables memory-mapping.
+	 *
+	 * @param memoryMapThreshold Minimum file size for memory-mapping, or -1 to disable it
+	 */
+	public void setMemoryMapThreshold(long memoryMapThreshold) {
+		this.memoryMapThreshold = memoryMapThreshold;
+	}
+
+	public long getMemoryMapThreshold() {
+		return memoryMapThreshold;
 	}
 
 	@Override
 	public ChunkEnumeration createChunks(File file) throws IOException {
-		return new FixedChunkEnumeration(new FileInputStream(file));
+		if (memoryMapThreshold >= 0 && file.length() >= memoryMapThreshold) {
+			return new MappedFixedChunkEnumeration(file);
+		}
+		else {
+			return new FixedChunkEnumeration(new FileInputStream(file));
+		}
 	}
 
 	@Override
@@ -167,4 +221,112 @@ public class FixedChunker extends Chunker {
 			}
 		}
 	}
+
+	/**
+	 * Chunk enumeration for memory-mapped files. The file is mapped in windows of up to
+	 * 128 MB (a multiple of the chunk size, so that chunks never span two windows), and
+	 * each chunk is a read-only slice of the window.
+	 *
+	 * <p>The enumeration only chunks the bytes that existed when the file was opened. If the file
+	 * is truncated while it is being chunked, accessing the mapped buffer may fail with an
+	 * {@link InternalError}, which is treated like an I/O error.
+	 */
+	public class MappedFixedChunkEnumeration implements ChunkEnumeration {
+		private MessageDigest digest;
+		private MessageDigest fileDigest;
+
+		private FileChannel channel;
+		private long fileSize;
+		private long position;
+		private long windowSize;
+
+		private MappedByteBuffer window;
+		private long windowOffset;
+		private boolean closed;
+
+		public MappedFixedChunkEnumeration(File file) throws IOException {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			this.fileSize = channel.size();
+			this.position = 0;
+			this.windowSize = Math.max(1, MAX_MEMORY_MAP_WINDOW_SIZE / chunkSize) * chunkSize;
+
+			this.window = null;
+			this.windowOffset = 0;
+			this.closed = false;
+
+			try {
+				this.digest = MessageDigest.getInstance(checksumAlgorithm);
+				this.fileDigest = MessageDigest.getInstance(checksumAlgorithm);
+			}
+			catch (Exception e) {
+				close();
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			return !closed && position < fileSize;
+		}
+
+		@Override
+		public Chunk nextElement() {
+			if (!hasMoreElements()) {
+				return null;
+			}
+
+			try {
+				int read = (int) Math.min(chunkSize, fileSize - position);
+
+				// Map next window (if necessary)
+				if (window == null || position >= windowOffset + window.capacity()) {
+					windowOffset = position;
+					window = channel.map(MapMode.READ_ONLY, windowOffset, Math.min(windowSize, fileSize - windowOffset));
+				}
+
+				ByteBuffer chunkBuffer = window.duplicate();
+				chunkBuffer.position((int) (position - windowOffset));
+				chunkBuffer.limit(chunkBuffer.position() + read);
+				chunkBuffer = chunkBuffer.slice().asReadOnlyBuffer();
+
+				position += read;
+
+				// Chunk checksum
+				digest.reset();
+				digest.update(chunkBuffer.duplicate());
+
+				// File checksum
+				fileDigest.update(chunkBuffer.duplicate());
+				byte[] fileChecksum = null;
+
+				// Close if this was the last bytes
+				if (position == fileSize) {
+					fileChecksum = fileDigest.digest();
+					close();
+				}
+
+				// Create chunk
+				return new Chunk(digest.digest(), chunkBuffer, fileChecksum);
+			}
+			catch (IOException | InternalError e) {
+				logger.log(Level.SEVERE, "Error while retrieving next chunk.", e);
+				close();
+
+				return null;
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			window = null;
+
+			try {
+				channel.close(); // Chunk buffers remain valid after closing the channel
+			}
+			catch (IOException e) {
+				logger.log(Level.INFO, "Error while closing", e);
+			}
+		}
+	}
 }
@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,10 +57,13 @@ import java.util.logging.Logger;
 public class TttdChunker extends Chunker {
 	private static final Logger logger = Logger.getLogger(TttdChunker.class.getSimpleName());
 
+	public static final String TYPE = "tttd";
 	public static final int DEFAULT_WINDOW_SIZE = 48; // like LBFS
 	public static final String DEFAULT_DIGEST_ALG = "SHA1";
 	public static final String DEFAULT_FINGERPRINT_ALG = "Adler32";
 
+	private static final int READ_BUFFER_SIZE = 128 * 1024;
+
 	private int Tmin;
 	private int Tmax;
 	private int D;
@@ -69,6 +73,14 @@ public class TttdChunker extends Chunker {
 	private String fingerprintAlgorithm;
 	private String name;
 
+	/**
+	 * Creates a new TTTD chunker without setting the chunk size parameters. The chunker
+	 * must be initialized using {@link #init(Map) init()} before it can be used.
+	 */
+	public TttdChunker() {
+		// Nothing.
+	}
+
 	public TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize) {
 		this(Tmin, Tmax, D, Ddash, windowSize, DEFAULT_DIGEST_ALG, DEFAULT_FINGERPRINT_ALG);
 	}
@@ -86,12 +98,7 @@ public class TttdChunker extends Chunker {
 	 * LBFS: avg. chunk size = 1015 bytes --> Tmin = 460, Tmax = 2800, D = 540, Ddash = 270
 	 */
 	public TttdChunker(int avgChunkSize, int windowSize, String digestAlg, String fingerprintAlg) {
-		this(
-				/* Tmin */(int) Math.round(460.0 * avgChunkSize / 1015.0),
-				/* Tmax */(int) Math.round(2800.0 * avgChunkSize / 1015.0),
-				/*   D  */(int) Math.round(540.0 * avgChunkSize / 1015.0),
-				/*   D  */(int) Math.round(270.0 * avgChunkSize / 1015.0),
-				/* rest */windowSize, digestAlg, fingerprintAlg, "TTTD-" + avgChunkSize + "-" + digestAlg + "-" + fingerprintAlg);
+		init(avgChunkSize, windowSize, digestAlg, fingerprintAlg);
 	}
 
 	public TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg) {
@@ -100,6 +107,29 @@ public class TttdChunker extends Chunker {
 	}
 
 	private TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg, String name) {
+		init(Tmin, Tmax, D, Ddash, windowSize, digestAlg, fingerprintAlg, name);
+	}
+
+	/**
+	 * Initializes the chunker from the repository settings. The {@link #PROPERTY_SIZE size}
+	 * property is the average chunk size in bytes; all other TTTD parameters are derived from
+	 * it (see {@link #TttdChunker(int, int, String, String)}). 
+	 */
+	@Override
+	public void init(Map<String, String> settings) {
+		init(getSizeProperty(settings), DEFAULT_WINDOW_SIZE, getDigestProperty(settings, DEFAULT_DIGEST_ALG), DEFAULT_FINGERPRINT_ALG);
+	}
+
+	private void init(int avgChunkSize, int windowSize, String digestAlg, String fingerprintAlg) {
+		init(
+				/* Tmin */(int) Math.round(460.0 * avgChunkSize / 1015.0),
+				/* Tmax */(int) Math.round(2800.0 * avgChunkSize / 1015.0),
+				/*   D  */(int) Math.round(540.0 * avgChunkSize / 1015.0),
+				/*   D  */(int) Math.round(270.0 * avgChunkSize / 1015.0),
+				/* rest */windowSize, digestAlg, fingerprintAlg, "TTTD-" + avgChunkSize + "-" + digestAlg + "-" + fingerprintAlg);
+	}
+
+	private void init(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg, String name) {
 		this.Tmin = Tmin;
 		this.Tmax = Tmax;
 		this.D = D;
@@ -129,12 +159,19 @@ public class TttdChunker extends Chunker {
 		return name;
 	}
 
+	/**
+	 * Chunk enumeration for the TTTD chunker. The enumeration reads the underlying input
+	 * stream in large blocks and reuses a single chunk buffer of size <tt>Tmax</tt>, i.e.
+	 * the contents of an emitted {@link Chunk} are only valid until the next call to
+	 * {@link #nextElement()}.
+	 */
 	public class TTTDEnumeration implements ChunkEnumeration {
 		private InputStream in;
 		private boolean closed;
 		private byte[] c;
 		private int clen;
 		private int cpos;
+		private byte[] buf;
 
 		private MessageDigest chunkDigest;
 		private MessageDigest fileDigest;
@@ -143,9 +180,10 @@ public class TttdChunker extends Chunker {
 		public TTTDEnumeration(InputStream in) throws IOException {
 			this.in = in;
 			this.closed = false;
-			this.c = new byte[8192];
-			this.clen = -1;
-			this.cpos = -1;
+			this.c = new byte[READ_BUFFER_SIZE];
+			this.clen = 0;
+			this.cpos = 0;
+			this.buf = new byte[Tmax];
 
 			try {
 				fingerprinter = Fingerprinter.getInstance(fingerprintAlgorithm);
@@ -164,6 +202,14 @@ public class TttdChunker extends Chunker {
 			return !closed;
 		}
 
+		/**
+		 * Returns the next chunk. A chunk is cut when the fingerprint of the window
+		 * satisfies the divisor <i>D</i>, or when <tt>Tmax</tt> bytes have been read.
+		 *
+		 * <p>Note: The backup divisor <i>D'</i> is never applied, because a chunk is always cut at
+		 * <tt>Tmax</tt> before the backup breakpoint could be used. This is how this chunker has always
+		 * behaved, and it must stay that way to produce the same chunk boundaries as before.
+		 */
 		@Override
 		public Chunk nextElement() {
 			if (closed) {
@@ -174,87 +220,74 @@ public class TttdChunker extends Chunker {
 			fingerprinter.reset();
 
 			try {
-				int backupBreak = 0;
-				int breakpoint = -1;
-
-				byte[] buf = new byte[Tmax];
 				int bufpos = -1;
+				boolean endOfStream = false;
 
 				while (bufpos < buf.length - 1) {
-					if (cpos == -1 || cpos == clen - 1) {
-						cpos = -1;
-						clen = readFromInputStreamFixed(c, in);//in.read(c);
+					if (cpos == clen) {
+						cpos = 0;
+						clen = readFully(c, in);
 
 						if (clen == -1) {
+							endOfStream = true;
 							break;
 						}
 
 						fileDigest.update(c, 0, clen);
 					}
 
-					bufpos++;
-					cpos++;
-					buf[bufpos] = c[cpos];
+					// Bytes before Tmin are never checked for breakpoints; copy them at once
+					if (bufpos + 1 < Tmin) {
+						int length = Math.min(Tmin - (bufpos + 1), clen - cpos);
+
+						System.arraycopy(c, cpos, buf, bufpos + 1, length);
+
+						bufpos += length;
+						cpos += length;
 
-					if (bufpos < Tmin) {
 						continue;
 					}
-					else if (bufpos == Tmin) {
-						fingerprinter.check(buf, bufpos - windowSize, windowSize);
-					}
-					else {
-						fingerprinter.roll(buf[bufpos]);
-					}
 
-					int hash = fingerprinter.getValue();
+					// Check for breakpoint after each byte
+					boolean breakpointFound = false;
 
-					// The value of r (right side) plays no role! #39  
-					if ((hash % Ddash) == Ddash - 1) {
-						backupBreak = bufpos;
-					}
+					while (bufpos < buf.length - 1 && cpos < clen) {
+						bufpos++;
+						buf[bufpos] = c[cpos++];
 
-					if ((hash % D) == D - 1) {
-						breakpoint = bufpos;
-						break;
-					}
+						if (bufpos == Tmin) {
+							fingerprinter.check(buf, bufpos - windowSize, windowSize);
+						}
+						else {
+							fingerprinter.roll(buf[bufpos]);
+						}
 
-					if (bufpos < Tmax) {
-						continue;
+						// The value of r (right side) plays no role! #39
+						if ((fingerprinter.getValue() % D) == D - 1) {
+							breakpointFound = true;
+							break;
+						}
 					}
 
-					if (backupBreak != 0) {
-						breakpoint = backupBreak;
-						break;
-					}
-					else {
-						breakpoint = bufpos;
+					if (breakpointFound) {
 						break;
 					}
 				}
 
 				// Close if this was the last bytes
-				if (clen == -1) {
+				if (endOfStream) {
 					in.close();
 					closed = true;
 				}
 
-				// EOF as breakpoint
-				if (breakpoint == -1) {
-					breakpoint = bufpos;
-				}
-
-				// Increase breakpoint
-				breakpoint++;
-
 				// Create chunk
-				chunkDigest.update(buf, 0, breakpoint);
+				int chunkSize = bufpos + 1;
+				chunkDigest.update(buf, 0, chunkSize);
 
 				byte[] chunkChecksum = chunkDigest.digest();
-				byte[] chunkContents = buf;
-				int chunkSize = breakpoint;
-				byte[] fileChecksum = (clen == -1) ? fileDigest.digest() : null;
+				byte[] fileChecksum = (endOfStream) ? fileDigest.digest() : null;
 
-				return new Chunk(chunkChecksum, chunkContents, chunkSize, fileChecksum);
+				return new Chunk(chunkChecksum, buf, chunkSize, fileChecksum);
 			}
 			catch (IOException ex) {
 				logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
@@ -273,21 +306,23 @@ public class TttdChunker extends Chunker {
 		}
 
 		/**
-		 * Fixes the read errors occurring with Cipher streams in the standard
-		 * Java read implementation.
+		 * Fills the given buffer from the input stream, using as many bulk reads as necessary.
+		 * Some streams (e.g. cipher streams) return less bytes than requested even if the end
+		 * of the stream has not been reached yet.
+		 *
+		 * @return Returns the number of bytes read, or -1 if the end of the stream has been reached
 		 */
-		private int readFromInputStreamFixed(byte[] readToBuffer, InputStream inputStream) throws IOException {
+		private int readFully(byte[] readToBuffer, InputStream inputStream) throws IOException {
 			int bytesRead = 0;
 
 			while (bytesRead < readToBuffer.length) {
-				int byteRead = inputStream.read();
+				int read = inputStream.read(readToBuffer, bytesRead, readToBuffer.length - bytesRead);
 
-				if (byteRead == -1) {
-					return (bytesRead != 0) ? bytesRead : -1;
+				if (read == -1) {
+					break;
 				}
 
-				readToBuffer[bytesRead] = (byte) byteRead;
-				bytesRead++;
+				bytesRead += read;
 			}
 
 			return (bytesRead != 0) ? bytesRead : -1;
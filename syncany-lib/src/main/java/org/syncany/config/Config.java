@@ -29,11 +29,14 @@ import org.syncany.chunk.NoTransformer;
 import org.syncany.chunk.Transformer;
 import org.syncany.config.to.ConfigTO;
 import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.MultiChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.database.DatabaseConnectionFactory;
+import org.syncany.database.DatabaseConnectionPool;
 import org.syncany.database.VectorClock;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseFormat;
 import org.syncany.plugins.Plugins;
 import org.syncany.plugins.transfer.TransferPlugin;
 import org.syncany.plugins.transfer.TransferSettings;
@@ -67,6 +70,7 @@ public class Config {
 
 	// File in .syncany/db
 	public static final String FILE_DATABASE = "local.db";
+	public static final String FILE_CHUNK_INDEX = "chunkindex";
 
 	// Files in .syncany/state
 	public static final String FILE_PORT = "port.xml";
@@ -76,6 +80,11 @@ public class Config {
 	public static final String FILE_TRANSACTION_DATABASE_PATTERN = "transaction-database.%010d.xml";
 	public static final String FILE_TRANSACTION_LIST = "transaction-list.txt";
 
+	// Repositories created before the chunker was configurable contain a placeholder
+	// chunker config ('fixed', size 16), but were always chunked with a 512 KB fixed chunker
+	private static final String LEGACY_CHUNKER_SIZE = "16";
+	private static final int LEGACY_CHUNK_SIZE = 512 * 1024;
+
 	private byte[] repoId;
 	private String machineName;
 	private String displayName;
@@ -94,7 +103,9 @@ public class Config {
 	private Chunker chunker;
 	private MultiChunker multiChunker;
 	private Transformer transformer;
+	private DatabaseFormat databaseFormat;
 	private IgnoredFiles ignoredFiles;
+	private DatabaseConnectionPool databaseConnectionPool;
 
 	static {
 		UserConfig.init();
@@ -148,25 +159,56 @@ public class Config {
 
 	private void initRepo(RepoTO repoTO) throws ConfigException {
 		try {
+			initFormatVersion(repoTO);
 			initRepoId(repoTO);
 			initChunker(repoTO);
 			initMultiChunker(repoTO);
 			initTransformers(repoTO);
+			initDatabaseFormat(repoTO);
 		}
 		catch (Exception e) {
 			throw new ConfigException("Unable to initialize repository information from config.", e);
 		}
 	}
 
+	private void initFormatVersion(RepoTO repoTO) throws ConfigException {
+		Integer formatVersion = repoTO.getFormatVersion();
+
+		if (formatVersion != null && formatVersion > RepoTO.FORMAT_VERSION_SUPPORTED) {
+			throw new ConfigException("Repository format version " + formatVersion + " is not supported by this client (max. version "
+					+ RepoTO.FORMAT_VERSION_SUPPORTED + "). Please upgrade Syncany.");
+		}
+	}
+
 	private void initRepoId(RepoTO repoTO) {
 		repoId = repoTO.getRepoId();
 	}
 
-	private void initChunker(RepoTO repoTO) throws Exception {
-		// TODO [feature request] make chunking options configurable, something like described in #29
-		// See: https://github.com/syncany/syncany/issues/29#issuecomment-43425647
+	private void initChunker(RepoTO repoTO) throws ConfigException {
+		ChunkerTO chunkerTO = repoTO.getChunkerTO();
+
+		if (chunkerTO == null || isLegacyChunker(chunkerTO)) {
+			chunker = new FixedChunker(LEGACY_CHUNK_SIZE, FixedChunker.DEFAULT_DIGEST_ALG);
+			return;
+		}
+
+		chunker = Chunker.getInstance(chunkerTO.getType());
+
+		if (chunker == null) {
+			throw new ConfigException("Invalid chunker type or settings: " + chunkerTO.getType());
+		}
+
+		try {
+			chunker.init(chunkerTO.getSettings());
+		}
+		catch (IllegalArgumentException e) {
+			throw new ConfigException("Chunker settings of repository are not supported by this client: " + e.getMessage(), e);
+		}
+	}
 
-		chunker = new FixedChunker(512 * 1024, "SHA1");
+	private boolean isLegacyChunker(ChunkerTO chunkerTO) {
+		return FixedChunker.TYPE.equals(chunkerTO.getType()) && chunkerTO.getSettings() != null
+				&& LEGACY_CHUNKER_SIZE.equals(chunkerTO.getSettings().get(Chunker.PROPERTY_SIZE));
 	}
 
 	private void initMultiChunker(RepoTO repoTO) throws ConfigException {
@@ -204,6 +246,10 @@ public class Config {
 				if (transformer instanceof CipherTransformer) { // Dirty workaround
 					transformerTO.getSettings().put(CipherTransformer.PROPERTY_MASTER_KEY, StringUtil.toHex(getMasterKey().getEncoded()));
 					transformerTO.getSettings().put(CipherTransformer.PROPERTY_MASTER_KEY_SALT, StringUtil.toHex(getMasterKey().getSalt()));
+
+					if (repoTO.getCipherStreamVersion() != null) {
+						transformerTO.getSettings().put(CipherTransformer.PROPERTY_STREAM_VERSION, repoTO.getCipherStreamVersion().toString());
+					}
 				}
 
 				transformer.init(transformerTO.getSettings());
@@ -219,6 +265,10 @@ public class Config {
 		}
 	}
 
+	private void initDatabaseFormat(RepoTO repoTO) {
+		databaseFormat = (repoTO.getDatabaseFormat() != null) ? repoTO.getDatabaseFormat() : DatabaseFormat.XML;
+	}
+
 	private void initConnection(ConfigTO configTO) throws ConfigException {
 		if (configTO.getTransferSettings() != null) {
 			plugin = Plugins.get(configTO.getTransferSettings().getType(), TransferPlugin.class);
@@ -244,6 +294,18 @@ public class Config {
 		return DatabaseConnectionFactory.createConnection(getDatabaseFile(), readOnly);
 	}
 
+	/**
+	 * Returns the connection pool for the local database of this folder. The pool
+	 * is shared by all operations and daemon request handlers using this config.
+	 */
+	public synchronized DatabaseConnectionPool getDatabaseConnectionPool() {
+		if (databaseConnectionPool == null) {
+			databaseConnectionPool = new DatabaseConnectionPool(getDatabaseFile());
+		}
+
+		return databaseConnectionPool;
+	}
+
 	public File getCacheDir() {
 		return cacheDir;
 	}
@@ -308,6 +370,10 @@ public class Config {
 		return transformer;
 	}
 
+	public DatabaseFormat getDatabaseFormat() {
+		return databaseFormat;
+	}
+
 	public void setCache(Cache cache) {
 		this.cache = cache;
 	}
@@ -336,6 +402,10 @@ public class Config {
 		return new File(databaseDir, FILE_DATABASE);
 	}
 
+	public File getChunkIndexFile() {
+		return new File(databaseDir, FILE_CHUNK_INDEX);
+	}
+
 	public File getPortFile() {
 		return new File(stateDir, FILE_PORT);
 	}
@@ -19,29 +19,58 @@ package org.syncany.config;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * This class serves as a container of patterns of filenames
  * that should be ignored.
  *
+ * <p>Exact paths and names are kept in a hash set, and so are the literal parts of
+ * simple wildcard rules with a single leading or trailing <tt>*</tt> (e.g. <tt>*.tmp</tt>
+ * or <tt>build/*</tt>); these are looked up by the path's suffix or prefix. All other
+ * wildcard and regular expression patterns are compiled once when the ignore file is loaded,
+ * if possible into a single alternation pattern, so that checking a file only requires a few
+ * hash lookups and (at most) one regular expression match. Patterns that cannot be combined
+ * (because they contain back references, whose group numbers would change, or enable
+ * comments mode) are matched one by one.
+ *
  * @author Pim Otte
  */
 public class IgnoredFiles {
 	private static final Logger logger = Logger.getLogger(ConfigHelper.class.getSimpleName());
+	private static final Pattern NOT_COMBINABLE_PATTERN = Pattern.compile("\\\\([1-9]|k<)|\\(\\?[a-zA-Z-]*x");
 
 	private Set<String> ignorePatterns;
 	private Set<String> ignorePaths;
+	private Set<String> ignoreSuffixes;
+	private Set<String> ignorePrefixes;
 	private File ignoreFile;
 
+	private int[] ignoreSuffixLengths;
+	private int[] ignorePrefixLengths;
+	private Pattern combinedIgnorePattern;
+	private List<Pattern> separateIgnorePatterns;
+
 	public IgnoredFiles(File ignoreFile) {
 		this.ignoreFile = ignoreFile;
 		this.ignorePatterns = new HashSet<String>();
 		this.ignorePaths = new HashSet<String>();
+		this.ignoreSuffixes = new HashSet<String>();
+		this.ignorePrefixes = new HashSet<String>();
+
+		this.ignoreSuffixLengths = new int[0];
+		this.ignorePrefixLengths = new int[0];
+		this.combinedIgnorePattern = null;
+		this.separateIgnorePatterns = new ArrayList<Pattern>();
 
 		loadPatterns();
 	}
@@ -51,23 +80,23 @@ public class IgnoredFiles {
 	 * Should only be called at indexing time.
 	 */
 	public boolean isFileIgnored(String filePath, String fileName) {
-		// Check all exact paths
-		for (String path : ignorePaths) {
-			if (path.equals(filePath)) {
-				return true;
-			}
+		// Check all exact paths and names (recursive)
+		if (ignorePaths.contains(filePath) || ignorePaths.contains(fileName)) {
+			return true;
 		}
 
-        // Check all recursive
-		for (String path : ignorePaths) {
-			if (path.equals(fileName)) {
-				return true;
-			}
+		// Check simple wildcards by suffix and prefix (e.g. "*.tmp" or "build/*")
+		if (containsAffix(ignoreSuffixes, ignoreSuffixLengths, filePath, true) || containsAffix(ignorePrefixes, ignorePrefixLengths, filePath, false)) {
+			return true;
 		}
 
 		// Check all regular expressions
-		for (String pattern : ignorePatterns) {
-			if (filePath.matches(pattern)) {
+		if (combinedIgnorePattern != null && combinedIgnorePattern.matcher(filePath).matches()) {
+			return true;
+		}
+
+		for (Pattern pattern : separateIgnorePatterns) {
+			if (pattern.matcher(filePath).matches()) {
 				return true;
 			}
 		}
@@ -98,7 +127,93 @@ public class IgnoredFiles {
 			// In case the ignoreFile has been deleted, reset patterns
 			ignorePatterns = new HashSet<String>();
 			ignorePaths = new HashSet<String>();
+			ignoreSuffixes = new HashSet<String>();
+			ignorePrefixes = new HashSet<String>();
 		}
+
+		compilePatterns();
+	}
+
+	private boolean containsAffix(Set<String> affixes, int[] affixLengths, String filePath, boolean suffix) {
+		for (int affixLength : affixLengths) {
+			if (affixLength > filePath.length()) {
+				break;
+			}
+
+			String affix = (suffix) ? filePath.substring(filePath.length() - affixLength) : filePath.substring(0, affixLength);
+
+			if (affixes.contains(affix)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void compilePatterns() {
+		ignoreSuffixLengths = getSortedLengths(ignoreSuffixes);
+		ignorePrefixLengths = getSortedLengths(ignorePrefixes);
+
+		List<Pattern> combinablePatterns = new ArrayList<Pattern>();
+		List<Pattern> separatePatterns = new ArrayList<Pattern>();
+
+		for (String pattern : ignorePatterns) {
+			try {
+				Pattern compiledPattern = Pattern.compile(pattern);
+
+				if (NOT_COMBINABLE_PATTERN.matcher(pattern).find()) {
+					separatePatterns.add(compiledPattern);
+				}
+				else {
+					combinablePatterns.add(compiledPattern);
+				}
+			}
+			catch (PatternSyntaxException e) {
+				logger.log(Level.WARNING, "Invalid ignore pattern; ignoring pattern " + pattern, e);
+			}
+		}
+
+		Pattern combinedPattern = null;
+
+		if (combinablePatterns.size() == 1) {
+			combinedPattern = combinablePatterns.get(0);
+		}
+		else if (combinablePatterns.size() > 1) {
+			StringBuilder combinedPatternStr = new StringBuilder();
+
+			for (Pattern pattern : combinablePatterns) {
+				combinedPatternStr.append((combinedPatternStr.length() > 0) ? "|" : "").append("(?:").append(pattern.pattern()).append(")");
+			}
+
+			try {
+				combinedPattern = Pattern.compile(combinedPatternStr.toString());
+			}
+			catch (PatternSyntaxException e) {
+				// E.g. duplicate named groups; fall back to matching the patterns one by one
+				logger.log(Level.FINE, "Cannot combine ignore patterns; matching them separately.", e);
+				separatePatterns.addAll(combinablePatterns);
+			}
+		}
+
+		combinedIgnorePattern = combinedPattern;
+		separateIgnorePatterns = separatePatterns;
+	}
+
+	private static int[] getSortedLengths(Set<String> strings) {
+		Set<Integer> lengths = new TreeSet<Integer>();
+
+		for (String string : strings) {
+			lengths.add(string.length());
+		}
+
+		int[] sortedLengths = new int[lengths.size()];
+		int i = 0;
+
+		for (Integer length : lengths) {
+			sortedLengths[i++] = length;
+		}
+
+		return sortedLengths;
 	}
 
 	private void parseIgnoreFileLine(String ignorePattern) {
@@ -107,7 +222,15 @@ public class IgnoredFiles {
 			ignorePatterns.add(ignorePattern.substring(6));
 		}
 		else {
-			if (ignorePattern.contains("*") || ignorePattern.contains("?")) {
+			if (ignorePattern.length() > 1 && ignorePattern.startsWith("*") && !containsWildcards(ignorePattern.substring(1))) {
+				// Simple suffix wildcard, e.g. "*.tmp"
+				ignoreSuffixes.add(ignorePattern.substring(1));
+			}
+			else if (ignorePattern.length() > 1 && ignorePattern.endsWith("*") && !containsWildcards(ignorePattern.substring(0, ignorePattern.length() - 1))) {
+				// Simple prefix wildcard, e.g. "build/*"
+				ignorePrefixes.add(ignorePattern.substring(0, ignorePattern.length() - 1));
+			}
+			else if (containsWildcards(ignorePattern)) {
 				// wildcards handling, converting them to regexps
 				ignorePatterns.add(convertWildcardsToRegexp(ignorePattern));
 			}
@@ -117,6 +240,10 @@ public class IgnoredFiles {
 		}
 	}
 
+	private static boolean containsWildcards(String ignorePattern) {
+		return ignorePattern.contains("*") || ignorePattern.contains("?");
+	}
+
 	private static String convertWildcardsToRegexp(String in) {
 		StringBuilder out = new StringBuilder("^");
 
@@ -25,37 +25,72 @@ import java.util.Map;
 
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.FastCdcChunker;
 import org.syncany.chunk.FixedChunker;
 import org.syncany.chunk.GzipTransformer;
 import org.syncany.chunk.MultiChunker;
+import org.syncany.chunk.TttdChunker;
 import org.syncany.chunk.ZipMultiChunker;
 import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.MultiChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
 import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.MultiCipherOutputStream;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseFormat;
 import org.syncany.util.StringUtil;
 import org.syncany.util.StringUtil.StringJoinListener;
 
 /**
  * This class produces {@link RepoTO}s with some sensible defaults for the Chunkers and
- * MultiChunkers. The transformers are configurable, namely whether or not compression is used
- * and how it is encrypted.
+ * MultiChunkers. The chunker type and the transformers are configurable, namely which chunking
+ * method is used, whether or not compression is used and how it is encrypted.
  * 
  * @author Pim Otte <otte.pim@gmail.com>
  */
 public class DefaultRepoTOFactory implements RepoTOFactory {
+	public static final String DEFAULT_CHUNKER_TYPE = FixedChunker.TYPE;
+	public static final int DEFAULT_FIXED_CHUNK_SIZE = 512 * 1024;
+	public static final int DEFAULT_CDC_AVG_CHUNK_SIZE = 64 * 1024;
+	public static final String DEFAULT_DIGEST_ALGORITHM = "SHA1";
+	public static final DatabaseFormat DEFAULT_DATABASE_FORMAT = DatabaseFormat.XML;
+	public static final byte DEFAULT_CIPHER_STREAM_VERSION = MultiCipherOutputStream.STREAM_VERSION;
+
 	private ChunkerTO chunkerTO;
 	private MultiChunkerTO multiChunkerTO;
 	private List<TransformerTO> transformersTO;
+	private DatabaseFormat databaseFormat;
+	private byte cipherStreamVersion;
 
 	public DefaultRepoTOFactory(boolean gzipEnabled, List<CipherSpec> cipherSpecs) {
-		chunkerTO = getDefaultChunkerTO();
+		this(gzipEnabled, cipherSpecs, DEFAULT_CHUNKER_TYPE, DEFAULT_DIGEST_ALGORITHM, DEFAULT_DATABASE_FORMAT, DEFAULT_CIPHER_STREAM_VERSION);
+	}
+
+	public DefaultRepoTOFactory(boolean gzipEnabled, List<CipherSpec> cipherSpecs, String chunkerType, String digestAlgorithm,
+			DatabaseFormat databaseFormat, byte cipherStreamVersion) {
+
+		chunkerTO = getDefaultChunkerTO(chunkerType, digestAlgorithm);
 		multiChunkerTO = getDefaultMultiChunkerTO();
 		transformersTO = getTransformersTO(gzipEnabled, cipherSpecs);
+		this.databaseFormat = databaseFormat;
+		this.cipherStreamVersion = cipherStreamVersion;
 	}
 
 	public RepoTO createRepoTO() {
-		return createRepoTO(chunkerTO, multiChunkerTO, transformersTO);
+		RepoTO repoTO = createRepoTO(chunkerTO, multiChunkerTO, transformersTO);
+
+		if (chunkerTO.getSettings().containsKey(Chunker.PROPERTY_DIGEST)) {
+			repoTO.setFormatVersion(RepoTO.FORMAT_VERSION_CHUNKER_DIGEST);
+		}
+
+		if (databaseFormat != DEFAULT_DATABASE_FORMAT) {
+			repoTO.setDatabaseFormat(databaseFormat);
+		}
+
+		if (cipherStreamVersion != DEFAULT_CIPHER_STREAM_VERSION) {
+			repoTO.setCipherStreamVersion((int) cipherStreamVersion);
+		}
+
+		return repoTO;
 	}
 
 	public List<TransformerTO> getTransformersTO(boolean gzipEnabled, List<CipherSpec> cipherSpecs) {
@@ -91,12 +126,25 @@ public class DefaultRepoTOFactory implements RepoTOFactory {
 		return repoTO;
 	}
 
-	protected ChunkerTO getDefaultChunkerTO() {
+	protected ChunkerTO getDefaultChunkerTO(String chunkerType, String digestAlgorithm) {
 		ChunkerTO chunkerTO = new ChunkerTO();
 
-		chunkerTO.setType(FixedChunker.TYPE);
+		chunkerTO.setType(chunkerType);
 		chunkerTO.setSettings(new HashMap<String, String>());
-		chunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, "16");
+
+		if (FixedChunker.TYPE.equals(chunkerType)) {
+			chunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, Integer.toString(DEFAULT_FIXED_CHUNK_SIZE));
+		}
+		else if (TttdChunker.TYPE.equals(chunkerType) || FastCdcChunker.TYPE.equals(chunkerType)) {
+			chunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, Integer.toString(DEFAULT_CDC_AVG_CHUNK_SIZE));
+		}
+		else {
+			throw new IllegalArgumentException("Unknown chunker type: " + chunkerType);
+		}
+
+		if (!DEFAULT_DIGEST_ALGORITHM.equals(digestAlgorithm)) {
+			chunkerTO.getSettings().put(Chunker.PROPERTY_DIGEST, digestAlgorithm);
+		}
 
 		return chunkerTO;
 	}
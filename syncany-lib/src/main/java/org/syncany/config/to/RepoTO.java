@@ -35,14 +35,17 @@ import org.simpleframework.xml.core.Persister;
 import org.syncany.config.ConfigException;
 import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.MultiCipherOutputStream;
 import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseFormat;
 import org.syncany.util.StringUtil;
 
 /**
  * The repo transfer object is used to create and load the repo file
  * from/to XML. The repo file identifies the repository with a unique
- * repo ID, and defines the chunking framework settings. It is
- * stored locally and on the remote storage.
+ * repo ID, and defines the chunking framework settings, the format
+ * of the database files and the format of encrypted files (see
+ * {@link MultiCipherOutputStream}). It is stored locally and on the remote storage.
  *
  * <p>It uses the Simple framework for XML serialization, and its corresponding
  * annotation-based configuration.
@@ -52,6 +55,28 @@ import org.syncany.util.StringUtil;
  */
 @Root(name = "repo", strict = false)
 public class RepoTO {
+	/**
+	 * Format version of repositories that can be read by any client. Repositories
+	 * of this version do not contain a format version element.
+	 */
+	public static final int FORMAT_VERSION_DEFAULT = 1;
+
+	/**
+	 * Format version of repositories whose chunker uses a non-default
+	 * {@link org.syncany.chunk.Chunker#PROPERTY_DIGEST digest} algorithm. Clients that do not know
+	 * about the digest setting would silently fall back to SHA1 checksums, so
+	 * these repositories are marked with a format version they refuse.
+	 */
+	public static final int FORMAT_VERSION_CHUNKER_DIGEST = 2;
+
+	/**
+	 * Highest repository format version supported by this client.
+	 */
+	public static final int FORMAT_VERSION_SUPPORTED = FORMAT_VERSION_CHUNKER_DIGEST;
+
+	@Element(name = "formatversion", required = false)
+	private Integer formatVersion;
+
 	@Element(name = "repoid", required = true)
 	private String repoIdEncoded;
 	private byte[] repoId;
@@ -65,6 +90,20 @@ public class RepoTO {
 	@ElementList(name = "transformers", required = false, entry = "transformer")
 	private ArrayList<TransformerTO> transformers;
 
+	@Element(name = "databaseformat", required = false)
+	private DatabaseFormat databaseFormat;
+
+	@Element(name = "cipherstreamversion", required = false)
+	private Integer cipherStreamVersion;
+
+	public Integer getFormatVersion() {
+		return formatVersion;
+	}
+
+	public void setFormatVersion(Integer formatVersion) {
+		this.formatVersion = formatVersion;
+	}
+
 	public byte[] getRepoId() {
 		return repoId;
 	}
@@ -136,6 +175,22 @@ public class RepoTO {
 		this.transformers = (transformers != null) ? new ArrayList<TransformerTO>(transformers) : null;
 	}
 
+	public DatabaseFormat getDatabaseFormat() {
+		return databaseFormat;
+	}
+
+	public void setDatabaseFormat(DatabaseFormat databaseFormat) {
+		this.databaseFormat = databaseFormat;
+	}
+
+	public Integer getCipherStreamVersion() {
+		return cipherStreamVersion;
+	}
+
+	public void setCipherStreamVersion(Integer cipherStreamVersion) {
+		this.cipherStreamVersion = cipherStreamVersion;
+	}
+
 	/**
 	 * Configuration object for the deduplication chunker. As of
 	 * today, this is a key/value based configuration.
@@ -0,0 +1,47 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+/**
+ * An authenticated cipher that is bound to a single secret key and a direction
+ * (encryption or decryption), and that can be used for many messages, each with its
+ * own IV. Instances are created by {@link CipherSpec#newAeadCipher(boolean, byte[])}.
+ *
+ * <p>Unlike the cipher streams, an instance keeps the underlying cipher (and its key
+ * schedule) across messages, so it is suited to encrypt or decrypt many small messages,
+ * e.g. the segments of a {@link SegmentCipher}. Instances are not thread-safe.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public interface AeadCipher {
+	/**
+	 * Returns the exact output size for an input of the given length, i.e. the
+	 * length of the ciphertext and tag when encrypting, and the length of the
+	 * plaintext when decrypting.
+	 */
+	public int getOutputSize(int inputLength);
+
+	/**
+	 * Encrypts or decrypts (and verifies) a complete message with the given IV.
+	 * The output array must not be the input array.
+	 *
+	 * @return Returns the number of bytes written to the output array
+	 * @throws CipherException If the cipher cannot be initialized, or if the message cannot be authenticated
+	 */
+	public int doFinal(byte[] iv, byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) throws CipherException;
+}
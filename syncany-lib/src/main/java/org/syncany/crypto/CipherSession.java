@@ -21,9 +21,12 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,9 +52,16 @@ import org.syncany.util.StringUtil;
  *
  *   <li>Keys used by {@link MultiCipherInputStream} (when reading files) are
  *       cached in order to minimize the amount of keys that have to be created when
- *       files are processed.
+ *       files are processed. If the cache is full, the least recently used key is
+ *       removed.
  * </ul>
  *
+ * <p>A cipher session may be shared by multiple threads (e.g. when multichunks
+ * are decrypted in parallel). The caches are only locked briefly to look up or
+ * insert an entry; keys are derived outside of these locks. If multiple threads
+ * request the same key at the same time, the key is derived only once, and the
+ * other threads wait for it.
+ *
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class CipherSession {
@@ -64,9 +74,14 @@ public class CipherSession {
 	private Map<CipherSpecWithSalt, SecretKeyCacheEntry> secretKeyReadCache;
 	private int secretKeyReadCacheSize;
 
-	private Map<CipherSpec, SecretKeyCacheEntry> secretKeyWriteCache;
+	private ConcurrentMap<CipherSpec, SecretKeyCacheEntry> secretKeyWriteCache;
 	private int secretKeyWriteReuseCount;
 
+	private AtomicLong readCacheHitCount;
+	private AtomicLong readCacheMissCount;
+	private AtomicLong writeCacheHitCount;
+	private AtomicLong writeCacheMissCount;
+
 	/**
 	 * Creates a new cipher session, using the given master key. Derived keys will be created
 	 * from that master key.
@@ -90,16 +105,36 @@ public class CipherSession {
 	 *
 	 * @param masterKey The master key, used for deriving new read/write
 	 * @param secretKeyReadCacheSize Number of read keys to store in the cache (higher means more performance, but more memory usage)
-	 * @param secretKeyWriteReuseCount Number of times to reuse a write key (higher means more performance, but lower security)
+	 * @param secretKeyWriteReuseCount Number of times to reuse a write key (higher means more performance, but lower security);
+	 *        values below 1 are treated as 1, i.e. a new key is created for every write
 	 */
-	public CipherSession(SaltedSecretKey masterKey, int secretKeyReadCacheSize, int secretKeyWriteReuseCount) {
+	public CipherSession(SaltedSecretKey masterKey, final int secretKeyReadCacheSize, int secretKeyWriteReuseCount) {
 		this.masterKey = masterKey;
 
-		this.secretKeyReadCache = new LinkedHashMap<CipherSpecWithSalt, SecretKeyCacheEntry>();
+		this.secretKeyReadCache = new LinkedHashMap<CipherSpecWithSalt, SecretKeyCacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = -7457440327932536404L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CipherSpecWithSalt, SecretKeyCacheEntry> eldest) {
+				if (size() > secretKeyReadCacheSize) {
+					logger.log(Level.FINE, "- Removed least recently used READ secret key from cache.");
+					return true;
+				}
+				else {
+					return false;
+				}
+			}
+		};
+
 		this.secretKeyReadCacheSize = secretKeyReadCacheSize;
 
-		this.secretKeyWriteCache = new HashMap<CipherSpec, SecretKeyCacheEntry>();
-		this.secretKeyWriteReuseCount = secretKeyWriteReuseCount;
+		this.secretKeyWriteCache = new ConcurrentHashMap<CipherSpec, SecretKeyCacheEntry>();
+		this.secretKeyWriteReuseCount = Math.max(1, secretKeyWriteReuseCount);
+
+		this.readCacheHitCount = new AtomicLong(0);
+		this.readCacheMissCount = new AtomicLong(0);
+		this.writeCacheHitCount = new AtomicLong(0);
+		this.writeCacheMissCount = new AtomicLong(0);
 	}
 
 	/**
@@ -124,41 +159,60 @@ public class CipherSession {
 	 * @throws Exception If an error occurs with key creation
 	 */
 	public SaltedSecretKey getWriteSecretKey(CipherSpec cipherSpec) throws Exception {
-		SecretKeyCacheEntry secretKeyCacheEntry = secretKeyWriteCache.get(cipherSpec);
+		while (true) {
+			SecretKeyCacheEntry secretKeyCacheEntry = secretKeyWriteCache.get(cipherSpec);
 
-		// Remove key if use more than X times
-		if (secretKeyCacheEntry != null && secretKeyCacheEntry.getUseCount() >= secretKeyWriteReuseCount) {
-			logger.log(Level.FINE, "- Removed WRITE secret key from cache, because it was used " + secretKeyCacheEntry.getUseCount() + " times.");
+			if (secretKeyCacheEntry == null) {
+				byte[] salt = CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE);
+				SecretKeyCacheEntry secretKeyCacheEntryCandidate = new SecretKeyCacheEntry(cipherSpec, salt);
 
-			secretKeyWriteCache.remove(cipherSpec);
-			secretKeyCacheEntry = null;
-		}
+				secretKeyCacheEntry = secretKeyWriteCache.putIfAbsent(cipherSpec, secretKeyCacheEntryCandidate);
 
-		// Return cached key, or create a new one
-		if (secretKeyCacheEntry != null) {
-			secretKeyCacheEntry.increaseUseCount();
+				if (secretKeyCacheEntry == null) {
+					secretKeyCacheEntry = secretKeyCacheEntryCandidate;
+				}
+			}
 
-			logger.log(Level.FINE, "- Using CACHED WRITE secret key " + secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm() + ", with salt "
-					+ StringUtil.toHex(secretKeyCacheEntry.getSaltedSecretKey().getSalt()));
-			return secretKeyCacheEntry.getSaltedSecretKey();
-		}
-		else {
-			SaltedSecretKey saltedSecretKey = createSaltedSecretKey(cipherSpec);
+			// Remove key if used more than X times; the next iteration creates a new one
+			if (secretKeyCacheEntry.increaseUseCount() > secretKeyWriteReuseCount) {
+				logger.log(Level.FINE, "- Removed WRITE secret key from cache, because it was used " + secretKeyWriteReuseCount + " times.");
+
+				secretKeyWriteCache.remove(cipherSpec, secretKeyCacheEntry);
+				continue;
+			}
+
+			boolean keyDerived;
+
+			try {
+				keyDerived = secretKeyCacheEntry.deriveSaltedSecretKey(masterKey);
+			}
+			catch (Exception e) {
+				secretKeyWriteCache.remove(cipherSpec, secretKeyCacheEntry);
+				throw e;
+			}
+
+			SaltedSecretKey saltedSecretKey = secretKeyCacheEntry.getSaltedSecretKey();
 
-			secretKeyCacheEntry = new SecretKeyCacheEntry(saltedSecretKey);
-			secretKeyWriteCache.put(cipherSpec, secretKeyCacheEntry);
+			if (keyDerived) {
+				writeCacheMissCount.incrementAndGet();
+				logger.log(Level.FINE, "- Created NEW WRITE secret key " + saltedSecretKey.getAlgorithm() + ", and added to cache, with salt "
+						+ StringUtil.toHex(saltedSecretKey.getSalt()));
+			}
+			else {
+				writeCacheHitCount.incrementAndGet();
+				logger.log(Level.FINE, "- Using CACHED WRITE secret key " + saltedSecretKey.getAlgorithm() + ", with salt "
+						+ StringUtil.toHex(saltedSecretKey.getSalt()));
+			}
 
-			logger.log(Level.FINE, "- Created NEW WRITE secret key " + secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()
-					+ ", and added to cache, with salt " + StringUtil.toHex(saltedSecretKey.getSalt()));
 			return saltedSecretKey;
 		}
 	}
 
 	/**
 	 * Creates a new secret key or retrieves it from the read cache. If the given cipher spec / salt combination
-	 * is found in the cache, the cached secret key is returned. If not, a new key is created. Keys are removed
-	 * from the cache when the cache reached the size defined by {@link #secretKeyReadCacheSize} (as set in
-	 * {@link #CipherSession(SaltedSecretKey, int, int) the constructor}.
+	 * is found in the cache, the cached secret key is returned. If not, a new key is created. If the cache
+	 * holds more keys than defined by {@link #secretKeyReadCacheSize} (as set in
+	 * {@link #CipherSession(SaltedSecretKey, int, int) the constructor}, the least recently used key is removed.
 	 *
 	 * <p>If a new key needs to be created, {@link CipherUtil} is used to do so.
 	 *
@@ -172,62 +226,113 @@ public class CipherSession {
 	 */
 	public SaltedSecretKey getReadSecretKey(CipherSpec cipherSpec, byte[] salt) throws Exception {
 		CipherSpecWithSalt cipherSpecWithSalt = new CipherSpecWithSalt(cipherSpec, salt);
-		SecretKeyCacheEntry secretKeyCacheEntry = secretKeyReadCache.get(cipherSpecWithSalt);
+		SecretKeyCacheEntry secretKeyCacheEntry;
 
-		if (secretKeyCacheEntry != null) {
-			logger.log(Level.FINE, "- Using CACHED READ secret key " + secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm() + ", with salt "
-					+ StringUtil.toHex(salt));
-			return secretKeyCacheEntry.getSaltedSecretKey();
+		synchronized (secretKeyReadCache) {
+			secretKeyCacheEntry = secretKeyReadCache.get(cipherSpecWithSalt);
+
+			if (secretKeyCacheEntry == null) {
+				secretKeyCacheEntry = new SecretKeyCacheEntry(cipherSpec, salt);
+				secretKeyReadCache.put(cipherSpecWithSalt, secretKeyCacheEntry);
+			}
 		}
-		else {
-			if (secretKeyReadCache.size() >= secretKeyReadCacheSize) {
-				CipherSpecWithSalt firstKey = secretKeyReadCache.keySet().iterator().next();
-				secretKeyReadCache.remove(firstKey);
 
-				logger.log(Level.FINE, "- Removed oldest READ secret key from cache.");
+		boolean keyDerived;
+
+		try {
+			keyDerived = secretKeyCacheEntry.deriveSaltedSecretKey(masterKey);
+		}
+		catch (Exception e) {
+			synchronized (secretKeyReadCache) {
+				secretKeyReadCache.remove(cipherSpecWithSalt, secretKeyCacheEntry);
 			}
 
-			SaltedSecretKey saltedSecretKey = createSaltedSecretKey(cipherSpec, salt);
-			secretKeyCacheEntry = new SecretKeyCacheEntry(saltedSecretKey);
+			throw e;
+		}
 
-			secretKeyReadCache.put(cipherSpecWithSalt, secretKeyCacheEntry);
+		SaltedSecretKey saltedSecretKey = secretKeyCacheEntry.getSaltedSecretKey();
 
-			logger.log(Level.FINE, "- Created NEW READ secret key " + secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()
-					+ ", and added to cache, with salt " + StringUtil.toHex(salt));
-			return saltedSecretKey;
+		if (keyDerived) {
+			readCacheMissCount.incrementAndGet();
+			logger.log(Level.FINE, "- Created NEW READ secret key " + saltedSecretKey.getAlgorithm() + ", and added to cache, with salt "
+					+ StringUtil.toHex(salt));
+		}
+		else {
+			readCacheHitCount.incrementAndGet();
+			logger.log(Level.FINE, "- Using CACHED READ secret key " + saltedSecretKey.getAlgorithm() + ", with salt " + StringUtil.toHex(salt));
 		}
+
+		return saltedSecretKey;
 	}
 
-	private SaltedSecretKey createSaltedSecretKey(CipherSpec cipherSpec) throws InvalidKeySpecException, NoSuchAlgorithmException,
-	NoSuchProviderException {
-		byte[] salt = CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE);
-		return createSaltedSecretKey(cipherSpec, salt);
+	/**
+	 * Returns the number of read keys that were found in the cache.
+	 */
+	public long getReadCacheHitCount() {
+		return readCacheHitCount.get();
+	}
+
+	/**
+	 * Returns the number of read keys that had to be derived from the master key.
+	 */
+	public long getReadCacheMissCount() {
+		return readCacheMissCount.get();
+	}
+
+	/**
+	 * Returns the number of times a cached write key was reused.
+	 */
+	public long getWriteCacheHitCount() {
+		return writeCacheHitCount.get();
 	}
 
-	private SaltedSecretKey createSaltedSecretKey(CipherSpec cipherSpec, byte[] salt) throws InvalidKeySpecException, NoSuchAlgorithmException,
-	NoSuchProviderException {
-		return CipherUtil.createDerivedKey(masterKey, salt, cipherSpec);
+	/**
+	 * Returns the number of write keys that had to be derived from the master key.
+	 */
+	public long getWriteCacheMissCount() {
+		return writeCacheMissCount.get();
 	}
 
+	/**
+	 * Cache entry for a derived key. The key is derived by the first caller of
+	 * {@link #deriveSaltedSecretKey(SecretKey)}; concurrent callers wait until the key is available.
+	 */
 	private static class SecretKeyCacheEntry {
+		private CipherSpec cipherSpec;
+		private byte[] salt;
 		private SaltedSecretKey saltedSecretKey;
-		private int useCount;
+		private AtomicInteger useCount;
 
-		public SecretKeyCacheEntry(SaltedSecretKey saltedSecretKey) {
-			this.saltedSecretKey = saltedSecretKey;
-			this.useCount = 1;
+		public SecretKeyCacheEntry(CipherSpec cipherSpec, byte[] salt) {
+			this.cipherSpec = cipherSpec;
+			this.salt = salt;
+			this.saltedSecretKey = null;
+			this.useCount = new AtomicInteger(0);
 		}
 
-		public SaltedSecretKey getSaltedSecretKey() {
-			return saltedSecretKey;
+		/**
+		 * Derives the key, unless it has already been derived.
+		 *
+		 * @return Returns true if the key was derived by this call
+		 */
+		public synchronized boolean deriveSaltedSecretKey(SecretKey masterKey) throws InvalidKeySpecException, NoSuchAlgorithmException,
+				NoSuchProviderException {
+
+			if (saltedSecretKey == null) {
+				saltedSecretKey = CipherUtil.createDerivedKey(masterKey, salt, cipherSpec);
+				return true;
+			}
+			else {
+				return false;
+			}
 		}
 
-		public int getUseCount() {
-			return useCount;
+		public synchronized SaltedSecretKey getSaltedSecretKey() {
+			return saltedSecretKey;
 		}
 
-		public void increaseUseCount() {
-			useCount++;
+		public int increaseUseCount() {
+			return useCount.incrementAndGet();
 		}
 	}
 
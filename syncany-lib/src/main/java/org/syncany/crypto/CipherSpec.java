@@ -81,6 +81,12 @@ public abstract class CipherSpec {
 
 	public abstract InputStream newCipherInputStream(InputStream underlyingInputStream, byte[] secretKey, byte[] iv) throws CipherException;
 
+	/**
+	 * Creates a reusable cipher for the given key that encrypts or decrypts complete messages,
+	 * each with its own IV. Used for the segments of segmented streams.
+	 */
+	public abstract AeadCipher newAeadCipher(boolean forEncryption, byte[] secretKey) throws CipherException;
+
 	@Override
 	public String toString() {
 		return algorithm + ", " + keySize + " bit";
@@ -21,17 +21,39 @@ import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 
+/**
+ * Implements an input stream that decrypts a stream written by the {@link MultiCipherOutputStream}.
+ * Both the unsegmented (version 1) and the segmented (version 2) stream format can be read; refer
+ * to {@link MultiCipherOutputStream} for a description of the format.
+ *
+ * <p>For segmented streams, data is decrypted and verified one segment at a time. Segments that
+ * are entirely skipped using {@link #skip(long)} are not decrypted at all.
+ */
 public class MultiCipherInputStream extends InputStream {
 	private InputStream underlyingInputStream;
 
 	private InputStream cipherInputStream;
 	private CipherSession cipherSession;
 	
+	private byte streamVersion;
+	private SegmentCipher segmentCipher;
+	private byte[] encryptedSegment;
+	private int encryptedSegmentLength;
+	private byte[] segment;
+	private int segmentLength;
+	private int segmentPosition;
+	private int segmentIndex;
+	private boolean lastSegmentRead;
+	
 	private boolean headerRead;
 	private Mac headerHmac;
 		
@@ -41,6 +63,13 @@ public class MultiCipherInputStream extends InputStream {
 		this.cipherInputStream = null;
 		this.cipherSession = cipherSession;
 		
+		this.segmentCipher = null;
+		this.segment = null;
+		this.segmentLength = 0;
+		this.segmentPosition = 0;
+		this.segmentIndex = 0;
+		this.lastSegmentRead = false;
+		
 		this.headerRead = false;		
 		this.headerHmac = null;		
 	}
@@ -48,34 +77,158 @@ public class MultiCipherInputStream extends InputStream {
 	@Override
 	public int read() throws IOException {
 		readHeader();
-		return cipherInputStream.read();
+		
+		if (streamVersion == MultiCipherOutputStream.STREAM_VERSION_SEGMENTED) {
+			byte[] b = new byte[1];
+			int read = readSegmented(b, 0, 1);
+			
+			return (read == -1) ? -1 : b[0] & 0xff;
+		}
+		else {
+			return cipherInputStream.read();
+		}
 	}
 	
 	@Override
 	public int read(byte[] b) throws IOException {
-		readHeader();
-		return cipherInputStream.read(b, 0, b.length);
+		return read(b, 0, b.length);
 	}
 	
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
 		readHeader();
-		return cipherInputStream.read(b, off, len);
+		
+		if (streamVersion == MultiCipherOutputStream.STREAM_VERSION_SEGMENTED) {
+			return readSegmented(b, off, len);
+		}
+		else {
+			return cipherInputStream.read(b, off, len);
+		}
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		readHeader();
+		
+		if (streamVersion == MultiCipherOutputStream.STREAM_VERSION_SEGMENTED) {
+			return skipSegmented(n);
+		}
+		else {
+			return cipherInputStream.skip(n);
+		}
 	}
 	
 	@Override
 	public void close() throws IOException {
-		cipherInputStream.close();
+		if (cipherInputStream != null) {
+			cipherInputStream.close();
+		}
+		else {
+			underlyingInputStream.close();
+		}
 	}	
 	
+	private int readSegmented(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		
+		while (segmentPosition == segmentLength) {
+			if (!readEncryptedSegment()) {
+				return -1;
+			}
+			
+			decryptSegment();
+		}
+		
+		int copyLength = Math.min(len, segmentLength - segmentPosition);
+		System.arraycopy(segment, segmentPosition, b, off, copyLength);
+		
+		segmentPosition += copyLength;
+		return copyLength;
+	}
+	
+	private long skipSegmented(long n) throws IOException {
+		long skipped = 0;
+		
+		while (skipped < n) {
+			if (segmentPosition < segmentLength) {
+				int skipLength = (int) Math.min(n - skipped, segmentLength - segmentPosition);
+				
+				segmentPosition += skipLength;
+				skipped += skipLength;
+			}
+			else if (!readEncryptedSegment()) {
+				break;
+			}
+			else if (!lastSegmentRead && n - skipped >= segmentCipher.getSegmentSize()) {
+				// Full segments that are not the last one do not have to be decrypted
+				segmentIndex++;
+				skipped += segmentCipher.getSegmentSize();
+			}
+			else {
+				decryptSegment();
+			}
+		}
+		
+		return skipped;
+	}
+	
+	/**
+	 * Reads the next encrypted segment into the segment buffer, and determines whether
+	 * it is the last segment of the stream by looking ahead one byte.
+	 * 
+	 * @return Returns false if there are no more segments
+	 */
+	private boolean readEncryptedSegment() throws IOException {
+		if (lastSegmentRead) {
+			return false;
+		}
+		
+		encryptedSegmentLength = 0;
+		
+		while (encryptedSegmentLength < encryptedSegment.length) {
+			int read = underlyingInputStream.read(encryptedSegment, encryptedSegmentLength, encryptedSegment.length - encryptedSegmentLength);
+			
+			if (read == -1) {
+				break;
+			}
+			
+			encryptedSegmentLength += read;
+		}
+		
+		int nextByte = underlyingInputStream.read();
+		
+		if (nextByte == -1) {
+			lastSegmentRead = true;
+		}
+		else {
+			((PushbackInputStream) underlyingInputStream).unread(nextByte);
+		}
+		
+		return true;
+	}
+	
+	private void decryptSegment() throws IOException {
+		segmentLength = segmentCipher.decryptSegment(segmentIndex, lastSegmentRead, encryptedSegment, 0, encryptedSegmentLength, segment);
+		segmentPosition = 0;
+		segmentIndex++;
+	}
+	
 	private void readHeader() throws IOException {
 		if (!headerRead) {
 			try {
 				readAndVerifyMagicNoHmac(underlyingInputStream);
-				readAndVerifyVersionNoHmac(underlyingInputStream);
+				streamVersion = readAndVerifyVersionNoHmac(underlyingInputStream);
 
 				headerHmac = readHmacSaltAndInitHmac(underlyingInputStream, cipherSession);				
-				cipherInputStream = readCipherSpecsAndUpdateHmac(underlyingInputStream, headerHmac, cipherSession);
+				
+				if (streamVersion == MultiCipherOutputStream.STREAM_VERSION_SEGMENTED) {
+					segmentCipher = readSegmentCipherAndUpdateHmac(underlyingInputStream, headerHmac, cipherSession);
+				}
+				else {
+					cipherInputStream = readCipherSpecsAndUpdateHmac(underlyingInputStream, headerHmac, cipherSession);
+				}
 
 				readAndVerifyHmac(underlyingInputStream, headerHmac);			
 			}
@@ -83,6 +236,12 @@ public class MultiCipherInputStream extends InputStream {
 				throw new IOException(e);
 			}
 			
+			if (streamVersion == MultiCipherOutputStream.STREAM_VERSION_SEGMENTED) {
+				underlyingInputStream = new PushbackInputStream(underlyingInputStream, 1);
+				encryptedSegment = new byte[segmentCipher.getEncryptedSegmentSize()];
+				segment = new byte[segmentCipher.getSegmentSize()];
+			}
+			
 			headerRead = true;
 		}
 	}
@@ -96,12 +255,14 @@ public class MultiCipherInputStream extends InputStream {
 		}
 	}
 
-	private void readAndVerifyVersionNoHmac(InputStream inputStream) throws IOException {
+	private byte readAndVerifyVersionNoHmac(InputStream inputStream) throws IOException {
 		byte streamVersion = (byte) inputStream.read();
 		
-		if (streamVersion != MultiCipherOutputStream.STREAM_VERSION) {
+		if (streamVersion != MultiCipherOutputStream.STREAM_VERSION_UNSEGMENTED && streamVersion != MultiCipherOutputStream.STREAM_VERSION_SEGMENTED) {
 			throw new IOException("Stream version not supported: "+streamVersion);
 		}		
+		
+		return streamVersion;
 	}
 	
 	private Mac readHmacSaltAndInitHmac(InputStream inputStream, CipherSession cipherSession) throws Exception {
@@ -136,6 +297,40 @@ public class MultiCipherInputStream extends InputStream {
 		return nestedCipherInputStream;
 	}
 
+	private SegmentCipher readSegmentCipherAndUpdateHmac(InputStream underlyingInputStream, Mac hmac, CipherSession cipherSession) throws Exception {
+		int cipherSpecCount = readByteAndUpdateHmac(underlyingInputStream, hmac);		
+
+		List<CipherSpec> cipherSpecs = new ArrayList<CipherSpec>();
+		List<byte[]> secretKeys = new ArrayList<byte[]>();
+		List<byte[]> ivs = new ArrayList<byte[]>();
+		
+		for (int i=0; i<cipherSpecCount; i++) {
+			int cipherSpecId = readByteAndUpdateHmac(underlyingInputStream, hmac);				
+			CipherSpec cipherSpec = CipherSpecs.getCipherSpec(cipherSpecId);
+			
+			if (cipherSpec == null) {
+				throw new IOException("Cannot find cipher spec with ID "+cipherSpecId);
+			}
+
+			byte[] salt = readAndUpdateHmac(underlyingInputStream, MultiCipherOutputStream.SALT_SIZE, hmac);
+			byte[] iv = readAndUpdateHmac(underlyingInputStream, cipherSpec.getIvSize()/8, hmac);
+			
+			SecretKey secretKey = cipherSession.getReadSecretKey(cipherSpec, salt);			
+			
+			cipherSpecs.add(cipherSpec);
+			secretKeys.add(secretKey.getEncoded());
+			ivs.add(iv);
+		}	 
+		
+		int segmentSize = ByteBuffer.wrap(readAndUpdateHmac(underlyingInputStream, 4, hmac)).getInt();
+		
+		if (segmentSize <= 0 || segmentSize > MultiCipherOutputStream.MAX_SEGMENT_SIZE) {
+			throw new IOException("Invalid segment size: " + segmentSize);
+		}
+		
+		return new SegmentCipher(cipherSpecs, secretKeys, ivs, segmentSize);
+	}
+
 	private void readAndVerifyHmac(InputStream inputStream, Mac hmac) throws Exception {
 		byte[] calculatedHeaderHmac = hmac.doFinal();
 		byte[] readHeaderHmac = readNoHmac(inputStream, calculatedHeaderHmac.length);
@@ -21,6 +21,8 @@ import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.crypto.Mac;
@@ -45,10 +47,18 @@ import org.syncany.crypto.specs.HmacSha256CipherSpec;
  *      12             yes (in header)  Salt for cipher i (12 bytes)
  *      aa             yes (in header)  IV for cipher i (cipher specific length, 0..x)
  *      
+ *    04               yes (in header)  Segment size (=s, 4 bytes, only in version 2)
  *    20               no               Header HMAC (20 bytes, for "HmacSHA1")
  *    bb               yes (in mode)    Ciphertext (HMAC'd by mode, e.g. GCM)
  * </pre>
  * 
+ * In version 1 ({@link #STREAM_VERSION_UNSEGMENTED}, the default), the ciphertext is one single
+ * stream per cipher, i.e. it can only be decrypted and verified as a whole. In version 2
+ * ({@link #STREAM_VERSION_SEGMENTED}, enabled per repository), the plaintext is split into segments of
+ * s bytes (the last segment may be shorter), and each segment is encrypted and authenticated
+ * separately (see {@link SegmentCipher}). Since all encrypted segments but the last one have
+ * the same size, segments can be located without decrypting the preceding ones.
+ * 
  * It follows a few Do's and Don'ts:
  * - http://blog.cryptographyengineering.com/2011/11/how-not-to-use-symmetric-encryption.html
  * - http://security.stackexchange.com/questions/30170/after-how-much-data-encryption-aes-256-we-should-change-key
@@ -62,9 +72,13 @@ import org.syncany.crypto.specs.HmacSha256CipherSpec;
  */
 public class MultiCipherOutputStream extends OutputStream {
 	public static final byte[] STREAM_MAGIC = new byte[] { 0x53, 0x79, 0x02, 0x05 };
-	public static final byte STREAM_VERSION = 1;
+	public static final byte STREAM_VERSION_UNSEGMENTED = 1;
+	public static final byte STREAM_VERSION_SEGMENTED = 2;
+	public static final byte STREAM_VERSION = STREAM_VERSION_UNSEGMENTED;
 
 	public static final int SALT_SIZE = 12;	
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+	public static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
 	public static final CipherSpec HMAC_SPEC = new HmacSha256CipherSpec();
 	
 	private OutputStream underlyingOutputStream;
@@ -73,41 +87,114 @@ public class MultiCipherOutputStream extends OutputStream {
 	private CipherSession cipherSession;
 	private OutputStream cipherOutputStream;
 
+	private byte streamVersion;
+	private SegmentCipher segmentCipher;
+	private byte[] segmentBuffer;
+	private int segmentBufferLength;
+	private byte[] encryptedSegmentBuffer;
+	private int segmentIndex;
+
 	private boolean headerWritten;	
 	private Mac headerHmac;
+	private boolean closed;
 	
 	public MultiCipherOutputStream(OutputStream out, List<CipherSpec> cipherSpecs, CipherSession cipherSession) throws IOException {
+		this(out, cipherSpecs, cipherSession, STREAM_VERSION, DEFAULT_SEGMENT_SIZE);
+	}
+
+	public MultiCipherOutputStream(OutputStream out, List<CipherSpec> cipherSpecs, CipherSession cipherSession, byte streamVersion, int segmentSize) throws IOException {
+		if (streamVersion != STREAM_VERSION_UNSEGMENTED && streamVersion != STREAM_VERSION_SEGMENTED) {
+			throw new IllegalArgumentException("Stream version not supported: " + streamVersion);
+		}
+		else if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+		}
+		
 		this.underlyingOutputStream = out;	
 		
 		this.cipherSpecs = cipherSpecs;		
 		this.cipherSession = cipherSession;		
 		this.cipherOutputStream = null;
 		
+		this.streamVersion = streamVersion;
+		this.segmentCipher = null;
+		this.segmentBuffer = (streamVersion == STREAM_VERSION_SEGMENTED) ? new byte[segmentSize] : null;
+		this.segmentBufferLength = 0;
+		this.encryptedSegmentBuffer = null;
+		this.segmentIndex = 0;
+		
 		this.headerWritten = false;
 		this.headerHmac = null;		
+		this.closed = false;
 	}
 	
 	@Override
 	public void write(int b) throws IOException {
-		writeHeader();
-		cipherOutputStream.write(b);		
+		write(new byte[] { (byte) b }, 0, 1);
 	}
 	
 	@Override
 	public void write(byte[] b) throws IOException {
-		writeHeader();
-		cipherOutputStream.write(b, 0, b.length);
+		write(b, 0, b.length);
 	}
 	
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
 		writeHeader();
-		cipherOutputStream.write(b, off, len);
+		
+		if (streamVersion == STREAM_VERSION_SEGMENTED) {
+			writeSegmented(b, off, len);
+		}
+		else {
+			cipherOutputStream.write(b, off, len);
+		}
 	}
 	
 	@Override
 	public void close() throws IOException {
-		cipherOutputStream.close();
+		if (closed) {
+			return;
+		}
+		
+		writeHeader();
+		closed = true;
+		
+		if (streamVersion == STREAM_VERSION_SEGMENTED) {
+			// The last segment is always written, even if it is empty
+			writeSegment(true);
+			underlyingOutputStream.close();
+		}
+		else {
+			cipherOutputStream.close();
+		}
+	}
+	
+	private void writeSegmented(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			// Only write a full segment if more data follows; the last segment is written in close()
+			if (segmentBufferLength == segmentBuffer.length) {
+				writeSegment(false);
+			}
+			
+			int copyLength = Math.min(len, segmentBuffer.length - segmentBufferLength);
+			System.arraycopy(b, off, segmentBuffer, segmentBufferLength, copyLength);
+			
+			segmentBufferLength += copyLength;
+			off += copyLength;
+			len -= copyLength;
+		}
+	}
+	
+	private void writeSegment(boolean lastSegment) throws IOException {
+		if (segmentIndex == Integer.MAX_VALUE) {
+			throw new IOException("Too many segments; cannot encrypt more than " + Integer.MAX_VALUE + " segments.");
+		}
+		
+		int encryptedSegmentLength = segmentCipher.encryptSegment(segmentIndex, lastSegment, segmentBuffer, 0, segmentBufferLength, encryptedSegmentBuffer);
+		underlyingOutputStream.write(encryptedSegmentBuffer, 0, encryptedSegmentLength);
+		
+		segmentBufferLength = 0;
+		segmentIndex++;
 	}
 		
 	private void writeHeader() throws IOException {
@@ -121,11 +208,14 @@ public class MultiCipherOutputStream extends OutputStream {
 
 				// Write header
 				writeNoHmac(underlyingOutputStream, STREAM_MAGIC);
-				writeNoHmac(underlyingOutputStream, STREAM_VERSION);
+				writeNoHmac(underlyingOutputStream, streamVersion);
 				writeNoHmac(underlyingOutputStream, hmacSecretKey.getSalt());			
 				writeAndUpdateHmac(underlyingOutputStream, cipherSpecs.size());
 
 				cipherOutputStream = underlyingOutputStream;
+				
+				List<byte[]> secretKeys = new ArrayList<byte[]>();
+				List<byte[]> ivs = new ArrayList<byte[]>();
 
 				for (CipherSpec cipherSpec : cipherSpecs) { 
 					SaltedSecretKey saltedSecretKey = cipherSession.getWriteSecretKey(cipherSpec);				
@@ -135,8 +225,20 @@ public class MultiCipherOutputStream extends OutputStream {
 					writeAndUpdateHmac(underlyingOutputStream, saltedSecretKey.getSalt());
 					writeAndUpdateHmac(underlyingOutputStream, iv);
 
-					cipherOutputStream = cipherSpec.newCipherOutputStream(cipherOutputStream, saltedSecretKey.getEncoded(), iv);	        
+					if (streamVersion == STREAM_VERSION_SEGMENTED) {
+						secretKeys.add(saltedSecretKey.getEncoded());
+						ivs.add(iv);
+					}
+					else {
+						cipherOutputStream = cipherSpec.newCipherOutputStream(cipherOutputStream, saltedSecretKey.getEncoded(), iv);
+					}
 				}	
+				
+				if (streamVersion == STREAM_VERSION_SEGMENTED) {
+					writeAndUpdateHmac(underlyingOutputStream, ByteBuffer.allocate(4).putInt(segmentBuffer.length).array());
+					segmentCipher = new SegmentCipher(cipherSpecs, secretKeys, ivs, segmentBuffer.length);
+					encryptedSegmentBuffer = new byte[segmentCipher.getEncryptedSegmentSize()];
+				}
 
 				writeNoHmac(underlyingOutputStream, headerHmac.doFinal());
 			}
@@ -146,7 +248,6 @@ public class MultiCipherOutputStream extends OutputStream {
 			headerWritten = true;
 		}
 	}	
-
 	private void writeNoHmac(OutputStream outputStream, byte[] bytes) throws IOException {
 		outputStream.write(bytes);
 	}
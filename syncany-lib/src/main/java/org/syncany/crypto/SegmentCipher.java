@@ -0,0 +1,203 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Encrypts and decrypts the individual segments of a segmented stream (stream version
+ * {@link MultiCipherOutputStream#STREAM_VERSION_SEGMENTED}). Each segment is encrypted
+ * separately with all cipher specs, so that every segment is authenticated on its own.
+ *
+ * <p>The IV of a segment is derived from the cipher's IV in the stream header: The
+ * segment index is XOR'ed into the last four bytes, and the fifth-last byte is XOR'ed
+ * with 1 for the last segment of the stream. Segments can hence neither be reordered
+ * nor dropped, and the stream cannot be truncated at a segment boundary without failing
+ * the authentication of the (new) last segment.
+ *
+ * <p>For every cipher spec, one {@link AeadCipher} per direction is created on first use and
+ * re-initialized with the segment IV for every segment. Intermediate results (if there is more
+ * than one cipher spec) are kept in two reused buffers. Instances are hence <b>not thread-safe</b>.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class SegmentCipher {
+	private static final int IV_INDEX_SIZE = 5;
+
+	private List<CipherSpec> cipherSpecs;
+	private List<byte[]> secretKeys;
+	private List<byte[]> ivs;
+	private int segmentSize;
+	private int segmentOverhead;
+
+	private AeadCipher[] encryptCiphers;
+	private AeadCipher[] decryptCiphers;
+	private byte[][] intermediateBuffers;
+
+	public SegmentCipher(List<CipherSpec> cipherSpecs, List<byte[]> secretKeys, List<byte[]> ivs, int segmentSize) throws CipherException {
+		this.cipherSpecs = cipherSpecs;
+		this.secretKeys = secretKeys;
+		this.ivs = ivs;
+		this.segmentSize = segmentSize;
+
+		this.encryptCiphers = null;
+		this.decryptCiphers = null;
+		this.intermediateBuffers = null;
+
+		for (byte[] iv : ivs) {
+			if (iv.length < IV_INDEX_SIZE) {
+				throw new CipherException("IV too short for segmented encryption; must be at least " + IV_INDEX_SIZE + " bytes.");
+			}
+		}
+
+		this.segmentOverhead = getEncryptCiphers()[0].getOutputSize(segmentSize) - segmentSize;
+
+		for (int i = 1; i < cipherSpecs.size(); i++) {
+			segmentOverhead += encryptCiphers[i].getOutputSize(segmentSize) - segmentSize;
+		}
+	}
+
+	/**
+	 * Returns the maximum size of the plaintext of a single segment. All segments
+	 * except the last one have exactly this size.
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * Returns the size of an encrypted segment with a plaintext of {@link #getSegmentSize()} bytes.
+	 */
+	public int getEncryptedSegmentSize() {
+		return segmentSize + segmentOverhead;
+	}
+
+	/**
+	 * Encrypts a single segment with all cipher specs. The last cipher spec is applied
+	 * first, and the first cipher spec last (the same order as for unsegmented streams).
+	 *
+	 * @param ciphertext Output buffer, must be able to hold {@link #getEncryptedSegmentSize()} bytes
+	 * @return Returns the length of the encrypted segment
+	 */
+	public int encryptSegment(int segmentIndex, boolean lastSegment, byte[] plaintext, int offset, int length, byte[] ciphertext) throws IOException {
+		try {
+			AeadCipher[] ciphers = getEncryptCiphers();
+			byte[] input = plaintext;
+
+			for (int i = ciphers.length - 1; i >= 0; i--) {
+				byte[] output = (i == 0) ? ciphertext : getIntermediateBuffer(i);
+				byte[] segmentIv = createSegmentIv(ivs.get(i), segmentIndex, lastSegment);
+
+				length = ciphers[i].doFinal(segmentIv, input, offset, length, output, 0);
+				input = output;
+				offset = 0;
+			}
+
+			return length;
+		}
+		catch (CipherException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Decrypts and verifies a single segment. The first cipher spec is applied first.
+	 *
+	 * @param plaintext Output buffer, must be able to hold {@link #getSegmentSize()} bytes
+	 * @return Returns the length of the decrypted segment
+	 * @throws IOException If the segment cannot be authenticated, e.g. because it was altered,
+	 *         moved to a different position or is not the last segment although it is supposed to be
+	 */
+	public int decryptSegment(int segmentIndex, boolean lastSegment, byte[] ciphertext, int offset, int length, byte[] plaintext) throws IOException {
+		try {
+			AeadCipher[] ciphers = getDecryptCiphers();
+			byte[] input = ciphertext;
+
+			for (int i = 0; i < ciphers.length; i++) {
+				byte[] output = (i == ciphers.length - 1) ? plaintext : getIntermediateBuffer(i);
+				byte[] segmentIv = createSegmentIv(ivs.get(i), segmentIndex, lastSegment);
+
+				if (ciphers[i].getOutputSize(length) > output.length) {
+					throw new CipherException("Segment too large: " + length + " bytes.");
+				}
+
+				length = ciphers[i].doFinal(segmentIv, input, offset, length, output, 0);
+				input = output;
+				offset = 0;
+			}
+
+			return length;
+		}
+		catch (CipherException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private AeadCipher[] getEncryptCiphers() throws CipherException {
+		if (encryptCiphers == null) {
+			encryptCiphers = createCiphers(true);
+		}
+
+		return encryptCiphers;
+	}
+
+	private AeadCipher[] getDecryptCiphers() throws CipherException {
+		if (decryptCiphers == null) {
+			decryptCiphers = createCiphers(false);
+		}
+
+		return decryptCiphers;
+	}
+
+	private AeadCipher[] createCiphers(boolean forEncryption) throws CipherException {
+		AeadCipher[] ciphers = new AeadCipher[cipherSpecs.size()];
+
+		for (int i = 0; i < ciphers.length; i++) {
+			ciphers[i] = cipherSpecs.get(i).newAeadCipher(forEncryption, secretKeys.get(i));
+		}
+
+		return ciphers;
+	}
+
+	/**
+	 * Returns one of two buffers for the intermediate results of multiple cipher specs. Consecutive
+	 * cipher specs alternate between the two buffers, so that the input of a cipher is never its output.
+	 * Both buffers can hold a full encrypted segment.
+	 */
+	private byte[] getIntermediateBuffer(int cipherIndex) {
+		if (intermediateBuffers == null) {
+			intermediateBuffers = new byte[2][getEncryptedSegmentSize()];
+		}
+
+		return intermediateBuffers[cipherIndex % 2];
+	}
+
+	private byte[] createSegmentIv(byte[] iv, int segmentIndex, boolean lastSegment) {
+		byte[] segmentIv = iv.clone();
+		int length = segmentIv.length;
+
+		segmentIv[length - 5] ^= (lastSegment) ? 1 : 0;
+		segmentIv[length - 4] ^= (byte) (segmentIndex >>> 24);
+		segmentIv[length - 3] ^= (byte) (segmentIndex >>> 16);
+		segmentIv[length - 2] ^= (byte) (segmentIndex >>> 8);
+		segmentIv[length - 1] ^= (byte) segmentIndex;
+
+		return segmentIv;
+	}
+}
@@ -17,23 +17,55 @@
  */
 package org.syncany.crypto.specs;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.bouncycastle.crypto.engines.AESEngine;
 import org.bouncycastle.crypto.modes.AEADBlockCipher;
 import org.bouncycastle.crypto.modes.GCMBlockCipher;
 import org.bouncycastle.crypto.params.AEADParameters;
 import org.bouncycastle.crypto.params.KeyParameter;
+import org.syncany.crypto.AeadCipher;
 import org.syncany.crypto.CipherException;
 import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherUtil;
 
 /**
- * @author pheckel
+ * Base class for the AES/GCM cipher specs.
+ *
+ * <p>Encryption uses the JDK's own <tt>AES/GCM/NoPadding</tt> {@link Cipher}, because the
+ * JDK provider uses the CPU's AES and carry-less multiplication instructions (where available),
+ * and is hence much faster than the pure Java implementation of Bouncy Castle. Data is passed to
+ * the cipher in blocks of {@link #JCE_BUFFER_SIZE} bytes. The output (ciphertext, followed by the
+ * 128-bit tag) is identical to the output of Bouncy Castle's {@link GCMBlockCipher}. If the JDK
+ * cipher is not available, encryption falls back to Bouncy Castle.
+ *
+ * <p>Decryption still uses Bouncy Castle's streaming implementation: The JDK cipher holds back
+ * the entire plaintext until the tag is verified, i.e. it would buffer complete multichunks in memory.
+ *
+ * <p>The reusable ciphers for segmented streams ({@link #newAeadCipher(boolean, byte[])}) use the
+ * JDK cipher in both directions, since a segment is always processed as a whole. The cipher
+ * instance is re-initialized with the IV of each segment.
  *
+ * @author pheckel
  */
 public abstract class AesGcmCipherSpec extends CipherSpec {
+	private static final Logger logger = Logger.getLogger(AesGcmCipherSpec.class.getSimpleName());
+
 	private static final int MAC_SIZE = 128;		
+	private static final String JCE_ALGORITHM = "AES/GCM/NoPadding";
+	private static final String JCE_KEY_ALGORITHM = "AES";
+
+	public static final int JCE_BUFFER_SIZE = 64 * 1024;
 
 	public AesGcmCipherSpec(int id, String algorithm, int keySize, int ivSize, boolean needsUnlimitedStrength) {
 		super(id, algorithm, keySize, ivSize, needsUnlimitedStrength);
@@ -41,6 +73,21 @@ public abstract class AesGcmCipherSpec extends CipherSpec {
 		
 	@Override
 	public OutputStream newCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException {
+		Cipher jceCipher = createJceCipher(Cipher.ENCRYPT_MODE, secretKey, iv);
+
+		if (jceCipher != null) {
+			return new JceCipherOutputStream(underlyingOutputStream, jceCipher);
+		}
+		else {
+			return newBcCipherOutputStream(underlyingOutputStream, secretKey, iv);
+		}
+	}
+
+	/**
+	 * Creates an encrypting output stream using the Bouncy Castle implementation of AES/GCM.
+	 * This stream is only used if the JDK cipher is not available.
+	 */
+	public OutputStream newBcCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException {
 		AEADBlockCipher cipher = new GCMBlockCipher(new AESEngine()); 
 		cipher.init(true, new AEADParameters(new KeyParameter(secretKey), MAC_SIZE, iv));
 		
@@ -54,4 +101,165 @@ public abstract class AesGcmCipherSpec extends CipherSpec {
 		
 		return new org.bouncycastle.crypto.io.CipherInputStream(underlyingInputStream, cipher);
 	}
+
+	@Override
+	public AeadCipher newAeadCipher(boolean forEncryption, byte[] secretKey) throws CipherException {
+		int jceMode = (forEncryption) ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+		Cipher jceCipher = createJceCipher(jceMode, secretKey, CipherUtil.createRandomArray(getIvSize() / 8));
+
+		if (jceCipher != null) {
+			return new JceAeadCipher(jceCipher, jceMode, secretKey);
+		}
+		else {
+			return new BcAeadCipher(new GCMBlockCipher(new AESEngine()), forEncryption, secretKey, MAC_SIZE);
+		}
+	}
+
+	private Cipher createJceCipher(int mode, byte[] secretKey, byte[] iv) {
+		try {
+			Cipher cipher = Cipher.getInstance(JCE_ALGORITHM);
+			cipher.init(mode, new SecretKeySpec(secretKey, JCE_KEY_ALGORITHM), new GCMParameterSpec(MAC_SIZE, iv));
+
+			return cipher;
+		}
+		catch (GeneralSecurityException | IllegalArgumentException e) {
+			logger.log(Level.FINE, "Cannot initialize JCE cipher " + JCE_ALGORITHM + "; falling back to Bouncy Castle.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reusable cipher that re-initializes the JDK cipher with the IV of each message. The
+	 * JDK caches the AES key schedule as long as the key does not change.
+	 */
+	private static class JceAeadCipher implements AeadCipher {
+		private Cipher cipher;
+		private int mode;
+		private SecretKeySpec secretKeySpec;
+
+		public JceAeadCipher(Cipher cipher, int mode, byte[] secretKey) {
+			this.cipher = cipher;
+			this.mode = mode;
+			this.secretKeySpec = new SecretKeySpec(secretKey, JCE_KEY_ALGORITHM);
+		}
+
+		@Override
+		public int getOutputSize(int inputLength) {
+			return (mode == Cipher.ENCRYPT_MODE) ? inputLength + MAC_SIZE / 8 : Math.max(0, inputLength - MAC_SIZE / 8);
+		}
+
+		@Override
+		public int doFinal(byte[] iv, byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) throws CipherException {
+			try {
+				cipher.init(mode, secretKeySpec, new GCMParameterSpec(MAC_SIZE, iv));
+				return cipher.doFinal(input, inputOffset, inputLength, output, outputOffset);
+			}
+			catch (GeneralSecurityException | RuntimeException e) {
+				throw new CipherException("Cannot " + ((mode == Cipher.ENCRYPT_MODE) ? "encrypt" : "decrypt") + " message with " + JCE_ALGORITHM + ".", e);
+			}
+		}
+	}
+
+	/**
+	 * Output stream that collects the written data in a large buffer, and only passes full
+	 * buffers to the cipher. Writes larger than the buffer are passed to the cipher directly.
+	 * Closing the stream writes the remaining ciphertext and the tag, and closes the
+	 * underlying stream.
+	 */
+	private static class JceCipherOutputStream extends FilterOutputStream {
+		private Cipher cipher;
+		private byte[] buffer;
+		private int bufferLength;
+		private byte[] outputBuffer;
+		private boolean closed;
+
+		public JceCipherOutputStream(OutputStream underlyingOutputStream, Cipher cipher) {
+			super(underlyingOutputStream);
+
+			this.cipher = cipher;
+			this.buffer = new byte[JCE_BUFFER_SIZE];
+			this.bufferLength = 0;
+			this.outputBuffer = new byte[cipher.getOutputSize(JCE_BUFFER_SIZE)];
+			this.closed = false;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (bufferLength == buffer.length) {
+				encryptBuffer();
+			}
+
+			buffer[bufferLength++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (bufferLength == 0 && len >= buffer.length) {
+					encrypt(b, off, buffer.length);
+
+					off += buffer.length;
+					len -= buffer.length;
+				}
+				else {
+					int copyLength = Math.min(len, buffer.length - bufferLength);
+					System.arraycopy(b, off, buffer, bufferLength, copyLength);
+
+					bufferLength += copyLength;
+					off += copyLength;
+					len -= copyLength;
+
+					if (bufferLength == buffer.length) {
+						encryptBuffer();
+					}
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			encryptBuffer();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+
+			try {
+				encryptBuffer();
+				out.write(cipher.doFinal());
+			}
+			catch (GeneralSecurityException e) {
+				throw new IOException("Cannot finalize AES/GCM encryption.", e);
+			}
+			finally {
+				out.close();
+			}
+		}
+
+		private void encryptBuffer() throws IOException {
+			if (bufferLength > 0) {
+				encrypt(buffer, 0, bufferLength);
+				bufferLength = 0;
+			}
+		}
+
+		private void encrypt(byte[] b, int off, int len) throws IOException {
+			try {
+				int outputLength = cipher.update(b, off, len, outputBuffer);
+
+				if (outputLength > 0) {
+					out.write(outputBuffer, 0, outputLength);
+				}
+			}
+			catch (GeneralSecurityException e) {
+				throw new IOException("Cannot encrypt data with AES/GCM.", e);
+			}
+		}
+	}
 }
@@ -0,0 +1,69 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto.specs;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.modes.AEADBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.syncany.crypto.AeadCipher;
+import org.syncany.crypto.CipherException;
+
+/**
+ * Reusable {@link AeadCipher} based on a Bouncy Castle {@link AEADBlockCipher}. The key is
+ * only passed to the block cipher on the first message; for all subsequent messages, the
+ * cipher is re-initialized with the new IV only, so the key schedule is not recomputed.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+class BcAeadCipher implements AeadCipher {
+	private AEADBlockCipher cipher;
+	private boolean forEncryption;
+	private KeyParameter keyParameter;
+	private int macSize; // in bits
+	private boolean keyInitialized;
+
+	public BcAeadCipher(AEADBlockCipher cipher, boolean forEncryption, byte[] secretKey, int macSize) {
+		this.cipher = cipher;
+		this.forEncryption = forEncryption;
+		this.keyParameter = new KeyParameter(secretKey);
+		this.macSize = macSize;
+		this.keyInitialized = false;
+	}
+
+	@Override
+	public int getOutputSize(int inputLength) {
+		return (forEncryption) ? inputLength + macSize / 8 : Math.max(0, inputLength - macSize / 8);
+	}
+
+	@Override
+	public int doFinal(byte[] iv, byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) throws CipherException {
+		try {
+			cipher.init(forEncryption, new AEADParameters((keyInitialized) ? null : keyParameter, macSize, iv));
+			keyInitialized = true;
+
+			int outputLength = cipher.processBytes(input, inputOffset, inputLength, output, outputOffset);
+			outputLength += cipher.doFinal(output, outputOffset + outputLength);
+
+			return outputLength;
+		}
+		catch (InvalidCipherTextException | RuntimeException e) {
+			throw new CipherException("Cannot " + ((forEncryption) ? "encrypt" : "decrypt") + " message with " + cipher.getAlgorithmName() + ".", e);
+		}
+	}
+}
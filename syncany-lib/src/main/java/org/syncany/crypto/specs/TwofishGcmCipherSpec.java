@@ -25,6 +25,7 @@ import org.bouncycastle.crypto.modes.AEADBlockCipher;
 import org.bouncycastle.crypto.modes.GCMBlockCipher;
 import org.bouncycastle.crypto.params.AEADParameters;
 import org.bouncycastle.crypto.params.KeyParameter;
+import org.syncany.crypto.AeadCipher;
 import org.syncany.crypto.CipherException;
 import org.syncany.crypto.CipherSpec;
 
@@ -50,4 +51,9 @@ public abstract class TwofishGcmCipherSpec extends CipherSpec {
 		
 		return new org.bouncycastle.crypto.io.CipherInputStream(underlyingInputStream, cipher);
 	}
+
+	@Override
+	public AeadCipher newAeadCipher(boolean forEncryption, byte[] secretKey) throws CipherException {
+		return new BcAeadCipher(new GCMBlockCipher(new TwofishEngine()), forEncryption, secretKey, MAC_SIZE);
+	}
 }
@@ -0,0 +1,677 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.util.EnvironmentUtil;
+
+/**
+ * The chunk index is a compact hash table that maps raw chunk checksums to
+ * chunk sizes. It is used by the {@link org.syncany.database.dao.ChunkSqlDao ChunkSqlDao}
+ * to quickly answer whether a chunk is already known locally, without having to keep
+ * a {@link ChunkEntry} object for each chunk on the heap.
+ *
+ * <p>The table uses open addressing with linear probing. Each slot has a fixed size and
+ * holds the length of the checksum (0 for an empty slot), the checksum bytes and the chunk
+ * size. All slots live outside of the Java heap: Either in a memory-mapped file (see
+ * {@link #open(File)}), or in direct buffers (see {@link #createInMemory()}). Since a single
+ * buffer cannot be larger than 2 GB, the slots are split into <b>segments</b> of at most
+ * {@link #DEFAULT_MAX_SEGMENT_SIZE} bytes, each of which holds a power of two of slots. A slot
+ * is hence located by its index alone: The upper bits select the segment, the lower bits the
+ * slot within the segment.
+ *
+ * <p>In front of the table, the index holds a <b>blocked Bloom filter</b> over all checksums in
+ * the index (see {@link #mightContain(byte[])}). Each checksum sets a few bits in a single 64-bit
+ * word of the filter, so a lookup touches at most one word. If the filter does not contain a
+ * checksum, the checksum is definitely not in the index, and the table does not have to be probed.
+ * The filter is updated with every {@link #put(byte[], int) put()} and stored in the same
+ * file as the table.
+ *
+ * <p>A file-based index is persisted next to the local database, so that it does not have
+ * to be rebuilt every time the application starts. To detect whether the persisted index still
+ * matches the database, the index stores a <b>stamp</b>. The stamp is computed by the caller
+ * from the database state; a stamp of 0 marks the index as invalid. Callers must invalidate
+ * the index before modifying it, and set the new stamp afterwards (see {@link #invalidate()}
+ * and {@link #setStamp(long)}). When the index grows, the resized table is written to a new
+ * file, which then replaces the old one; the old file is never resized while it is mapped.
+ *
+ * <p>Memory-mapping is disabled by default on Windows, because a mapped file cannot be
+ * replaced or deleted until it is unmapped by the garbage collector. On Windows, file-based
+ * indexes are hence held in direct buffers only, and rebuilt once per application start.
+ *
+ * <p>Only one instance per index file exists within the application, i.e. {@link #open(File)}
+ * returns the same instance for the same file, until the instance is released with
+ * {@link #close(File)}, or its file is deleted. All public methods are synchronized, but
+ * callers must synchronize on the index themselves to perform a series of operations atomically.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ChunkIndex {
+	private static final Logger logger = Logger.getLogger(ChunkIndex.class.getSimpleName());
+
+	public static final boolean DEFAULT_MEMORY_MAP_ENABLED = !EnvironmentUtil.isWindows();
+	public static final int DEFAULT_MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+	private static final int MAGIC = 0x53594349; // "SYCI"
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_OFFSET_MAGIC = 0;
+	private static final int HEADER_OFFSET_VERSION = 4;
+	private static final int HEADER_OFFSET_KEY_LENGTH = 8;
+	private static final int HEADER_OFFSET_CAPACITY = 12;
+	private static final int HEADER_OFFSET_SIZE = 16;
+	private static final int HEADER_OFFSET_STAMP = 24;
+	private static final int HEADER_OFFSET_FILTER_WORDS = 32;
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final int MAX_CAPACITY = 1 << 30;
+	private static final int DEFAULT_KEY_LENGTH = 20;
+	private static final float MAX_LOAD_FACTOR = 0.7f;
+
+	private static final int FILTER_SLOTS_PER_WORD = 8; // = 8 filter bits per slot
+	private static final int FILTER_HASH_FUNCTIONS = 6;
+
+	private static final String RESIZE_FILE_SUFFIX = ".resize";
+
+	private static final Map<File, ChunkIndex> openIndexes = new HashMap<File, ChunkIndex>();
+
+	private File file;
+	private boolean memoryMapped;
+	private int maxSegmentSize;
+	private volatile long fileLength;
+	private volatile Object fileKey;
+
+	private ByteBuffer headerBuffer; // header and Bloom filter
+	private ByteBuffer[] slotSegments;
+	private int segmentShift;
+	private int segmentSlotMask;
+
+	private int keyLength;
+	private int slotSize;
+	private int capacity;
+	private int size;
+
+	private int filterWords;
+	private int slotsOffset;
+
+	private ChunkIndex(File file, boolean memoryMapped, int maxSegmentSize) {
+		this.file = file;
+		this.memoryMapped = file != null && memoryMapped;
+		this.maxSegmentSize = maxSegmentSize;
+	}
+
+	/**
+	 * Opens (or creates) the file-based chunk index at the given location. If the
+	 * index has already been opened by this application, the existing instance is returned.
+	 *
+	 * <p>If the file does not exist or is not a valid chunk index file, an empty index
+	 * with stamp 0 (= invalid) is created.
+	 *
+	 * @param file Index file, typically next to the local database
+	 * @return Returns the chunk index for this file
+	 * @throws IOException If the file cannot be created or mapped
+	 */
+	public static ChunkIndex open(File file) throws IOException {
+		return open(file, DEFAULT_MEMORY_MAP_ENABLED, DEFAULT_MAX_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens (or creates) the file-based chunk index at the given location, see {@link #open(File)}.
+	 * The mapping options only apply if the index is not already open.
+	 *
+	 * @param file Index file, typically next to the local database
+	 * @param memoryMapped If false, the index is held in direct buffers and not persisted
+	 * @param maxSegmentSize Maximum size of a single buffer holding slots (in bytes)
+	 * @return Returns the chunk index for this file
+	 * @throws IOException If the file cannot be created or mapped
+	 */
+	public static synchronized ChunkIndex open(File file, boolean memoryMapped, int maxSegmentSize) throws IOException {
+		File canonicalFile = file.getCanonicalFile();
+
+		removeStaleIndexes();
+		ChunkIndex chunkIndex = openIndexes.get(canonicalFile);
+
+		if (chunkIndex == null) {
+			chunkIndex = new ChunkIndex(canonicalFile, memoryMapped, maxSegmentSize);
+			chunkIndex.load();
+
+			openIndexes.put(canonicalFile, chunkIndex);
+		}
+
+		return chunkIndex;
+	}
+
+	/**
+	 * Releases the index for the given file, e.g. when the repository is closed. A subsequent
+	 * {@link #open(File)} creates a new instance. Since mapped buffers cannot be unmapped
+	 * explicitly, the mapping is only released once the instance is garbage collected, i.e.
+	 * callers must drop all references to the released instance.
+	 */
+	public static synchronized void close(File file) throws IOException {
+		openIndexes.remove(file.getCanonicalFile());
+	}
+
+	/**
+	 * Creates a new, empty chunk index that is not persisted. The slots are
+	 * stored in direct (off-heap) buffers.
+	 */
+	public static ChunkIndex createInMemory() {
+		return createInMemory(DEFAULT_MAX_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Creates a new, empty chunk index that is not persisted, see {@link #createInMemory()}.
+	 *
+	 * @param maxSegmentSize Maximum size of a single buffer holding slots (in bytes)
+	 */
+	public static ChunkIndex createInMemory(int maxSegmentSize) {
+		ChunkIndex chunkIndex = new ChunkIndex(null, false, maxSegmentSize);
+		chunkIndex.init(DEFAULT_CAPACITY, DEFAULT_KEY_LENGTH);
+
+		return chunkIndex;
+	}
+
+	/**
+	 * Returns the size of the chunk with the given checksum, or -1 if
+	 * the chunk is not in the index.
+	 */
+	public synchronized int get(byte[] checksum) {
+		if (checksum.length > keyLength) {
+			return -1;
+		}
+
+		int slot = findSlot(checksum);
+		ByteBuffer segment = getSegment(slot);
+		int segmentOffset = getSegmentOffset(slot);
+
+		if (segment.get(segmentOffset) == 0) {
+			return -1;
+		}
+		else {
+			return segment.getInt(segmentOffset + 1 + keyLength);
+		}
+	}
+
+	/**
+	 * Checks the Bloom filter of the index for the given checksum. If this method returns
+	 * <tt>false</tt>, the checksum is definitely not in the index. If it returns <tt>true</tt>,
+	 * the checksum is <b>probably</b> in the index, and {@link #get(byte[])} must be used to
+	 * find out for sure.
+	 */
+	public synchronized boolean mightContain(byte[] checksum) {
+		if (checksum.length > keyLength) {
+			return false;
+		}
+
+		long hash = hash(checksum);
+		long filterMask = getFilterMask(hash);
+
+		return (headerBuffer.getLong(getFilterWordOffset(hash)) & filterMask) == filterMask;
+	}
+
+	/**
+	 * Returns whether the chunk with the given checksum is in the index.
+	 */
+	public synchronized boolean contains(byte[] checksum) {
+		return get(checksum) >= 0;
+	}
+
+	/**
+	 * Adds the given chunk to the index, or updates its size if it
+	 * already exists. The index grows automatically if necessary.
+	 */
+	public synchronized void put(byte[] checksum, int chunkSize) {
+		if (checksum.length == 0 || checksum.length > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid checksum length: " + checksum.length);
+		}
+
+		if (checksum.length > keyLength) {
+			resize(capacity, checksum.length);
+		}
+		else if (size + 1 > capacity * MAX_LOAD_FACTOR) {
+			if (capacity >= MAX_CAPACITY) {
+				throw new IllegalStateException("Chunk index is full; cannot hold more than " + size + " chunks.");
+			}
+
+			resize(capacity * 2, keyLength);
+		}
+
+		int slot = findSlot(checksum);
+		ByteBuffer segment = getSegment(slot);
+		int segmentOffset = getSegmentOffset(slot);
+
+		if (segment.get(segmentOffset) == 0) {
+			writeSlot(segment, segmentOffset, checksum, chunkSize);
+			addToFilter(checksum);
+
+			size++;
+			headerBuffer.putInt(HEADER_OFFSET_SIZE, size);
+		}
+		else {
+			segment.putInt(segmentOffset + 1 + keyLength, chunkSize);
+		}
+	}
+
+	/**
+	 * Removes all entries from the index and resets the Bloom filter. The capacity
+	 * of the index is retained.
+	 */
+	public synchronized void clear() {
+		clearFilterAndSlots();
+
+		size = 0;
+		headerBuffer.putInt(HEADER_OFFSET_SIZE, size);
+	}
+
+	/**
+	 * Returns the number of chunks in the index.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the stamp of the index, or 0 if the index is invalid.
+	 */
+	public synchronized long getStamp() {
+		return headerBuffer.getLong(HEADER_OFFSET_STAMP);
+	}
+
+	/**
+	 * Sets the stamp of the index, i.e. marks the index as valid for
+	 * the database state identified by this stamp.
+	 */
+	public synchronized void setStamp(long stamp) {
+		headerBuffer.putLong(HEADER_OFFSET_STAMP, stamp);
+	}
+
+	/**
+	 * Marks the index as invalid by resetting the stamp to 0. For file-based indexes,
+	 * this change is immediately written to disk, so that a partially modified
+	 * index is never mistaken for a valid one (e.g. after a crash).
+	 */
+	public synchronized void invalidate() {
+		headerBuffer.putLong(HEADER_OFFSET_STAMP, 0);
+
+		if (memoryMapped) {
+			((MappedByteBuffer) headerBuffer).force();
+		}
+	}
+
+	/**
+	 * Removes all indexes from the list of open indexes whose file was deleted or replaced
+	 * since it was opened, e.g. if the application folder was deleted (and re-created).
+	 */
+	private static void removeStaleIndexes() {
+		Iterator<ChunkIndex> openIndexIterator = openIndexes.values().iterator();
+
+		while (openIndexIterator.hasNext()) {
+			if (openIndexIterator.next().isStale()) {
+				openIndexIterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the index file was deleted or replaced. This method does not lock the index, so
+	 * that the list of open indexes is not blocked while an index is rebuilt; it only reads volatile fields.
+	 */
+	private boolean isStale() {
+		if (memoryMapped) {
+			return !file.exists() || file.length() != fileLength || (fileKey != null && !fileKey.equals(readFileKey()));
+		}
+		else {
+			return !file.getParentFile().exists();
+		}
+	}
+
+	private void load() throws IOException {
+		if (memoryMapped && file.exists() && file.length() >= HEADER_SIZE) {
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+				ByteBuffer fileHeaderBuffer = ByteBuffer.allocate(HEADER_SIZE);
+				randomAccessFile.getChannel().read(fileHeaderBuffer, 0);
+
+				int fileMagic = fileHeaderBuffer.getInt(HEADER_OFFSET_MAGIC);
+				int fileVersion = fileHeaderBuffer.getInt(HEADER_OFFSET_VERSION);
+				int fileKeyLength = fileHeaderBuffer.getInt(HEADER_OFFSET_KEY_LENGTH);
+				int fileCapacity = fileHeaderBuffer.getInt(HEADER_OFFSET_CAPACITY);
+				int fileSize = fileHeaderBuffer.getInt(HEADER_OFFSET_SIZE);
+				int fileFilterWords = fileHeaderBuffer.getInt(HEADER_OFFSET_FILTER_WORDS);
+
+				boolean validHeader = fileMagic == MAGIC && fileVersion == VERSION && fileKeyLength > 0 && fileKeyLength <= Byte.MAX_VALUE
+						&& fileCapacity > 0 && fileCapacity <= MAX_CAPACITY && Integer.bitCount(fileCapacity) == 1
+						&& fileSize >= 0 && fileSize < fileCapacity && fileFilterWords == getFilterWords(fileCapacity)
+						&& file.length() == getLength(fileCapacity, fileKeyLength);
+
+				if (validHeader) {
+					logger.log(Level.INFO, "Loading chunk index from " + file + " (" + fileSize + " chunks) ...");
+
+					initLayout(fileCapacity, fileKeyLength);
+					size = fileSize;
+
+					map(randomAccessFile.getChannel());
+					fileLength = file.length();
+					fileKey = readFileKey();
+
+					return;
+				}
+			}
+
+			logger.log(Level.WARNING, "Chunk index file " + file + " is invalid. Creating new index.");
+		}
+
+		init(DEFAULT_CAPACITY, DEFAULT_KEY_LENGTH);
+	}
+
+	private Object readFileKey() {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a new, empty table. For memory-mapped indexes, the file is (re-)created
+	 * with the new length; this method must hence never be called while the file is mapped.
+	 */
+	private void init(int newCapacity, int newKeyLength) {
+		initLayout(newCapacity, newKeyLength);
+		size = 0;
+
+		if (memoryMapped) {
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+				randomAccessFile.setLength(getLength(capacity, keyLength));
+
+				map(randomAccessFile.getChannel());
+				fileLength = file.length();
+				fileKey = readFileKey();
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Cannot map chunk index file " + file, e);
+			}
+		}
+		else {
+			headerBuffer = ByteBuffer.allocateDirect(slotsOffset);
+
+			for (int i = 0; i < slotSegments.length; i++) {
+				slotSegments[i] = ByteBuffer.allocateDirect(getSegmentLength());
+			}
+		}
+
+		writeHeader(0);
+		clearFilterAndSlots();
+	}
+
+	/**
+	 * Calculates the positions of the filter and the slots, and the number of slots
+	 * per segment for the given capacity and key length.
+	 */
+	private void initLayout(int newCapacity, int newKeyLength) {
+		keyLength = newKeyLength;
+		slotSize = getSlotSize(keyLength);
+		capacity = newCapacity;
+		filterWords = getFilterWords(capacity);
+		slotsOffset = getSlotsOffset(filterWords);
+
+		int slotsPerSegment = Math.min(capacity, Integer.highestOneBit(Math.max(1, maxSegmentSize / slotSize)));
+
+		segmentShift = Integer.numberOfTrailingZeros(slotsPerSegment);
+		segmentSlotMask = slotsPerSegment - 1;
+		slotSegments = new ByteBuffer[capacity / slotsPerSegment];
+	}
+
+	private void map(FileChannel fileChannel) throws IOException {
+		headerBuffer = fileChannel.map(MapMode.READ_WRITE, 0, slotsOffset);
+
+		for (int i = 0; i < slotSegments.length; i++) {
+			long segmentPosition = slotsOffset + (long) i * getSegmentLength();
+			slotSegments[i] = fileChannel.map(MapMode.READ_WRITE, segmentPosition, getSegmentLength());
+		}
+	}
+
+	/**
+	 * Grows the index by creating a new table and re-inserting all entries; the Bloom filter is
+	 * rebuilt from the slots. For memory-mapped indexes, the new table is written to a separate
+	 * file, which replaces the index file once it is complete. The old file is neither resized
+	 * nor modified, so the old mapping stays valid until it is garbage collected.
+	 */
+	private void resize(int newCapacity, int newKeyLength) {
+		logger.log(Level.INFO, "Resizing chunk index to capacity " + newCapacity + ", key length " + newKeyLength + " ...");
+
+		File resizedFile = (memoryMapped) ? new File(file.getPath() + RESIZE_FILE_SUFFIX) : null;
+		ChunkIndex resizedIndex = new ChunkIndex(resizedFile, memoryMapped, maxSegmentSize);
+
+		resizedIndex.init(newCapacity, newKeyLength);
+
+		byte[] checksum = new byte[keyLength];
+
+		for (int slot = 0; slot < capacity; slot++) {
+			ByteBuffer segment = getSegment(slot);
+			int segmentOffset = getSegmentOffset(slot);
+			int checksumLength = segment.get(segmentOffset);
+
+			if (checksumLength > 0) {
+				if (checksum.length != checksumLength) {
+					checksum = new byte[checksumLength];
+				}
+
+				for (int i = 0; i < checksumLength; i++) {
+					checksum[i] = segment.get(segmentOffset + 1 + i);
+				}
+
+				resizedIndex.put(checksum, segment.getInt(segmentOffset + 1 + keyLength));
+			}
+		}
+
+		resizedIndex.setStamp(getStamp());
+
+		if (memoryMapped) {
+			try {
+				Files.move(resizedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Cannot replace chunk index file " + file + " with resized index " + resizedFile, e);
+			}
+		}
+
+		headerBuffer = resizedIndex.headerBuffer;
+		slotSegments = resizedIndex.slotSegments;
+		segmentShift = resizedIndex.segmentShift;
+		segmentSlotMask = resizedIndex.segmentSlotMask;
+		keyLength = resizedIndex.keyLength;
+		slotSize = resizedIndex.slotSize;
+		capacity = resizedIndex.capacity;
+		size = resizedIndex.size;
+		filterWords = resizedIndex.filterWords;
+		slotsOffset = resizedIndex.slotsOffset;
+		fileLength = resizedIndex.fileLength;
+		fileKey = (memoryMapped) ? readFileKey() : null;
+	}
+
+	private void writeHeader(long stamp) {
+		headerBuffer.putInt(HEADER_OFFSET_MAGIC, MAGIC);
+		headerBuffer.putInt(HEADER_OFFSET_VERSION, VERSION);
+		headerBuffer.putInt(HEADER_OFFSET_KEY_LENGTH, keyLength);
+		headerBuffer.putInt(HEADER_OFFSET_CAPACITY, capacity);
+		headerBuffer.putInt(HEADER_OFFSET_SIZE, size);
+		headerBuffer.putLong(HEADER_OFFSET_STAMP, stamp);
+		headerBuffer.putInt(HEADER_OFFSET_FILTER_WORDS, filterWords);
+	}
+
+	private void clearFilterAndSlots() {
+		clear(headerBuffer, HEADER_SIZE, slotsOffset);
+
+		for (ByteBuffer segment : slotSegments) {
+			clear(segment, 0, segment.capacity());
+		}
+	}
+
+	private static void clear(ByteBuffer buffer, int startOffset, int endOffset) {
+		int offset = startOffset;
+
+		for (; offset + 8 <= endOffset; offset += 8) {
+			buffer.putLong(offset, 0);
+		}
+
+		for (; offset < endOffset; offset++) {
+			buffer.put(offset, (byte) 0);
+		}
+	}
+
+	private void writeSlot(ByteBuffer segment, int segmentOffset, byte[] checksum, int chunkSize) {
+		segment.put(segmentOffset, (byte) checksum.length);
+
+		for (int i = 0; i < checksum.length; i++) {
+			segment.put(segmentOffset + 1 + i, checksum[i]);
+		}
+
+		segment.putInt(segmentOffset + 1 + keyLength, chunkSize);
+	}
+
+	private void addToFilter(byte[] checksum) {
+		long hash = hash(checksum);
+		int filterWordOffset = getFilterWordOffset(hash);
+
+		headerBuffer.putLong(filterWordOffset, headerBuffer.getLong(filterWordOffset) | getFilterMask(hash));
+	}
+
+	/**
+	 * Returns the offset of the filter word for the given hash. The word is
+	 * selected by the upper bits of the hash; the slot is selected by the lower bits.
+	 */
+	private int getFilterWordOffset(long hash) {
+		return HEADER_SIZE + ((int) (hash >>> 32) & (filterWords - 1)) * 8;
+	}
+
+	/**
+	 * Returns the bits to set/check in the filter word. Each of the bit positions
+	 * is taken from a different 6-bit group of a re-mixed hash.
+	 */
+	private static long getFilterMask(long hash) {
+		long bitHash = mix(hash + 0x9e3779b97f4a7c15L);
+		long mask = 0;
+
+		for (int i = 0; i < FILTER_HASH_FUNCTIONS; i++) {
+			mask |= 1L << (bitHash & 63);
+			bitHash >>>= 6;
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Returns the slot that contains the given checksum, or the first empty
+	 * slot in the probe sequence if the checksum is not in the index.
+	 */
+	private int findSlot(byte[] checksum) {
+		int mask = capacity - 1;
+		int slot = (int) hash(checksum) & mask;
+
+		for (int probe = 0; probe < capacity; probe++) {
+			ByteBuffer segment = getSegment(slot);
+			int segmentOffset = getSegmentOffset(slot);
+			int slotChecksumLength = segment.get(segmentOffset);
+
+			if (slotChecksumLength == 0 || (slotChecksumLength == checksum.length && slotEquals(segment, segmentOffset, checksum))) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		throw new IllegalStateException("Chunk index is full or corrupt: " + file);
+	}
+
+	private boolean slotEquals(ByteBuffer segment, int segmentOffset, byte[] checksum) {
+		for (int i = 0; i < checksum.length; i++) {
+			if (segment.get(segmentOffset + 1 + i) != checksum[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private ByteBuffer getSegment(int slot) {
+		return slotSegments[slot >>> segmentShift];
+	}
+
+	private int getSegmentOffset(int slot) {
+		return (slot & segmentSlotMask) * slotSize;
+	}
+
+	private int getSegmentLength() {
+		return (segmentSlotMask + 1) * slotSize;
+	}
+
+	private static int getSlotSize(int keyLength) {
+		return 1 + keyLength + 4; // length, checksum, chunk size
+	}
+
+	private static int getFilterWords(int capacity) {
+		return Math.max(1, capacity / FILTER_SLOTS_PER_WORD);
+	}
+
+	private static int getSlotsOffset(int filterWords) {
+		return HEADER_SIZE + filterWords * 8;
+	}
+
+	private static long getLength(int capacity, int keyLength) {
+		return getSlotsOffset(getFilterWords(capacity)) + (long) capacity * getSlotSize(keyLength);
+	}
+
+	private static long hash(byte[] checksum) {
+		// Checksums are usually uniformly distributed, but mix all bytes anyway to
+		// be safe with short or artificial checksums (FNV-1a, MurmurHash3 finalizer)
+		long hash = 0xcbf29ce484222325L;
+
+		for (byte b : checksum) {
+			hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+		}
+
+		return mix(hash);
+	}
+
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+}
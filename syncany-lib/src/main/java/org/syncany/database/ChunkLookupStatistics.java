@@ -0,0 +1,107 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+/**
+ * Counts the chunk lookups of a {@link org.syncany.database.dao.ChunkSqlDao ChunkSqlDao}
+ * and how effective the Bloom filter of the {@link ChunkIndex} is for these lookups.
+ *
+ * <p>Each lookup either ends at the filter (the chunk is definitely unknown), or it is
+ * passed on to the hash table of the index. Lookups that pass the filter, but are not found
+ * in the table are <b>false positives</b> of the filter.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ChunkLookupStatistics {
+	private long lookups;
+	private long filterNegatives;
+	private long falsePositives;
+
+	public synchronized void recordFilterNegative() {
+		lookups++;
+		filterNegatives++;
+	}
+
+	public synchronized void recordFilterPositive(boolean found) {
+		lookups++;
+
+		if (!found) {
+			falsePositives++;
+		}
+	}
+
+	public synchronized void reset() {
+		lookups = 0;
+		filterNegatives = 0;
+		falsePositives = 0;
+	}
+
+	/**
+	 * Returns the total number of chunk lookups.
+	 */
+	public synchronized long getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * Returns the number of lookups that were answered by the Bloom filter
+	 * alone, i.e. without probing the hash table.
+	 */
+	public synchronized long getFilterNegatives() {
+		return filterNegatives;
+	}
+
+	/**
+	 * Returns the number of lookups that passed the Bloom filter, i.e. that
+	 * had to be checked against the hash table.
+	 */
+	public synchronized long getFilterPositives() {
+		return lookups - filterNegatives;
+	}
+
+	/**
+	 * Returns the number of lookups that passed the Bloom filter, but
+	 * were not found in the hash table.
+	 */
+	public synchronized long getFalsePositives() {
+		return falsePositives;
+	}
+
+	/**
+	 * Returns the share of lookups that were answered by the Bloom filter
+	 * alone (0..1), or 0 if there were no lookups.
+	 */
+	public synchronized double getFilterNegativeRate() {
+		return (lookups > 0) ? (double) filterNegatives / lookups : 0;
+	}
+
+	/**
+	 * Returns the share of unknown chunks that passed the Bloom filter (0..1),
+	 * or 0 if there were no lookups of unknown chunks.
+	 */
+	public synchronized double getFalsePositiveRate() {
+		long unknownChunkLookups = filterNegatives + falsePositives;
+		return (unknownChunkLookups > 0) ? (double) falsePositives / unknownChunkLookups : 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d lookups, %d answered by filter (%.1f%%), %d false positives (%.2f%%)", lookups, filterNegatives,
+				getFilterNegativeRate() * 100, falsePositives, getFalsePositiveRate() * 100);
+	}
+}
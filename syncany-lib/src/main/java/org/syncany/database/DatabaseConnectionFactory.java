@@ -27,11 +27,14 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.io.FileUtils;
+import org.hsqldb.persist.LockFile;
 import org.syncany.util.FileUtil;
 import org.syncany.util.SqlRunner;
 
@@ -41,7 +44,9 @@ import org.syncany.util.SqlRunner;
  *
  * <p>The class provides methods to create {@link Connection} objects, retrieve
  * SQL statements from the resources, and create the initial tables when the
- * application is first started.
+ * application is first started. Databases created by older versions (with hex-encoded
+ * checksum columns, or without the <i>fileversion_head</i> table) are migrated to the current
+ * schema when they are opened.
  *
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
@@ -52,6 +57,13 @@ public class DatabaseConnectionFactory {
 	public static final String DATABASE_CONNECTION_FILE_STRING = "jdbc:hsqldb:file:%DATABASEFILE%;user=sa;password=;create=true;write_delay=false;hsqldb.write_delay=false";
 	public static final String DATABASE_RESOURCE_PATTERN = "/org/syncany/database/sql/%s";
 	public static final String DATABASE_RESOURCE_CREATE_ALL = "script.create.all.sql";
+	public static final String DATABASE_RESOURCE_MIGRATE_BINARY_CHECKSUMS = "script.migrate.binarychecksums.sql";
+	public static final String DATABASE_RESOURCE_MIGRATE_FILEVERSION_HEAD = "script.migrate.fileversionhead.sql";
+	public static final int DATABASE_RESULT_MAX_MEMORY_ROWS = 10000;
+
+	private static final String DATABASE_MIGRATION_BACKUP_SUFFIX = ".migration";
+	private static final String DATABASE_MIGRATION_BACKUP_TEMP_SUFFIX = ".tmp";
+	private static final String[] DATABASE_FILE_SUFFIXES = new String[] { ".properties", ".script", ".data", ".log", ".backup", ".lobs" };
 
 	public static final Map<String, String> DATABASE_STATEMENTS = new HashMap<String, String>();
 
@@ -75,6 +87,22 @@ public class DatabaseConnectionFactory {
 	 * @return Returns a valid database connection
 	 */
 	public static Connection createConnection(File databaseFile, boolean readOnly) {
+		return createConnection(databaseFile, readOnly, true);
+	}
+
+	/**
+	 * Creates a database connection using the given database file. If <tt>checkSchema</tt> is
+	 * set, this method behaves like {@link #createConnection(File, boolean)}. If not, the
+	 * tables are assumed to exist, and the connection is returned without querying
+	 * the schema. This is used by the {@link DatabaseConnectionPool} for all but the
+	 * first connection.
+	 *
+	 * @param databaseFile File at which to create/load the database
+	 * @param readOnly True if this connection is only used for reading.
+	 * @param checkSchema True if the tables should be checked, and created or migrated if necessary
+	 * @return Returns a valid database connection
+	 */
+	public static Connection createConnection(File databaseFile, boolean readOnly, boolean checkSchema) {
 		String databaseFilePath = FileUtil.getDatabasePath(databaseFile.toString());
 		String connectionString = DATABASE_CONNECTION_FILE_STRING.replaceAll("%DATABASEFILE%", databaseFilePath);
 
@@ -82,7 +110,7 @@ public class DatabaseConnectionFactory {
 			connectionString += ";hsqldb.sqllog=3";
 		}
 
-		return createConnection(connectionString, readOnly);
+		return createConnection(databaseFile, connectionString, readOnly, checkSchema);
 	}
 
 	/**
@@ -123,21 +151,32 @@ public class DatabaseConnectionFactory {
 		return statementInputStream;
 	}
 
-	private static Connection createConnection(String connectionString, boolean readOnly) {
+	private static Connection createConnection(File databaseFile, String connectionString, boolean readOnly, boolean checkSchema) {
 		try {
-			Connection connection = DriverManager.getConnection(connectionString);
-			connection.setAutoCommit(false);
-			connection.setReadOnly(readOnly);
-
-			// We use UNCOMMITTED read to enable operations to alter the database and continue
-			// with those changes, but still roll back the database if something goes wrong later.
-			connection.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-
-			// Test and create tables
-			if (!tablesExist(connection)) {
-				createTables(connection);
+			Connection connection;
+
+			if (checkSchema) {
+				// The schema is checked, created or migrated on a read-write connection,
+				// even if the caller only reads; read-only sessions cannot alter it
+				synchronized (DatabaseConnectionFactory.class) {
+					restoreInterruptedMigration(databaseFile);
+
+					connection = openConnection(connectionString);
+
+					try {
+						checkSchema(connection, databaseFile);
+					}
+					catch (SQLException | IOException e) {
+						closeQuietly(connection);
+						throw e;
+					}
+				}
+			}
+			else {
+				connection = openConnection(connectionString);
 			}
 
+			connection.setReadOnly(readOnly);
 			return connection;
 		}
 		catch (Exception e) {
@@ -150,6 +189,40 @@ public class DatabaseConnectionFactory {
 		}
 	}
 
+	private static Connection openConnection(String connectionString) throws SQLException {
+		Connection connection = DriverManager.getConnection(connectionString);
+		connection.setAutoCommit(false);
+
+		// We use UNCOMMITTED read to enable operations to alter the database and continue
+		// with those changes, but still roll back the database if something goes wrong later.
+		connection.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+
+		return connection;
+	}
+
+	private static void checkSchema(Connection connection, File databaseFile) throws SQLException, IOException {
+		// Test and create tables
+		if (!tablesExist(connection)) {
+			createTables(connection);
+		}
+		else {
+			if (hasHexChecksumColumns(connection)) {
+				migrateTables(connection, databaseFile, DATABASE_RESOURCE_MIGRATE_BINARY_CHECKSUMS);
+			}
+
+			if (!fileVersionHeadTableExists(connection)) {
+				migrateTables(connection, databaseFile, DATABASE_RESOURCE_MIGRATE_FILEVERSION_HEAD);
+			}
+		}
+
+		if (getResultMaxMemoryRows(connection) != DATABASE_RESULT_MAX_MEMORY_ROWS) {
+			setResultMaxMemoryRows(connection);
+		}
+
+		// End the transaction of the schema check; the read-only flag cannot be changed within a transaction
+		connection.commit();
+	}
+
 	private static boolean tablesExist(Connection connection) throws SQLException {
 		try (ResultSet resultSet = connection.prepareStatement(
 				"SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES WHERE TABLE_TYPE='TABLE'")
@@ -177,6 +250,165 @@ public class DatabaseConnectionFactory {
 		connection.setAutoCommit(false);
 	}
 
+	/**
+	 * Checks whether the database still stores checksums and multichunk identifiers
+	 * as hex strings (varchar), i.e. if it was created by an older version.
+	 */
+	private static boolean hasHexChecksumColumns(Connection connection) throws SQLException {
+		try (ResultSet resultSet = connection.prepareStatement(
+				"SELECT TYPE_NAME FROM INFORMATION_SCHEMA.SYSTEM_COLUMNS WHERE TABLE_NAME='CHUNK' AND COLUMN_NAME='CHECKSUM'")
+				.executeQuery()) {
+
+			return resultSet.next() && "VARCHAR".equals(resultSet.getString(1));
+		}
+	}
+
+	/**
+	 * Checks whether the materialized <i>fileversion_head</i> table exists, i.e. if
+	 * the database was not created by an older version.
+	 */
+	private static boolean fileVersionHeadTableExists(Connection connection) throws SQLException {
+		try (ResultSet resultSet = connection.prepareStatement(
+				"SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES WHERE TABLE_TYPE='TABLE' AND TABLE_NAME='FILEVERSION_HEAD'")
+				.executeQuery()) {
+
+			resultSet.next();
+			return resultSet.getInt(1) > 0;
+		}
+	}
+
+	/**
+	 * Migrates the tables of an existing database using the given migration script. The script
+	 * runs in a single transaction, but HSQLDB implicitly commits each DDL statement. To not leave a
+	 * half-migrated schema behind if the migration fails or the application crashes, the database
+	 * is backed up before the script runs, and restored from this backup if the migration is not
+	 * completed (see {@link #restoreInterruptedMigration(File)}).
+	 *
+	 * <p>If the migration fails, the database is shut down to restore the backup, so the given
+	 * connection must not be used anymore.
+	 */
+	private static void migrateTables(Connection connection, File databaseFile, String migrationResourceIdentifier) throws SQLException, IOException {
+		logger.log(Level.INFO, "Migrating database tables using " + migrationResourceIdentifier + " ...");
+
+		backupDatabase(connection, databaseFile);
+
+		String fullResourcePath = String.format(DATABASE_RESOURCE_PATTERN, migrationResourceIdentifier);
+		InputStream inputStream = DatabaseConnectionFactory.class.getResourceAsStream(fullResourcePath);
+
+		try {
+			SqlRunner.runScript(connection, inputStream);
+			connection.commit();
+		}
+		catch (SQLException | IOException e) {
+			logger.log(Level.SEVERE, "Migrating database tables failed; restoring database from backup.", e);
+
+			shutdownDatabase(connection);
+			restoreInterruptedMigration(databaseFile);
+
+			throw e;
+		}
+
+		FileUtils.deleteDirectory(getMigrationBackupDir(databaseFile));
+		logger.log(Level.INFO, "Migrating database tables succeeded; deleted backup.");
+	}
+
+	/**
+	 * Writes a consistent copy of the database files to the migration backup folder. The
+	 * backup is written to a temporary folder first, so that an incomplete backup is never
+	 * restored.
+	 */
+	private static void backupDatabase(Connection connection, File databaseFile) throws SQLException, IOException {
+		File migrationBackupDir = getMigrationBackupDir(databaseFile);
+		File tempMigrationBackupDir = new File(migrationBackupDir.getAbsolutePath() + DATABASE_MIGRATION_BACKUP_TEMP_SUFFIX);
+
+		logger.log(Level.INFO, "- Backing up database to " + migrationBackupDir + " ...");
+		FileUtils.deleteDirectory(tempMigrationBackupDir);
+
+		try (Statement statement = connection.createStatement()) {
+			String backupPath = FileUtil.getDatabasePath(tempMigrationBackupDir.getAbsolutePath()) + "/";
+			statement.execute("BACKUP DATABASE TO '" + backupPath.replace("'", "''") + "' BLOCKING AS FILES");
+		}
+
+		if (!tempMigrationBackupDir.renameTo(migrationBackupDir)) {
+			throw new IOException("Cannot rename database backup folder " + tempMigrationBackupDir + " to " + migrationBackupDir);
+		}
+	}
+
+	/**
+	 * Restores the database from the migration backup, if a migration has been started but not
+	 * completed (e.g. because the application crashed). The database must not be open in this
+	 * process when this method is called. If the restore itself is interrupted, it is repeated on
+	 * the next call.
+	 */
+	private static void restoreInterruptedMigration(File databaseFile) throws IOException {
+		File migrationBackupDir = getMigrationBackupDir(databaseFile);
+
+		if (!migrationBackupDir.isDirectory()) {
+			return;
+		}
+
+		if (LockFile.isLocked(databaseFile.getAbsolutePath() + ".lck")) {
+			logger.log(Level.INFO, "Database migration backup found, but database is used by another process. Not restoring.");
+			return;
+		}
+
+		logger.log(Level.WARNING, "Database migration was not completed. Restoring database from " + migrationBackupDir + " ...");
+
+		for (String databaseFileSuffix : DATABASE_FILE_SUFFIXES) {
+			FileUtils.deleteQuietly(new File(databaseFile.getAbsolutePath() + databaseFileSuffix));
+		}
+
+		for (File backupFile : migrationBackupDir.listFiles()) {
+			FileUtils.copyFileToDirectory(backupFile, databaseFile.getParentFile());
+		}
+
+		FileUtils.deleteDirectory(migrationBackupDir);
+	}
+
+	private static void shutdownDatabase(Connection connection) {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("SHUTDOWN");
+		}
+		catch (SQLException e) {
+			logger.log(Level.WARNING, "Cannot shut down database.", e);
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		}
+		catch (SQLException e) {
+			logger.log(Level.FINE, "Cannot close database connection.", e);
+		}
+	}
+
+	private static File getMigrationBackupDir(File databaseFile) {
+		return new File(databaseFile.getAbsolutePath() + DATABASE_MIGRATION_BACKUP_SUFFIX);
+	}
+
+	private static int getResultMaxMemoryRows(Connection connection) throws SQLException {
+		try (ResultSet resultSet = connection.prepareStatement(
+				"SELECT PROPERTY_VALUE FROM INFORMATION_SCHEMA.SYSTEM_PROPERTIES WHERE PROPERTY_NAME='hsqldb.result_max_memory_rows'")
+				.executeQuery()) {
+
+			return (resultSet.next()) ? Integer.parseInt(resultSet.getString(1)) : 0;
+		}
+	}
+
+	/**
+	 * Makes the database keep large query results on disk instead of in memory. Without
+	 * this setting, HSQLDB holds the entire result of a query in memory, even if the
+	 * result set is only iterated row by row (e.g. the current file tree).
+	 */
+	private static void setResultMaxMemoryRows(Connection connection) throws SQLException {
+		logger.log(Level.INFO, "Setting maximum in-memory result rows to " + DATABASE_RESULT_MAX_MEMORY_ROWS);
+
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("SET DATABASE DEFAULT RESULT MEMORY ROWS " + DATABASE_RESULT_MAX_MEMORY_ROWS);
+		}
+	}
+
 	// TODO [low] Shouldn't the SqlRunner be used here? If so, the SqlRunner also needs refactoring.
 	private static String readDatabaseStatement(InputStream inputStream) {
 		try {
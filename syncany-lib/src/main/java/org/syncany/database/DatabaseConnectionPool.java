@@ -0,0 +1,246 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The database connection pool keeps idle connections to the local database of a
+ * single folder, so that short-lived users (such as the daemon's folder request handlers
+ * or the <tt>ls</tt> and <tt>log</tt> operations) do not have to open a new HSQLDB
+ * connection for every request.
+ *
+ * <p>Read-only and read-write connections are kept in separate pools, because the
+ * read-only flag of a connection cannot be changed within a transaction. The schema of the
+ * database is only checked (and created/migrated if necessary) when the first connection
+ * is opened; all later connections skip this check (see {@link DatabaseConnectionFactory}).
+ *
+ * <p>Connections are borrowed with {@link #borrow(boolean)} and must be handed back
+ * with {@link #release(Connection)}. Released connections are rolled back before they
+ * are reused, i.e. uncommitted changes are discarded. If more than {@link #DEFAULT_MAX_IDLE_CONNECTIONS}
+ * connections of one kind are idle, released connections are closed.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class DatabaseConnectionPool {
+	private static final Logger logger = Logger.getLogger(DatabaseConnectionPool.class.getSimpleName());
+
+	public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 4;
+
+	private File databaseFile;
+	private int maxIdleConnections;
+	private boolean schemaVerified;
+
+	private LinkedList<Connection> idleReadOnlyConnections;
+	private LinkedList<Connection> idleReadWriteConnections;
+
+	private long createdConnectionCount;
+	private long reusedConnectionCount;
+	private long releasedConnectionCount;
+	private long closedConnectionCount;
+
+	public DatabaseConnectionPool(File databaseFile) {
+		this(databaseFile, DEFAULT_MAX_IDLE_CONNECTIONS);
+	}
+
+	public DatabaseConnectionPool(File databaseFile, int maxIdleConnections) {
+		this.databaseFile = databaseFile;
+		this.maxIdleConnections = Math.max(0, maxIdleConnections);
+		this.schemaVerified = false;
+
+		this.idleReadOnlyConnections = new LinkedList<Connection>();
+		this.idleReadWriteConnections = new LinkedList<Connection>();
+	}
+
+	/**
+	 * Returns an idle connection of the requested kind, or opens a new
+	 * connection if no idle connection is available.
+	 *
+	 * @param readOnly True if the connection is only used for reading
+	 * @return Returns a valid database connection
+	 */
+	public Connection borrow(boolean readOnly) {
+		Connection connection = pollIdleConnection(readOnly);
+
+		if (connection != null) {
+			return connection;
+		}
+
+		boolean checkSchema;
+
+		synchronized (this) {
+			checkSchema = !schemaVerified;
+		}
+
+		connection = DatabaseConnectionFactory.createConnection(databaseFile, readOnly, checkSchema);
+
+		synchronized (this) {
+			schemaVerified = true;
+			createdConnectionCount++;
+		}
+
+		logger.log(Level.FINE, "Opened new " + (readOnly ? "read-only" : "read-write") + " database connection; " + this);
+		return connection;
+	}
+
+	/**
+	 * Hands a connection back to the pool. The current transaction of the connection
+	 * is rolled back. If the connection is closed, or too many connections are idle,
+	 * the connection is not reused.
+	 */
+	public void release(Connection connection) {
+		try {
+			if (connection.isClosed()) {
+				return;
+			}
+
+			connection.rollback();
+
+			synchronized (this) {
+				LinkedList<Connection> idleConnections = (connection.isReadOnly()) ? idleReadOnlyConnections : idleReadWriteConnections;
+				releasedConnectionCount++;
+
+				if (idleConnections.size() < maxIdleConnections) {
+					idleConnections.add(connection);
+					return;
+				}
+			}
+
+			closeConnection(connection);
+		}
+		catch (SQLException e) {
+			logger.log(Level.WARNING, "Cannot release database connection; closing it.", e);
+			closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Closes all idle connections. Connections that are currently borrowed are not
+	 * affected, and can still be released. Since the database might have been shut down
+	 * (or deleted), the schema is checked again when the next connection is opened.
+	 */
+	public void close() {
+		LinkedList<Connection> idleConnections = new LinkedList<Connection>();
+
+		synchronized (this) {
+			idleConnections.addAll(idleReadOnlyConnections);
+			idleConnections.addAll(idleReadWriteConnections);
+
+			idleReadOnlyConnections.clear();
+			idleReadWriteConnections.clear();
+
+			schemaVerified = false;
+		}
+
+		for (Connection connection : idleConnections) {
+			closeConnection(connection);
+		}
+
+		logger.log(Level.INFO, "Closed database connection pool; " + this);
+	}
+
+	/**
+	 * Returns the number of connections opened by this pool.
+	 */
+	public synchronized long getCreatedConnectionCount() {
+		return createdConnectionCount;
+	}
+
+	/**
+	 * Returns the number of times an idle connection was reused instead of
+	 * opening a new connection.
+	 */
+	public synchronized long getReusedConnectionCount() {
+		return reusedConnectionCount;
+	}
+
+	/**
+	 * Returns the number of connections handed back to the pool.
+	 */
+	public synchronized long getReleasedConnectionCount() {
+		return releasedConnectionCount;
+	}
+
+	/**
+	 * Returns the number of connections closed by this pool, because they
+	 * were not needed anymore or could not be reused.
+	 */
+	public synchronized long getClosedConnectionCount() {
+		return closedConnectionCount;
+	}
+
+	public synchronized int getIdleConnectionCount(boolean readOnly) {
+		return (readOnly) ? idleReadOnlyConnections.size() : idleReadWriteConnections.size();
+	}
+
+	private Connection pollIdleConnection(boolean readOnly) {
+		while (true) {
+			Connection connection;
+
+			synchronized (this) {
+				connection = (readOnly) ? idleReadOnlyConnections.poll() : idleReadWriteConnections.poll();
+			}
+
+			if (connection == null) {
+				return null;
+			}
+
+			try {
+				if (!connection.isClosed()) {
+					synchronized (this) {
+						reusedConnectionCount++;
+					}
+
+					return connection;
+				}
+			}
+			catch (SQLException e) {
+				logger.log(Level.WARNING, "Cannot check idle database connection; discarding it.", e);
+			}
+
+			closeConnection(connection);
+		}
+	}
+
+	private void closeConnection(Connection connection) {
+		try {
+			if (!connection.isClosed()) {
+				connection.close();
+			}
+		}
+		catch (SQLException e) {
+			logger.log(Level.WARNING, "Cannot close database connection.", e);
+		}
+
+		synchronized (this) {
+			closedConnectionCount++;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DatabaseConnectionPool[database=" + databaseFile + ", created=" + createdConnectionCount + ", reused=" + reusedConnectionCount
+				+ ", released=" + releasedConnectionCount + ", closed=" + closedConnectionCount + ", idleReadOnly=" + idleReadOnlyConnections.size()
+				+ ", idleReadWrite=" + idleReadWriteConnections.size() + "]";
+	}
+}
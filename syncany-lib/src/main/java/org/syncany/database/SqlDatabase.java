@@ -51,6 +51,11 @@ import org.syncany.plugins.transfer.files.DatabaseRemoteFile;
  * <p>This class combines all specific SQL database data access objects (DAOs) into
  * a single class, and forwards all method calls to the responsible DAO.  
  * 
+ * <p>The database connection is borrowed from the {@link DatabaseConnectionPool} of the
+ * given config. Short-lived users should call {@link #close()} when they are done, so that
+ * the connection can be reused. If the instance is not closed, the connection is committed
+ * and closed when the instance is garbage collected.
+ * 
  * @see ApplicationSqlDao
  * @see ChunkSqlDao
  * @see FileContentSqlDao
@@ -63,7 +68,10 @@ import org.syncany.plugins.transfer.files.DatabaseRemoteFile;
 public class SqlDatabase {
 	protected static final Logger logger = Logger.getLogger(SqlDatabase.class.getSimpleName());
 
+	protected DatabaseConnectionPool connectionPool;
 	protected Connection connection;
+	protected boolean readOnly;
+	protected boolean released;
 	protected ApplicationSqlDao applicationDao;
 	protected ChunkSqlDao chunkDao;
 	protected FileContentSqlDao fileContentDao;
@@ -77,9 +85,12 @@ public class SqlDatabase {
 	}
 
 	public SqlDatabase(Config config, boolean readOnly) {
-		this.connection = config.createDatabaseConnection(readOnly);
+		this.connectionPool = config.getDatabaseConnectionPool();
+		this.connection = connectionPool.borrow(readOnly);
+		this.readOnly = readOnly;
+		this.released = false;
 		this.applicationDao = new ApplicationSqlDao(connection);
-		this.chunkDao = new ChunkSqlDao(connection);
+		this.chunkDao = new ChunkSqlDao(connection, config.getChunkIndexFile());
 		this.fileContentDao = new FileContentSqlDao(connection);
 		this.fileVersionDao = new FileVersionSqlDao(connection);
 		this.fileHistoryDao = new FileHistorySqlDao(connection, fileVersionDao);
@@ -98,10 +109,39 @@ public class SqlDatabase {
 		connection.commit();
 	}
 
+	/**
+	 * Hands the database connection back to the connection pool. Uncommitted
+	 * changes are rolled back. If this rollback removes chunks that were already
+	 * added to the shared chunk index, the index is invalidated. The instance must
+	 * not be used afterwards.
+	 */
+	public synchronized void close() {
+		if (!released) {
+			released = true;
+
+			if (!readOnly) {
+				rollbackBeforeRelease();
+			}
+
+			connectionPool.release(connection);
+		}
+	}
+
+	private void rollbackBeforeRelease() {
+		try {
+			connection.rollback();
+			chunkDao.invalidateChunkIndexIfStale();
+		}
+		catch (SQLException e) {
+			logger.log(Level.WARNING, "Cannot roll back database connection; invalidating chunk index.", e);
+			chunkDao.invalidateChunkIndex();
+		}
+	}
+
 	@Override
-	public void finalize() {
+	public synchronized void finalize() {
 		try {
-			if (!connection.isClosed()) {
+			if (!released && !connection.isClosed()) {
 				connection.commit();
 				connection.close();
 			}
@@ -113,6 +153,7 @@ public class SqlDatabase {
 
 	public void rollback() throws SQLException {
 		connection.rollback();
+		chunkDao.invalidateChunkIndex();
 	}
 
 	public void removeUnreferencedDatabaseEntities() {
@@ -165,10 +206,13 @@ public class SqlDatabase {
 
 	public void deleteAll() {
 		applicationDao.deleteAll();
+		chunkDao.invalidateChunkIndex();
 	}
 
 	public void shutdown() {
 		applicationDao.shutdown();
+		connectionPool.close();
+		chunkDao.closeChunkIndex();
 	}
 
 	// Database version
@@ -259,6 +303,10 @@ public class SqlDatabase {
 		return fileVersionDao.getCurrentFileTree();
 	}
 
+	public Iterator<FileVersion> getCurrentFileTreeOrderedByPath() {
+		return fileVersionDao.getCurrentFileTreeOrderedByPath();
+	}
+
 	public void removeSmallerOrEqualFileVersions(Map<FileHistoryId, FileVersion> purgeFileVersions) throws SQLException {
 		fileVersionDao.removeFileVersions(purgeFileVersions);
 	}
@@ -277,6 +325,10 @@ public class SqlDatabase {
 		return fileVersionDao.getFileHistory(fileHistoryId);
 	}
 
+	public List<FileVersion> getCurrentFileVersionsByChunkChecksums(Collection<ChunkChecksum> chunkChecksums) {
+		return fileVersionDao.getCurrentFileVersionsByChunkChecksums(chunkChecksums);
+	}
+
 	public Map<FileHistoryId, FileVersion> getFileHistoriesWithMaxPurgeVersion(int keepVersionsCount) {
 		return fileVersionDao.getFileHistoriesWithMaxPurgeVersion(keepVersionsCount);
 	}
@@ -345,6 +397,10 @@ public class SqlDatabase {
 
 	// Chunk
 
+	public List<ChunkEntry> getChunks(FileChecksum fileChecksum) {
+		return chunkDao.getChunks(fileChecksum);
+	}
+
 	protected Map<ChunkChecksum, ChunkEntry> getChunks(VectorClock vectorClock) {
 		return chunkDao.getChunks(vectorClock);
 	}
@@ -353,6 +409,14 @@ public class SqlDatabase {
 		return chunkDao.getChunk(chunkChecksum);
 	}
 
+	public boolean containsChunk(byte[] chunkChecksum) {
+		return chunkDao.containsChunk(chunkChecksum);
+	}
+
+	public ChunkLookupStatistics getChunkLookupStatistics() {
+		return chunkDao.getLookupStatistics();
+	}
+
 	private void removeUnreferencedChunks() {
 		chunkDao.removeUnreferencedChunks();
 	}
@@ -32,8 +32,13 @@ import org.syncany.util.SqlRunner;
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public abstract class AbstractSqlDao {
+	/**
+	 * Number of rows inserted with one JDBC batch, see {@link BatchedStatement}.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
 	protected Connection connection;
-	
+
 	public AbstractSqlDao(Connection connection) {
 		this.connection = connection;
 	}
@@ -49,7 +54,11 @@ public abstract class AbstractSqlDao {
 	protected PreparedStatement getStatement(Connection overrideConnection, String resourceId) throws SQLException {
 		return overrideConnection.prepareStatement(DatabaseConnectionFactory.getStatement(resourceId));
 	}
-	
+
+	protected BatchedStatement getBatchedStatement(Connection overrideConnection, String resourceId) throws SQLException {
+		return new BatchedStatement(getStatement(overrideConnection, resourceId), DEFAULT_BATCH_SIZE);
+	}
+
 	protected void runScript(String resourceId) throws SQLException, IOException {
 		SqlRunner.runScript(connection, DatabaseConnectionFactory.getStatementInputStream(resourceId));
 	}
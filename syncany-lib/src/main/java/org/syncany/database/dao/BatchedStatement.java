@@ -0,0 +1,105 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Wraps a {@link PreparedStatement} that inserts many rows using JDBC batches. The
+ * statement is prepared once and reused for all rows. Whenever the number of queued
+ * rows reaches the batch size, the batch is executed, so that the JDBC driver never has
+ * to hold all rows of a large database version at once.
+ *
+ * <p>If requested, the statement verifies that every row was actually inserted. This must
+ * not be used with <tt>MERGE</tt> statements, which legitimately skip existing rows.
+ *
+ * <p>Callers must call {@link #executeBatch()} to execute the remaining rows before
+ * closing the statement. Closing does <b>not</b> execute queued rows, so that rows are
+ * not inserted if an exception occurred while adding them.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class BatchedStatement implements AutoCloseable {
+	private PreparedStatement preparedStatement;
+	private int batchSize;
+	private boolean requireAffectedRows;
+	private int queuedRows;
+
+	public BatchedStatement(PreparedStatement preparedStatement, int batchSize) {
+		this(preparedStatement, batchSize, false);
+	}
+
+	/**
+	 * Creates a new batched statement.
+	 *
+	 * @param batchSize Maximum number of rows queued before the batch is executed
+	 * @param requireAffectedRows Throw an exception if a row was not inserted
+	 */
+	public BatchedStatement(PreparedStatement preparedStatement, int batchSize, boolean requireAffectedRows) {
+		this.preparedStatement = preparedStatement;
+		this.batchSize = Math.max(1, batchSize);
+		this.requireAffectedRows = requireAffectedRows;
+		this.queuedRows = 0;
+	}
+
+	/**
+	 * Returns the underlying prepared statement. The statement is used to set the
+	 * parameters of the next row before calling {@link #addBatch()}.
+	 */
+	public PreparedStatement getStatement() {
+		return preparedStatement;
+	}
+
+	/**
+	 * Adds the current parameters to the batch, and executes the batch if
+	 * the batch size has been reached.
+	 */
+	public void addBatch() throws SQLException {
+		preparedStatement.addBatch();
+		queuedRows++;
+
+		if (queuedRows >= batchSize) {
+			executeBatch();
+		}
+	}
+
+	/**
+	 * Executes all queued rows. If affected rows are required, an exception
+	 * is thrown if any of the rows was not inserted.
+	 */
+	public void executeBatch() throws SQLException {
+		if (queuedRows > 0) {
+			int[] affectedRows = preparedStatement.executeBatch();
+			queuedRows = 0;
+
+			if (requireAffectedRows) {
+				for (int affectedRowCount : affectedRows) {
+					if (affectedRowCount == 0) {
+						throw new SQLException("Cannot insert row. Affected rows is zero.");
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		preparedStatement.close();
+	}
+}
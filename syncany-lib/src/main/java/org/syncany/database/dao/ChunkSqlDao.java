@@ -17,16 +17,25 @@
  */
 package org.syncany.database.dao;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.syncany.database.ChunkEntry;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkIndex;
+import org.syncany.database.ChunkLookupStatistics;
+import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.VectorClock;
 
 /**
@@ -34,14 +43,41 @@ import org.syncany.database.VectorClock;
  * on {@link ChunkEntry}s. It translates the relational data in the "chunk" table to
  * Java objects.
  * 
+ * <p>To check whether a chunk exists, the DAO does not query the database, but uses a
+ * {@link ChunkIndex}. If an index file is given, the index is persisted next to the database
+ * and only rebuilt if it does not match the chunk table anymore (see {@link #getChunk(ChunkChecksum) getChunk()}).
+ * Lookups first check the Bloom filter of the index, and only probe the hash table if the
+ * chunk probably exists. The effectiveness of the filter is counted in {@link ChunkLookupStatistics}.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class ChunkSqlDao extends AbstractSqlDao {
-	private Map<ChunkChecksum, ChunkEntry> chunkCache;
+	private static final Logger logger = Logger.getLogger(ChunkSqlDao.class.getSimpleName());
+
+	private File chunkIndexFile;
+	private ChunkIndex chunkIndex;
+	private boolean chunksWritten;
+	private ChunkLookupStatistics lookupStatistics;
 
+	/**
+	 * Creates a chunk DAO with a chunk index that is held in memory
+	 * only, i.e. it is rebuilt whenever it is first used.
+	 */
 	public ChunkSqlDao(Connection connection) {
+		this(connection, null);
+	}
+
+	/**
+	 * Creates a chunk DAO with a chunk index that is persisted to the given
+	 * file. If the file is <tt>null</tt>, the index is held in memory only.
+	 */
+	public ChunkSqlDao(Connection connection, File chunkIndexFile) {
 		super(connection);
-		this.chunkCache = null;
+
+		this.chunkIndexFile = chunkIndexFile;
+		this.chunkIndex = null;
+		this.chunksWritten = false;
+		this.lookupStatistics = new ChunkLookupStatistics();
 	}
 
 	/**
@@ -54,20 +90,38 @@ public class ChunkSqlDao extends AbstractSqlDao {
 	 * @param chunks List of {@link ChunkEntry}s to be inserted in the database
 	 * @throws SQLException If the SQL statement fails
 	 */
-	public void writeChunks(Connection connection, long databaseVersionId, Collection<ChunkEntry> chunks) throws SQLException {
+	public synchronized void writeChunks(Connection connection, long databaseVersionId, Collection<ChunkEntry> chunks) throws SQLException {
 		if (chunks.size() > 0) {
-			PreparedStatement preparedStatement = getStatement(connection, "chunk.insert.all.writeChunks.sql");
+			// Make sure the index matches the database before adding the new chunks
+			if (chunkIndex == null) {
+				loadChunkIndex();
+			}
+			
+			try (BatchedStatement batchedStatement = getBatchedStatement(connection, "chunk.insert.all.writeChunks.sql")) {
+				PreparedStatement preparedStatement = batchedStatement.getStatement();
 
-			for (ChunkEntry chunk : chunks) {
-				preparedStatement.setString(1, chunk.getChecksum().toString());
-				preparedStatement.setLong(2, databaseVersionId);
-				preparedStatement.setInt(3, chunk.getSize());
+				for (ChunkEntry chunk : chunks) {
+					preparedStatement.setBytes(1, chunk.getChecksum().getBytes());
+					preparedStatement.setLong(2, databaseVersionId);
+					preparedStatement.setInt(3, chunk.getSize());
 
-				preparedStatement.addBatch();
+					batchedStatement.addBatch();
+				}
+
+				batchedStatement.executeBatch();
+			}
+			
+			synchronized (chunkIndex) {
+				chunkIndex.invalidate();
+				
+				for (ChunkEntry chunk : chunks) {
+					chunkIndex.put(chunk.getChecksum().getBytes(), chunk.getSize());
+				}
+				
+				chunkIndex.setStamp(getChunkIndexStamp(connection));
 			}
 
-			preparedStatement.executeBatch();
-			preparedStatement.close();
+			chunksWritten = true;
 		}
 	}	
 
@@ -78,12 +132,17 @@ public class ChunkSqlDao extends AbstractSqlDao {
 	 * <p>During the cleanup process, when file versions are deleted, unused chunks 
 	 * are left over. This method removes these chunks from the database.
 	 * 
+	 * <p>Because chunks cannot be removed from the {@link ChunkIndex}, the index
+	 * is invalidated and rebuilt the next time it is used.
+	 * 
 	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the query. 
 	 */
-	public void removeUnreferencedChunks() {
+	public synchronized void removeUnreferencedChunks() {
 		try (PreparedStatement preparedStatement = getStatement("chunk.delete.all.removeUnreferencesChunks.sql")) {
 			preparedStatement.execute();
 			preparedStatement.close();
+			
+			invalidateChunkIndex();
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -91,35 +150,132 @@ public class ChunkSqlDao extends AbstractSqlDao {
 	}
 	
 	/**
-	 * Queries the database of a chunk with the given checksum. 
+	 * Looks up the chunk with the given checksum in the {@link ChunkIndex}. 
 	 * 
-	 * <p>Note: When first called, this method loads the <b>chunk cache</b> and keeps
-	 * this cache until it is cleared explicitly with {@link #clearCache()}. 
+	 * <p>Note: When first called, this method loads the <b>chunk index</b> and keeps
+	 * it until it is cleared explicitly with {@link #clearCache()}. Loading the index
+	 * compares the stamp of the persisted index with the current chunk table (a single
+	 * aggregate query), and only rebuilds the index if they do not match. 
 	 * 
-	 * <p>Also note that this method will return <tt>null</tt> if the chunk has been
-	 * added after the cache has been filled. 
+	 * <p>Chunks written by this DAO (see {@link #writeChunks(Connection, long, Collection) writeChunks()})
+	 * are added to the index. However, this method will return <tt>null</tt> if the chunk 
+	 * has been added to the database in any other way after the index has been loaded. 
 	 * 
 	 * @param chunkChecksum Chunk checksum of the chunk to be selected
 	 * @return Returns the chunk entry, or <tt>null</tt> if the chunk does not exist.
 	 */	
 	public synchronized ChunkEntry getChunk(ChunkChecksum chunkChecksum) {
-		if (chunkCache == null) {
-			loadChunkCache();
+		int chunkSize = lookupChunkSize(chunkChecksum.getBytes());
+		return (chunkSize >= 0) ? new ChunkEntry(chunkChecksum, chunkSize) : null;
+	}
+	
+	/**
+	 * Checks whether a chunk with the given checksum exists, using the {@link ChunkIndex}.
+	 * Contrary to {@link #getChunk(ChunkChecksum) getChunk()}, this method does not create
+	 * any objects. Refer to {@link #getChunk(ChunkChecksum) getChunk()} for details.
+	 * 
+	 * @param chunkChecksum Raw checksum of the chunk
+	 * @return Returns <tt>true</tt> if the chunk exists, <tt>false</tt> otherwise
+	 */
+	public synchronized boolean containsChunk(byte[] chunkChecksum) {
+		return lookupChunkSize(chunkChecksum) >= 0;
+	}
+	
+	/**
+	 * Returns the lookup statistics of this DAO, i.e. how many lookups via {@link #getChunk(ChunkChecksum) getChunk()}
+	 * and {@link #containsChunk(byte[]) containsChunk()} were answered by the Bloom filter of the {@link ChunkIndex} alone.
+	 */
+	public ChunkLookupStatistics getLookupStatistics() {
+		return lookupStatistics;
+	}
+	
+	private int lookupChunkSize(byte[] chunkChecksum) {
+		if (chunkIndex == null || chunkIndex.getStamp() == 0) {
+			loadChunkIndex();
 		}
 
-		return chunkCache.get(chunkChecksum);
+		synchronized (chunkIndex) {
+			if (!chunkIndex.mightContain(chunkChecksum)) {
+				lookupStatistics.recordFilterNegative();
+				return -1;
+			}
+			
+			int chunkSize = chunkIndex.get(chunkChecksum);
+			lookupStatistics.recordFilterPositive(chunkSize >= 0);
+			
+			return chunkSize;
+		}
 	}
 	
 	/**
-	 * Clears the chunk cache loaded by {@link #getChunk(ChunkChecksum) getChunk()}
-	 * and resets the cache. If {@link #getChunk(ChunkChecksum) getChunk()} is called
-	 * after the cache is cleared, it is re-populated.
+	 * Releases the chunk index loaded by {@link #getChunk(ChunkChecksum) getChunk()}.
+	 * If {@link #getChunk(ChunkChecksum) getChunk()} is called after the index is released,
+	 * it is verified against the database (and rebuilt if necessary).
 	 */
 	public synchronized void clearCache() {
-		if (chunkCache != null) {
-			chunkCache.clear();
-			chunkCache = null;
+		chunkIndex = null;
+	}
+	
+	/**
+	 * Marks the chunk index as invalid, so that it is rebuilt when it is used the next
+	 * time (by this or any other DAO). This method must be called if chunks are removed
+	 * from the database, or if the database is rolled back, so that chunks that are no 
+	 * longer in the database are not found in the index.
+	 */
+	public synchronized void invalidateChunkIndex() {
+		if (chunkIndex != null) {
+			chunkIndex.invalidate();
+		}
+		else if (chunkIndexFile != null) {
+			openChunkIndex().invalidate();
+		}
+		
+		chunkIndex = null;
+	}
+
+	/**
+	 * Invalidates the chunk index if chunks were added to it by {@link #writeChunks(Connection, long, Collection) writeChunks()},
+	 * and the index does not match the chunk table anymore, e.g. because these chunks have been rolled back.
+	 * Contrary to {@link #invalidateChunkIndex()}, an index that still matches the database is kept, so
+	 * that it does not have to be rebuilt.
+	 */
+	public synchronized void invalidateChunkIndexIfStale() {
+		if (chunksWritten) {
+			ChunkIndex writtenChunkIndex = (chunkIndex != null) ? chunkIndex : openChunkIndex();
+
+			try {
+				synchronized (writtenChunkIndex) {
+					if (writtenChunkIndex.getStamp() != 0 && writtenChunkIndex.getStamp() != getChunkIndexStamp(connection)) {
+						logger.log(Level.INFO, "Chunk index does not match database anymore (rolled back?); invalidating it.");
+						writtenChunkIndex.invalidate();
+					}
+				}
+			}
+			catch (SQLException e) {
+				logger.log(Level.WARNING, "Cannot verify chunk index; invalidating it.", e);
+				writtenChunkIndex.invalidate();
+			}
+
+			chunkIndex = null;
+			chunksWritten = false;
+		}
+	}
+
+	/**
+	 * Releases the shared chunk index of this database, e.g. when the repository is closed.
+	 * The index file is kept, and re-opened when the index is used the next time.
+	 */
+	public synchronized void closeChunkIndex() {
+		if (chunkIndexFile != null) {
+			try {
+				ChunkIndex.close(chunkIndexFile);
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot release chunk index " + chunkIndexFile, e);
+			}
 		}
+
+		chunkIndex = null;
 	}
 
 	/**
@@ -146,6 +302,35 @@ public class ChunkSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Queries the SQL database for the chunks of the file content with the given
+	 * checksum, in the order in which they appear in the file. Unlike the file content
+	 * returned by {@link FileContentSqlDao#getFileContent(FileChecksum, boolean) getFileContent()},
+	 * the chunk entries include the chunk sizes, i.e. they can be used to determine the
+	 * position of each chunk within the file.
+	 * 
+	 * @param fileChecksum Checksum of the file content
+	 * @return Returns the ordered list of chunks, or an empty list if the file content is unknown
+	 */
+	public List<ChunkEntry> getChunks(FileChecksum fileChecksum) {
+		try (PreparedStatement preparedStatement = getStatement("chunk.select.all.getChunksForFileContent.sql")) {
+			preparedStatement.setBytes(1, fileChecksum.getBytes());
+
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				List<ChunkEntry> chunks = new ArrayList<ChunkEntry>();
+
+				while (resultSet.next()) {
+					chunks.add(createChunkEntryFromRow(resultSet));
+				}
+
+				return chunks;
+			}
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	protected Map<ChunkChecksum, ChunkEntry> createChunkEntries(ResultSet resultSet) throws SQLException {
 		Map<ChunkChecksum, ChunkEntry> chunks = new HashMap<ChunkChecksum, ChunkEntry>();
 
@@ -158,28 +343,92 @@ public class ChunkSqlDao extends AbstractSqlDao {
 	}
 
 	protected ChunkEntry createChunkEntryFromRow(ResultSet resultSet) throws SQLException {
-		ChunkChecksum chunkChecksum = ChunkChecksum.parseChunkChecksum(resultSet.getString("checksum"));
+		ChunkChecksum chunkChecksum = new ChunkChecksum(resultSet.getBytes("checksum"));
 		return new ChunkEntry(chunkChecksum, resultSet.getInt("size"));
 	}
 	
-	protected void loadChunkCache() {
-		try (PreparedStatement preparedStatement = getStatement("chunk.select.all.loadChunkCache.sql")) {
-			try (ResultSet resultSet = preparedStatement.executeQuery()) {
-				chunkCache = createChunkEntries(resultSet);
+	protected void loadChunkIndex() {
+		ChunkIndex loadedChunkIndex = openChunkIndex();
+
+		try {
+			synchronized (loadedChunkIndex) {
+				long databaseStamp = getChunkIndexStamp(connection);
+				
+				if (loadedChunkIndex.getStamp() != databaseStamp) {
+					logger.log(Level.INFO, "Chunk index does not match database. Rebuilding chunk index ...");
+					
+					loadedChunkIndex.invalidate();
+					loadedChunkIndex.clear();
+					
+					try (PreparedStatement preparedStatement = getStatement("chunk.select.all.loadChunkIndex.sql")) {
+						try (ResultSet resultSet = preparedStatement.executeQuery()) {
+							while (resultSet.next()) {
+								loadedChunkIndex.put(resultSet.getBytes("checksum"), resultSet.getInt("size"));
+							}
+						}
+					}
+					
+					loadedChunkIndex.setStamp(databaseStamp);
+					logger.log(Level.INFO, "Chunk index rebuilt with " + loadedChunkIndex.size() + " chunks.");
+				}
 			}
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
+		
+		chunkIndex = loadedChunkIndex;
+	}
+	
+	private ChunkIndex openChunkIndex() {
+		if (chunkIndexFile != null) {
+			try {
+				return ChunkIndex.open(chunkIndexFile);
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot open chunk index file " + chunkIndexFile + "; using in-memory index.", e);
+			}
+		}
+		
+		return ChunkIndex.createInMemory();
 	}
 	
 	/**
-	 * no commit
+	 * Computes the stamp that identifies the current state of the chunk table. The stamp
+	 * is derived from aggregates (count, maximum database version ID, total size) that change
+	 * whenever chunks are added or removed. It is never 0, because 0 marks an invalid index.
 	 */
-	public void updateDirtyChunksNewDatabaseId(long newDatabaseVersionId) {
+	private long getChunkIndexStamp(Connection connection) throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement(connection, "chunk.select.all.getChunkIndexStamp.sql")) {
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				resultSet.next();
+				
+				long stamp = 17;
+				stamp = 31 * stamp + resultSet.getLong("chunk_count");
+				stamp = 31 * stamp + resultSet.getLong("max_databaseversion_id");
+				stamp = 31 * stamp + resultSet.getLong("total_size");
+				
+				return (stamp != 0) ? stamp : 1;
+			}
+		}
+	}
+	
+	/**
+	 * Changes the database version of all dirty chunks. The set of chunks does not change, so
+	 * the stamp of a loaded {@link ChunkIndex} is updated accordingly.
+	 * 
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the query.
+	 */
+	public synchronized void updateDirtyChunksNewDatabaseId(long newDatabaseVersionId) {
 		try (PreparedStatement preparedStatement = getStatement("chunk.update.dirty.updateDirtyChunksNewDatabaseId.sql")) {
 			preparedStatement.setLong(1, newDatabaseVersionId);
 			preparedStatement.executeUpdate();
+			
+			if (chunkIndex != null) {
+				synchronized (chunkIndex) {
+					chunkIndex.setStamp(getChunkIndexStamp(connection));
+				}
+			}
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -0,0 +1,330 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import static org.syncany.database.dao.DatabaseBinaryWriter.BINARY_FORMAT_MAGIC;
+import static org.syncany.database.dao.DatabaseBinaryWriter.BINARY_FORMAT_VERSION;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FILE_VERSION_FLAG_CHECKSUM;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FILE_VERSION_FLAG_DOS_ATTRIBUTES;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FILE_VERSION_FLAG_LINK_TARGET;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FILE_VERSION_FLAG_POSIX_PERMISSIONS;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FILE_VERSION_FLAG_UPDATED;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.DatabaseVersionHeader;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileContent.FileChecksum;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileStatus;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.MemoryDatabase;
+import org.syncany.database.MultiChunkEntry;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.VectorClock;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
+import org.syncany.util.StringUtil;
+
+/**
+ * This class is used by the {@link DatabaseXmlSerializer} to read a database file
+ * in the binary database format written by the {@link DatabaseBinaryWriter}. It is
+ * the binary counterpart of the {@link DatabaseXmlParseHandler}.
+ *
+ * <p>Like the XML parse handler, it can read either an entire file into memory, or
+ * only the database version headers. Since all headers are stored in the index at the
+ * front of the file, a header-only read stops after the index, and the bodies of
+ * database versions outside of the requested range are skipped without parsing them.
+ *
+ * @see DatabaseBinaryWriter
+ * @see DatabaseXmlSerializer
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class DatabaseBinaryReader {
+	private static final Logger logger = Logger.getLogger(DatabaseBinaryReader.class.getSimpleName());
+
+	private MemoryDatabase database;
+	private VectorClock versionFrom;
+	private VectorClock versionTo;
+	private DatabaseReadType readType;
+
+	public DatabaseBinaryReader(MemoryDatabase database, VectorClock fromVersion, VectorClock toVersion, DatabaseReadType readType) {
+		this.database = database;
+		this.versionFrom = fromVersion;
+		this.versionTo = toVersion;
+		this.readType = readType;
+	}
+
+	/**
+	 * Returns whether the given bytes start with the magic bytes of the
+	 * binary database format.
+	 */
+	public static boolean isBinaryFormat(byte[] fileStart) {
+		return fileStart.length >= BINARY_FORMAT_MAGIC.length
+				&& Arrays.equals(BINARY_FORMAT_MAGIC, Arrays.copyOf(fileStart, BINARY_FORMAT_MAGIC.length));
+	}
+
+	public void read(InputStream in) throws IOException {
+		DataInputStream dataIn = new DataInputStream(in);
+
+		readAndVerifyMagic(dataIn);
+		List<IndexEntry> index = readIndex(dataIn);
+
+		if (readType == DatabaseReadType.HEADER_ONLY) {
+			readHeaders(index);
+		}
+		else {
+			readBodies(dataIn, index);
+		}
+	}
+
+	private void readAndVerifyMagic(DataInputStream dataIn) throws IOException {
+		byte[] magic = new byte[BINARY_FORMAT_MAGIC.length];
+		dataIn.readFully(magic);
+
+		if (!Arrays.equals(BINARY_FORMAT_MAGIC, magic)) {
+			throw new IOException("Not a binary database file, invalid magic bytes: " + StringUtil.toHex(magic));
+		}
+
+		int formatVersion = dataIn.readInt();
+
+		if (formatVersion != BINARY_FORMAT_VERSION) {
+			throw new IOException("Unsupported binary database format version " + formatVersion + ", expected " + BINARY_FORMAT_VERSION);
+		}
+	}
+
+	private List<IndexEntry> readIndex(DataInputStream dataIn) throws IOException {
+		int databaseVersionCount = dataIn.readInt();
+		List<IndexEntry> index = new ArrayList<IndexEntry>(databaseVersionCount);
+
+		for (int i = 0; i < databaseVersionCount; i++) {
+			DatabaseVersionHeader header = readDatabaseVersionHeader(dataIn);
+			long bodyOffset = dataIn.readLong();
+			int bodyLength = dataIn.readInt();
+
+			index.add(new IndexEntry(header, bodyOffset, bodyLength));
+		}
+
+		return index;
+	}
+
+	private void readHeaders(List<IndexEntry> index) {
+		for (IndexEntry indexEntry : index) {
+			if (isInLoadRange(indexEntry.header)) {
+				DatabaseVersion databaseVersion = new DatabaseVersion();
+				databaseVersion.setHeader(indexEntry.header);
+
+				addDatabaseVersion(databaseVersion);
+			}
+		}
+	}
+
+	private void readBodies(DataInputStream dataIn, List<IndexEntry> index) throws IOException {
+		long bodiesPosition = 0;
+
+		for (IndexEntry indexEntry : index) {
+			IOUtils.skipFully(dataIn, indexEntry.bodyOffset - bodiesPosition);
+
+			if (isInLoadRange(indexEntry.header)) {
+				DatabaseVersion databaseVersion = new DatabaseVersion();
+				databaseVersion.setHeader(indexEntry.header);
+
+				readChunks(dataIn, databaseVersion);
+				readMultiChunks(dataIn, databaseVersion);
+				readFileContents(dataIn, databaseVersion);
+				readFileHistories(dataIn, databaseVersion);
+
+				addDatabaseVersion(databaseVersion);
+			}
+			else {
+				IOUtils.skipFully(dataIn, indexEntry.bodyLength);
+			}
+
+			bodiesPosition = indexEntry.bodyOffset + indexEntry.bodyLength;
+		}
+	}
+
+	private boolean isInLoadRange(DatabaseVersionHeader header) {
+		return DatabaseXmlParseHandler.vectorClockInRange(header.getVectorClock(), versionFrom, versionTo);
+	}
+
+	private void addDatabaseVersion(DatabaseVersion databaseVersion) {
+		database.addDatabaseVersion(databaseVersion);
+		logger.log(Level.INFO, "   + Added database version " + databaseVersion.getHeader());
+	}
+
+	private DatabaseVersionHeader readDatabaseVersionHeader(DataInputStream dataIn) throws IOException {
+		DatabaseVersionHeader header = new DatabaseVersionHeader();
+
+		header.setDate(new Date(dataIn.readLong()));
+		header.setClient(readString(dataIn));
+
+		VectorClock vectorClock = new VectorClock();
+		int vectorClockSize = dataIn.readInt();
+
+		for (int i = 0; i < vectorClockSize; i++) {
+			String clientName = readString(dataIn);
+			long clientValue = dataIn.readLong();
+
+			vectorClock.setClock(clientName, clientValue);
+		}
+
+		header.setVectorClock(vectorClock);
+
+		return header;
+	}
+
+	private void readChunks(DataInputStream dataIn, DatabaseVersion databaseVersion) throws IOException {
+		int chunkCount = dataIn.readInt();
+
+		for (int i = 0; i < chunkCount; i++) {
+			ChunkChecksum chunkChecksum = new ChunkChecksum(readObjectId(dataIn));
+			int chunkSize = dataIn.readInt();
+
+			databaseVersion.addChunk(new ChunkEntry(chunkChecksum, chunkSize));
+		}
+	}
+
+	private void readMultiChunks(DataInputStream dataIn, DatabaseVersion databaseVersion) throws IOException {
+		int multiChunkCount = dataIn.readInt();
+
+		for (int i = 0; i < multiChunkCount; i++) {
+			MultiChunkId multiChunkId = new MultiChunkId(readObjectId(dataIn));
+			long size = dataIn.readLong();
+
+			MultiChunkEntry multiChunk = new MultiChunkEntry(multiChunkId, size);
+			int chunkRefCount = dataIn.readInt();
+
+			for (int j = 0; j < chunkRefCount; j++) {
+				multiChunk.addChunk(new ChunkChecksum(readObjectId(dataIn)));
+			}
+
+			databaseVersion.addMultiChunk(multiChunk);
+		}
+	}
+
+	private void readFileContents(DataInputStream dataIn, DatabaseVersion databaseVersion) throws IOException {
+		int fileContentCount = dataIn.readInt();
+
+		for (int i = 0; i < fileContentCount; i++) {
+			FileContent fileContent = new FileContent();
+			fileContent.setChecksum(new FileChecksum(readObjectId(dataIn)));
+			fileContent.setSize(dataIn.readLong());
+
+			int chunkRefCount = dataIn.readInt();
+
+			for (int j = 0; j < chunkRefCount; j++) {
+				fileContent.addChunk(new ChunkChecksum(readObjectId(dataIn)));
+			}
+
+			databaseVersion.addFileContent(fileContent);
+		}
+	}
+
+	private void readFileHistories(DataInputStream dataIn, DatabaseVersion databaseVersion) throws IOException {
+		int fileHistoryCount = dataIn.readInt();
+
+		for (int i = 0; i < fileHistoryCount; i++) {
+			PartialFileHistory fileHistory = new PartialFileHistory(new FileHistoryId(readObjectId(dataIn)));
+			int fileVersionCount = dataIn.readInt();
+
+			for (int j = 0; j < fileVersionCount; j++) {
+				fileHistory.addFileVersion(readFileVersion(dataIn));
+			}
+
+			// File history might be empty if file versions are ignored!
+			if (fileHistory.getFileVersions().size() > 0) {
+				databaseVersion.addFileHistory(fileHistory);
+			}
+		}
+	}
+
+	private FileVersion readFileVersion(DataInputStream dataIn) throws IOException {
+		FileVersion fileVersion = new FileVersion();
+
+		fileVersion.setVersion(dataIn.readLong());
+		fileVersion.setType(FileType.valueOf(readString(dataIn)));
+		fileVersion.setStatus(FileStatus.valueOf(readString(dataIn)));
+		fileVersion.setPath(readString(dataIn));
+		fileVersion.setSize(dataIn.readLong());
+		fileVersion.setLastModified(new Date(dataIn.readLong()));
+
+		int flags = dataIn.readUnsignedByte();
+
+		if ((flags & FILE_VERSION_FLAG_LINK_TARGET) != 0) {
+			fileVersion.setLinkTarget(readString(dataIn));
+		}
+
+		if ((flags & FILE_VERSION_FLAG_UPDATED) != 0) {
+			fileVersion.setUpdated(new Date(dataIn.readLong()));
+		}
+
+		if ((flags & FILE_VERSION_FLAG_CHECKSUM) != 0) {
+			fileVersion.setChecksum(new FileChecksum(readObjectId(dataIn)));
+		}
+
+		if ((flags & FILE_VERSION_FLAG_DOS_ATTRIBUTES) != 0) {
+			fileVersion.setDosAttributes(readString(dataIn));
+		}
+
+		if ((flags & FILE_VERSION_FLAG_POSIX_PERMISSIONS) != 0) {
+			fileVersion.setPosixPermissions(readString(dataIn));
+		}
+
+		return fileVersion;
+	}
+
+	private byte[] readObjectId(DataInputStream dataIn) throws IOException {
+		byte[] objectIdBytes = new byte[dataIn.readUnsignedShort()];
+		dataIn.readFully(objectIdBytes);
+
+		return objectIdBytes;
+	}
+
+	private String readString(DataInputStream dataIn) throws IOException {
+		byte[] strBytes = new byte[dataIn.readInt()];
+		dataIn.readFully(strBytes);
+
+		return new String(strBytes, "UTF-8");
+	}
+
+	private static class IndexEntry {
+		private DatabaseVersionHeader header;
+		private long bodyOffset;
+		private int bodyLength;
+
+		public IndexEntry(DatabaseVersionHeader header, long bodyOffset, int bodyLength) {
+			this.header = header;
+			this.bodyOffset = bodyOffset;
+			this.bodyLength = bodyLength;
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.DatabaseVersionHeader;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.MultiChunkEntry;
+import org.syncany.database.ObjectId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.VectorClock;
+import org.syncany.util.StringUtil;
+
+/**
+ * This class writes the given {@link DatabaseVersion}s to an {@link OutputStream}
+ * in the binary database format. It is the binary counterpart of the
+ * {@link DatabaseXmlWriter}.
+ *
+ * <p>A binary database file starts with a header and an index, followed by the
+ * bodies of all database versions:
+ *
+ * <pre>
+ *   magic          4 bytes, 'SYDB'
+ *   format version int
+ *   count          int, number of database versions
+ *   index          count x (database version header, long body offset, int body length)
+ *   bodies         count x (chunks, multichunks, file contents, file histories)
+ * </pre>
+ *
+ * <p>All records are length-prefixed: checksums and identifiers are stored as raw
+ * bytes, strings as UTF-8 bytes, and collections as a count followed by the
+ * entries. Body offsets are relative to the first body. Because the index is at
+ * the front, a reader can read all {@link DatabaseVersionHeader}s without parsing
+ * the bodies, and skip the bodies of database versions it is not interested in.
+ *
+ * <p>Since the body lengths are only known after the bodies have been written, the
+ * bodies are written to a temporary file first, and copied to the output stream
+ * after the index.
+ *
+ * @see DatabaseBinaryReader
+ * @see DatabaseXmlSerializer
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class DatabaseBinaryWriter {
+	private static final Logger logger = Logger.getLogger(DatabaseBinaryWriter.class.getSimpleName());
+
+	static final byte[] BINARY_FORMAT_MAGIC = new byte[] { 'S', 'Y', 'D', 'B' };
+	static final int BINARY_FORMAT_VERSION = 1;
+
+	static final int FILE_VERSION_FLAG_LINK_TARGET = 0x01;
+	static final int FILE_VERSION_FLAG_UPDATED = 0x02;
+	static final int FILE_VERSION_FLAG_CHECKSUM = 0x04;
+	static final int FILE_VERSION_FLAG_DOS_ATTRIBUTES = 0x08;
+	static final int FILE_VERSION_FLAG_POSIX_PERMISSIONS = 0x10;
+
+	private Iterator<DatabaseVersion> databaseVersions;
+	private OutputStream out;
+	private File bodiesFile;
+
+	public DatabaseBinaryWriter(Iterator<DatabaseVersion> databaseVersions, OutputStream out, File bodiesFile) {
+		this.databaseVersions = databaseVersions;
+		this.out = out;
+		this.bodiesFile = bodiesFile;
+	}
+
+	public void write() throws IOException {
+		try {
+			List<IndexEntry> index = writeBodies();
+			writeHeaderIndexAndBodies(index);
+		}
+		finally {
+			bodiesFile.delete();
+		}
+	}
+
+	private List<IndexEntry> writeBodies() throws IOException {
+		List<IndexEntry> index = new ArrayList<IndexEntry>();
+
+		// Note: DataOutputStream.size() is an int and stops counting at 2 GB, so the
+		//       offsets are taken from a separate (long) byte counter.
+
+		CountingOutputStream countingBodiesOut = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(bodiesFile)));
+
+		try (DataOutputStream bodiesOut = new DataOutputStream(countingBodiesOut)) {
+			while (databaseVersions.hasNext()) {
+				DatabaseVersion databaseVersion = databaseVersions.next();
+				validateDatabaseVersionHeader(databaseVersion);
+
+				long bodyOffset = countingBodiesOut.getByteCount();
+
+				writeChunks(bodiesOut, databaseVersion.getChunks());
+				writeMultiChunks(bodiesOut, databaseVersion.getMultiChunks());
+				writeFileContents(bodiesOut, databaseVersion.getFileContents());
+				writeFileHistories(bodiesOut, databaseVersion.getFileHistories());
+
+				long bodyLength = countingBodiesOut.getByteCount() - bodyOffset;
+
+				if (bodyLength > Integer.MAX_VALUE) {
+					throw new IOException("Cannot write database version " + databaseVersion.getHeader() + ": Body too large for binary format ("
+							+ bodyLength + " bytes, max. " + Integer.MAX_VALUE + " bytes).");
+				}
+
+				index.add(new IndexEntry(databaseVersion.getHeader(), bodyOffset, (int) bodyLength));
+			}
+		}
+
+		return index;
+	}
+
+	private void writeHeaderIndexAndBodies(List<IndexEntry> index) throws IOException {
+		try (DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out))) {
+			dataOut.write(BINARY_FORMAT_MAGIC);
+			dataOut.writeInt(BINARY_FORMAT_VERSION);
+			dataOut.writeInt(index.size());
+
+			for (IndexEntry indexEntry : index) {
+				writeDatabaseVersionHeader(dataOut, indexEntry.header);
+				dataOut.writeLong(indexEntry.bodyOffset);
+				dataOut.writeInt(indexEntry.bodyLength);
+			}
+
+			logger.log(Level.FINE, "- Wrote index of {0} database version(s), copying bodies ...", index.size());
+
+			try (InputStream bodiesIn = new BufferedInputStream(new FileInputStream(bodiesFile))) {
+				IOUtils.copy(bodiesIn, dataOut);
+			}
+		}
+	}
+
+	private void validateDatabaseVersionHeader(DatabaseVersion databaseVersion) throws IOException {
+		if (databaseVersion.getTimestamp() == null || databaseVersion.getClient() == null
+				|| databaseVersion.getVectorClock() == null || databaseVersion.getVectorClock().isEmpty()) {
+
+			logger.log(Level.SEVERE, "Cannot write database version. Header fields must be filled: " + databaseVersion.getHeader());
+			throw new IOException("Cannot write database version. Header fields must be filled: " + databaseVersion.getHeader());
+		}
+	}
+
+	private void writeDatabaseVersionHeader(DataOutputStream dataOut, DatabaseVersionHeader header) throws IOException {
+		dataOut.writeLong(header.getDate().getTime());
+		writeString(dataOut, header.getClient());
+
+		VectorClock vectorClock = header.getVectorClock();
+		dataOut.writeInt(vectorClock.size());
+
+		for (Map.Entry<String, Long> vectorClockEntry : vectorClock.entrySet()) {
+			writeString(dataOut, vectorClockEntry.getKey());
+			dataOut.writeLong(vectorClockEntry.getValue());
+		}
+	}
+
+	private void writeChunks(DataOutputStream dataOut, Collection<ChunkEntry> chunks) throws IOException {
+		dataOut.writeInt(chunks.size());
+
+		for (ChunkEntry chunk : chunks) {
+			writeObjectId(dataOut, chunk.getChecksum());
+			dataOut.writeInt(chunk.getSize());
+		}
+	}
+
+	private void writeMultiChunks(DataOutputStream dataOut, Collection<MultiChunkEntry> multiChunks) throws IOException {
+		dataOut.writeInt(multiChunks.size());
+
+		for (MultiChunkEntry multiChunk : multiChunks) {
+			writeObjectId(dataOut, multiChunk.getId());
+			dataOut.writeLong(multiChunk.getSize());
+			writeChunkRefs(dataOut, multiChunk.getChunks());
+		}
+	}
+
+	private void writeFileContents(DataOutputStream dataOut, Collection<FileContent> fileContents) throws IOException {
+		dataOut.writeInt(fileContents.size());
+
+		for (FileContent fileContent : fileContents) {
+			writeObjectId(dataOut, fileContent.getChecksum());
+			dataOut.writeLong(fileContent.getSize());
+			writeChunkRefs(dataOut, fileContent.getChunks());
+		}
+	}
+
+	private void writeChunkRefs(DataOutputStream dataOut, Collection<ChunkChecksum> chunkChecksums) throws IOException {
+		dataOut.writeInt(chunkChecksums.size());
+
+		for (ChunkChecksum chunkChecksum : chunkChecksums) {
+			writeObjectId(dataOut, chunkChecksum);
+		}
+	}
+
+	private void writeFileHistories(DataOutputStream dataOut, Collection<PartialFileHistory> fileHistories) throws IOException {
+		dataOut.writeInt(fileHistories.size());
+
+		for (PartialFileHistory fileHistory : fileHistories) {
+			writeObjectId(dataOut, fileHistory.getFileHistoryId());
+
+			Collection<FileVersion> fileVersions = fileHistory.getFileVersions().values();
+			dataOut.writeInt(fileVersions.size());
+
+			for (FileVersion fileVersion : fileVersions) {
+				writeFileVersion(dataOut, fileVersion);
+			}
+		}
+	}
+
+	private void writeFileVersion(DataOutputStream dataOut, FileVersion fileVersion) throws IOException {
+		if (fileVersion.getVersion() == null || fileVersion.getType() == null || fileVersion.getPath() == null
+				|| fileVersion.getStatus() == null || fileVersion.getSize() == null || fileVersion.getLastModified() == null) {
+
+			throw new IOException("Unable to write file version, because one or many mandatory fields are null (version, type, path, name, status, size, last modified): " + fileVersion);
+		}
+
+		if (fileVersion.getType() == FileType.SYMLINK && fileVersion.getLinkTarget() == null) {
+			throw new IOException("Unable to write file version: All symlinks must have a target.");
+		}
+
+		dataOut.writeLong(fileVersion.getVersion());
+		writeString(dataOut, fileVersion.getType().toString());
+		writeString(dataOut, fileVersion.getStatus().toString());
+		writeString(dataOut, fileVersion.getPath());
+		dataOut.writeLong(fileVersion.getSize());
+		dataOut.writeLong(fileVersion.getLastModified().getTime());
+
+		dataOut.writeByte(getFileVersionFlags(fileVersion));
+
+		if (fileVersion.getLinkTarget() != null) {
+			writeString(dataOut, fileVersion.getLinkTarget());
+		}
+
+		if (fileVersion.getUpdated() != null) {
+			dataOut.writeLong(fileVersion.getUpdated().getTime());
+		}
+
+		if (fileVersion.getChecksum() != null) {
+			writeObjectId(dataOut, fileVersion.getChecksum());
+		}
+
+		if (fileVersion.getDosAttributes() != null) {
+			writeString(dataOut, fileVersion.getDosAttributes());
+		}
+
+		if (fileVersion.getPosixPermissions() != null) {
+			writeString(dataOut, fileVersion.getPosixPermissions());
+		}
+	}
+
+	private int getFileVersionFlags(FileVersion fileVersion) {
+		int flags = 0;
+
+		flags |= (fileVersion.getLinkTarget() != null) ? FILE_VERSION_FLAG_LINK_TARGET : 0;
+		flags |= (fileVersion.getUpdated() != null) ? FILE_VERSION_FLAG_UPDATED : 0;
+		flags |= (fileVersion.getChecksum() != null) ? FILE_VERSION_FLAG_CHECKSUM : 0;
+		flags |= (fileVersion.getDosAttributes() != null) ? FILE_VERSION_FLAG_DOS_ATTRIBUTES : 0;
+		flags |= (fileVersion.getPosixPermissions() != null) ? FILE_VERSION_FLAG_POSIX_PERMISSIONS : 0;
+
+		return flags;
+	}
+
+	private void writeObjectId(DataOutputStream dataOut, ObjectId objectId) throws IOException {
+		byte[] objectIdBytes = objectId.getBytes();
+
+		dataOut.writeShort(objectIdBytes.length);
+		dataOut.write(objectIdBytes);
+	}
+
+	private void writeString(DataOutputStream dataOut, String str) throws IOException {
+		byte[] strBytes = StringUtil.toBytesUTF8(str);
+
+		dataOut.writeInt(strBytes.length);
+		dataOut.write(strBytes);
+	}
+
+	private static class IndexEntry {
+		private DatabaseVersionHeader header;
+		private long bodyOffset;
+		private int bodyLength;
+
+		public IndexEntry(DatabaseVersionHeader header, long bodyOffset, int bodyLength) {
+			this.header = header;
+			this.bodyOffset = bodyOffset;
+			this.bodyLength = bodyLength;
+		}
+	}
+}
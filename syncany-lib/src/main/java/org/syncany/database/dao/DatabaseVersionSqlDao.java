@@ -91,10 +91,16 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 	 */
 	public void markDatabaseVersionDirty(VectorClock vectorClock) {
 		try (PreparedStatement preparedStatement = getStatement("databaseversion.update.master.markDatabaseVersionDirty.sql")) {
+			List<FileHistoryId> fileHistoryIds = fileVersionDao.getFileHistoryIds(vectorClock);
+			
 			preparedStatement.setString(1, DatabaseVersionStatus.DIRTY.toString());
 			preparedStatement.setString(2, vectorClock.toString());
 
 			preparedStatement.executeUpdate();
+			
+			// Last versions of the affected file histories are now in other database versions
+			fileVersionDao.updateFileVersionHeads(connection, fileHistoryIds);
+			
 			connection.commit();
 		}
 		catch (SQLException e) {
@@ -148,9 +154,21 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 		fileContentDao.writeFileContents(connection, databaseVersionId, databaseVersion.getFileContents());
 		fileHistoryDao.writeFileHistories(connection, databaseVersionId, databaseVersion.getFileHistories());
 
+		fileVersionDao.updateFileVersionHeads(connection, getFileHistoryIds(databaseVersion));
+
 		return databaseVersionId;
 	}
 
+	private List<FileHistoryId> getFileHistoryIds(DatabaseVersion databaseVersion) {
+		List<FileHistoryId> fileHistoryIds = new ArrayList<FileHistoryId>();
+
+		for (PartialFileHistory fileHistory : databaseVersion.getFileHistories()) {
+			fileHistoryIds.add(fileHistory.getFileHistoryId());
+		}
+
+		return fileHistoryIds;
+	}
+
 	private long writeDatabaseVersionHeaderInternal(Connection connection, DatabaseVersionHeader databaseVersionHeader) throws SQLException {
 		try (PreparedStatement preparedStatement = connection.prepareStatement(
 				DatabaseConnectionFactory.getStatement("databaseversion.insert.all.writeDatabaseVersion.sql"), Statement.RETURN_GENERATED_KEYS)) {
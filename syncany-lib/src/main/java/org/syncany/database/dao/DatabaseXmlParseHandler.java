@@ -50,7 +50,8 @@ import org.xml.sax.helpers.DefaultHandler;
  * 
  * <p>The class can read either an entire file into memory, or only parts of it --
  * excluding contents (headers only) or only selecting certain database version 
- * types (DEFAULT or PURGE).
+ * types (DEFAULT or PURGE). If only headers are read and the file starts with a header
+ * index, parsing stops after the index.
  *  
  * @see DatabaseXmlSerializer
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
@@ -83,21 +84,21 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
 		elementPath += "/" + qName;
 
-		if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion")) {
+		if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion") || isHeaderIndexElement("")) {
 			databaseVersion = new DatabaseVersion();
 		}		
-		else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/header/time")) {
+		else if (isHeaderElement("/time")) {
 			Date timeValue = new Date(Long.parseLong(attributes.getValue("value")));
 			databaseVersion.setTimestamp(timeValue);
 		}
-		else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/header/client")) {
+		else if (isHeaderElement("/client")) {
 			String clientName = attributes.getValue("name");
 			databaseVersion.setClient(clientName);
 		}
-		else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/header/vectorClock")) {
+		else if (isHeaderElement("/vectorClock")) {
 			vectorClock = new VectorClock();
 		}
-		else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/header/vectorClock/client")) {
+		else if (isHeaderElement("/vectorClock/client")) {
 			String clientName = attributes.getValue("name");
 			Long clientValue = Long.parseLong(attributes.getValue("value"));
 
@@ -219,7 +220,10 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 
 	@Override
 	public void endElement(String uri, String localName, String qName) throws SAXException {
-		if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion")) {
+		if (elementPath.equalsIgnoreCase("/database/databaseVersionHeaders") && readType == DatabaseReadType.HEADER_ONLY) {
+			throw new HeaderIndexReadException();
+		}
+		else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion") || isHeaderIndexElement("")) {
 			if (vectorClockInLoadRange) {
 				database.addDatabaseVersion(databaseVersion);
 				logger.log(Level.INFO, "   + Added database version " + databaseVersion.getHeader());
@@ -232,7 +236,7 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 			databaseVersion = null;
 			vectorClockInLoadRange = true;
 		}
-		else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/header/vectorClock")) {
+		else if (isHeaderElement("/vectorClock")) {
 			vectorClockInLoadRange = vectorClockInRange(vectorClock, versionFrom, versionTo);
 
 			databaseVersion.setVectorClock(vectorClock);
@@ -268,7 +272,22 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 		// Nothing
 	}
 
-	private boolean vectorClockInRange(VectorClock vectorClock, VectorClock vectorClockRangeFrom, VectorClock vectorClockRangeTo) {
+	/**
+	 * Returns whether the current element is the given element of a database version
+	 * header, either inside a database version or inside the header index. Elements in
+	 * the header index are only considered if only the headers are read.
+	 */
+	private boolean isHeaderElement(String headerElementPath) {
+		return elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/header" + headerElementPath)
+				|| isHeaderIndexElement(headerElementPath);
+	}
+
+	private boolean isHeaderIndexElement(String headerElementPath) {
+		return readType == DatabaseReadType.HEADER_ONLY
+				&& elementPath.equalsIgnoreCase("/database/databaseVersionHeaders/header" + headerElementPath);
+	}
+
+	static boolean vectorClockInRange(VectorClock vectorClock, VectorClock vectorClockRangeFrom, VectorClock vectorClockRangeTo) {
 		// Determine if: versionFrom < databaseVersion
 		boolean greaterOrEqualToVersionFrom = false;
 
@@ -299,4 +318,17 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 
 		return greaterOrEqualToVersionFrom && lowerOrEqualToVersionTo;
 	}
+
+	/**
+	 * Thrown when the header index at the beginning of a database file has been
+	 * read completely, and only headers were requested. This stops the parser,
+	 * so that the rest of the file does not have to be read.
+	 */
+	static class HeaderIndexReadException extends SAXException {
+		private static final long serialVersionUID = -4093129458722817040L;
+
+		public HeaderIndexReadException() {
+			super("Header index read, stopping parser.");
+		}
+	}
 }
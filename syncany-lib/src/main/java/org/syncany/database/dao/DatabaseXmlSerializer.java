@@ -17,11 +17,13 @@
  */
 package org.syncany.database.dao;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Iterator;
@@ -33,10 +35,12 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.stream.XMLStreamException;
 
+import org.apache.commons.io.IOUtils;
 import org.syncany.chunk.Transformer;
 import org.syncany.database.DatabaseVersion;
 import org.syncany.database.MemoryDatabase;
 import org.syncany.database.VectorClock;
+import org.syncany.database.dao.DatabaseXmlParseHandler.HeaderIndexReadException;
 
 /**
  * Serializes a {@link MemoryDatabase} or a list of {@link DatabaseVersion}s to an 
@@ -49,8 +53,16 @@ import org.syncany.database.VectorClock;
  * <p>It uses a {@link DatabaseXmlWriter} to write XML files to disk and 
  * {@link DatabaseXmlParseHandler} to parse them while reading. 
  * 
+ * <p>If the {@link DatabaseFormat#BINARY binary format} is selected, database files
+ * are written with a {@link DatabaseBinaryWriter} instead. Files are always read in
+ * the format they were written in: binary files are detected by their magic bytes
+ * and read with a {@link DatabaseBinaryReader}, all other files are parsed as XML.
+ * This allows XML and binary files to be mixed in the same repository.
+ * 
  * @see DatabaseXmlParseHandler
  * @see DatabaseXmlWriter
+ * @see DatabaseBinaryReader
+ * @see DatabaseBinaryWriter
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class DatabaseXmlSerializer {
@@ -60,14 +72,24 @@ public class DatabaseXmlSerializer {
 		FULL, HEADER_ONLY
 	}
 
+	public enum DatabaseFormat {
+		XML, BINARY
+	}
+
 	private Transformer transformer;
+	private DatabaseFormat format;
 
 	public DatabaseXmlSerializer() {
 		this(null);
 	}
 
 	public DatabaseXmlSerializer(Transformer transformer) {
+		this(transformer, DatabaseFormat.XML);
+	}
+
+	public DatabaseXmlSerializer(Transformer transformer, DatabaseFormat format) {
 		this.transformer = transformer;
+		this.format = format;
 	}
 
 	public void save(List<DatabaseVersion> databaseVersions, File destinationFile) throws IOException {
@@ -75,49 +97,105 @@ public class DatabaseXmlSerializer {
 	}
 
 	public void save(Iterator<DatabaseVersion> databaseVersions, File destinationFile) throws IOException {
-		try {
-			PrintWriter out;
+		if (format == DatabaseFormat.BINARY) {
+			saveBinary(databaseVersions, destinationFile);
+		}
+		else {
+			saveXml(databaseVersions, destinationFile);
+		}
+	}
 
-			if (transformer == null) {
-				out = new PrintWriter(new OutputStreamWriter(
-						new FileOutputStream(destinationFile), "UTF-8"));
-			}
-			else {
-				out = new PrintWriter(new OutputStreamWriter(
-						transformer.createOutputStream(new FileOutputStream(destinationFile)), "UTF-8"));
-			}
+	private void saveXml(Iterator<DatabaseVersion> databaseVersions, File destinationFile) throws IOException {
+		try {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(createOutputStream(destinationFile), "UTF-8"));
 
 			// Initialize XML writer
-			new DatabaseXmlWriter(databaseVersions, out).write();
+			new DatabaseXmlWriter(databaseVersions, out, getBodiesFile(destinationFile)).write();
 		}
 		catch (XMLStreamException e) {
 			throw new IOException(e);
 		}
 	}
 
+	private void saveBinary(Iterator<DatabaseVersion> databaseVersions, File destinationFile) throws IOException {
+		new DatabaseBinaryWriter(databaseVersions, createOutputStream(destinationFile), getBodiesFile(destinationFile)).write();
+	}
+
+	private File getBodiesFile(File destinationFile) {
+		return new File(destinationFile.getAbsolutePath() + ".bodies");
+	}
+
+	private OutputStream createOutputStream(File destinationFile) throws IOException {
+		if (transformer == null) {
+			return new FileOutputStream(destinationFile);
+		}
+		else {
+			return transformer.createOutputStream(new FileOutputStream(destinationFile));
+		}
+	}
+
 	public void load(MemoryDatabase db, File databaseFile, VectorClock fromVersion, VectorClock toVersion, DatabaseReadType readType)
 			throws IOException {
 		
 		InputStream is;
 
 		if (transformer == null) {
-			is = new FileInputStream(databaseFile);
+			is = new BufferedInputStream(new FileInputStream(databaseFile));
 		}
 		else {
-			is = transformer.createInputStream(new FileInputStream(databaseFile));
+			is = new BufferedInputStream(transformer.createInputStream(new FileInputStream(databaseFile)));
 		}
 
+		boolean readCompletely = readType == DatabaseReadType.FULL;
+
 		try {
-			logger.log(Level.INFO, "- Loading database ({0}) from file {1} ...", new Object[] { readType, databaseFile });
+			if (isBinaryFormat(is)) {
+				logger.log(Level.INFO, "- Loading database ({0}) from binary file {1} ...", new Object[] { readType, databaseFile });
+				new DatabaseBinaryReader(db, fromVersion, toVersion, readType).read(is);
+			}
+			else {
+				logger.log(Level.INFO, "- Loading database ({0}) from file {1} ...", new Object[] { readType, databaseFile });
 
-			SAXParserFactory factory = SAXParserFactory.newInstance();
-			SAXParser saxParser = factory.newSAXParser();
+				SAXParserFactory factory = SAXParserFactory.newInstance();
+				SAXParser saxParser = factory.newSAXParser();
 
-			saxParser.parse(is, new DatabaseXmlParseHandler(db, fromVersion, toVersion, readType));
+				saxParser.parse(is, new DatabaseXmlParseHandler(db, fromVersion, toVersion, readType));
+				readCompletely = true;
+			}
+		}
+		catch (HeaderIndexReadException e) {
+			logger.log(Level.FINE, "  + Read header index only, skipping rest of file.");
 		}
 		catch (Exception e) {
 			throw new IOException(e);
 		}
+		finally {
+			closeInputStream(is, readCompletely);
+		}
 	}
 
+	/**
+	 * Closes the input stream. If the stream was not read until the end (header-only
+	 * reads), authenticated ciphers cannot verify the stream when it is closed.
+	 * Errors are ignored in this case, since the file is read completely (and verified)
+	 * before any of its database versions are applied.
+	 */
+	private void closeInputStream(InputStream is, boolean readCompletely) throws IOException {
+		if (readCompletely) {
+			is.close();
+		}
+		else {
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	private boolean isBinaryFormat(InputStream is) throws IOException {
+		byte[] fileStart = new byte[DatabaseBinaryWriter.BINARY_FORMAT_MAGIC.length];
+
+		is.mark(fileStart.length);
+		int read = IOUtils.read(is, fileStart);
+		is.reset();
+
+		return read == fileStart.length && DatabaseBinaryReader.isBinaryFormat(fileStart);
+	}
 }
@@ -17,11 +17,21 @@
  */
 package org.syncany.database.dao;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,6 +42,7 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
 import org.syncany.chunk.Chunk;
 import org.syncany.chunk.MultiChunk;
 import org.syncany.database.ChunkEntry;
@@ -55,6 +66,12 @@ import org.syncany.util.StringUtil;
  * {@link DatabaseVersionHeader}, {@link PartialFileHistory}, {@link FileVersion}, 
  * {@link FileContent}, {@link Chunk} and {@link MultiChunk}.
  * 
+ * <p>All {@link DatabaseVersionHeader}s are additionally written to an index at the
+ * beginning of the file (<tt>databaseVersionHeaders</tt>). This allows reading the
+ * headers without parsing the entire file. Since the headers are only known after all
+ * database versions have been consumed, the database versions are first written to a
+ * temporary file, and then copied to the output after the index.
+ * 
  * @see DatabaseXmlSerializer
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
@@ -66,36 +83,76 @@ public class DatabaseXmlWriter {
 	
 	private Iterator<DatabaseVersion> databaseVersions;
 	private PrintWriter out;
+	private File bodiesFile;
 	
-	public DatabaseXmlWriter(Iterator<DatabaseVersion> databaseVersions, PrintWriter out) {
+	public DatabaseXmlWriter(Iterator<DatabaseVersion> databaseVersions, PrintWriter out, File bodiesFile) {
 		this.databaseVersions = databaseVersions;
 		this.out = out;
+		this.bodiesFile = bodiesFile;
 	}
 	
 	public void write() throws XMLStreamException, IOException {
+		try {
+			List<DatabaseVersionHeader> databaseVersionHeaders = writeDatabaseVersionBodies();
+			writeDatabase(databaseVersionHeaders);
+		}
+		finally {
+			bodiesFile.delete();
+		}
+	}
+	
+	private List<DatabaseVersionHeader> writeDatabaseVersionBodies() throws XMLStreamException, IOException {
+		List<DatabaseVersionHeader> databaseVersionHeaders = new ArrayList<DatabaseVersionHeader>();
+		
+		try (Writer bodiesOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(bodiesFile), "UTF-8"))) {
+			IndentXmlStreamWriter xmlOut = new IndentXmlStreamWriter(bodiesOut, 2);
+			
+			while (databaseVersions.hasNext()) {
+				DatabaseVersion databaseVersion = databaseVersions.next();
+				
+				// Database version
+				xmlOut.writeStartElement("databaseVersion");
+				
+				// Header, chunks, multichunks, file contents, and file histories
+				writeDatabaseVersionHeader(xmlOut, databaseVersion);
+				writeChunks(xmlOut, databaseVersion.getChunks());
+				writeMultiChunks(xmlOut, databaseVersion.getMultiChunks());
+				writeFileContents(xmlOut, databaseVersion.getFileContents());
+				writeFileHistories(xmlOut, databaseVersion.getFileHistories());	
+				
+				xmlOut.writeEndElement(); // </databaserVersion>
+				
+				databaseVersionHeaders.add(databaseVersion.getHeader());
+			}
+			
+			xmlOut.flush();
+			xmlOut.close();
+		}
+		
+		return databaseVersionHeaders;
+	}
+	
+	private void writeDatabase(List<DatabaseVersionHeader> databaseVersionHeaders) throws XMLStreamException, IOException {
 		IndentXmlStreamWriter xmlOut = new IndentXmlStreamWriter(out);
 		
 		xmlOut.writeStartDocument();
 		
 		xmlOut.writeStartElement("database");
 		xmlOut.writeAttribute("version", XML_FORMAT_VERSION);
+		
+		// Header index, allows reading all headers without parsing the database versions
+		xmlOut.writeStartElement("databaseVersionHeaders");
+		
+		for (DatabaseVersionHeader databaseVersionHeader : databaseVersionHeaders) {
+			writeDatabaseVersionHeader(xmlOut, databaseVersionHeader);
+		}
+		
+		xmlOut.writeEndElement(); // </databaseVersionHeaders>
 		 
 		xmlOut.writeStartElement("databaseVersions");
-		 			
-		while (databaseVersions.hasNext()) {
-			DatabaseVersion databaseVersion = databaseVersions.next();
-			
-			// Database version
-			xmlOut.writeStartElement("databaseVersion");
-			
-			// Header, chunks, multichunks, file contents, and file histories
-			writeDatabaseVersionHeader(xmlOut, databaseVersion);
-			writeChunks(xmlOut, databaseVersion.getChunks());
-			writeMultiChunks(xmlOut, databaseVersion.getMultiChunks());
-			writeFileContents(xmlOut, databaseVersion.getFileContents());
-			writeFileHistories(xmlOut, databaseVersion.getFileHistories());	
-			
-			xmlOut.writeEndElement(); // </databaserVersion>
+		
+		try (Reader bodiesIn = new BufferedReader(new InputStreamReader(new FileInputStream(bodiesFile), "UTF-8"))) {
+			xmlOut.writeRaw(bodiesIn);
 		}
 		
 		xmlOut.writeEndElement(); // </databaseVersions>
@@ -118,17 +175,21 @@ public class DatabaseXmlWriter {
 			throw new IOException("Cannot write database version. Header fields must be filled: "+databaseVersion.getHeader());
 		}
 		
+		writeDatabaseVersionHeader(xmlOut, databaseVersion.getHeader());
+	}
+	
+	private void writeDatabaseVersionHeader(IndentXmlStreamWriter xmlOut, DatabaseVersionHeader databaseVersionHeader) throws XMLStreamException {
 		xmlOut.writeStartElement("header");
 		
 		xmlOut.writeEmptyElement("time");
-		xmlOut.writeAttribute("value", databaseVersion.getTimestamp().getTime());
+		xmlOut.writeAttribute("value", databaseVersionHeader.getDate().getTime());
 		
 		xmlOut.writeEmptyElement("client");
-		xmlOut.writeAttribute("name", databaseVersion.getClient());
+		xmlOut.writeAttribute("name", databaseVersionHeader.getClient());
 		
 		xmlOut.writeStartElement("vectorClock");
 
-		VectorClock vectorClock = databaseVersion.getVectorClock();			
+		VectorClock vectorClock = databaseVersionHeader.getVectorClock();			
 		for (Map.Entry<String, Long> vectorClockEntry : vectorClock.entrySet()) {
 			xmlOut.writeEmptyElement("client");
 			xmlOut.writeAttribute("name", vectorClockEntry.getKey());
@@ -289,12 +350,18 @@ public class DatabaseXmlWriter {
 	 */
 	public static class IndentXmlStreamWriter {
 		private int indent;
+		private Writer rawOut;
 		private XMLStreamWriter out;
 		
 		public IndentXmlStreamWriter(Writer out) throws XMLStreamException {
+			this(out, 0);
+		}
+		
+		public IndentXmlStreamWriter(Writer out, int indent) throws XMLStreamException {
 			XMLOutputFactory factory = XMLOutputFactory.newInstance();
 			
-			this.indent = 0;
+			this.indent = indent;
+			this.rawOut = out;
 			this.out = factory.createXMLStreamWriter(out);
 		}
 		
@@ -329,6 +396,18 @@ public class DatabaseXmlWriter {
 			out.writeEndElement();			
 		}
 		
+		/**
+		 * Copies already serialized XML from the given reader to the underlying
+		 * writer. The reader must contain well-formed XML elements.
+		 */
+		private void writeRaw(Reader in) throws XMLStreamException, IOException {
+			out.writeCharacters(""); // Closes open start tag
+			out.flush();
+			
+			IOUtils.copy(in, rawOut);
+			rawOut.flush();
+		}
+		
 		private void writeEndDocument() throws XMLStreamException {
 			out.writeEndDocument();
 		}
@@ -47,9 +47,9 @@ public class FileContentSqlDao extends AbstractSqlDao {
 	 * It fills two tables, the <i>filecontent</i> table ({@link FileContent}) and the <i>filecontent_chunk</i> 
 	 * table ({@link ChunkChecksum}).
 	 * 
-	 * <p>To do the latter (write chunk references), this method calls
-	 * {@link #writeFileContentChunkRefs(Connection, FileContent) writeFileContentChunkRefs()} for every 
-	 * {@link FileContent}. 
+	 * <p>Each table is written with a single (reused) statement, using batches of
+	 * {@link #DEFAULT_BATCH_SIZE} rows. The file contents are inserted before the
+	 * chunk references, because of the foreign key constraints.
 	 * 
 	 * <p><b>Note:</b> This method executes, but does not commit the queries.
 	 * 
@@ -59,37 +59,46 @@ public class FileContentSqlDao extends AbstractSqlDao {
 	 * @throws SQLException If the SQL statement fails
 	 */
 	public void writeFileContents(Connection connection, long databaseVersionId, Collection<FileContent> fileContents) throws SQLException {
-		for (FileContent fileContent : fileContents) {
-			PreparedStatement preparedStatement = getStatement(connection, "filecontent.insert.all.writeFileContents.sql");
+		if (fileContents.size() > 0) {
+			try (BatchedStatement batchedStatement = getBatchedStatement(connection, "filecontent.insert.all.writeFileContents.sql")) {
+				PreparedStatement preparedStatement = batchedStatement.getStatement();
+
+				for (FileContent fileContent : fileContents) {
+					preparedStatement.setBytes(1, fileContent.getChecksum().getBytes());
+					preparedStatement.setLong(2, databaseVersionId);
+					preparedStatement.setLong(3, fileContent.getSize());
+
+					batchedStatement.addBatch();
+				}
+
+				batchedStatement.executeBatch();
+			}
 
-			preparedStatement.setString(1, fileContent.getChecksum().toString());
-			preparedStatement.setLong(2, databaseVersionId);
-			preparedStatement.setLong(3, fileContent.getSize());
-			
-			preparedStatement.executeUpdate();
-			preparedStatement.close();	
-			
 			// Write chunk references
-			writeFileContentChunkRefs(connection, fileContent);			
+			writeFileContentChunkRefs(connection, fileContents);
 		}
 	}
 	
-	private void writeFileContentChunkRefs(Connection connection, FileContent fileContent) throws SQLException {
-		PreparedStatement preparedStatement = getStatement(connection, "filecontent.insert.all.writeFileContentChunkRefs.sql");
-		int order = 0;
-		
-		for (ChunkChecksum chunkChecksum : fileContent.getChunks()) {
-			preparedStatement.setString(1, fileContent.getChecksum().toString());
-			preparedStatement.setString(2, chunkChecksum.toString());
-			preparedStatement.setInt(3, order);
+	private void writeFileContentChunkRefs(Connection connection, Collection<FileContent> fileContents) throws SQLException {
+		try (BatchedStatement batchedStatement = getBatchedStatement(connection, "filecontent.insert.all.writeFileContentChunkRefs.sql")) {
+			PreparedStatement preparedStatement = batchedStatement.getStatement();
 
-			preparedStatement.addBatch();
-			
-			order++;				
+			for (FileContent fileContent : fileContents) {
+				int order = 0;
+
+				for (ChunkChecksum chunkChecksum : fileContent.getChunks()) {
+					preparedStatement.setBytes(1, fileContent.getChecksum().getBytes());
+					preparedStatement.setBytes(2, chunkChecksum.getBytes());
+					preparedStatement.setInt(3, order);
+
+					batchedStatement.addBatch();
+
+					order++;
+				}
+			}
+
+			batchedStatement.executeBatch();
 		}
-		
-		preparedStatement.executeBatch();
-		preparedStatement.close();
 	}
 
 	/**
@@ -167,13 +176,13 @@ public class FileContentSqlDao extends AbstractSqlDao {
 
 	private FileContent getFileContentWithoutChunkChecksums(FileChecksum fileChecksum) {
 		try (PreparedStatement preparedStatement = getStatement("filecontent.select.all.getFileContentByChecksumWithoutChunkChecksums.sql")) {
-			preparedStatement.setString(1, fileChecksum.toString());
+			preparedStatement.setBytes(1, fileChecksum.getBytes());
 
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				if (resultSet.next()) {
 					FileContent fileContent = new FileContent();
 	
-					fileContent.setChecksum(FileChecksum.parseFileChecksum(resultSet.getString("checksum")));
+					fileContent.setChecksum(new FileChecksum(resultSet.getBytes("checksum")));
 					fileContent.setSize(resultSet.getLong("size"));
 	
 					return fileContent;
@@ -189,7 +198,7 @@ public class FileContentSqlDao extends AbstractSqlDao {
 
 	private FileContent getFileContentWithChunkChecksums(FileChecksum fileChecksum) {
 		try (PreparedStatement preparedStatement = getStatement("filecontent.select.all.getFileContentByChecksumWithChunkChecksums.sql")) {
-			preparedStatement.setString(1, fileChecksum.toString());
+			preparedStatement.setBytes(1, fileChecksum.getBytes());
 
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				FileContent fileContent = null;
@@ -198,12 +207,12 @@ public class FileContentSqlDao extends AbstractSqlDao {
 					if (fileContent == null) {
 						fileContent = new FileContent();
 						
-						fileContent.setChecksum(FileChecksum.parseFileChecksum(resultSet.getString("checksum")));
+						fileContent.setChecksum(new FileChecksum(resultSet.getBytes("checksum")));
 						fileContent.setSize(resultSet.getLong("size"));
 					}
 					
 					// Add chunk references
-					ChunkChecksum chunkChecksum = ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum"));
+					ChunkChecksum chunkChecksum = new ChunkChecksum(resultSet.getBytes("chunk_checksum"));
 					fileContent.addChunk(chunkChecksum);
 				}
 	
@@ -220,7 +229,7 @@ public class FileContentSqlDao extends AbstractSqlDao {
 		FileChecksum currentFileChecksum = null;
 		
 		while (resultSet.next()) {		
-			FileChecksum fileChecksum = FileChecksum.parseFileChecksum(resultSet.getString("checksum"));
+			FileChecksum fileChecksum = new FileChecksum(resultSet.getBytes("checksum"));
 			FileContent fileContent = null;
 			
 			if (currentFileChecksum != null && currentFileChecksum.equals(fileChecksum)) {
@@ -233,7 +242,7 @@ public class FileContentSqlDao extends AbstractSqlDao {
 				fileContent.setSize(resultSet.getLong("size"));
 			}
 			
-			ChunkChecksum chunkChecksum = ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum"));
+			ChunkChecksum chunkChecksum = new ChunkChecksum(resultSet.getBytes("chunk_checksum"));
 			fileContent.addChunk(chunkChecksum);
 
 			fileContents.put(fileChecksum, fileContent); 
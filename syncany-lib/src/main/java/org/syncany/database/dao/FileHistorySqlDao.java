@@ -34,6 +34,7 @@ import org.syncany.database.FileVersion;
 import org.syncany.database.PartialFileHistory;
 import org.syncany.database.PartialFileHistory.FileHistoryId;
 import org.syncany.database.VectorClock;
+import org.syncany.util.StringUtil;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
@@ -55,8 +56,11 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 	/**
 	 * Writes a list of {@link PartialFileHistory}s to the database table <i>filehistory</i> using <tt>INSERT</tt>s
 	 * and the given connection. In addition, this method also writes the corresponding {@link FileVersion}s of
-	 * each file history to the database using
-	 * {@link FileVersionSqlDao#writeFileVersions(Connection, FileHistoryId, long, Collection) FileVersionSqlDao#writeFileVersions}.
+	 * all file histories to the database using
+	 * {@link FileVersionSqlDao#writeFileVersions(Connection, long, Collection) FileVersionSqlDao#writeFileVersions}.
+	 *
+	 * <p>The file histories are written with a single (reused) statement, using batches of
+	 * {@link #DEFAULT_BATCH_SIZE} rows.
 	 *
 	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the queries.
 	 *
@@ -66,21 +70,23 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 	 * @throws SQLException If the SQL statement fails
 	 */
 	public void writeFileHistories(Connection connection, long databaseVersionId, Collection<PartialFileHistory> fileHistories) throws SQLException {
-		for (PartialFileHistory fileHistory : fileHistories) {
-			PreparedStatement preparedStatement = getStatement(connection, "filehistory.insert.all.writeFileHistories.sql");
+		if (fileHistories.size() > 0) {
+			PreparedStatement insertStatement = getStatement(connection, "filehistory.insert.all.writeFileHistories.sql");
 
-			preparedStatement.setString(1, fileHistory.getFileHistoryId().toString());
-			preparedStatement.setLong(2, databaseVersionId);
+			try (BatchedStatement batchedStatement = new BatchedStatement(insertStatement, DEFAULT_BATCH_SIZE, true)) {
+				PreparedStatement preparedStatement = batchedStatement.getStatement();
 
-			int affectedRows = preparedStatement.executeUpdate();
+				for (PartialFileHistory fileHistory : fileHistories) {
+					preparedStatement.setString(1, fileHistory.getFileHistoryId().toString());
+					preparedStatement.setLong(2, databaseVersionId);
 
-			if (affectedRows == 0) {
-				throw new SQLException("Cannot add database version header. Affected rows is zero.");
-			}
+					batchedStatement.addBatch();
+				}
 
-			preparedStatement.close();
+				batchedStatement.executeBatch();
+			}
 
-			fileVersionDao.writeFileVersions(connection, fileHistory.getFileHistoryId(), databaseVersionId, fileHistory.getFileVersions().values());
+			fileVersionDao.writeFileVersions(connection, databaseVersionId, fileHistories);
 		}
 	}
 
@@ -180,7 +186,7 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 			// However, it does not guarantee that this version is indeed the last version in that particular
 			// FileHistory, so we need another query to verify that.
 
-			preparedStatement.setString(1, filecontentChecksum);
+			preparedStatement.setBytes(1, StringUtil.fromHex(filecontentChecksum));
 			preparedStatement.setLong(2, size);
 			preparedStatement.setTimestamp(3, new Timestamp(modifiedDate.getTime()));
 
@@ -34,12 +34,14 @@ import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.syncany.database.ChunkEntry.ChunkChecksum;
 import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.FileVersion;
 import org.syncany.database.FileVersion.FileStatus;
 import org.syncany.database.FileVersion.FileType;
 import org.syncany.database.PartialFileHistory;
 import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.VectorClock;
 import org.syncany.operations.cleanup.CleanupOperationOptions.TimeUnit;
 import org.syncany.util.StringUtil;
 
@@ -49,6 +51,12 @@ import com.google.common.collect.ImmutableMap;
  * The file version DAO queries and modifies the <i>fileversion</i> in
  * the SQL database. This table corresponds to the Java object {@link FileVersion}.
  *
+ * <p>The DAO also maintains the <i>fileversion_head</i> table, which holds the last
+ * version of each file history in MASTER database versions. The table is used to look up
+ * the current file tree without grouping all file versions by their file history. It must
+ * be updated whenever file versions are added or removed, or when database versions
+ * change their status (see {@link #updateFileVersionHeads(Connection, Collection) updateFileVersionHeads()}).
+ *
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class FileVersionSqlDao extends AbstractSqlDao {
@@ -81,10 +89,44 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 	 */
 	public void writeFileVersions(Connection connection, FileHistoryId fileHistoryId, long databaseVersionId, Collection<FileVersion> fileVersions)
 			throws SQLException {
-		PreparedStatement preparedStatement = getStatement(connection, "fileversion.insert.writeFileVersions.sql");
+
+		try (BatchedStatement batchedStatement = getBatchedStatement(connection, "fileversion.insert.writeFileVersions.sql")) {
+			writeFileVersions(batchedStatement, fileHistoryId, databaseVersionId, fileVersions);
+			batchedStatement.executeBatch();
+		}
+	}
+
+	/**
+	 * Writes the {@link FileVersion}s of all of the given {@link PartialFileHistory}s to the database
+	 * table <i>fileversion</i> using <tt>INSERT</tt>s and the given connection. All file versions are
+	 * written with a single (reused) statement, using batches of {@link #DEFAULT_BATCH_SIZE} rows.
+	 *
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the queries.
+	 *
+	 * @param connection The connection used to execute the statements
+	 * @param databaseVersionId References the database version to which the file versions belong
+	 * @param fileHistories File histories whose file versions are to be written to the database
+	 * @throws SQLException If the SQL statement fails
+	 */
+	public void writeFileVersions(Connection connection, long databaseVersionId, Collection<PartialFileHistory> fileHistories)
+			throws SQLException {
+
+		try (BatchedStatement batchedStatement = getBatchedStatement(connection, "fileversion.insert.writeFileVersions.sql")) {
+			for (PartialFileHistory fileHistory : fileHistories) {
+				writeFileVersions(batchedStatement, fileHistory.getFileHistoryId(), databaseVersionId, fileHistory.getFileVersions().values());
+			}
+
+			batchedStatement.executeBatch();
+		}
+	}
+
+	private void writeFileVersions(BatchedStatement batchedStatement, FileHistoryId fileHistoryId, long databaseVersionId,
+			Collection<FileVersion> fileVersions) throws SQLException {
+
+		PreparedStatement preparedStatement = batchedStatement.getStatement();
 
 		for (FileVersion fileVersion : fileVersions) {
-			String fileContentChecksumStr = (fileVersion.getChecksum() != null) ? fileVersion.getChecksum().toString() : null;
+			byte[] fileContentChecksum = (fileVersion.getChecksum() != null) ? fileVersion.getChecksum().getBytes() : null;
 
 			preparedStatement.setString(1, fileHistoryId.toString());
 			preparedStatement.setInt(2, Integer.parseInt("" + fileVersion.getVersion()));
@@ -95,16 +137,13 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 			preparedStatement.setLong(7, fileVersion.getSize());
 			preparedStatement.setTimestamp(8, new Timestamp(fileVersion.getLastModified().getTime()));
 			preparedStatement.setString(9, fileVersion.getLinkTarget());
-			preparedStatement.setString(10, fileContentChecksumStr);
+			preparedStatement.setBytes(10, fileContentChecksum);
 			preparedStatement.setTimestamp(11, new Timestamp(fileVersion.getUpdated().getTime()));
 			preparedStatement.setString(12, fileVersion.getPosixPermissions());
 			preparedStatement.setString(13, fileVersion.getDosAttributes());
 
-			preparedStatement.addBatch();
+			batchedStatement.addBatch();
 		}
-
-		preparedStatement.executeBatch();
-		preparedStatement.close();
 	}
 
 	/**
@@ -142,6 +181,8 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 
 				preparedStatement.executeBatch();
 			}
+
+			updateFileVersionHeads(connection, purgeFileVersions.keySet());
 		}
 	}
 
@@ -159,6 +200,82 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 
 				preparedStatement.executeBatch();
 			}
+
+			updateFileVersionHeads(connection, purgeFileVersions.keySet());
+		}
+	}
+
+	/**
+	 * Updates the <i>fileversion_head</i> table for the given file histories, i.e. determines
+	 * the last MASTER version of each of the file histories. If a file history has no MASTER
+	 * versions (anymore), it is removed from the table.
+	 *
+	 * <p>This method must be called after file versions of the given file histories have been
+	 * added or removed, or after the status of a database version containing them has changed.
+	 *
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the queries.
+	 *
+	 * @param connection The connection used to execute the statements
+	 * @param fileHistoryIds File histories whose last version might have changed
+	 * @throws SQLException If the SQL statement fails
+	 */
+	public void updateFileVersionHeads(Connection connection, Collection<FileHistoryId> fileHistoryIds) throws SQLException {
+		if (fileHistoryIds.size() > 0) {
+			try (PreparedStatement preparedStatement = getStatement(connection, "fileversion_head.delete.all.removeFileVersionHead.sql")) {
+				for (FileHistoryId fileHistoryId : fileHistoryIds) {
+					preparedStatement.setString(1, fileHistoryId.toString());
+					preparedStatement.addBatch();
+				}
+
+				preparedStatement.executeBatch();
+			}
+
+			try (PreparedStatement preparedStatement = getStatement(connection, "fileversion_head.insert.master.updateFileVersionHead.sql")) {
+				for (FileHistoryId fileHistoryId : fileHistoryIds) {
+					preparedStatement.setString(1, fileHistoryId.toString());
+					preparedStatement.setString(2, fileHistoryId.toString());
+					preparedStatement.addBatch();
+				}
+
+				preparedStatement.executeBatch();
+			}
+		}
+	}
+
+	/**
+	 * Re-creates the entire <i>fileversion_head</i> table from the <i>fileversion</i> table.
+	 * This is only necessary if the file versions have been modified without updating the
+	 * table, e.g. by importing them directly.
+	 *
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the queries.
+	 */
+	public void rebuildFileVersionHeads() throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement("fileversion_head.delete.all.removeAllFileVersionHeads.sql")) {
+			preparedStatement.executeUpdate();
+		}
+
+		try (PreparedStatement preparedStatement = getStatement("fileversion_head.insert.master.rebuildFileVersionHeads.sql")) {
+			preparedStatement.executeUpdate();
+		}
+	}
+
+	/**
+	 * Returns the identifiers of all file histories that have versions in the
+	 * database version identified by the given vector clock.
+	 */
+	public List<FileHistoryId> getFileHistoryIds(VectorClock vectorClock) throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement("fileversion.select.all.getFileHistoryIdsByVectorClock.sql")) {
+			preparedStatement.setString(1, vectorClock.toString());
+
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				List<FileHistoryId> fileHistoryIds = new ArrayList<FileHistoryId>();
+
+				while (resultSet.next()) {
+					fileHistoryIds.add(FileHistoryId.parseFileId(resultSet.getString("filehistory_id")));
+				}
+
+				return fileHistoryIds;
+			}
 		}
 	}
 
@@ -189,6 +306,64 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Queries the database for the currently active {@link FileVersion}s, and returns them
+	 * one by one, ordered by their relative path. Contrary to {@link #getCurrentFileTree()}, the
+	 * file versions are not loaded into memory all at once, so this method can be used to
+	 * compare very large file trees to the local disk.
+	 *
+	 * <p>The paths are ordered like the database compares strings, i.e. character by character,
+	 * with the shorter path padded with spaces ("pad space" collation). Paths that are equal when
+	 * padded are ordered by their length.
+	 *
+	 * <p>The underlying statement is closed when the last file version has been returned, so
+	 * callers must iterate over all file versions.
+	 *
+	 * @return Returns an iterator over the current file versions, ordered by path
+	 */
+	public Iterator<FileVersion> getCurrentFileTreeOrderedByPath() {
+		try {
+			PreparedStatement preparedStatement = getStatement("fileversion.select.master.getCurrentFileTreeOrderedByPath.sql");
+			return new FileVersionIterator(preparedStatement);
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Queries the current file tree for files whose content contains at least one
+	 * of the given chunks. Deleted files, folders and symlinks are not returned.
+	 * 
+	 * @param chunkChecksums Chunks to look for
+	 * @return Returns the current file versions of the matching files
+	 */
+	public List<FileVersion> getCurrentFileVersionsByChunkChecksums(Collection<ChunkChecksum> chunkChecksums) {
+		byte[][] checksums = new byte[chunkChecksums.size()][];
+		int i = 0;
+
+		for (ChunkChecksum chunkChecksum : chunkChecksums) {
+			checksums[i++] = chunkChecksum.getBytes();
+		}
+
+		try (PreparedStatement preparedStatement = getStatement("fileversion.select.master.getCurrentFileVersionsByChunkChecksums.sql")) {
+			preparedStatement.setArray(1, connection.createArrayOf("varbinary", checksums));
+
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				List<FileVersion> fileVersions = new ArrayList<FileVersion>();
+
+				while (resultSet.next()) {
+					fileVersions.add(createFileVersionFromRow(resultSet));
+				}
+
+				return fileVersions;
+			}
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public List<FileVersion> getFileHistory(FileHistoryId fileHistoryId) {
 		try (PreparedStatement preparedStatement = getStatement("fileversion.select.master.getFileHistoryById.sql")) {
 			preparedStatement.setString(1, fileHistoryId.toString());
@@ -229,6 +404,8 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 			pathExpression = (pathExpression == null || "".equals(pathExpression)) ? "%" : pathExpression;
 		}
 		
+		// The current file tree (no date) can be read from the materialized last versions
+		boolean currentFileTree = (date == null);
 		date = (date == null) ? new Date(4133984461000L) : date;
 
 		int slashCount = StringUtil.substrCount(pathExpression, "/");
@@ -244,14 +421,20 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 					+ StringUtil.join(fileTypesStr, ", "));
 		}
 
-		try (PreparedStatement preparedStatement = getStatement("fileversion.select.master.getFilteredFileTree.sql")) {
+		String sqlResourceId = (currentFileTree) ? "fileversion.select.master.getCurrentFilteredFileTree.sql"
+				: "fileversion.select.master.getFilteredFileTree.sql";
+
+		try (PreparedStatement preparedStatement = getStatement(sqlResourceId)) {
 			preparedStatement.setString(1, fileStatusNotEqualTo);
 			preparedStatement.setString(2, pathExpression);
 			preparedStatement.setString(3, fileHistoryPrefix);
 			preparedStatement.setInt(4, filterMinSlashCount);
 			preparedStatement.setInt(5, filterMaxSlashCount);
 			preparedStatement.setArray(6, connection.createArrayOf("varchar", fileTypesStr));
-			preparedStatement.setTimestamp(7, new Timestamp(date.getTime()));
+
+			if (!currentFileTree) {
+				preparedStatement.setTimestamp(7, new Timestamp(date.getTime()));
+			}
 
 			return getFileTree(preparedStatement);
 		}
@@ -385,6 +568,58 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	private class FileVersionIterator implements Iterator<FileVersion> {
+		private PreparedStatement preparedStatement;
+		private ResultSet resultSet;
+
+		private boolean hasNext;
+
+		public FileVersionIterator(PreparedStatement preparedStatement) throws SQLException {
+			this.preparedStatement = preparedStatement;
+			this.resultSet = preparedStatement.executeQuery();
+
+			this.hasNext = resultSet.next();
+			closeIfDone();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return hasNext;
+		}
+
+		@Override
+		public FileVersion next() {
+			if (hasNext) {
+				try {
+					FileVersion fileVersion = createFileVersionFromRow(resultSet);
+
+					hasNext = resultSet.next();
+					closeIfDone();
+
+					return fileVersion;
+				}
+				catch (SQLException e) {
+					throw new RuntimeException("Cannot load next SQL row.", e);
+				}
+			}
+			else {
+				return null;
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new RuntimeException("Not implemented.");
+		}
+
+		private void closeIfDone() throws SQLException {
+			if (!hasNext) {
+				resultSet.close();
+				preparedStatement.close();
+			}
+		}
+	}
+
 	private List<FileVersion> getFileTree(PreparedStatement preparedStatement) {
 		List<FileVersion> fileTree = new ArrayList<>();
 
@@ -431,8 +666,8 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 			fileVersion.setLinkTarget(resultSet.getString("linktarget"));
 		}
 
-		if (resultSet.getString("filecontent_checksum") != null) {
-			FileChecksum fileChecksum = FileChecksum.parseFileChecksum(resultSet.getString("filecontent_checksum"));
+		if (resultSet.getBytes("filecontent_checksum") != null) {
+			FileChecksum fileChecksum = new FileChecksum(resultSet.getBytes("filecontent_checksum"));
 			fileVersion.setChecksum(fileChecksum);
 		}
 
@@ -50,34 +50,49 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		super(connection);
 	}
 
+	/**
+	 * Writes a list of {@link MultiChunkEntry}s to the database using <tt>INSERT</tt>s and the given connection.
+	 * It fills two tables, the <i>multichunk</i> table and the <i>multichunk_chunk</i> table. Each table is
+	 * written with a single (reused) statement, using batches of {@link #DEFAULT_BATCH_SIZE} rows.
+	 *
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the queries.
+	 */
 	public void writeMultiChunks(Connection connection, long databaseVersionId, Collection<MultiChunkEntry> multiChunks) throws SQLException {
-		for (MultiChunkEntry multiChunk : multiChunks) {
-			PreparedStatement preparedStatement = getStatement(connection, "multichunk.insert.all.writeMultiChunks.sql");
+		if (multiChunks.size() > 0) {
+			try (BatchedStatement batchedStatement = getBatchedStatement(connection, "multichunk.insert.all.writeMultiChunks.sql")) {
+				PreparedStatement preparedStatement = batchedStatement.getStatement();
 
-			preparedStatement.setString(1, multiChunk.getId().toString());
-			preparedStatement.setLong(2, databaseVersionId);
-			preparedStatement.setLong(3, multiChunk.getSize());
-			
-			preparedStatement.executeUpdate();
-			preparedStatement.close();
-			
-			writeMultiChunkRefs(connection, multiChunk);			
+				for (MultiChunkEntry multiChunk : multiChunks) {
+					preparedStatement.setBytes(1, multiChunk.getId().getBytes());
+					preparedStatement.setLong(2, databaseVersionId);
+					preparedStatement.setLong(3, multiChunk.getSize());
+
+					batchedStatement.addBatch();
+				}
+
+				batchedStatement.executeBatch();
+			}
+
+			writeMultiChunkRefs(connection, multiChunks);
 		}
 	}
 
-	private void writeMultiChunkRefs(Connection connection, MultiChunkEntry multiChunk) throws SQLException {
-		PreparedStatement preparedStatement = getStatement("multichunk.insert.all.writeMultiChunkRefs.sql");
-		
-		for (ChunkChecksum chunkChecksum : multiChunk.getChunks()) {
-			preparedStatement.setString(1, multiChunk.getId().toString());
-			preparedStatement.setString(2, chunkChecksum.toString());
-			
-			preparedStatement.addBatch();			
+	private void writeMultiChunkRefs(Connection connection, Collection<MultiChunkEntry> multiChunks) throws SQLException {
+		try (BatchedStatement batchedStatement = getBatchedStatement(connection, "multichunk.insert.all.writeMultiChunkRefs.sql")) {
+			PreparedStatement preparedStatement = batchedStatement.getStatement();
+
+			for (MultiChunkEntry multiChunk : multiChunks) {
+				for (ChunkChecksum chunkChecksum : multiChunk.getChunks()) {
+					preparedStatement.setBytes(1, multiChunk.getId().getBytes());
+					preparedStatement.setBytes(2, chunkChecksum.getBytes());
+
+					batchedStatement.addBatch();
+				}
+			}
+
+			batchedStatement.executeBatch();
 		}
-		
-		preparedStatement.executeBatch();
-		preparedStatement.close();
-	}	
+	}
 
 	public void writeMuddyMultiChunks(Map<DatabaseVersionHeader, Collection<MultiChunkEntry>> muddyMultiChunksPerDatabaseVersion) throws SQLException {
 		PreparedStatement preparedStatement = getStatement("multichunk_muddy.insert.muddy.writeMuddyMultiChunks.sql");
@@ -86,11 +101,11 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 			Collection<MultiChunkEntry> muddyMultiChunks = muddyMultiChunksPerDatabaseVersion.get(muddyDatabaseVersionHeader);
 			
 			for (MultiChunkEntry muddyMultiChunk : muddyMultiChunks) {
-				String multiChunkIdStr = muddyMultiChunk.getId().toString();
+				byte[] multiChunkId = muddyMultiChunk.getId().getBytes();
 				String clientName = muddyDatabaseVersionHeader.getClient();
 				Long clientVersion = muddyDatabaseVersionHeader.getVectorClock().getClock(clientName);
 				
-				preparedStatement.setString(1, multiChunkIdStr);
+				preparedStatement.setBytes(1, multiChunkId);
 				preparedStatement.setString(2, clientName);
 				preparedStatement.setLong(3, clientVersion);
 				
@@ -139,11 +154,11 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		}
 		else {
 			try (PreparedStatement preparedStatement = getStatement("multichunk.select.all.getMultiChunkIdsForFileChecksum.sql")) {
-				preparedStatement.setString(1, fileChecksum.toString());
+				preparedStatement.setBytes(1, fileChecksum.getBytes());
 	
 				try (ResultSet resultSet = preparedStatement.executeQuery()) {
 					while (resultSet.next()) {
-						multiChunkIds.add(MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id")));
+						multiChunkIds.add(new MultiChunkId(resultSet.getBytes("multichunk_id")));
 					}
 		
 					return multiChunkIds;
@@ -189,11 +204,11 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 	 */
 	public MultiChunkId getMultiChunkId(ChunkChecksum chunkChecksum) {
 		try (PreparedStatement preparedStatement = getStatement("multichunk.select.all.getMultiChunkIdForChunk.sql")) {
-			preparedStatement.setString(1, chunkChecksum.toString());
+			preparedStatement.setBytes(1, chunkChecksum.getBytes());
 					
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				if (resultSet.next()) {
-					return MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id"));
+					return new MultiChunkId(resultSet.getBytes("multichunk_id"));
 				}
 			}
 
@@ -208,23 +223,23 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 	 * Note: This method selects also {@link DatabaseVersionStatus#DIRTY DIRTY}.
 	 */
 	public Map<ChunkChecksum,MultiChunkId> getMultiChunkIdsByChecksums(List<ChunkChecksum> chunkChecksums) {
-		// Gather a unique array of checksum strings (required for query!)
+		// Gather a unique array of checksums (required for query!)
 		Set<ChunkChecksum> chunkChecksumSet = new HashSet<ChunkChecksum>(chunkChecksums);
-		String[] checksums = new String[chunkChecksumSet.size()];
+		byte[][] checksums = new byte[chunkChecksumSet.size()][];
 		int i = 0;
 		for (ChunkChecksum checksum : chunkChecksumSet) {
-			checksums[i] = checksum.toString();
+			checksums[i] = checksum.getBytes();
 			i++;
 		}
 		
 		// Execute query
 		Map<ChunkChecksum, MultiChunkId> result = new HashMap<ChunkChecksum, MultiChunkId>();
 		try (PreparedStatement preparedStatement = getStatement("multichunk.select.all.getMultiChunkIdForChunks.sql")) {
-			preparedStatement.setArray(1, connection.createArrayOf("varchar", checksums));	
+			preparedStatement.setArray(1, connection.createArrayOf("varbinary", checksums));	
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				while (resultSet.next()) {
-					result.put(ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum")),
-							MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id")));
+					result.put(new ChunkChecksum(resultSet.getBytes("chunk_checksum")),
+							new MultiChunkId(resultSet.getBytes("multichunk_id")));
 					
 				}
 			}
@@ -242,7 +257,7 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		try (PreparedStatement preparedStatement = getStatement("multichunk.select.dirty.getDirtyMultiChunkIds.sql")) {
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				while (resultSet.next()) {
-					dirtyMultiChunkIds.add(MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id")));
+					dirtyMultiChunkIds.add(new MultiChunkId(resultSet.getBytes("multichunk_id")));
 				}
 				
 				return dirtyMultiChunkIds;
@@ -290,7 +305,7 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		Map<MultiChunkId, MultiChunkEntry> unusedMultiChunkIds = new HashMap<MultiChunkId, MultiChunkEntry>();		
 		
 		while (resultSet.next()) {
-			MultiChunkId multiChunkId = MultiChunkId.parseMultiChunkId(resultSet.getString("id"));
+			MultiChunkId multiChunkId = new MultiChunkId(resultSet.getBytes("id"));
 			long multiChunkSize = resultSet.getLong("size");
 						
 			unusedMultiChunkIds.put(multiChunkId, new MultiChunkEntry(multiChunkId, multiChunkSize));
@@ -304,7 +319,7 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		MultiChunkId currentMultiChunkId = null;
 		
 		while (resultSet.next()) {			
-			MultiChunkId multiChunkId = MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id"));
+			MultiChunkId multiChunkId = new MultiChunkId(resultSet.getBytes("multichunk_id"));
 			long multiChunkSize = resultSet.getLong("size");
 			
 			MultiChunkEntry multiChunkEntry = null;
@@ -316,7 +331,7 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 				multiChunkEntry = new MultiChunkEntry(multiChunkId, multiChunkSize);
 			}
 			
-			multiChunkEntry.addChunk(ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum")));
+			multiChunkEntry.addChunk(new ChunkChecksum(resultSet.getBytes("chunk_checksum")));
 			multiChunkEntries.put(multiChunkId, multiChunkEntry); 
 			
 			currentMultiChunkId = multiChunkId;
@@ -19,10 +19,13 @@ package org.syncany.operations;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,7 +33,6 @@ import org.apache.commons.io.FileUtils;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.Deduper;
 import org.syncany.chunk.MultiChunk;
-import org.syncany.chunk.MultiChunker;
 import org.syncany.config.Config;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
 import org.syncany.database.FileContent;
@@ -38,6 +40,7 @@ import org.syncany.database.FileVersion;
 import org.syncany.database.MemoryDatabase;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.database.SqlDatabase;
+import org.syncany.operations.LocalChunkResolver.LocalChunks;
 import org.syncany.util.StringUtil;
 
 /**
@@ -46,16 +49,29 @@ import org.syncany.util.StringUtil;
  * multichunker, etc.).
  * 
  * <p>It uses the local {@link SqlDatabase} and an optional {@link MemoryDatabase}
- * to perform file checksum and chunk checksum lookups.   
+ * to perform file checksum and chunk checksum lookups. The multichunks of all chunks
+ * of a file are looked up at once.
+ * 
+ * <p>Because consecutive chunks (and files) are typically stored in the same multichunk,
+ * the assembler keeps a small LRU cache of open {@link MultiChunk}s, so the multichunk
+ * files do not have to be opened (and their index parsed) for every chunk. Once the
+ * assembler is not needed anymore, {@link #close()} must be called to close them.
+ * 
+ * <p>If chunks were found in local files (see {@link LocalChunkResolver}), they can be
+ * passed to the assembler via {@link #setLocalChunks(LocalChunks)}. These chunks are read
+ * from the local copy instead of from their multichunk.
  * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Assembler {
 	private static final Logger logger = Logger.getLogger(Assembler.class.getSimpleName());
+	private static final int MULTICHUNK_CACHE_SIZE = 16;
 	
 	private Config config;
 	private SqlDatabase localDatabase;
 	private MemoryDatabase memoryDatabase;
+	private Map<MultiChunkId, MultiChunk> multiChunkCache;
+	private LocalChunks localChunks;
 	
 	public Assembler(Config config, SqlDatabase localDatabase) {
 		this(config, localDatabase, null);
@@ -65,6 +81,15 @@ public class Assembler {
 		this.config = config;
 		this.localDatabase = localDatabase;
 		this.memoryDatabase = memoryDatabase;
+		this.multiChunkCache = createMultiChunkCache();
+	}
+
+	/**
+	 * Sets the chunks that were found locally. These chunks are not read from
+	 * their multichunks, i.e. their multichunks do not have to be downloaded.
+	 */
+	public void setLocalChunks(LocalChunks localChunks) {
+		this.localChunks = localChunks;
 	}
 
 	/**
@@ -94,27 +119,33 @@ public class Assembler {
 				
 		// Create non-empty file
 		Chunker chunker = config.getChunker();
-		MultiChunker multiChunker = config.getMultiChunker();
 		
 		FileOutputStream reconstructedFileOutputStream = new FileOutputStream(reconstructedFileInCache);		
 		MessageDigest reconstructedFileChecksum = MessageDigest.getInstance(chunker.getChecksumAlgorithm());
 		
 		if (fileContent != null) { // File can be empty!
-			Collection<ChunkChecksum> fileChunks = fileContent.getChunks();
+			List<ChunkChecksum> fileChunks = fileContent.getChunks();
+			Map<ChunkChecksum, MultiChunkId> multiChunkIdsForChunks = localDatabase.getMultiChunkIdsByChecksums(fileChunks);
 
+			byte[] buffer = new byte[4096];
+			
 			for (ChunkChecksum chunkChecksum : fileChunks) {
-				MultiChunkId multiChunkIdForChunk = localDatabase.getMultiChunkId(chunkChecksum);
+				InputStream chunkInputStream;
 
-				if (multiChunkIdForChunk == null && memoryDatabase != null) {
-					multiChunkIdForChunk = memoryDatabase.getMultiChunkIdForChunk(chunkChecksum);
+				if (localChunks != null && localChunks.contains(chunkChecksum)) {
+					chunkInputStream = localChunks.getChunkInputStream(chunkChecksum);
+				}
+				else {
+					MultiChunkId multiChunkIdForChunk = multiChunkIdsForChunks.get(chunkChecksum);
+	
+					if (multiChunkIdForChunk == null && memoryDatabase != null) {
+						multiChunkIdForChunk = memoryDatabase.getMultiChunkIdForChunk(chunkChecksum);
+					}
+	
+					MultiChunk multiChunk = getMultiChunk(multiChunkIdForChunk);
+					chunkInputStream = multiChunk.getChunkInputStream(chunkChecksum.getBytes());
 				}
 
-				File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkIdForChunk);
-
-				MultiChunk multiChunk = multiChunker.createMultiChunk(decryptedMultiChunkFile);
-				InputStream chunkInputStream = multiChunk.getChunkInputStream(chunkChecksum.getBytes());
-
-				byte[] buffer = new byte[4096];
 				int read = 0;
 
 				while (-1 != (read = chunkInputStream.read(buffer))) {
@@ -123,7 +154,6 @@ public class Assembler {
 				}
 
 				chunkInputStream.close();
-				multiChunk.close();
 			}
 		}
 
@@ -140,4 +170,55 @@ public class Assembler {
 		
 		return reconstructedFileInCache;
 	}	
+
+	/**
+	 * Closes all multichunks that are still open. The assembler can still be
+	 * used afterwards, but the multichunks have to be opened again.
+	 */
+	public void close() {
+		for (MultiChunk multiChunk : multiChunkCache.values()) {
+			closeMultiChunk(multiChunk);
+		}
+
+		multiChunkCache.clear();
+	}
+
+	private MultiChunk getMultiChunk(MultiChunkId multiChunkId) throws IOException {
+		MultiChunk multiChunk = multiChunkCache.get(multiChunkId);
+
+		if (multiChunk == null) {
+			File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId);
+
+			multiChunk = config.getMultiChunker().createMultiChunk(decryptedMultiChunkFile);
+			multiChunkCache.put(multiChunkId, multiChunk);
+		}
+
+		return multiChunk;
+	}
+
+	private Map<MultiChunkId, MultiChunk> createMultiChunkCache() {
+		return new LinkedHashMap<MultiChunkId, MultiChunk>(MULTICHUNK_CACHE_SIZE, 0.75f, true) {
+			private static final long serialVersionUID = -2593493016219468432L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<MultiChunkId, MultiChunk> eldest) {
+				if (size() > MULTICHUNK_CACHE_SIZE) {
+					closeMultiChunk(eldest.getValue());
+					return true;
+				}
+				else {
+					return false;
+				}
+			}
+		};
+	}
+
+	private void closeMultiChunk(MultiChunk multiChunk) {
+		try {
+			multiChunk.close();
+		}
+		catch (IOException e) {
+			logger.log(Level.INFO, "Cannot close multichunk; ignoring.", e);
+		}
+	}
 }
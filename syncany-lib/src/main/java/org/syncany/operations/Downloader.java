@@ -19,11 +19,19 @@ package org.syncany.operations;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,25 +41,64 @@ import org.syncany.config.LocalEventBus;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.operations.daemon.messages.DownDownloadFileSyncExternalEvent;
 import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.StreamingTransferManager;
 import org.syncany.plugins.transfer.TransferManager;
+import org.syncany.plugins.transfer.TransferManagerPool;
 import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * The downloader uses a {@link TransferManager} to download a given set of multichunks,
  * decrypt them and store them in the local cache folder. 
  * 
+ * <p>Downloading and decrypting is pipelined: A pool of download threads (each with its
+ * own transfer manager, see {@link TransferManagerPool}) downloads the encrypted multichunks,
+ * and hands them to a pool of decryption threads via a bounded queue. That way, the round
+ * trips of multiple downloads overlap, and decryption does not block the next download. The
+ * bounded queue limits the number of encrypted multichunks waiting on disk.
+ * 
+ * <p>If the transfer manager supports stream downloads (see {@link StreamingTransferManager}),
+ * the download threads decrypt the multichunks while downloading them, i.e. the encrypted
+ * multichunk is never written to the local disk. If the connection breaks while a stream is
+ * read, the multichunk is downloaded again with a regular (retried) download, and decrypted
+ * from the local file.
+ * 
+ * <p>Download progress events are posted in order, i.e. with increasing file indexes, 
+ * when a download is started.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Downloader {
 	private static final Logger logger = Logger.getLogger(Downloader.class.getSimpleName());
 
+	public static final int DEFAULT_DOWNLOAD_THREADS = 4;
+	public static final int DEFAULT_DECRYPT_THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static final int DECRYPT_QUEUE_SIZE_PER_THREAD = 2;
+	private static final MultiChunkId END_OF_DOWNLOADS = new MultiChunkId(new byte[0]);
+
 	private Config config;
 	private TransferManager transferManager;
+	private int downloadThreads;
+	private int decryptThreads;
 	private LocalEventBus eventBus;
 
 	public Downloader(Config config, TransferManager transferManager) {
+		this(config, transferManager, DEFAULT_DOWNLOAD_THREADS, DEFAULT_DECRYPT_THREADS);
+	}
+
+	/**
+	 * Creates a new downloader.
+	 * 
+	 * @param downloadThreads Maximum number of parallel downloads
+	 * @param decryptThreads Number of threads decrypting the downloaded multichunks
+	 */
+	public Downloader(Config config, TransferManager transferManager, int downloadThreads, int decryptThreads) {
 		this.config = config;
 		this.transferManager = transferManager;
+		this.downloadThreads = Math.max(1, downloadThreads);
+		this.decryptThreads = Math.max(1, decryptThreads);
 		this.eventBus = LocalEventBus.getInstance();
 	}
 
@@ -62,56 +109,342 @@ public class Downloader {
 	public void downloadAndDecryptMultiChunks(Set<MultiChunkId> unknownMultiChunkIds) throws StorageException, IOException {
 		logger.log(Level.INFO, "Downloading and extracting multichunks ...");
 
-		int multiChunkNumber = 0;
+		List<MultiChunkId> multiChunkIdsToDownload = new ArrayList<MultiChunkId>();
 
 		for (MultiChunkId multiChunkId : unknownMultiChunkIds) {
-			File localEncryptedMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
 			File localDecryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId);
-			MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
-
-			multiChunkNumber++;
 
 			if (localDecryptedMultiChunkFile.exists()) {
 				logger.log(Level.INFO, "  + Decrypted multichunk exists locally " + multiChunkId + ". No need to download it!");
 			}
 			else {
-				eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "multichunk", multiChunkNumber,
-						unknownMultiChunkIds.size()));
+				multiChunkIdsToDownload.add(multiChunkId);
+			}
+		}
 
-				logger.log(Level.INFO, "  + Downloading multichunk " + multiChunkId + " ...");
-				transferManager.download(remoteMultiChunkFile, localEncryptedMultiChunkFile);
+		try {
+			if (multiChunkIdsToDownload.size() > 0) {
+				int skippedMultiChunkCount = unknownMultiChunkIds.size() - multiChunkIdsToDownload.size();
+				new DownloadPipeline(multiChunkIdsToDownload, skippedMultiChunkCount, unknownMultiChunkIds.size()).run();
+			}
+		}
+		finally {
+			transferManager.disconnect();
+		}
+	}
 
-				try {
-					logger.log(Level.INFO, "  + Decrypting multichunk " + multiChunkId + " ...");
-					InputStream multiChunkInputStream = config.getTransformer().createInputStream(new FileInputStream(localEncryptedMultiChunkFile));
-					OutputStream decryptedMultiChunkOutputStream = new FileOutputStream(localDecryptedMultiChunkFile);
+	private void downloadMultiChunk(TransferManager transferManager, MultiChunkId multiChunkId) throws StorageException {
+		File localEncryptedMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
+		MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
+
+		logger.log(Level.INFO, "  + Downloading multichunk " + multiChunkId + " ...");
+		transferManager.download(remoteMultiChunkFile, localEncryptedMultiChunkFile);
+	}
+
+	private void decryptMultiChunk(MultiChunkId multiChunkId) throws IOException {
+		File localEncryptedMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
+
+		try {
+			logger.log(Level.INFO, "  + Decrypting multichunk " + multiChunkId + " ...");
+			decryptMultiChunk(multiChunkId, new FileInputStream(localEncryptedMultiChunkFile));
+		}
+		finally {
+			logger.log(Level.FINE, "  + Locally deleting multichunk " + multiChunkId + " ...");
+			localEncryptedMultiChunkFile.delete();
+		}
+	}
+
+	private void downloadAndDecryptMultiChunk(StreamingTransferManager transferManager, MultiChunkId multiChunkId) throws StorageException,
+			IOException {
+
+		MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
+
+		logger.log(Level.INFO, "  + Downloading and decrypting multichunk " + multiChunkId + " ...");
+		TransportInputStream encryptedMultiChunkInputStream = new TransportInputStream(transferManager.downloadStream(remoteMultiChunkFile));
+
+		try {
+			decryptMultiChunk(multiChunkId, encryptedMultiChunkInputStream);
+		}
+		catch (IOException e) {
+			// Only connection errors are retried; if decryption failed, the multichunk is not trustworthy
+
+			if (!encryptedMultiChunkInputStream.hasFailed()) {
+				throw e;
+			}
+
+			logger.log(Level.WARNING, "  + Reading stream of multichunk " + multiChunkId + " failed; downloading it again ...", e);
+
+			downloadMultiChunk(transferManager, multiChunkId);
+			decryptMultiChunk(multiChunkId);
+		}
+	}
+
+	private void decryptMultiChunk(MultiChunkId multiChunkId, InputStream encryptedMultiChunkInputStream) throws IOException {
+		File localDecryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId);
+
+		try {
+			InputStream multiChunkInputStream = config.getTransformer().createInputStream(encryptedMultiChunkInputStream);
+			OutputStream decryptedMultiChunkOutputStream = new FileOutputStream(localDecryptedMultiChunkFile);
+
+			try {
+				IOUtils.copy(multiChunkInputStream, decryptedMultiChunkOutputStream);
+			}
+			finally {
+				decryptedMultiChunkOutputStream.close();
+				multiChunkInputStream.close();
+			}
+		}
+		catch (IOException e) {
+			// Security: Deleting the multichunk if the decryption/extraction failed is important!
+			//           If it is not deleted, the partially decrypted multichunk will reside in the
+			//           local cache and the next 'down' will try to use it. If this is the only
+			//           multichunk that has been tampered with, other changes might be applied to the 
+			//           file system! See https://github.com/syncany/syncany/issues/59#issuecomment-55154793
+
+			logger.log(Level.FINE, "    -> FAILED: Decryption/extraction of multichunk failed, deleting " + multiChunkId + " ...");
+			localDecryptedMultiChunkFile.delete();
+
+			throw new IOException("Decryption/extraction of multichunk " + multiChunkId
+					+ " failed. The multichunk might have been tampered with!", e);
+		}
+		finally {
+			IOUtils.closeQuietly(encryptedMultiChunkInputStream);
+		}
+	}
+
+	private boolean isStreamDownloadSupported(TransferManager transferManager) {
+		return transferManager instanceof StreamingTransferManager && ((StreamingTransferManager) transferManager).isStreamDownloadSupported();
+	}
+
+	/**
+	 * Input stream wrapping a stream download. It remembers whether reading from the
+	 * underlying (remote) stream failed, so that connection errors can be told apart
+	 * from decryption errors, which are both reported as {@link IOException}s.
+	 */
+	private static class TransportInputStream extends FilterInputStream {
+		private boolean failed;
+
+		public TransportInputStream(InputStream underlyingInputStream) {
+			super(underlyingInputStream);
+			this.failed = false;
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				return super.read();
+			}
+			catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				return super.read(b, off, len);
+			}
+			catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			try {
+				return super.skip(n);
+			}
+			catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		public boolean hasFailed() {
+			return failed;
+		}
+	}
+
+	/**
+	 * The download pipeline connects the download threads and the decryption threads. Download
+	 * tasks are executed in the order of the multichunk list. Once a multichunk is downloaded, it
+	 * is put in the (bounded) decryption queue, from which the decryption threads take it.
+	 * 
+	 * <p>If a download or decryption fails, no more downloads are started. The pipeline
+	 * waits for all running tasks to finish, and then throws the first exception.
+	 */
+	private class DownloadPipeline {
+		private List<MultiChunkId> multiChunkIds;
+		private int maxFileCount;
+		private int lastFileIndex;
 
-					IOUtils.copy(multiChunkInputStream, decryptedMultiChunkOutputStream);
+		private TransferManagerPool transferManagerPool;
+		private BlockingQueue<MultiChunkId> decryptQueue;
+		private volatile Exception failure;
 
-					decryptedMultiChunkOutputStream.close();
-					multiChunkInputStream.close();
+		public DownloadPipeline(List<MultiChunkId> multiChunkIds, int skippedFileCount, int maxFileCount) {
+			this.multiChunkIds = multiChunkIds;
+			this.maxFileCount = maxFileCount;
+			this.lastFileIndex = skippedFileCount;
 
+			this.transferManagerPool = new TransferManagerPool(config, transferManager, true);
+			this.decryptQueue = new ArrayBlockingQueue<MultiChunkId>(decryptThreads * DECRYPT_QUEUE_SIZE_PER_THREAD);
+			this.failure = null;
+		}
+
+		public void run() throws StorageException, IOException {
+			int downloadThreadCount = Math.min(downloadThreads, multiChunkIds.size());
+			int decryptThreadCount = Math.min(decryptThreads, multiChunkIds.size());
+
+			ExecutorService downloadExecutor = Executors.newFixedThreadPool(downloadThreadCount, new ThreadFactoryBuilder()
+					.setNameFormat("MCDownload/%d").setDaemon(true).build());
+
+			ExecutorService decryptExecutor = Executors.newFixedThreadPool(decryptThreadCount, new ThreadFactoryBuilder()
+					.setNameFormat("MCDecrypt/%d").setDaemon(true).build());
+
+			try {
+				for (int i = 0; i < decryptThreadCount; i++) {
+					decryptExecutor.submit(new DecryptWorker());
 				}
-				catch (IOException e) {
-					// Security: Deleting the multichunk if the decryption/extraction failed is important!
-					//           If it is not deleted, the partially decrypted multichunk will reside in the
-					//           local cache and the next 'down' will try to use it. If this is the only
-					//           multichunk that has been tampered with, other changes might be applied to the 
-					//           file system! See https://github.com/syncany/syncany/issues/59#issuecomment-55154793
-
-					logger.log(Level.FINE, "    -> FAILED: Decryption/extraction of multichunk failed, deleting " + multiChunkId + " ...");
-					localDecryptedMultiChunkFile.delete();
-
-					throw new IOException("Decryption/extraction of multichunk " + multiChunkId
-							+ " failed. The multichunk might have been tampered with!", e);
+
+				for (MultiChunkId multiChunkId : multiChunkIds) {
+					downloadExecutor.submit(new DownloadTask(multiChunkId));
 				}
-				finally {
-					logger.log(Level.FINE, "  + Locally deleting multichunk " + multiChunkId + " ...");
-					localEncryptedMultiChunkFile.delete();
+
+				downloadExecutor.shutdown();
+				downloadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+				for (int i = 0; i < decryptThreadCount; i++) {
+					decryptQueue.put(END_OF_DOWNLOADS);
 				}
+
+				decryptExecutor.shutdown();
+				decryptExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				setFailure(new IOException("Interrupted while downloading multichunks.", e));
+
+				downloadExecutor.shutdownNow();
+				decryptExecutor.shutdownNow();
+
+				Thread.currentThread().interrupt();
 			}
+			finally {
+				transferManagerPool.disconnect();
+			}
+
+			throwFailureIfAny();
 		}
 
-		transferManager.disconnect();
+		private synchronized void setFailure(Exception e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+
+		private void throwFailureIfAny() throws StorageException, IOException {
+			if (failure instanceof StorageException) {
+				throw (StorageException) failure;
+			}
+			else if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			else if (failure != null) {
+				throw new IOException("Downloading/decrypting multichunks failed.", failure);
+			}
+		}
+
+		private synchronized void fireDownloadEvent() {
+			// Synchronized: events must be posted in the order of their file index
+			eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "multichunk", ++lastFileIndex,
+					maxFileCount));
+		}
+
+		private class DownloadTask implements Runnable {
+			private MultiChunkId multiChunkId;
+
+			public DownloadTask(MultiChunkId multiChunkId) {
+				this.multiChunkId = multiChunkId;
+			}
+
+			@Override
+			public void run() {
+				if (failure != null) {
+					return; // Do not start new downloads if something failed
+				}
+
+				fireDownloadEvent();
+
+				try {
+					TransferManager downloadTransferManager = transferManagerPool.borrow();
+					boolean streamDownload = isStreamDownloadSupported(downloadTransferManager);
+
+					try {
+						if (streamDownload) {
+							downloadAndDecryptMultiChunk((StreamingTransferManager) downloadTransferManager, multiChunkId);
+						}
+						else {
+							downloadMultiChunk(downloadTransferManager, multiChunkId);
+						}
+					}
+					finally {
+						transferManagerPool.release(downloadTransferManager);
+					}
+
+					if (!streamDownload) {
+						decryptQueue.put(multiChunkId);
+					}
+				}
+				catch (Exception e) {
+					logger.log(Level.WARNING, "  + Downloading multichunk " + multiChunkId + " failed.", e);
+
+					setFailure(e);
+					config.getCache().getEncryptedMultiChunkFile(multiChunkId).delete();
+				}
+			}
+		}
+
+		private class DecryptWorker implements Runnable {
+			@Override
+			public void run() {
+				try {
+					MultiChunkId multiChunkId = decryptQueue.take();
+
+					while (multiChunkId != END_OF_DOWNLOADS) {
+						if (failure == null) {
+							decryptMultiChunk(multiChunkId);
+						}
+						else {
+							config.getCache().getEncryptedMultiChunkFile(multiChunkId).delete();
+						}
+
+						multiChunkId = decryptQueue.take();
+					}
+				}
+				catch (Exception e) {
+					setFailure(e);
+
+					// Keep draining the queue, so download threads do not block
+					drainDecryptQueue();
+				}
+			}
+
+			private void drainDecryptQueue() {
+				try {
+					MultiChunkId multiChunkId = decryptQueue.take();
+
+					while (multiChunkId != END_OF_DOWNLOADS) {
+						config.getCache().getEncryptedMultiChunkFile(multiChunkId).delete();
+						multiChunkId = decryptQueue.take();
+					}
+				}
+				catch (InterruptedException e) {
+					logger.log(Level.INFO, "Interrupted while draining decryption queue.", e);
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,244 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.FileVersion;
+import org.syncany.database.SqlDatabase;
+import org.syncany.util.FileUtil;
+
+/**
+ * The local chunk resolver finds chunks that are already available on disk, so that
+ * they do not have to be downloaded (as part of a multichunk) to re-assemble a file.
+ * This is typically the case if a file was changed only in a few places, or if a file
+ * was copied to another location.
+ *
+ * <p>Candidates are the files of the current local file tree whose {@link FileVersion}
+ * references a file content containing one of the requested chunks. Since local files
+ * might have changed since they were last indexed, every chunk is read from the file
+ * and its checksum is verified before it is used.
+ *
+ * <p>Verified chunks are copied to a temporary file in the cache (see {@link LocalChunks}).
+ * This way, the chunks stay available while the file system actions are applied, even
+ * if an action overwrites, moves or deletes the file a chunk was read from.
+ *
+ * @see Assembler
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class LocalChunkResolver {
+	private static final Logger logger = Logger.getLogger(LocalChunkResolver.class.getSimpleName());
+
+	private Config config;
+	private SqlDatabase localDatabase;
+
+	public LocalChunkResolver(Config config, SqlDatabase localDatabase) {
+		this.config = config;
+		this.localDatabase = localDatabase;
+	}
+
+	/**
+	 * Finds the given chunks in the local files, and copies all chunks that
+	 * could be found and verified to the cache.
+	 *
+	 * @param chunkChecksums Chunks to look for
+	 * @return Returns the chunks found locally; the result must be closed using {@link LocalChunks#close()}
+	 */
+	public LocalChunks resolveChunks(Collection<ChunkChecksum> chunkChecksums) throws IOException {
+		LocalChunks localChunks = new LocalChunks(config);
+
+		if (chunkChecksums.isEmpty()) {
+			return localChunks;
+		}
+
+		Set<ChunkChecksum> unresolvedChunks = new HashSet<ChunkChecksum>(chunkChecksums);
+		List<FileVersion> candidateFileVersions = localDatabase.getCurrentFileVersionsByChunkChecksums(unresolvedChunks);
+
+		logger.log(Level.INFO, "- Looking for " + unresolvedChunks.size() + " chunk(s) in " + candidateFileVersions.size() + " local file(s) ...");
+
+		for (FileVersion candidateFileVersion : candidateFileVersions) {
+			if (unresolvedChunks.isEmpty()) {
+				break;
+			}
+
+			File candidateFile = new File(config.getLocalDir(), candidateFileVersion.getPath());
+
+			if (!candidateFile.isFile() || FileUtil.isSymlink(candidateFile) || candidateFile.length() != candidateFileVersion.getSize()) {
+				logger.log(Level.FINE, "  + Skipping {0}; file does not exist or has changed.", candidateFileVersion.getPath());
+				continue;
+			}
+
+			try {
+				List<ChunkEntry> fileChunks = localDatabase.getChunks(candidateFileVersion.getChecksum());
+				copyChunks(candidateFile, fileChunks, unresolvedChunks, localChunks);
+			}
+			catch (IOException e) {
+				logger.log(Level.INFO, "  + Cannot read chunks from " + candidateFile + "; skipping file.", e);
+			}
+		}
+
+		logger.log(Level.INFO, "- Found " + localChunks.size() + " of " + chunkChecksums.size() + " chunk(s) locally.");
+		return localChunks;
+	}
+
+	private void copyChunks(File localFile, List<ChunkEntry> fileChunks, Set<ChunkChecksum> unresolvedChunks, LocalChunks localChunks)
+			throws IOException {
+
+		MessageDigest chunkDigest = createChunkDigest();
+		long chunkOffset = 0;
+
+		try (RandomAccessFile localFileAccess = new RandomAccessFile(localFile, "r")) {
+			for (ChunkEntry fileChunk : fileChunks) {
+				if (unresolvedChunks.contains(fileChunk.getChecksum())) {
+					byte[] chunkData = new byte[fileChunk.getSize()];
+
+					localFileAccess.seek(chunkOffset);
+					localFileAccess.readFully(chunkData);
+
+					byte[] actualChecksum = chunkDigest.digest(chunkData);
+
+					if (Arrays.equals(actualChecksum, fileChunk.getChecksum().getBytes())) {
+						localChunks.add(fileChunk.getChecksum(), chunkData);
+						unresolvedChunks.remove(fileChunk.getChecksum());
+					}
+					else {
+						logger.log(Level.INFO, "  + Chunk {0} in {1} does not match; file has changed.", new Object[] { fileChunk.getChecksum(), localFile });
+						return;
+					}
+				}
+
+				chunkOffset += fileChunk.getSize();
+			}
+		}
+	}
+
+	private MessageDigest createChunkDigest() {
+		try {
+			return MessageDigest.getInstance(config.getChunker().getChecksumAlgorithm());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Holds the chunks found by the {@link LocalChunkResolver}. The chunk data is stored
+	 * in a single temporary file in the cache, which is created when the first chunk is
+	 * added, and deleted when {@link #close()} is called.
+	 */
+	public static class LocalChunks {
+		private Config config;
+		private File chunkFile;
+		private RandomAccessFile chunkFileAccess;
+		private Map<ChunkChecksum, ChunkEntry> chunks;
+		private Map<ChunkChecksum, Long> chunkOffsets;
+
+		public LocalChunks(Config config) {
+			this.config = config;
+			this.chunks = new HashMap<ChunkChecksum, ChunkEntry>();
+			this.chunkOffsets = new HashMap<ChunkChecksum, Long>();
+		}
+
+		public synchronized void add(ChunkChecksum chunkChecksum, byte[] chunkData) throws IOException {
+			if (chunks.containsKey(chunkChecksum)) {
+				return;
+			}
+
+			if (chunkFileAccess == null) {
+				chunkFile = config.getCache().createTempFile("localchunks");
+				chunkFileAccess = new RandomAccessFile(chunkFile, "rw");
+			}
+
+			long chunkOffset = chunkFileAccess.length();
+
+			chunkFileAccess.seek(chunkOffset);
+			chunkFileAccess.write(chunkData);
+
+			chunks.put(chunkChecksum, new ChunkEntry(chunkChecksum, chunkData.length));
+			chunkOffsets.put(chunkChecksum, chunkOffset);
+		}
+
+		public synchronized boolean contains(ChunkChecksum chunkChecksum) {
+			return chunks.containsKey(chunkChecksum);
+		}
+
+		public synchronized int size() {
+			return chunks.size();
+		}
+
+		/**
+		 * Returns an input stream for the data of the given chunk.
+		 *
+		 * @throws IllegalArgumentException If the chunk was not found locally
+		 */
+		public synchronized InputStream getChunkInputStream(ChunkChecksum chunkChecksum) throws IOException {
+			ChunkEntry chunk = chunks.get(chunkChecksum);
+
+			if (chunk == null) {
+				throw new IllegalArgumentException("Chunk " + chunkChecksum + " was not found locally.");
+			}
+
+			byte[] chunkData = new byte[chunk.getSize()];
+
+			chunkFileAccess.seek(chunkOffsets.get(chunkChecksum));
+			chunkFileAccess.readFully(chunkData);
+
+			return new ByteArrayInputStream(chunkData);
+		}
+
+		/**
+		 * Closes and deletes the temporary chunk file.
+		 */
+		public synchronized void close() {
+			if (chunkFileAccess != null) {
+				try {
+					chunkFileAccess.close();
+				}
+				catch (IOException e) {
+					logger.log(Level.INFO, "Cannot close local chunk file; ignoring.", e);
+				}
+
+				chunkFile.delete();
+
+				chunkFileAccess = null;
+				chunkFile = null;
+			}
+
+			chunks.clear();
+			chunkOffsets.clear();
+		}
+	}
+}
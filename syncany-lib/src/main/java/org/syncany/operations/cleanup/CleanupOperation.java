@@ -510,7 +510,7 @@ public class CleanupOperation extends AbstractTransferOperation {
 
 		Iterator<DatabaseVersion> lastNDatabaseVersions = localDatabase.getDatabaseVersionsTo(clientName, lastClientVersion);
 
-		DatabaseXmlSerializer databaseDAO = new DatabaseXmlSerializer(config.getTransformer());
+		DatabaseXmlSerializer databaseDAO = new DatabaseXmlSerializer(config.getTransformer(), config.getDatabaseFormat());
 		databaseDAO.save(lastNDatabaseVersions, newLocalMergeDatabaseFile);
 		allMergedDatabaseFiles.put(newLocalMergeDatabaseFile, newRemoteMergeDatabaseFile);
 	}
@@ -31,15 +31,20 @@ public class GetDatabaseVersionHeadersFolderRequestHandler extends FolderRequest
 
 	public GetDatabaseVersionHeadersFolderRequestHandler(Config config) {
 		super(config);
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = new SqlDatabase(config, true);
 	}
 
 	@Override
 	public Response handleRequest(FolderRequest request) {
 		GetDatabaseVersionHeadersFolderRequest concreteRequest = (GetDatabaseVersionHeadersFolderRequest) request;
 		
-		List<DatabaseVersionHeader> databaseVersionHeaders = localDatabase.getNonEmptyDatabaseVersionHeaders(); 
-		return new GetDatabaseVersionHeadersFolderResponse(concreteRequest.getId(), concreteRequest.getRoot(), databaseVersionHeaders);		
+		try {
+			List<DatabaseVersionHeader> databaseVersionHeaders = localDatabase.getNonEmptyDatabaseVersionHeaders(); 
+			return new GetDatabaseVersionHeadersFolderResponse(concreteRequest.getId(), concreteRequest.getRoot(), databaseVersionHeaders);
+		}
+		finally {
+			localDatabase.close();
+		}
 	}
 
 }
@@ -46,7 +46,7 @@ public class GetFileFolderRequestHandler extends FolderRequestHandler {
 	public GetFileFolderRequestHandler(Config config) {
 		super(config);		
 		
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = new SqlDatabase(config, true);
 		this.eventBus = LocalEventBus.getInstance();
 	}
 
@@ -68,7 +68,15 @@ public class GetFileFolderRequestHandler extends FolderRequestHandler {
 
 			downloader.downloadAndDecryptMultiChunks(new HashSet<MultiChunkId>(multiChunks.values()));
 
-			File tempFile = assembler.assembleToCache(fileVersion);
+			File tempFile;
+
+			try {
+				tempFile = assembler.assembleToCache(fileVersion);
+			}
+			finally {
+				assembler.close();
+			}
+
 			String tempFileToken = StringUtil.toHex(ObjectId.secureRandomBytes(40));
 			
 			GetFileFolderResponse fileResponse = new GetFileFolderResponse(concreteRequest.getId(), concreteRequest.getRoot(), tempFileToken);
@@ -81,5 +89,8 @@ public class GetFileFolderRequestHandler extends FolderRequestHandler {
 			logger.log(Level.WARNING, "Cannot reassemble file.", e);
 			return new BadRequestResponse(concreteRequest.getId(), "Cannot reassemble file.");
 		}
+		finally {
+			localDatabase.close();
+		}
 	}
 }
@@ -34,16 +34,21 @@ public class GetFileHistoryFolderRequestHandler extends FolderRequestHandler {
 
 	public GetFileHistoryFolderRequestHandler(Config config) {
 		super(config);
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = new SqlDatabase(config, true);
 	}
 
 	@Override
 	public Response handleRequest(FolderRequest request) {
 		GetFileHistoryFolderRequest concreteRequest = (GetFileHistoryFolderRequest) request;
 		
-		FileHistoryId fileHistoryId = FileHistoryId.parseFileId(concreteRequest.getFileHistoryId());
-		List<FileVersion> fileHistory = localDatabase.getFileHistory(fileHistoryId);
-		
-		return new GetFileHistoryFolderResponse(concreteRequest.getId(), concreteRequest.getRoot(), fileHistory);			
+		try {
+			FileHistoryId fileHistoryId = FileHistoryId.parseFileId(concreteRequest.getFileHistoryId());
+			List<FileVersion> fileHistory = localDatabase.getFileHistory(fileHistoryId);
+			
+			return new GetFileHistoryFolderResponse(concreteRequest.getId(), concreteRequest.getRoot(), fileHistory);
+		}
+		finally {
+			localDatabase.close();
+		}
 	}
 }
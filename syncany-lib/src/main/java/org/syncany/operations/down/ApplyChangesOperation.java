@@ -17,7 +17,9 @@
  */
 package org.syncany.operations.down;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +36,8 @@ import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.database.PartialFileHistory;
 import org.syncany.database.SqlDatabase;
 import org.syncany.operations.Downloader;
+import org.syncany.operations.LocalChunkResolver;
+import org.syncany.operations.LocalChunkResolver.LocalChunks;
 import org.syncany.operations.Operation;
 import org.syncany.operations.OperationResult;
 import org.syncany.operations.down.actions.FileCreatingFileSystemAction;
@@ -47,9 +51,12 @@ import org.syncany.plugins.transfer.TransferManager;
  * <ul>
  *  <li>Determine whether the local branch needs to be updated (new database versions); if so, determine
  *      local {@link FileSystemAction}s</li>
- *  <li>Determine, download and decrypt required multi chunks from remote storage from file actions
- *      (implemented in {@link #determineMultiChunksToDownload(FileVersion, MemoryDatabase, MemoryDatabase) determineMultiChunksToDownload()},
- *      and {@link #downloadAndDecryptMultiChunks(Set) downloadAndDecryptMultiChunks()})</li>
+ *  <li>Determine the chunks required by the file actions, and look for them in the local files
+ *      (implemented in {@link #determineRequiredChunks(List, MemoryDatabase) determineRequiredChunks()}
+ *      and {@link #resolveLocalChunks(Map) resolveLocalChunks()}, see {@link LocalChunkResolver})</li>
+ *  <li>Download and decrypt the multichunks of all chunks that were not found locally
+ *      (implemented in {@link #determineMultiChunksToDownload(Map, LocalChunks) determineMultiChunksToDownload()}
+ *      and {@link Downloader#downloadAndDecryptMultiChunks(Set) downloadAndDecryptMultiChunks()})</li>
  *  <li>Apply file system actions locally, creating conflict files where necessary if local file does
  *      not match the expected file (implemented in {@link #applyFileSystemActions(List) applyFileSystemActions()} </li>
  * </ul>
@@ -69,12 +76,12 @@ public class ApplyChangesOperation extends Operation {
 	private List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion;
 
 	public ApplyChangesOperation(Config config, SqlDatabase localDatabase, TransferManager transferManager, MemoryDatabase winnersDatabase,
-			DownOperationResult result, boolean cleanupOccurred, List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion) {
+			DownOperationResult result, boolean cleanupOccurred, List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion, int downloadThreads) {
 		
 		super(config);
 		
 		this.localDatabase = localDatabase;
-		this.downloader = new Downloader(config, transferManager);
+		this.downloader = new Downloader(config, transferManager, downloadThreads, Downloader.DEFAULT_DECRYPT_THREADS);
 		this.winnersDatabase = winnersDatabase;
 		this.result = result;
 		this.cleanupOccurred = cleanupOccurred;
@@ -95,76 +102,122 @@ public class ApplyChangesOperation extends Operation {
 			actions = actionReconciliator.determineFileSystemActions(winnersDatabase);
 		}
 
-		Set<MultiChunkId> unknownMultiChunks = determineRequiredMultiChunks(actions, winnersDatabase);
-		
-		downloader.downloadAndDecryptMultiChunks(unknownMultiChunks);
-		result.getDownloadedMultiChunks().addAll(unknownMultiChunks);
+		LocalChunks localChunks = null;
+
+		try {
+			Set<ChunkChecksum> requiredChunks = determineRequiredChunks(actions, winnersDatabase);
+			Map<ChunkChecksum, MultiChunkId> requiredMultiChunkIds = determineMultiChunkIds(requiredChunks, winnersDatabase);
+
+			localChunks = resolveLocalChunks(requiredMultiChunkIds);
+			Set<MultiChunkId> unknownMultiChunks = determineMultiChunksToDownload(requiredMultiChunkIds, localChunks);
+
+			downloader.downloadAndDecryptMultiChunks(unknownMultiChunks);
+			result.getDownloadedMultiChunks().addAll(unknownMultiChunks);
 
-		applyFileSystemActions(actions);
+			actionReconciliator.getAssembler().setLocalChunks(localChunks);
+			applyFileSystemActions(actions);
+		}
+		finally {
+			actionReconciliator.close();
+
+			if (localChunks != null) {
+				localChunks.close();
+			}
+		}
 		
 		return null;
 	}
-	
+
 	/**
-	 * Finds the multichunks that need to be downloaded to apply the given file system actions.
-	 * The method looks at all {@link FileCreatingFileSystemAction}s and returns their multichunks. 
+	 * Finds the chunks that are needed to apply the given file system actions, i.e. the chunks of
+	 * all {@link FileCreatingFileSystemAction}s. The file contents are looked up in the local
+	 * database and the given winners database.
 	 */
-	private Set<MultiChunkId> determineRequiredMultiChunks(List<FileSystemAction> actions, MemoryDatabase winnersDatabase) {
-		Set<MultiChunkId> multiChunksToDownload = new HashSet<MultiChunkId>();
+	private Set<ChunkChecksum> determineRequiredChunks(List<FileSystemAction> actions, MemoryDatabase winnersDatabase) {
+		Set<ChunkChecksum> requiredChunks = new HashSet<ChunkChecksum>();
 
 		for (FileSystemAction action : actions) {
-			if (action instanceof FileCreatingFileSystemAction) { // TODO [low] This adds ALL multichunks even though some might be available locally
-				multiChunksToDownload.addAll(determineMultiChunksToDownload(action.getFile2(), winnersDatabase));
+			if (action instanceof FileCreatingFileSystemAction) {
+				FileVersion fileVersion = action.getFile2();
+
+				if (fileVersion.getChecksum() == null) {
+					continue; // Folders, symlinks and empty files
+				}
+
+				FileContent fileContent = localDatabase.getFileContent(fileVersion.getChecksum(), true);
+
+				if (fileContent == null) {
+					fileContent = winnersDatabase.getContent(fileVersion.getChecksum());
+				}
+
+				if (fileContent != null) { // File can be empty!
+					requiredChunks.addAll(fileContent.getChunks());
+				}
 			}
 		}
 
-		return multiChunksToDownload;
+		return requiredChunks;
 	}
-	
+
 	/**
-	 * Finds the multichunks that need to be downloaded for the given file version -- using the local 
-	 * database and given winners database. Returns a set of multichunk identifiers.
+	 * Finds the multichunks of the given chunks -- using the local database and 
+	 * the given winners database.
 	 */
-	private Collection<MultiChunkId> determineMultiChunksToDownload(FileVersion fileVersion, MemoryDatabase winnersDatabase) {
-		Set<MultiChunkId> multiChunksToDownload = new HashSet<MultiChunkId>();
-
-		// First: Check if we know this file locally!
-		List<MultiChunkId> multiChunkIds = localDatabase.getMultiChunkIds(fileVersion.getChecksum());
-		
-		if (multiChunkIds.size() > 0) {
-			multiChunksToDownload.addAll(multiChunkIds);
+	private Map<ChunkChecksum, MultiChunkId> determineMultiChunkIds(Set<ChunkChecksum> chunkChecksums, MemoryDatabase winnersDatabase) {
+		if (chunkChecksums.isEmpty()) {
+			return new HashMap<ChunkChecksum, MultiChunkId>();
 		}
-		else {
-			// Second: We don't know it locally; must be from the winners database
-			FileContent winningFileContent = winnersDatabase.getContent(fileVersion.getChecksum());			
-			boolean winningFileHasContent = winningFileContent != null;
-
-			if (winningFileHasContent) { // File can be empty!
-				List<ChunkChecksum> fileChunks = winningFileContent.getChunks(); 
-				
-				// TODO [medium] Instead of just looking for multichunks to download here, we should look for chunks in local files as well
-				// and return the chunk positions in the local files ChunkPosition (chunk123 at file12, offset 200, size 250)
-				
-				Map<ChunkChecksum, MultiChunkId> checksumsWithMultiChunkIds = localDatabase.getMultiChunkIdsByChecksums(fileChunks);
-				
-				for (ChunkChecksum chunkChecksum : fileChunks) {
-					MultiChunkId multiChunkIdForChunk = checksumsWithMultiChunkIds.get(chunkChecksum);
-					if (multiChunkIdForChunk == null) {
-						multiChunkIdForChunk = winnersDatabase.getMultiChunkIdForChunk(chunkChecksum);
-						
-						if (multiChunkIdForChunk == null) {
-							throw new RuntimeException("Cannot find multichunk for chunk "+chunkChecksum);	
-						}
-					}
-					
-					if (!multiChunksToDownload.contains(multiChunkIdForChunk)) {
-						logger.log(Level.INFO, "  + Adding multichunk " + multiChunkIdForChunk + " to download list ...");
-						multiChunksToDownload.add(multiChunkIdForChunk);
-					}
+
+		Map<ChunkChecksum, MultiChunkId> multiChunkIds = localDatabase.getMultiChunkIdsByChecksums(new ArrayList<ChunkChecksum>(chunkChecksums));
+
+		for (ChunkChecksum chunkChecksum : chunkChecksums) {
+			if (!multiChunkIds.containsKey(chunkChecksum)) {
+				MultiChunkId multiChunkIdForChunk = winnersDatabase.getMultiChunkIdForChunk(chunkChecksum);
+
+				if (multiChunkIdForChunk == null) {
+					throw new RuntimeException("Cannot find multichunk for chunk " + chunkChecksum);
 				}
+
+				multiChunkIds.put(chunkChecksum, multiChunkIdForChunk);
 			}
 		}
-		
+
+		return multiChunkIds;
+	}
+
+	/**
+	 * Looks for the given chunks in the local files (see {@link LocalChunkResolver}). Chunks whose 
+	 * multichunk is already in the local cache are skipped, since reading them from the cache is
+	 * cheaper than reading and verifying them from the local files.
+	 */
+	private LocalChunks resolveLocalChunks(Map<ChunkChecksum, MultiChunkId> requiredMultiChunkIds) throws IOException {
+		List<ChunkChecksum> chunksToResolve = new ArrayList<ChunkChecksum>();
+
+		for (Map.Entry<ChunkChecksum, MultiChunkId> requiredMultiChunkId : requiredMultiChunkIds.entrySet()) {
+			if (!config.getCache().getDecryptedMultiChunkFile(requiredMultiChunkId.getValue()).exists()) {
+				chunksToResolve.add(requiredMultiChunkId.getKey());
+			}
+		}
+
+		return new LocalChunkResolver(config, localDatabase).resolveChunks(chunksToResolve);
+	}
+
+	/**
+	 * Determines the multichunks that need to be downloaded, i.e. the multichunks of all
+	 * required chunks that could not be found locally. Returns a set of multichunk identifiers.
+	 */
+	private Set<MultiChunkId> determineMultiChunksToDownload(Map<ChunkChecksum, MultiChunkId> requiredMultiChunkIds, LocalChunks localChunks) {
+		Set<MultiChunkId> multiChunksToDownload = new HashSet<MultiChunkId>();
+
+		for (Map.Entry<ChunkChecksum, MultiChunkId> requiredMultiChunkId : requiredMultiChunkIds.entrySet()) {
+			MultiChunkId multiChunkId = requiredMultiChunkId.getValue();
+
+			if (!localChunks.contains(requiredMultiChunkId.getKey()) && !multiChunksToDownload.contains(multiChunkId)) {
+				logger.log(Level.INFO, "  + Adding multichunk " + multiChunkId + " to download list ...");
+				multiChunksToDownload.add(multiChunkId);
+			}
+		}
+
 		return multiChunksToDownload;
 	}
 	
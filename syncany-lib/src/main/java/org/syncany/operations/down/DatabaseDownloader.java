@@ -0,0 +1,238 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations.down;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.config.Config;
+import org.syncany.config.LocalEventBus;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.MemoryDatabase;
+import org.syncany.database.dao.DatabaseXmlSerializer;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
+import org.syncany.operations.daemon.messages.DownDownloadFileSyncExternalEvent;
+import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.TransferManager;
+import org.syncany.plugins.transfer.TransferManagerPool;
+import org.syncany.plugins.transfer.files.DatabaseRemoteFile;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The database downloader downloads a set of remote database files to the local cache
+ * and reads their database version headers. It is used by the {@link DownOperation} to
+ * process the unknown remote databases of other clients.
+ *
+ * <p>Downloading and reading is pipelined: A pool of download threads (each with its own
+ * transfer manager, see {@link TransferManagerPool}) downloads the database files, and every
+ * downloaded file is handed to a pool of reader threads, which decrypt and parse the headers.
+ * Since files complete in any order, the headers are collected per file and returned in
+ * a {@link SortedMap}, i.e. in the same deterministic order as a sequential download.
+ *
+ * <p>If a download or read fails, all remaining tasks are cancelled and the first
+ * exception is thrown.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class DatabaseDownloader {
+	private static final Logger logger = Logger.getLogger(DatabaseDownloader.class.getSimpleName());
+
+	public static final int DEFAULT_READ_THREADS = Runtime.getRuntime().availableProcessors();
+
+	private Config config;
+	private TransferManager transferManager;
+	private DatabaseXmlSerializer databaseSerializer;
+	private int downloadThreads;
+	private int readThreads;
+	private LocalEventBus eventBus;
+
+	private int lastFileIndex;
+	private int maxFileCount;
+
+	/**
+	 * Creates a new database downloader.
+	 *
+	 * @param downloadThreads Maximum number of parallel downloads
+	 * @param readThreads Number of threads decrypting and parsing the downloaded database files
+	 */
+	public DatabaseDownloader(Config config, TransferManager transferManager, DatabaseXmlSerializer databaseSerializer, int downloadThreads,
+			int readThreads) {
+
+		this.config = config;
+		this.transferManager = transferManager;
+		this.databaseSerializer = databaseSerializer;
+		this.downloadThreads = Math.max(1, downloadThreads);
+		this.readThreads = Math.max(1, readThreads);
+		this.eventBus = LocalEventBus.getInstance();
+	}
+
+	/**
+	 * Downloads the given remote database files to the given local cache files, and
+	 * reads the database version headers from them (see {@link DatabaseReadType#HEADER_ONLY}).
+	 *
+	 * @param remoteDatabasesInCache Map of local cache files to the remote database files to download
+	 * @return Returns the database versions (headers only) of each remote database file
+	 */
+	public SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> downloadAndReadHeaders(SortedMap<File, DatabaseRemoteFile> remoteDatabasesInCache)
+			throws StorageException, IOException {
+
+		logger.log(Level.INFO, "Downloading and reading " + remoteDatabasesInCache.size() + " database(s) ...");
+
+		lastFileIndex = 0;
+		maxFileCount = remoteDatabasesInCache.size();
+
+		if (remoteDatabasesInCache.isEmpty()) {
+			return new TreeMap<DatabaseRemoteFile, List<DatabaseVersion>>();
+		}
+
+		int downloadThreadCount = Math.min(downloadThreads, remoteDatabasesInCache.size());
+		int readThreadCount = Math.min(readThreads, remoteDatabasesInCache.size());
+
+		ExecutorService downloadExecutor = Executors.newFixedThreadPool(downloadThreadCount, new ThreadFactoryBuilder()
+				.setNameFormat("DBDownload/%d").setDaemon(true).build());
+
+		ExecutorService readExecutor = Executors.newFixedThreadPool(readThreadCount, new ThreadFactoryBuilder()
+				.setNameFormat("DBRead/%d").setDaemon(true).build());
+
+		TransferManagerPool transferManagerPool = new TransferManagerPool(config, transferManager, true);
+
+		try {
+			CompletionService<File> downloadCompletionService = new ExecutorCompletionService<File>(downloadExecutor);
+			Map<File, Future<List<DatabaseVersion>>> readFutures = new HashMap<File, Future<List<DatabaseVersion>>>();
+
+			for (Map.Entry<File, DatabaseRemoteFile> remoteDatabaseInCache : remoteDatabasesInCache.entrySet()) {
+				downloadCompletionService.submit(new DownloadTask(transferManagerPool, remoteDatabaseInCache.getValue(),
+						remoteDatabaseInCache.getKey()));
+			}
+
+			// Read files as soon as they are downloaded, regardless of their order
+			for (int i = 0; i < remoteDatabasesInCache.size(); i++) {
+				File downloadedDatabaseFile = downloadCompletionService.take().get();
+				readFutures.put(downloadedDatabaseFile, readExecutor.submit(new ReadHeadersTask(downloadedDatabaseFile)));
+			}
+
+			// Collect results in the order of the sorted map
+			SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> remoteDatabaseHeaders = new TreeMap<DatabaseRemoteFile, List<DatabaseVersion>>();
+
+			for (Map.Entry<File, DatabaseRemoteFile> remoteDatabaseInCache : remoteDatabasesInCache.entrySet()) {
+				List<DatabaseVersion> databaseVersions = readFutures.get(remoteDatabaseInCache.getKey()).get();
+				remoteDatabaseHeaders.put(remoteDatabaseInCache.getValue(), databaseVersions);
+			}
+
+			return remoteDatabaseHeaders;
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof StorageException) {
+				throw (StorageException) e.getCause();
+			}
+			else if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			else {
+				throw new IOException("Downloading/reading databases failed.", e.getCause());
+			}
+		}
+		catch (InterruptedException e) {
+			throw new IOException("Interrupted while downloading databases.", e);
+		}
+		finally {
+			shutdownAndWait(downloadExecutor);
+			shutdownAndWait(readExecutor);
+
+			transferManagerPool.disconnect();
+		}
+	}
+
+	private void shutdownAndWait(ExecutorService executor) {
+		executor.shutdownNow();
+
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			logger.log(Level.INFO, "Interrupted while waiting for database download/read threads.", e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized void fireDownloadEvent() {
+		// Synchronized: events must be posted in the order of their file index
+		eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "database", ++lastFileIndex, maxFileCount));
+	}
+
+	private class DownloadTask implements Callable<File> {
+		private TransferManagerPool transferManagerPool;
+		private DatabaseRemoteFile remoteDatabaseFile;
+		private File localDatabaseFile;
+
+		public DownloadTask(TransferManagerPool transferManagerPool, DatabaseRemoteFile remoteDatabaseFile, File localDatabaseFile) {
+			this.transferManagerPool = transferManagerPool;
+			this.remoteDatabaseFile = remoteDatabaseFile;
+			this.localDatabaseFile = localDatabaseFile;
+		}
+
+		@Override
+		public File call() throws Exception {
+			fireDownloadEvent();
+
+			logger.log(Level.INFO, "- Downloading {0} to local cache at {1}", new Object[] { remoteDatabaseFile.getName(), localDatabaseFile });
+			TransferManager downloadTransferManager = transferManagerPool.borrow();
+
+			try {
+				downloadTransferManager.download(remoteDatabaseFile, localDatabaseFile);
+			}
+			finally {
+				transferManagerPool.release(downloadTransferManager);
+			}
+
+			return localDatabaseFile;
+		}
+	}
+
+	private class ReadHeadersTask implements Callable<List<DatabaseVersion>> {
+		private File localDatabaseFile;
+
+		public ReadHeadersTask(File localDatabaseFile) {
+			this.localDatabaseFile = localDatabaseFile;
+		}
+
+		@Override
+		public List<DatabaseVersion> call() throws Exception {
+			MemoryDatabase remoteDatabase = new MemoryDatabase(); // Database cannot be reused, since these might be different clients
+			databaseSerializer.load(remoteDatabase, localDatabaseFile, null, null, DatabaseReadType.HEADER_ONLY); // only load headers!
+
+			return remoteDatabase.getDatabaseVersions();
+		}
+	}
+}
@@ -17,11 +17,19 @@
  */
 package org.syncany.operations.down;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.syncany.database.DatabaseVersion;
 import org.syncany.database.DatabaseVersionHeader;
@@ -30,31 +38,42 @@ import org.syncany.database.VectorClock;
 import org.syncany.database.dao.DatabaseXmlSerializer;
 import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * The DatabaseFileReader provides a way to read a series of database files
  * in a memory-efficient way, by converting them to a series of MemoryDatabases,
  * none of which are too large.
  * 
+ * <p>Database version ranges are loaded by a background thread, so that the next
+ * range is parsed while the current one is processed. To keep the memory usage
+ * bounded, at most {@link #MAX_PREFETCHED_RANGES} range is loaded ahead of time.
+ * The reader must be closed after use to stop the reader thread.
+ * 
  * @author Pim Otte
  */
-public class DatabaseFileReader implements Iterator<MemoryDatabase> {
+public class DatabaseFileReader implements Iterator<MemoryDatabase>, Closeable {
 	private static final int MAX_FILES = 9999;
+	private static final int MAX_PREFETCHED_RANGES = 1;
 
 	private DatabaseXmlSerializer databaseSerializer;
-	private List<DatabaseVersionHeader> winnersApplyBranchList;
-	private Map<DatabaseVersionHeader, File> databaseVersionLocations;
-	private int branchIndex = 0;
+	private List<DatabaseVersionRange> databaseVersionRanges;
+	private int rangeIndex = 0;
+
+	private ExecutorService readExecutor;
+	private Queue<Future<MemoryDatabase>> prefetchedRanges;
+	private int prefetchRangeIndex = 0;
 
 	public DatabaseFileReader(DatabaseXmlSerializer databaseSerializer, DatabaseBranch winnersApplyBranch,
 			Map<DatabaseVersionHeader, File> databaseVersionLocations) {
-		
-		this.winnersApplyBranchList = winnersApplyBranch.getAll();
-		this.databaseVersionLocations = databaseVersionLocations;
+
 		this.databaseSerializer = databaseSerializer;
+		this.databaseVersionRanges = findDatabaseVersionRanges(winnersApplyBranch.getAll(), databaseVersionLocations);
+		this.prefetchedRanges = new LinkedList<Future<MemoryDatabase>>();
 	}
 
 	public boolean hasNext() {
-		return branchIndex < winnersApplyBranchList.size();
+		return rangeIndex < databaseVersionRanges.size();
 	}
 
 	/**
@@ -91,39 +110,75 @@ public class DatabaseFileReader implements Iterator<MemoryDatabase> {
 	 * db-A-0005 must be processed twice; each time loading separate parts of the file. In this case:
 	 * First load (A1)-(A2) from db-A-0005, then load (A2,B1) from db-B-0001, then load (A3,B1)-(A4,B1)
 	 * from db-A-0005, and ignore (A5,B1).
-	 * @param databaseFileList
-	 * @param ignoredMostRecentPurgeVersions
+	 *
+	 * <p>The ranges are determined when the reader is created, and are loaded by a background
+	 * thread, at most {@link #MAX_PREFETCHED_RANGES} range ahead of time. They are added to the
+	 * returned memory database in the order of the winner's branch.
 	 *
 	 * @return Returns a loaded memory database containing all metadata from the winner's branch
 	 */
 	@Override
 	public MemoryDatabase next() {
 		MemoryDatabase winnerBranchDatabase = new MemoryDatabase();
-		String rangeClientName = null;
+
+		while (rangeIndex < databaseVersionRanges.size() && winnerBranchDatabase.getFileHistories().size() < MAX_FILES) {
+			prefetchRanges();
+
+			for (DatabaseVersion databaseVersion : takePrefetchedRange().getDatabaseVersions()) {
+				winnerBranchDatabase.addDatabaseVersion(databaseVersion);
+			}
+
+			rangeIndex++;
+		}
+
+		if (!hasNext()) {
+			close();
+		}
+
+		return winnerBranchDatabase;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Removing a databaseversion is not supported");
+
+	}
+
+	/**
+	 * Stops the reader thread. Ranges that have been loaded ahead of time are discarded.
+	 */
+	@Override
+	public void close() {
+		if (readExecutor != null) {
+			readExecutor.shutdownNow();
+			readExecutor = null;
+		}
+
+		prefetchedRanges.clear();
+	}
+
+	/**
+	 * Splits the winner's branch into ranges of consecutive database versions that are
+	 * contained in the same database file. Each range is loaded with a single call to the
+	 * database serializer.
+	 */
+	private List<DatabaseVersionRange> findDatabaseVersionRanges(List<DatabaseVersionHeader> winnersApplyBranchList,
+			Map<DatabaseVersionHeader, File> databaseVersionLocations) {
+
+		List<DatabaseVersionRange> databaseVersionRanges = new ArrayList<DatabaseVersionRange>();
 		VectorClock rangeVersionFrom = null;
-		VectorClock rangeVersionTo = null;
 
-		while (branchIndex < winnersApplyBranchList.size() && winnerBranchDatabase.getFileHistories().size() < MAX_FILES) {
+		for (int branchIndex = 0; branchIndex < winnersApplyBranchList.size(); branchIndex++) {
 			DatabaseVersionHeader currentDatabaseVersionHeader = winnersApplyBranchList.get(branchIndex);
 			DatabaseVersionHeader nextDatabaseVersionHeader = (branchIndex + 1 < winnersApplyBranchList.size()) ? winnersApplyBranchList
 					.get(branchIndex + 1) : null;
 
 			// First of range for this client
-			if (rangeClientName == null) {
-				rangeClientName = currentDatabaseVersionHeader.getClient();
+			if (rangeVersionFrom == null) {
 				rangeVersionFrom = currentDatabaseVersionHeader.getVectorClock();
-				rangeVersionTo = currentDatabaseVersionHeader.getVectorClock();
-			}
-
-			// Still in range for this client
-			else {
-				rangeVersionTo = currentDatabaseVersionHeader.getVectorClock();
 			}
 
-			// Now load this stuff from the database file (or not)
-			//   - If the database file exists, load the range and reset it
-			//   - If not, only force a load if this is the range end
-
+			// Range ends if the next database version is in another file (or if there is none)
 			File databaseVersionFile = databaseVersionLocations.get(currentDatabaseVersionHeader);
 
 			if (databaseVersionFile == null) {
@@ -137,24 +192,77 @@ public class DatabaseFileReader implements Iterator<MemoryDatabase> {
 			boolean rangeEnds = lastDatabaseVersionHeader || !nextDatabaseVersionInSameFile;
 
 			if (rangeEnds) {
-				try {
-					databaseSerializer.load(winnerBranchDatabase, databaseVersionFile, rangeVersionFrom, rangeVersionTo, DatabaseReadType.FULL);
-				}
-				catch (IOException e) {
-					throw new RuntimeException(e.getMessage(), e);
-				}
-				rangeClientName = null;
+				VectorClock rangeVersionTo = currentDatabaseVersionHeader.getVectorClock();
+				databaseVersionRanges.add(new DatabaseVersionRange(databaseVersionFile, rangeVersionFrom, rangeVersionTo));
+
+				rangeVersionFrom = null;
 			}
-			branchIndex++;
 		}
 
-		return winnerBranchDatabase;
+		return databaseVersionRanges;
 	}
 
-	@Override
-	public void remove() {
-		throw new UnsupportedOperationException("Removing a databaseversion is not supported");
+	/**
+	 * Submits load tasks for the current range and the next {@link #MAX_PREFETCHED_RANGES}
+	 * range(s). Ranges are loaded one after the other, because each loaded range can hold up
+	 * to {@link #MAX_FILES} file histories; loading more of them at once would multiply the
+	 * memory usage.
+	 */
+	private void prefetchRanges() {
+		if (readExecutor == null) {
+			readExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("DBLoad/%d").setDaemon(true).build());
+		}
 
+		while (prefetchRangeIndex < databaseVersionRanges.size() && prefetchRangeIndex <= rangeIndex + MAX_PREFETCHED_RANGES) {
+			prefetchedRanges.offer(readExecutor.submit(new LoadRangeTask(databaseVersionRanges.get(prefetchRangeIndex))));
+			prefetchRangeIndex++;
+		}
 	}
 
+	private MemoryDatabase takePrefetchedRange() {
+		try {
+			return prefetchedRanges.poll().get();
+		}
+		catch (ExecutionException e) {
+			close();
+			throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+		}
+		catch (InterruptedException e) {
+			close();
+			Thread.currentThread().interrupt();
+
+			throw new RuntimeException("Interrupted while loading database versions.", e);
+		}
+	}
+
+	private static class DatabaseVersionRange {
+		private File databaseFile;
+		private VectorClock versionFrom;
+		private VectorClock versionTo;
+
+		public DatabaseVersionRange(File databaseFile, VectorClock versionFrom, VectorClock versionTo) {
+			this.databaseFile = databaseFile;
+			this.versionFrom = versionFrom;
+			this.versionTo = versionTo;
+		}
+	}
+
+	private class LoadRangeTask implements Callable<MemoryDatabase> {
+		private DatabaseVersionRange databaseVersionRange;
+
+		public LoadRangeTask(DatabaseVersionRange databaseVersionRange) {
+			this.databaseVersionRange = databaseVersionRange;
+		}
+
+		@Override
+		public MemoryDatabase call() throws Exception {
+			MemoryDatabase rangeDatabase = new MemoryDatabase();
+
+			databaseSerializer.load(rangeDatabase, databaseVersionRange.databaseFile, databaseVersionRange.versionFrom,
+					databaseVersionRange.versionTo, DatabaseReadType.FULL);
+
+			return rangeDatabase;
+		}
+	}
 }
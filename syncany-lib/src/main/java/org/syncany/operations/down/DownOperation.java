@@ -45,7 +45,6 @@ import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
 import org.syncany.operations.AbstractTransferOperation;
 import org.syncany.operations.cleanup.CleanupOperation;
 import org.syncany.operations.daemon.messages.DownChangesDetectedSyncExternalEvent;
-import org.syncany.operations.daemon.messages.DownDownloadFileSyncExternalEvent;
 import org.syncany.operations.daemon.messages.DownEndSyncExternalEvent;
 import org.syncany.operations.daemon.messages.DownStartSyncExternalEvent;
 import org.syncany.operations.down.DownOperationOptions.DownConflictStrategy;
@@ -72,7 +71,7 @@ import com.google.common.collect.Sets.SetView;
  *  <li>List all database versions on the remote storage using the {@link LsRemoteOperation}
  *      (implemented in {@link #listUnknownRemoteDatabases(MemoryDatabase, TransferManager) listUnknownRemoteDatabases()}</li>
  *  <li>Download unknown databases using a {@link TransferManager} (if any), skip the rest down otherwise
- *      (implemented in {@link #downloadUnknownRemoteDatabases(TransferManager, List) downloadUnknownRemoteDatabases()}</li>
+ *      (implemented in {@link #downloadAndReadUnknownDatabaseVersionHeaders(SortedMap) downloadAndReadUnknownDatabaseVersionHeaders()}</li>
  *  <li>Load remote database headers (branches) and compare them to the local database to determine a winner
  *      using several methods of the {@link DatabaseReconciliator}</li>
  *  <li>Determine whether the local branch conflicts with the winner branch; if so, prune conflicting
@@ -149,8 +148,8 @@ public class DownOperation extends AbstractTransferOperation {
 		DatabaseBranch localBranch = localDatabase.getLocalDatabaseBranch();
 		List<DatabaseRemoteFile> newRemoteDatabases = result.getLsRemoteResult().getUnknownRemoteDatabases();
 
-		SortedMap<File, DatabaseRemoteFile> unknownRemoteDatabasesInCache = downloadUnknownRemoteDatabases(newRemoteDatabases);
-		SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> remoteDatabaseHeaders = readUnknownDatabaseVersionHeaders(unknownRemoteDatabasesInCache);
+		SortedMap<File, DatabaseRemoteFile> unknownRemoteDatabasesInCache = getUnknownRemoteDatabasesInCache(newRemoteDatabases);
+		SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> remoteDatabaseHeaders = downloadAndReadUnknownDatabaseVersionHeaders(unknownRemoteDatabasesInCache);
 		Map<DatabaseVersionHeader, File> databaseVersionLocations = findDatabaseVersionLocations(remoteDatabaseHeaders, unknownRemoteDatabasesInCache);
 
 		Map<String, CleanupRemoteFile> remoteCleanupFiles = getRemoteCleanupFiles();
@@ -273,59 +272,43 @@ public class DownOperation extends AbstractTransferOperation {
 	}
 
 	/**
-	 * Downloads the previously identified new/unknown remote databases to the local cache
-	 * and returns a map with the local cache files mapped to the given remote database
-	 * files. The method additionally fires events for every database it downloads.
+	 * Maps the previously identified new/unknown remote databases to their location
+	 * in the local cache. The returned map determines the (deterministic) order in which
+	 * the database files are processed.
 	 */
-	private SortedMap<File, DatabaseRemoteFile> downloadUnknownRemoteDatabases(List<DatabaseRemoteFile> unknownRemoteDatabases)
+	private SortedMap<File, DatabaseRemoteFile> getUnknownRemoteDatabasesInCache(List<DatabaseRemoteFile> unknownRemoteDatabases)
 			throws StorageException {
 
-		logger.log(Level.INFO, "Downloading unknown databases.");
-
 		SortedMap<File, DatabaseRemoteFile> unknownRemoteDatabasesInCache = new TreeMap<File, DatabaseRemoteFile>();
-		int downloadFileIndex = 0;
 
 		for (DatabaseRemoteFile remoteFile : unknownRemoteDatabases) {
 			File unknownRemoteDatabaseFileInCache = config.getCache().getDatabaseFile(remoteFile.getName());
-			DatabaseRemoteFile unknownDatabaseRemoteFile = new DatabaseRemoteFile(remoteFile.getName());
-
-			logger.log(Level.INFO, "- Downloading {0} to local cache at {1}", new Object[] { remoteFile.getName(), unknownRemoteDatabaseFileInCache });
-			eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "database", ++downloadFileIndex,
-					unknownRemoteDatabases.size()));
-
-			transferManager.download(unknownDatabaseRemoteFile, unknownRemoteDatabaseFileInCache);
-
-			unknownRemoteDatabasesInCache.put(unknownRemoteDatabaseFileInCache, unknownDatabaseRemoteFile);
-			result.getDownloadedUnknownDatabases().add(remoteFile.getName());
+			unknownRemoteDatabasesInCache.put(unknownRemoteDatabaseFileInCache, new DatabaseRemoteFile(remoteFile.getName()));
 		}
 
 		return unknownRemoteDatabasesInCache;
 	}
 
 	/**
-	 * Read the given database files into individual per-user {@link DatabaseBranch}es. This method only
-	 * reads the headers from the local database files, and not the entire databases into memory.
+	 * Downloads the given new/unknown remote databases to the local cache and reads the
+	 * database version headers from them, i.e. not the entire databases into memory. Downloading,
+	 * decrypting and parsing is done in parallel by the {@link DatabaseDownloader}. The method
+	 * additionally fires events for every database it downloads.
 	 *
-	 * <p>The returned database branches contain only the per-client {@link DatabaseVersionHeader}s, and not
-	 * the entire stitched branches, i.e. A's database branch will only contain database version headers from A.
+	 * <p>The returned database versions contain only the per-client {@link DatabaseVersionHeader}s, and not
+	 * the entire stitched branches, i.e. A's database versions will only contain database version headers from A.
 	 */
-	private SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> readUnknownDatabaseVersionHeaders(SortedMap<File, DatabaseRemoteFile> remoteDatabases)
-			throws IOException,
-			StorageException {
-		logger.log(Level.INFO, "Loading database headers, creating branches ...");
-
-		// Read database files
-		SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> remoteDatabaseHeaders = new TreeMap<DatabaseRemoteFile, List<DatabaseVersion>>();
-
-		for (Map.Entry<File, DatabaseRemoteFile> remoteDatabaseFileEntry : remoteDatabases.entrySet()) {
-			MemoryDatabase remoteDatabase = new MemoryDatabase(); // Database cannot be reused, since these might be different clients
+	private SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> downloadAndReadUnknownDatabaseVersionHeaders(
+			SortedMap<File, DatabaseRemoteFile> unknownRemoteDatabasesInCache) throws IOException, StorageException {
 
-			File remoteDatabaseFileInCache = remoteDatabaseFileEntry.getKey();
-			DatabaseRemoteFile remoteDatabaseFile = remoteDatabaseFileEntry.getValue();
+		logger.log(Level.INFO, "Downloading unknown databases, loading database headers ...");
 
-			databaseSerializer.load(remoteDatabase, remoteDatabaseFileInCache, null, null, DatabaseReadType.HEADER_ONLY); // only load headers!
+		SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> remoteDatabaseHeaders = new DatabaseDownloader(config, transferManager,
+				databaseSerializer, options.getDownloadThreads(), DatabaseDownloader.DEFAULT_READ_THREADS)
+				.downloadAndReadHeaders(unknownRemoteDatabasesInCache);
 
-			remoteDatabaseHeaders.put(remoteDatabaseFile, remoteDatabase.getDatabaseVersions());
+		for (DatabaseRemoteFile remoteFile : unknownRemoteDatabasesInCache.values()) {
+			result.getDownloadedUnknownDatabases().add(remoteFile.getName());
 		}
 
 		return remoteDatabaseHeaders;
@@ -459,17 +442,22 @@ public class DownOperation extends AbstractTransferOperation {
 			logger.log(Level.INFO, "Loading winners database (DEFAULT) ...");
 			DatabaseFileReader databaseFileReader = new DatabaseFileReader(databaseSerializer, winnersApplyBranch, databaseVersionLocations);
 
-			boolean noDatabaseVersions = !databaseFileReader.hasNext();
-			
-			if (noDatabaseVersions) {
-				applyChangesAndPersistDatabase(new MemoryDatabase(), cleanupOccurred, preDeleteFileHistoriesWithLastVersion);
-			} 
-			else {
-				while (databaseFileReader.hasNext()) {
-					MemoryDatabase winnersDatabase = databaseFileReader.next();
-					applyChangesAndPersistDatabase(winnersDatabase, cleanupOccurred, preDeleteFileHistoriesWithLastVersion);					
+			try {
+				boolean noDatabaseVersions = !databaseFileReader.hasNext();
+
+				if (noDatabaseVersions) {
+					applyChangesAndPersistDatabase(new MemoryDatabase(), cleanupOccurred, preDeleteFileHistoriesWithLastVersion);
+				}
+				else {
+					while (databaseFileReader.hasNext()) {
+						MemoryDatabase winnersDatabase = databaseFileReader.next();
+						applyChangesAndPersistDatabase(winnersDatabase, cleanupOccurred, preDeleteFileHistoriesWithLastVersion);
+					}
 				}
 			}
+			finally {
+				databaseFileReader.close();
+			}
 
 			result.setResultCode(DownResultCode.OK_WITH_REMOTE_CHANGES);
 		}
@@ -480,7 +468,7 @@ public class DownOperation extends AbstractTransferOperation {
 		
 		if (options.isApplyChanges()) {
 			new ApplyChangesOperation(config, localDatabase, transferManager, winnersDatabase, result, cleanupOccurred,
-					preDeleteFileHistoriesWithLastVersion).execute();
+					preDeleteFileHistoriesWithLastVersion, options.getDownloadThreads()).execute();
 		}
 		else {
 			logger.log(Level.INFO, "Doing nothing on the file system, because --no-apply switched on");
@@ -18,6 +18,7 @@
 package org.syncany.operations.down;
 
 import org.simpleframework.xml.Element;
+import org.syncany.operations.Downloader;
 import org.syncany.operations.OperationOptions;
 
 public class DownOperationOptions implements OperationOptions {
@@ -31,6 +32,11 @@ public class DownOperationOptions implements OperationOptions {
 	@Element(required = false)
 	private boolean applyChanges = true;
 
+	// The number of multichunks downloaded in parallel. Each download thread uses its own connection
+	// to the remote storage.
+	@Element(required = false)
+	private int downloadThreads = Downloader.DEFAULT_DOWNLOAD_THREADS;
+
 	public DownConflictStrategy getConflictStrategy() {
 		return conflictStrategy;
 	}
@@ -45,5 +51,13 @@ public class DownOperationOptions implements OperationOptions {
 
 	public void setApplyChanges(boolean applyChanges) {
 		this.applyChanges = applyChanges;
-	}		
+	}
+
+	public int getDownloadThreads() {
+		return downloadThreads;
+	}
+
+	public void setDownloadThreads(int downloadThreads) {
+		this.downloadThreads = downloadThreads;
+	}
 }
@@ -221,6 +221,25 @@ public class FileSystemActionReconciliator {
 		return fileSystemActions;
 	}
 
+	/**
+	 * Returns the assembler used by the previously determined file system actions
+	 * to re-assemble files, or <tt>null</tt> if no actions have been determined yet.
+	 */
+	public Assembler getAssembler() {
+		return assembler;
+	}
+
+	/**
+	 * Closes the multichunks held open by the assembler of the previously determined
+	 * file system actions (see {@link Assembler#close()}). This method must be called
+	 * after the file system actions have been applied.
+	 */
+	public void close() {
+		if (assembler != null) {
+			assembler.close();
+		}
+	}
+
 	private void determineActionNoLocalLastVersion(FileVersion winningLastVersion, File winningLastFile, MemoryDatabase winnersDatabase,
 			List<FileSystemAction> outFileSystemActions) throws Exception {
 		
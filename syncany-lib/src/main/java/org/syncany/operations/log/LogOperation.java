@@ -40,7 +40,7 @@ public class LogOperation extends Operation {
 		super(config);
 
 		this.options = options;
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = new SqlDatabase(config, true);
 	}
 
 	@Override
@@ -49,18 +49,23 @@ public class LogOperation extends Operation {
 		logger.log(Level.INFO, "Running 'Log' at client " + config.getMachineName() + " ...");
 		logger.log(Level.INFO, "--------------------------------------------");
 
-		ArrayList<LightweightDatabaseVersion> databaseVersions = new ArrayList<>();
-		Iterator<DatabaseVersion> databaseVersionsIterator = localDatabase.getLastDatabaseVersions(options.getMaxDatabaseVersionCount(),
-				options.getStartDatabaseVersionIndex(), options.getMaxFileHistoryCount());
+		try {
+			ArrayList<LightweightDatabaseVersion> databaseVersions = new ArrayList<>();
+			Iterator<DatabaseVersion> databaseVersionsIterator = localDatabase.getLastDatabaseVersions(options.getMaxDatabaseVersionCount(),
+					options.getStartDatabaseVersionIndex(), options.getMaxFileHistoryCount());
+					
+			while (databaseVersionsIterator.hasNext()) {
+				DatabaseVersion databaseVersion = databaseVersionsIterator.next();
+				LightweightDatabaseVersion lightweightDatabaseVersion = createLightweightDatabaseVersion(databaseVersion);			
 				
-		while (databaseVersionsIterator.hasNext()) {
-			DatabaseVersion databaseVersion = databaseVersionsIterator.next();
-			LightweightDatabaseVersion lightweightDatabaseVersion = createLightweightDatabaseVersion(databaseVersion);			
+				databaseVersions.add(lightweightDatabaseVersion);
+			}
 			
-			databaseVersions.add(lightweightDatabaseVersion);
+			return new LogOperationResult(databaseVersions);
+		}
+		finally {
+			localDatabase.close();
 		}
-		
-		return new LogOperationResult(databaseVersions);
 	}
 
 	private LightweightDatabaseVersion createLightweightDatabaseVersion(DatabaseVersion databaseVersion) {
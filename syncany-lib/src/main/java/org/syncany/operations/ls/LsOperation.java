@@ -44,7 +44,7 @@ public class LsOperation extends Operation {
 		super(config);
 
 		this.options = options;
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = new SqlDatabase(config, true);
 	}
 
 	@Override
@@ -53,17 +53,22 @@ public class LsOperation extends Operation {
 		logger.log(Level.INFO, "Running 'Ls' at client " + config.getMachineName() + " ...");
 		logger.log(Level.INFO, "--------------------------------------------");
 
-		String pathExpression = parsePathExpression(options.getPathExpression(), options.isFileHistoryId());
-		Set<FileType> fileTypes = options.getFileTypes();
-
-		List<FileVersion> fileList = localDatabase.getFileList(pathExpression, options.getDate(), options.isFileHistoryId(), options.isRecursive(), options.isDeleted(), fileTypes);
-		Map<FileHistoryId, PartialFileHistory> fileHistories = null;
-
-		if (options.isFetchHistories()) {
-			fileHistories = fetchFileHistories(fileList);
+		try {
+			String pathExpression = parsePathExpression(options.getPathExpression(), options.isFileHistoryId());
+			Set<FileType> fileTypes = options.getFileTypes();
+	
+			List<FileVersion> fileList = localDatabase.getFileList(pathExpression, options.getDate(), options.isFileHistoryId(), options.isRecursive(), options.isDeleted(), fileTypes);
+			Map<FileHistoryId, PartialFileHistory> fileHistories = null;
+	
+			if (options.isFetchHistories()) {
+				fileHistories = fetchFileHistories(fileList);
+			}
+	
+			return new LsOperationResult(fileList, fileHistories);
+		}
+		finally {
+			localDatabase.close();
 		}
-
-		return new LsOperationResult(fileList, fileHistories);
 	}
 
 	private Map<FileHistoryId, PartialFileHistory> fetchFileHistories(List<FileVersion> fileTree) {
@@ -93,7 +93,14 @@ public class RestoreOperation extends AbstractTransferOperation {
 		logger.log(Level.INFO, "- Restoring: " + restoreFileVersion);
 
 		RestoreFileSystemAction restoreAction = new RestoreFileSystemAction(config, assembler, restoreFileVersion, options.getRelativeTargetPath());
-		RestoreFileSystemActionResult restoreResult = restoreAction.execute();
+		RestoreFileSystemActionResult restoreResult;
+
+		try {
+			restoreResult = restoreAction.execute();
+		}
+		finally {
+			assembler.close();
+		}
 
 		return new RestoreOperationResult(RestoreResultCode.ACK, restoreResult.getTargetFile());
 	}
@@ -18,15 +18,19 @@
 package org.syncany.operations.status;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Map;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,11 +52,17 @@ import org.syncany.util.FileUtil;
  * database. It uses the {@link FileVersionComparator} to determine differences and returns
  * new/changed/deleted files in form of a {@link ChangeSet}.
  *
+ * <p>The local file tree and the database are both traversed in the order of the file paths,
+ * and compared in a single pass (merge join), so that the memory used by the operation does
+ * not grow with the number of files.
+ *
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class StatusOperation extends Operation {
 	private static final Logger logger = Logger.getLogger(StatusOperation.class.getSimpleName());
 
+	private static final Comparator<String> DATABASE_PATH_COMPARATOR = new DatabasePathComparator();
+
 	private FileVersionComparator fileVersionComparator;
 	private SqlDatabase localDatabase;
 	private StatusOperationOptions options;
@@ -91,8 +101,8 @@ public class StatusOperation extends Operation {
 		logger.log(Level.INFO, "Querying current file tree from database ...");
 		eventBus.post(new StatusStartSyncExternalEvent(config.getLocalDir().getAbsolutePath()));
 
-		// Path to actual file version
-		final Map<String, FileVersion> filesInDatabase = localDatabase.getCurrentFileTree();
+		// File versions ordered by path (streamed, not loaded into memory)
+		Iterator<FileVersion> filesInDatabase = localDatabase.getCurrentFileTreeOrderedByPath();
 
 		// Find local changes
 		logger.log(Level.INFO, "Analyzing local folder " + config.getLocalDir() + " ...");
@@ -111,66 +121,96 @@ public class StatusOperation extends Operation {
 		return statusResult;
 	}
 
-	private ChangeSet findLocalChanges(final Map<String, FileVersion> filesInDatabase) throws FileNotFoundException, IOException {
-		ChangeSet localChanges = findLocalChangedAndNewFiles(config.getLocalDir(), filesInDatabase);
-
-		if (options == null || options.isDelete()) {
-			findAndAppendDeletedFiles(localChanges, filesInDatabase);
-		}
-
-		return localChanges;
-	}
+	/**
+	 * Compares the local folder to the given file versions using a merge join: The local
+	 * folder is walked in the same order as the file versions are returned from the database
+	 * (see {@link #walkFileTreeOrderedByPath(Path, StatusFileVisitor) walkFileTreeOrderedByPath()}),
+	 * so that both only have to be iterated once, and neither of them has to be held in memory.
+	 */
+	private ChangeSet findLocalChanges(Iterator<FileVersion> filesInDatabase) throws IOException {
+		Path rootPath = Paths.get(config.getLocalDir().getAbsolutePath());
 
-	private ChangeSet findLocalChangedAndNewFiles(final File root, Map<String, FileVersion> filesInDatabase)
-			throws FileNotFoundException, IOException {
-		Path rootPath = Paths.get(root.getAbsolutePath());
+		StatusFileVisitor fileVisitor = new StatusFileVisitor(filesInDatabase);
 
-		StatusFileVisitor fileVisitor = new StatusFileVisitor(rootPath, filesInDatabase);
-		Files.walkFileTree(rootPath, fileVisitor);
+		walkFileTreeOrderedByPath(rootPath, fileVisitor);
+		fileVisitor.visitRemainingDatabaseFiles();
 
 		return fileVisitor.getChangeSet();
 	}
 
-	private void findAndAppendDeletedFiles(ChangeSet localChanges, Map<String, FileVersion> filesInDatabase) {
-		for (FileVersion lastLocalVersion : filesInDatabase.values()) {
-			// Check if file exists, remove if it doesn't
-			File lastLocalVersionOnDisk = new File(config.getLocalDir() + File.separator + lastLocalVersion.getPath());
-
-			// Ignore this file history if the last version is marked "DELETED"
-			if (lastLocalVersion.getStatus() == FileStatus.DELETED) {
-				continue;
+	/**
+	 * Walks the file tree below the given root and visits all files and folders ordered by their
+	 * relative path, using the {@link #DATABASE_PATH_COMPARATOR}. Contrary to a depth-first walk, this
+	 * does not visit a folder's files right after the folder, e.g. "folder.txt" is visited before
+	 * "folder/file.txt".
+	 *
+	 * <p>Only the paths that have been found, but not yet visited, are kept in memory; i.e. at most
+	 * the entries of the folders along the current path.
+	 */
+	private void walkFileTreeOrderedByPath(Path root, StatusFileVisitor fileVisitor) {
+		TreeMap<String, Path> unvisitedFiles = new TreeMap<String, Path>(DATABASE_PATH_COMPARATOR);
+		addFolderEntries(root, root, unvisitedFiles);
+
+		while (!unvisitedFiles.isEmpty()) {
+			Entry<String, Path> unvisitedFile = unvisitedFiles.pollFirstEntry();
+
+			String relativeFilePath = unvisitedFile.getKey();
+			Path actualLocalFile = unvisitedFile.getValue();
+
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(actualLocalFile, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				FileVisitResult visitResult = fileVisitor.visitFile(relativeFilePath, actualLocalFile, attrs);
+
+				if (visitResult == FileVisitResult.CONTINUE && attrs.isDirectory()) {
+					addFolderEntries(root, actualLocalFile, unvisitedFiles);
+				}
+			}
+			catch (IOException e) {
+				logger.log(Level.FINEST, "- Ignoring file (cannot be read): " + relativeFilePath, e);
 			}
+		}
+	}
 
-			// If file has VANISHED, mark as DELETED 
-			if (!FileUtil.exists(lastLocalVersionOnDisk)) {
-				localChanges.getDeletedFiles().add(lastLocalVersion.getPath());
+	private void addFolderEntries(Path root, Path folder, TreeMap<String, Path> unvisitedFiles) {
+		try (DirectoryStream<Path> folderStream = Files.newDirectoryStream(folder)) {
+			for (Path file : folderStream) {
+				unvisitedFiles.put(FileUtil.getRelativeDatabasePath(root.toFile(), file.toFile()), file);
 			}
 		}
+		catch (IOException | DirectoryIteratorException e) {
+			logger.log(Level.FINEST, "- Ignoring folder (cannot be listed): " + folder, e);
+		}
 	}
 
-	private class StatusFileVisitor implements FileVisitor<Path> {
-		private Path root;
+	private class StatusFileVisitor {
 		private ChangeSet changeSet;
-		private Map<String, FileVersion> currentFileTree;
+		private Iterator<FileVersion> currentFileTree;
+		private FileVersion nextDatabaseFileVersion;
 
-		public StatusFileVisitor(Path root, Map<String, FileVersion> currentFileTree) {
-			this.root = root;
+		public StatusFileVisitor(Iterator<FileVersion> currentFileTree) {
 			this.changeSet = new ChangeSet();
 			this.currentFileTree = currentFileTree;
+			this.nextDatabaseFileVersion = (currentFileTree.hasNext()) ? currentFileTree.next() : null;
 		}
 
 		public ChangeSet getChangeSet() {
 			return changeSet;
 		}
 
-		@Override
-		public FileVisitResult visitFile(Path actualLocalFile, BasicFileAttributes attrs) throws IOException {
-			String relativeFilePath = FileUtil.getRelativeDatabasePath(root.toFile(), actualLocalFile.toFile()); //root.relativize(actualLocalFile).toString();
-
-			// Skip Syncany root folder
-			if (actualLocalFile.toFile().equals(config.getLocalDir())) {
-				return FileVisitResult.CONTINUE;
+		/**
+		 * Visits all file versions from the database that have not been matched with a
+		 * local file. Must be called after all local files have been visited.
+		 */
+		public void visitRemainingDatabaseFiles() {
+			while (nextDatabaseFileVersion != null) {
+				visitDatabaseFileWithoutLocalFile(nextDatabaseFileVersion);
+				nextDatabaseFileVersion = (currentFileTree.hasNext()) ? currentFileTree.next() : null;
 			}
+		}
+
+		public FileVisitResult visitFile(String relativeFilePath, Path actualLocalFile, BasicFileAttributes attrs) throws IOException {
+			// Check database by file path (skipping all database files before this path)
+			FileVersion expectedLastFileVersion = findDatabaseFileVersion(relativeFilePath);
 
 			// Skip .syncany (or app related acc. to config) 		
 			boolean isAppRelatedDir = actualLocalFile.toFile().equals(config.getAppDir())
@@ -191,9 +231,6 @@ public class StatusOperation extends Operation {
 				return FileVisitResult.CONTINUE;
 			}
 
-			// Check database by file path
-			FileVersion expectedLastFileVersion = currentFileTree.get(relativeFilePath);
-
 			if (expectedLastFileVersion != null) {
 				// Compare
 				boolean forceChecksum = options != null && options.isForceChecksum();
@@ -230,19 +267,72 @@ public class StatusOperation extends Operation {
 			}
 		}
 
-		@Override
-		public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-			return visitFile(dir, attrs);
+		/**
+		 * Advances the database file versions up to the given path, and returns the file version
+		 * with the given path (or <tt>null</tt> if there is none). All skipped file versions have no
+		 * matching local file.
+		 */
+		private FileVersion findDatabaseFileVersion(String relativeFilePath) {
+			while (nextDatabaseFileVersion != null && DATABASE_PATH_COMPARATOR.compare(nextDatabaseFileVersion.getPath(), relativeFilePath) < 0) {
+				visitDatabaseFileWithoutLocalFile(nextDatabaseFileVersion);
+				nextDatabaseFileVersion = (currentFileTree.hasNext()) ? currentFileTree.next() : null;
+			}
+
+			if (nextDatabaseFileVersion != null && nextDatabaseFileVersion.getPath().equals(relativeFilePath)) {
+				FileVersion matchingFileVersion = nextDatabaseFileVersion;
+				nextDatabaseFileVersion = (currentFileTree.hasNext()) ? currentFileTree.next() : null;
+
+				return matchingFileVersion;
+			}
+			else {
+				return null;
+			}
 		}
 
-		@Override
-		public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-			return FileVisitResult.CONTINUE;
+		/**
+		 * Handles a file version from the database that has not been visited on disk. Since the
+		 * walk skips some files and folders (e.g. locked files, ignored folders), the file is only
+		 * marked as deleted if it really does not exist anymore.
+		 */
+		private void visitDatabaseFileWithoutLocalFile(FileVersion lastLocalVersion) {
+			if (options != null && !options.isDelete()) {
+				return;
+			}
+
+			// Ignore this file history if the last version is marked "DELETED"
+			if (lastLocalVersion.getStatus() == FileStatus.DELETED) {
+				return;
+			}
+
+			// If file has VANISHED, mark as DELETED 
+			File lastLocalVersionOnDisk = new File(config.getLocalDir() + File.separator + lastLocalVersion.getPath());
+
+			if (!FileUtil.exists(lastLocalVersionOnDisk)) {
+				changeSet.getDeletedFiles().add(lastLocalVersion.getPath());
+			}
 		}
+	}
 
+	/**
+	 * Compares relative paths in the same way the database orders them (see
+	 * {@link SqlDatabase#getCurrentFileTreeOrderedByPath()}): Character by character, with the
+	 * shorter path padded with spaces. Paths that are equal when padded are ordered by length.
+	 */
+	private static class DatabasePathComparator implements Comparator<String> {
 		@Override
-		public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-			return FileVisitResult.CONTINUE;
+		public int compare(String path1, String path2) {
+			int maxLength = Math.max(path1.length(), path2.length());
+
+			for (int i = 0; i < maxLength; i++) {
+				char char1 = (i < path1.length()) ? path1.charAt(i) : ' ';
+				char char2 = (i < path2.length()) ? path2.charAt(i) : ' ';
+
+				if (char1 != char2) {
+					return char1 - char2;
+				}
+			}
+
+			return path1.length() - path2.length();
 		}
 	}
 }
@@ -0,0 +1,210 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations.up;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.config.Config;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.plugins.transfer.RemoteTransaction;
+import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.TransferManager;
+import org.syncany.plugins.transfer.TransferManagerPool;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.plugins.transfer.files.TempRemoteFile;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * AsyncMultiChunkUploader uploads multichunks to a temporary remote location as soon
+ * as they have been written by the {@link Indexer}, i.e. while the indexer is still
+ * working on the rest of the files. This overlaps reading, chunking and encrypting
+ * files with uploading them.
+ *
+ * <p>Uploading to a temporary location does not make the multichunks visible to other
+ * clients. When the {@link UpOperation} later creates the {@link RemoteTransaction} for
+ * a database version, it claims the pre-uploaded temporary files using
+ * {@link #getUploadedTempRemoteFile(MultiChunkId)} and adds them to the transaction as
+ * already uploaded. Committing the transaction then only moves them to their final
+ * location. If a pre-upload fails, the multichunk is simply uploaded again as part of
+ * the transaction. Once a multichunk has been claimed, its local copy is deleted from the
+ * cache, so the cache only holds the multichunks of database versions that are still
+ * being indexed or waiting to be claimed.
+ *
+ * <p>Temporary files that have not been claimed by a transaction (e.g. because the
+ * indexer discarded a database version) are deleted when the uploader is stopped. If
+ * the client is interrupted before that, they are deleted by the cleanup operation
+ * like any other unreferenced temporary file.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class AsyncMultiChunkUploader {
+	private static final Logger logger = Logger.getLogger(AsyncMultiChunkUploader.class.getSimpleName());
+
+	private final Config config;
+	private final TransferManagerPool transferManagerPool;
+	private final ExecutorService executor;
+	private final Map<MultiChunkId, Future<TempRemoteFile>> uploads;
+
+	private volatile boolean stopped;
+
+	/**
+	 * @param config specifying the cache and the remote storage
+	 * @param threadCount number of multichunks uploaded in parallel
+	 */
+	public AsyncMultiChunkUploader(Config config, int threadCount) {
+		this.config = config;
+		this.transferManagerPool = new TransferManagerPool(config, null);
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threadCount),
+				new ThreadFactoryBuilder().setNameFormat("AsyncU/" + config.getLocalDir().getName() + "/%d").setDaemon(true).build());
+		this.uploads = new HashMap<MultiChunkId, Future<TempRemoteFile>>();
+		this.stopped = false;
+	}
+
+	/**
+	 * Schedules the upload of a fully written multichunk from the local cache to a
+	 * temporary remote location. This method returns immediately.
+	 */
+	public synchronized void upload(final MultiChunkId multiChunkId) {
+		if (stopped) {
+			return;
+		}
+
+		Future<TempRemoteFile> upload = executor.submit(new Callable<TempRemoteFile>() {
+			@Override
+			public TempRemoteFile call() throws Exception {
+				return stopped ? null : uploadToTempRemoteFile(multiChunkId);
+			}
+		});
+
+		uploads.put(multiChunkId, upload);
+	}
+
+	/**
+	 * Waits for the upload of the given multichunk to finish, and returns the temporary
+	 * remote file it has been uploaded to. The temporary file is then owned by the
+	 * caller, i.e. it will not be deleted when the uploader is stopped.
+	 *
+	 * @return Returns the temporary remote file, or <tt>null</tt> if the multichunk has not been (successfully) uploaded
+	 */
+	public TempRemoteFile getUploadedTempRemoteFile(MultiChunkId multiChunkId) throws InterruptedException {
+		Future<TempRemoteFile> upload;
+
+		synchronized (this) {
+			upload = uploads.remove(multiChunkId);
+		}
+
+		if (upload == null) {
+			return null;
+		}
+
+		try {
+			return upload.get();
+		}
+		catch (ExecutionException e) {
+			logger.log(Level.INFO, "Pre-uploading multichunk " + multiChunkId + " failed.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stops the uploader: Scheduled uploads are not started anymore, running uploads are
+	 * awaited, and temporary files that have not been claimed are deleted.
+	 */
+	public void stop() {
+		Map<MultiChunkId, Future<TempRemoteFile>> unclaimedUploads;
+
+		synchronized (this) {
+			stopped = true;
+			unclaimedUploads = new HashMap<MultiChunkId, Future<TempRemoteFile>>(uploads);
+			uploads.clear();
+		}
+
+		executor.shutdown();
+
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			deleteUnclaimedTempRemoteFiles(unclaimedUploads);
+		}
+		catch (InterruptedException e) {
+			logger.log(Level.WARNING, "Interrupted while waiting for uploads to finish; not deleting unclaimed temporary files.", e);
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			transferManagerPool.disconnect();
+		}
+	}
+
+	private TempRemoteFile uploadToTempRemoteFile(MultiChunkId multiChunkId) {
+		File localMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
+		TransferManager transferManager = null;
+
+		try {
+			TempRemoteFile tempRemoteFile = new TempRemoteFile(new MultichunkRemoteFile(multiChunkId));
+			transferManager = transferManagerPool.borrow();
+
+			logger.log(Level.INFO, "- Pre-uploading {0} to temp. file {1} ...", new Object[] { localMultiChunkFile, tempRemoteFile });
+			transferManager.upload(localMultiChunkFile, tempRemoteFile);
+
+			return tempRemoteFile;
+		}
+		catch (StorageException e) {
+			logger.log(Level.INFO, "Pre-uploading multichunk " + multiChunkId + " failed; it will be uploaded in the transaction.", e);
+			return null;
+		}
+		finally {
+			if (transferManager != null) {
+				transferManagerPool.release(transferManager);
+			}
+		}
+	}
+
+	private void deleteUnclaimedTempRemoteFiles(Map<MultiChunkId, Future<TempRemoteFile>> unclaimedUploads) throws InterruptedException {
+		for (Map.Entry<MultiChunkId, Future<TempRemoteFile>> unclaimedUpload : unclaimedUploads.entrySet()) {
+			try {
+				TempRemoteFile tempRemoteFile = unclaimedUpload.getValue().get();
+
+				if (tempRemoteFile != null) {
+					logger.log(Level.INFO, "- Deleting unclaimed temp. file {0} ...", tempRemoteFile);
+
+					TransferManager transferManager = transferManagerPool.borrow();
+
+					try {
+						transferManager.delete(tempRemoteFile);
+					}
+					finally {
+						transferManagerPool.release(transferManager);
+					}
+				}
+			}
+			catch (ExecutionException | StorageException e) {
+				logger.log(Level.INFO, "Cannot delete unclaimed temp. file for multichunk " + unclaimedUpload.getKey() + "; ignoring.", e);
+			}
+		}
+	}
+}
@@ -19,7 +19,6 @@ package org.syncany.operations.up;
 
 import java.io.File;
 import java.io.IOException;
-import java.security.SecureRandom;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -84,14 +83,26 @@ public class Indexer {
 
 	private Config config;
 	private Deduper deduper;
+	private AsyncMultiChunkUploader multiChunkUploader;
 	private SqlDatabase localDatabase;
 
 	private LocalEventBus eventBus;
 
 
 	public Indexer(Config config, Deduper deduper) {
+		this(config, deduper, null);
+	}
+
+	/**
+	 * Creates an indexer that hands every multichunk to the given uploader
+	 * as soon as it has been closed.
+	 *
+	 * @param multiChunkUploader Uploader for finished multichunks, or <tt>null</tt> to not upload them while indexing
+	 */
+	public Indexer(Config config, Deduper deduper, AsyncMultiChunkUploader multiChunkUploader) {
 		this.config = config;
 		this.deduper = deduper;
+		this.multiChunkUploader = multiChunkUploader;
 		this.localDatabase = new SqlDatabase(config, true);
 
 		this.eventBus = LocalEventBus.getInstance();
@@ -232,7 +243,6 @@ public class Indexer {
 
 	private class IndexerDeduperListener implements DeduperListener {
 		private FileVersionComparator fileVersionComparator;
-		private SecureRandom secureRandom;
 		private DatabaseVersion newDatabaseVersion;
 
 		private ChunkEntry chunkEntry;
@@ -245,7 +255,6 @@ public class Indexer {
 		public IndexerDeduperListener(DatabaseVersion newDatabaseVersion) {
 
 			this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker().getChecksumAlgorithm());
-			this.secureRandom = new SecureRandom();
 			this.newDatabaseVersion = newDatabaseVersion;
 		}
 
@@ -622,6 +631,11 @@ public class Indexer {
 
 			newDatabaseVersion.addMultiChunk(multiChunkEntry);
 			multiChunkEntry = null;
+
+			// Start uploading the multichunk while indexing continues
+			if (multiChunkUploader != null) {
+				multiChunkUploader.upload(multiChunk.getId());
+			}
 		}
 
 		@Override
@@ -631,10 +645,8 @@ public class Indexer {
 
 		@Override
 		public MultiChunkId createNewMultiChunkId(Chunk firstChunk) {
-			byte[] newMultiChunkId = new byte[firstChunk.getChecksum().length];
-			secureRandom.nextBytes(newMultiChunkId);
-
-			return new MultiChunkId(newMultiChunkId);
+			// Multichunk IDs do not depend on the checksum length (which depends on the digest)
+			return MultiChunkId.secureRandomMultiChunkId();
 		}
 
 		@Override
@@ -650,6 +662,7 @@ public class Indexer {
 
 		@Override
 		public void onFinish() {
+			logger.log(Level.INFO, "Chunk lookups: " + localDatabase.getChunkLookupStatistics());
 			eventBus.post(new UpIndexEndSyncExternalEvent(config.getLocalDir().getAbsolutePath()));
 		}
 
@@ -659,10 +672,8 @@ public class Indexer {
 		 */
 		@Override
 		public boolean onChunk(Chunk chunk) {
-			ChunkChecksum chunkChecksum = new ChunkChecksum(chunk.getChecksum());
-			chunkEntry = localDatabase.getChunk(chunkChecksum);
-
-			if (chunkEntry == null) {
+			if (!localDatabase.containsChunk(chunk.getChecksum())) {
+				ChunkChecksum chunkChecksum = new ChunkChecksum(chunk.getChecksum());
 				chunkEntry = newDatabaseVersion.getChunk(chunkChecksum);
 
 				if (chunkEntry == null) {
@@ -65,6 +65,7 @@ import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.files.DatabaseRemoteFile;
 import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.plugins.transfer.files.TempRemoteFile;
 import org.syncany.plugins.transfer.files.TransactionRemoteFile;
 import org.syncany.plugins.transfer.to.ActionTO;
 import org.syncany.plugins.transfer.to.ActionTO.ActionStatus;
@@ -103,6 +104,7 @@ public class UpOperation extends AbstractTransferOperation {
 	public static final String ACTION_ID = "up";
 
 	private UpOperationOptions options;
+	private AsyncMultiChunkUploader multiChunkUploader;
 	private UpOperationResult result;
 
 	private SqlDatabase localDatabase;
@@ -127,6 +129,7 @@ public class UpOperation extends AbstractTransferOperation {
 		this.transactionRemoteFileToResume = null;
 		this.remoteTransactionsToResume = null;
 		this.databaseVersionQueue = new LinkedBlockingQueue<>();
+		this.multiChunkUploader = null;
 	}
 
 	@Override
@@ -160,12 +163,21 @@ public class UpOperation extends AbstractTransferOperation {
 			}			
 		}
 		catch (BlockingTransfersException e) {
+			stopMultiChunkUploader();
 			stopBecauseOfBlockingTransactions();
 			return result;
 		}
 		
 		// Go wild
-		int numberOfPerformedTransactions = executeTransactions();
+		int numberOfPerformedTransactions;
+
+		try {
+			numberOfPerformedTransactions = executeTransactions();
+		}
+		finally {
+			stopMultiChunkUploader();
+		}
+
 		updateResult(numberOfPerformedTransactions);		
 
 		// Close database connection
@@ -197,12 +209,24 @@ public class UpOperation extends AbstractTransferOperation {
 		
 		// Iterate over the changes, deduplicate, and feed DatabaseVersions into an iterator
 		Deduper deduper = new Deduper(config.getChunker(), config.getMultiChunker(), config.getTransformer(), options.getTransactionSizeLimit(),
-				options.getTransactionFileLimit());
+				options.getTransactionFileLimit(), options.getChunkerThreads());
 		
-		AsyncIndexer asyncIndexer = new AsyncIndexer(config, deduper, locallyUpdatedFiles, locallyDeletedFiles, databaseVersionQueue);
+		// Upload multichunks while indexing continues (if enabled)
+		if (options.isPipelinedUpload()) {
+			multiChunkUploader = new AsyncMultiChunkUploader(config, options.getTransferThreads());
+		}
+
+		AsyncIndexer asyncIndexer = new AsyncIndexer(config, deduper, multiChunkUploader, locallyUpdatedFiles, locallyDeletedFiles, databaseVersionQueue);
 		new Thread(asyncIndexer, "AsyncI/" + config.getLocalDir().getName()).start();
 	}
 
+	private void stopMultiChunkUploader() {
+		if (multiChunkUploader != null) {
+			multiChunkUploader.stop();
+			multiChunkUploader = null;
+		}
+	}
+
 	private void prepareResume() throws Exception {	
 		Collection<Long> versionsToResume = transferManager.loadPendingTransactionList();
 		boolean hasVersionsToResume = versionsToResume != null && versionsToResume.size() > 0;
@@ -276,7 +300,7 @@ public class UpOperation extends AbstractTransferOperation {
 				databaseVersion.setTimestamp(new Date());
 				databaseVersion.setClient(config.getMachineName());
 
-				remoteTransaction = new RemoteTransaction(config, transferManager);
+				remoteTransaction = new RemoteTransaction(config, transferManager, new TransactionTO(config.getMachineName()), options.getTransferThreads());
 
 				// Add multichunks to transaction
 				logger.log(Level.INFO, "Uploading new multichunks ...");
@@ -351,7 +375,23 @@ public class UpOperation extends AbstractTransferOperation {
 			
 			if (!noDatabaseVersions) {
 				logger.log(Level.FINE, "Waiting for new database version.");
-				databaseVersion = databaseVersionQueue.take();
+
+				try {
+					databaseVersion = databaseVersionQueue.take();
+				}
+				catch (InterruptedException e) {
+					// Still write the resume files for the transactions that have not been committed
+					logger.log(Level.INFO, "Interrupted while waiting for new database version.", e);
+					Thread.currentThread().interrupt();
+
+					if (!detectedFailure) {
+						detectedFailure = true;
+						caughtFailure = e;
+					}
+
+					break;
+				}
+
 				logger.log(Level.FINE, "Took new database version: " + databaseVersion);
 			}
 			else {
@@ -545,7 +585,7 @@ public class UpOperation extends AbstractTransferOperation {
 	protected void saveDeltaDatabase(MemoryDatabase db, File localDatabaseFile) throws IOException {
 		logger.log(Level.INFO, "- Saving database to " + localDatabaseFile + " ...");
 
-		DatabaseXmlSerializer dao = new DatabaseXmlSerializer(config.getTransformer());
+		DatabaseXmlSerializer dao = new DatabaseXmlSerializer(config.getTransformer(), config.getDatabaseFormat());
 		dao.save(db.getDatabaseVersions(), localDatabaseFile);
 	}
 
@@ -648,6 +688,10 @@ public class UpOperation extends AbstractTransferOperation {
 	 * This methods adds the multichunks that are not yet present in the remote repo to the {@link RemoteTransaction} for
 	 * uploading. Multichunks are not uploaded if they are dirty.
 	 *
+	 * <p>Multichunks that have already been uploaded by the {@link AsyncMultiChunkUploader} are added to the transaction
+	 * as started actions, and their local copy in the cache is deleted right away. A resumed transaction does not upload
+	 * started actions again, so the local copy is not needed anymore.
+	 *
 	 * @param multiChunkEntries Collection of multiChunkEntries that are included in the new {@link DatabaseVersion}
 	 */
 	private void addMultiChunksToTransaction(RemoteTransaction remoteTransaction, Collection<MultiChunkEntry> multiChunksEntries)
@@ -662,10 +706,25 @@ public class UpOperation extends AbstractTransferOperation {
 				File localMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkEntry.getId());
 				MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkEntry.getId());
 
-				logger.log(Level.INFO, "- Uploading multichunk {0} from {1} to {2} ...", new Object[] { multiChunkEntry.getId(), localMultiChunkFile,
-						remoteMultiChunkFile });
+				TempRemoteFile uploadedTempRemoteFile = (multiChunkUploader != null) ? multiChunkUploader.getUploadedTempRemoteFile(multiChunkEntry
+						.getId()) : null;
 
-				remoteTransaction.upload(localMultiChunkFile, remoteMultiChunkFile);
+				if (uploadedTempRemoteFile != null) {
+					logger.log(Level.INFO, "- Multichunk {0} already uploaded to {1}, adding to transaction ...", new Object[] { multiChunkEntry.getId(),
+							uploadedTempRemoteFile });
+
+					remoteTransaction.upload(localMultiChunkFile, remoteMultiChunkFile, uploadedTempRemoteFile);
+
+					// The transaction only moves the uploaded temp. file, so the local copy is not needed anymore
+					logger.log(Level.INFO, "- Deleting local multichunk {0} (already uploaded) ...", localMultiChunkFile);
+					localMultiChunkFile.delete();
+				}
+				else {
+					logger.log(Level.INFO, "- Uploading multichunk {0} from {1} to {2} ...", new Object[] { multiChunkEntry.getId(), localMultiChunkFile,
+							remoteMultiChunkFile });
+
+					remoteTransaction.upload(localMultiChunkFile, remoteMultiChunkFile);
+				}
 			}
 		}
 	}
@@ -753,7 +812,7 @@ public class UpOperation extends AbstractTransferOperation {
 					}
 				}
 
-				remoteTransactions.add(new RemoteTransaction(config, transferManager, transactionTO));
+				remoteTransactions.add(new RemoteTransaction(config, transferManager, transactionTO, options.getTransferThreads()));
 			}
 			
 			return remoteTransactions;
@@ -31,6 +31,14 @@ public class UpOperationOptions implements OperationOptions {
 	public static final long DEFAULT_TRANSACTION_SIZE_LIMIT = 50 * 1024 * 1024;
 	public static final long DEFAULT_TRANSACTION_FILE_LIMIT = 10000;
 
+	// The number of threads used by the Deduper to chunk and hash files in parallel. Multichunks are still written by
+	// a single thread, in the order of the changed files.
+	public static final int DEFAULT_CHUNKER_THREADS = Runtime.getRuntime().availableProcessors();
+
+	// The number of multichunks uploaded (and moved/deleted) in parallel when a transaction is committed. Each upload
+	// thread uses its own connection to the remote storage.
+	public static final int DEFAULT_TRANSFER_THREADS = 4;
+
 	@Element(name = "status", required = false)
 	private StatusOperationOptions statusOptions = new StatusOperationOptions();
 
@@ -46,6 +54,17 @@ public class UpOperationOptions implements OperationOptions {
 	@Element(required = false)
 	private long transactionFileLimit = DEFAULT_TRANSACTION_FILE_LIMIT;
 
+	@Element(required = false)
+	private int chunkerThreads = DEFAULT_CHUNKER_THREADS;
+
+	@Element(required = false)
+	private int transferThreads = DEFAULT_TRANSFER_THREADS;
+
+	// If enabled, multichunks are uploaded to a temporary remote location as soon as the indexer has written them,
+	// and are only moved to their final location when the transaction is committed.
+	@Element(required = false)
+	private boolean pipelinedUpload = true;
+
 	public StatusOperationOptions getStatusOptions() {
 		return statusOptions;
 	}
@@ -85,4 +104,28 @@ public class UpOperationOptions implements OperationOptions {
 	public void setTransactionFileLimit(long transactionFileLimit) {
 		this.transactionFileLimit = transactionFileLimit;
 	}
-}
\ No newline at end of file
+
+	public int getChunkerThreads() {
+		return chunkerThreads;
+	}
+
+	public void setChunkerThreads(int chunkerThreads) {
+		this.chunkerThreads = chunkerThreads;
+	}
+
+	public int getTransferThreads() {
+		return transferThreads;
+	}
+
+	public void setTransferThreads(int transferThreads) {
+		this.transferThreads = transferThreads;
+	}
+
+	public boolean isPipelinedUpload() {
+		return pipelinedUpload;
+	}
+
+	public void setPipelinedUpload(boolean pipelinedUpload) {
+		this.pipelinedUpload = pipelinedUpload;
+	}
+}
@@ -18,7 +18,10 @@
 package org.syncany.plugins.local;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -33,6 +36,7 @@ import org.syncany.plugins.transfer.AbstractTransferManager;
 import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.StorageFileNotFoundException;
 import org.syncany.plugins.transfer.StorageMoveException;
+import org.syncany.plugins.transfer.StreamingTransferManager;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.files.ActionRemoteFile;
 import org.syncany.plugins.transfer.files.CleanupRemoteFile;
@@ -63,9 +67,12 @@ import com.google.common.collect.Maps;
  * on a mounted remote device or network storage such as an NFS or a
  * Samba/NetBIOS share.
  *
+ * <p>The transfer manager supports stream downloads (see {@link StreamingTransferManager}),
+ * i.e. remote files can be read directly from the repository folder.
+ *
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
-public class LocalTransferManager extends AbstractTransferManager {
+public class LocalTransferManager extends AbstractTransferManager implements StreamingTransferManager {
 	private static final Logger logger = Logger.getLogger(LocalTransferManager.class.getSimpleName());
 
 	private Path repoPath;
@@ -159,6 +166,25 @@ public class LocalTransferManager extends AbstractTransferManager {
 		}
 	}
 
+	@Override
+	public boolean isStreamDownloadSupported() {
+		return true;
+	}
+
+	@Override
+	public InputStream downloadStream(RemoteFile remoteFile) throws StorageException {
+		connect();
+
+		File repoFile = getRemoteFile(remoteFile);
+
+		try {
+			return new FileInputStream(repoFile);
+		}
+		catch (FileNotFoundException e) {
+			throw new StorageFileNotFoundException("No such file in local repository: " + repoFile, e);
+		}
+	}
+
 	@Override
 	public void move(RemoteFile sourceFile, RemoteFile targetFile) throws StorageException {
 		connect();
@@ -18,6 +18,14 @@
 package org.syncany.plugins.transfer;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,6 +34,7 @@ import org.syncany.config.Config;
 import org.syncany.config.LocalEventBus;
 import org.syncany.operations.daemon.messages.UpUploadFileInTransactionSyncExternalEvent;
 import org.syncany.operations.daemon.messages.UpUploadFileSyncExternalEvent;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
 import org.syncany.plugins.transfer.files.RemoteFile;
 import org.syncany.plugins.transfer.files.TempRemoteFile;
 import org.syncany.plugins.transfer.files.TransactionRemoteFile;
@@ -34,18 +43,33 @@ import org.syncany.plugins.transfer.to.ActionTO.ActionStatus;
 import org.syncany.plugins.transfer.to.ActionTO.ActionType;
 import org.syncany.plugins.transfer.to.TransactionTO;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * This class represents a transaction in a remote system. It will keep track of
  * what files are to be added and ensures atomic operation.
  *
+ * <p>If the transaction is created with more than one transfer thread, the actions of
+ * each commit phase (uploading/moving to the temporary location, moving to the final
+ * location, deleting temporary files) are executed in parallel. Since most transfer
+ * managers hold a single connection and are not thread-safe, each thread uses its
+ * own transfer manager (see {@link TransferManagerPool}). A phase only ends when all
+ * of its actions have finished, so the {@link ActionStatus} of each action is always
+ * accurate when the transaction is interrupted and has to be resumed.
+ *
  * @author Pim Otte
  */
 public class RemoteTransaction {
 	private static final Logger logger = Logger.getLogger(RemoteTransaction.class.getSimpleName());
 
+	public static final int DEFAULT_TRANSFER_THREADS = 1;
+
 	private TransferManager transferManager;
 	private Config config;
 	private TransactionTO transactionTO;
+	private int transferThreads;
+
+	private TransferManagerPool transferManagerPool;
 
 	private LocalEventBus eventBus;
 
@@ -54,9 +78,20 @@ public class RemoteTransaction {
 	}
 
 	public RemoteTransaction(Config config, TransferManager transferManager, TransactionTO transactionTO) {
+		this(config, transferManager, transactionTO, DEFAULT_TRANSFER_THREADS);
+	}
+
+	/**
+	 * Creates a remote transaction that executes up to <tt>transferThreads</tt>
+	 * actions (uploads, moves, deletes) in parallel during {@link #commit()}.
+	 *
+	 * @param transferThreads Maximum number of parallel transfers; 1 to execute all actions sequentially
+	 */
+	public RemoteTransaction(Config config, TransferManager transferManager, TransactionTO transactionTO, int transferThreads) {
 		this.config = config;
 		this.transferManager = transferManager;
 		this.transactionTO = transactionTO;
+		this.transferThreads = Math.max(1, transferThreads);
 		this.eventBus = LocalEventBus.getInstance();
 	}
 
@@ -85,6 +120,25 @@ public class RemoteTransaction {
 		transactionTO.addAction(action);
 	}
 
+	/**
+	 * Adds a file to this transaction that has already been uploaded to the given temporary
+	 * location, e.g. while the file was still being indexed. When the transaction is committed,
+	 * the file is only moved to its final location.
+	 */
+	public void upload(File localFile, RemoteFile remoteFile, TempRemoteFile uploadedTempRemoteFile) throws StorageException {
+		logger.log(Level.INFO, "- Adding uploaded file to TX for UPLOAD: " + localFile + " -> Temp. remote file: " + uploadedTempRemoteFile
+				+ ", final location: " + remoteFile);
+
+		ActionTO action = new ActionTO();
+		action.setType(ActionType.UPLOAD);
+		action.setLocalTempLocation(localFile);
+		action.setRemoteLocation(remoteFile);
+		action.setRemoteTempLocation(uploadedTempRemoteFile);
+		action.setStatus(ActionStatus.STARTED);
+
+		transactionTO.addAction(action);
+	}
+
 	/**
 	 * Adds the deletion of a file to this transaction. Generates a temporary file
 	 * to store it while the transaction is being finalized.
@@ -139,11 +193,19 @@ public class RemoteTransaction {
 	public void commit(File localTransactionFile, TransactionRemoteFile remoteTransactionFile) throws StorageException {
 		logger.log(Level.INFO, "- Starting to upload data in commit.");
 
-		uploadAndMoveToTempLocation();
-		moveToFinalLocation();
+		try {
+			uploadAndMoveToTempLocation();
+			moveToFinalLocation();
 
-		deleteTransactionFile(localTransactionFile, remoteTransactionFile);
-		deleteTempRemoteFiles();
+			deleteTransactionFile(localTransactionFile, remoteTransactionFile);
+			deleteTempRemoteFiles();
+		}
+		finally {
+			if (transferManagerPool != null) {
+				transferManagerPool.disconnect();
+				transferManagerPool = null;
+			}
+		}
 	}
 
 	/**
@@ -202,12 +264,21 @@ public class RemoteTransaction {
 	 * the most likely part to be interrupted on weak connections.
 	 */
 	private void uploadAndMoveToTempLocation() throws StorageException {
-		TransactionStats stats = gatherTransactionStats();
-		int uploadFileIndex = 0;
+		final TransactionStats stats = gatherTransactionStats();
+		final AtomicInteger uploadFileIndex = new AtomicInteger(0);
+
+		List<ActionTO> unstartedActions = new ArrayList<ActionTO>();
 
 		for (ActionTO action : transactionTO.getActions()) {
 			if (action.getStatus().equals(ActionStatus.UNSTARTED)) {
 				// If we are resuming, this has not been started yet.
+				unstartedActions.add(action);
+			}
+		}
+
+		executeActions(unstartedActions, new ActionExecutor() {
+			@Override
+			public void execute(ActionTO action, TransferManager transferManager) throws StorageException {
 				RemoteFile tempRemoteFile = action.getTempRemoteFile();
 
 				if (action.getType().equals(ActionType.UPLOAD)) {
@@ -215,8 +286,8 @@ public class RemoteTransaction {
 					File localFile = action.getLocalTempLocation();
 					long localFileSize = localFile.length();
 
-					eventBus.post(new UpUploadFileInTransactionSyncExternalEvent(config.getLocalDir().getAbsolutePath(), ++uploadFileIndex,
-							stats.totalUploadFileCount, localFileSize, stats.totalUploadSize));
+					eventBus.post(new UpUploadFileInTransactionSyncExternalEvent(config.getLocalDir().getAbsolutePath(),
+							uploadFileIndex.incrementAndGet(), stats.totalUploadFileCount, localFileSize, stats.totalUploadSize));
 
 					logger.log(Level.INFO, "- Uploading {0} to temp. file {1} ...", new Object[] { localFile, tempRemoteFile });
 					transferManager.upload(localFile, tempRemoteFile);
@@ -236,7 +307,7 @@ public class RemoteTransaction {
 					action.setStatus(ActionStatus.STARTED);
 				}
 			}
-		}
+		});
 	}
 
 	/**
@@ -264,8 +335,17 @@ public class RemoteTransaction {
 	 * now moved to their final location.
 	 */
 	private void moveToFinalLocation() throws StorageException {
+		List<ActionTO> uploadActions = new ArrayList<ActionTO>();
+
 		for (ActionTO action : transactionTO.getActions()) {
 			if (action.getType().equals(ActionType.UPLOAD)) {
+				uploadActions.add(action);
+			}
+		}
+
+		executeActions(uploadActions, new ActionExecutor() {
+			@Override
+			public void execute(ActionTO action, TransferManager transferManager) throws StorageException {
 				RemoteFile tempRemoteFile = action.getTempRemoteFile();
 				RemoteFile finalRemoteFile = action.getRemoteFile();
 
@@ -273,7 +353,7 @@ public class RemoteTransaction {
 				transferManager.move(tempRemoteFile, finalRemoteFile);
 				action.setStatus(ActionStatus.DONE);
 			}
-		}
+		});
 	}
 
 	/**
@@ -299,27 +379,36 @@ public class RemoteTransaction {
 	 * they are not in any transaction file.
 	 */
 	private void deleteTempRemoteFiles() throws StorageException {
-		boolean success = true;
+		final AtomicInteger failedCount = new AtomicInteger(0);
+		List<ActionTO> deleteActions = new ArrayList<ActionTO>();
+
 		for (ActionTO action : transactionTO.getActions()) {
 			if (action.getStatus().equals(ActionStatus.STARTED)) {
 				// If we are resuming, this action has not been comopleted.
 				if (action.getType().equals(ActionType.DELETE)) {
-					RemoteFile tempRemoteFile = action.getTempRemoteFile();
-
-					logger.log(Level.INFO, "- Deleting temp. file {0}  ...", new Object[] { tempRemoteFile });
-					try {
-						transferManager.delete(tempRemoteFile);
-					}
-					catch (Exception e) {
-						logger.log(Level.INFO, "Failed to delete: " + tempRemoteFile, " because of: " + e);
-						success = false;
-					}
-					action.setStatus(ActionStatus.DONE);
+					deleteActions.add(action);
 				}
 			}
 		}
 
-		if (success) {
+		executeActions(deleteActions, new ActionExecutor() {
+			@Override
+			public void execute(ActionTO action, TransferManager transferManager) throws StorageException {
+				RemoteFile tempRemoteFile = action.getTempRemoteFile();
+
+				logger.log(Level.INFO, "- Deleting temp. file {0}  ...", new Object[] { tempRemoteFile });
+				try {
+					transferManager.delete(tempRemoteFile);
+				}
+				catch (Exception e) {
+					logger.log(Level.INFO, "Failed to delete: " + tempRemoteFile, " because of: " + e);
+					failedCount.incrementAndGet();
+				}
+				action.setStatus(ActionStatus.DONE);
+			}
+		});
+
+		if (failedCount.get() == 0) {
 			logger.log(Level.INFO, "END of TX.delTemp(): Sucessfully deleted final files.");
 		}
 		else {
@@ -327,6 +416,120 @@ public class RemoteTransaction {
 		}
 	}
 
+	/**
+	 * Executes the given actions, either sequentially using the transaction's transfer manager,
+	 * or (if more than one transfer thread is configured) in parallel. In the latter case, each thread
+	 * borrows its own transfer manager for the duration of an action.
+	 *
+	 * <p>Only multichunk actions are executed in parallel. All other actions (most importantly the
+	 * database files) are executed sequentially and in their original order once all multichunk
+	 * actions have finished, so that a database file never reaches its final location before the
+	 * multichunks it references.
+	 *
+	 * <p>If an action fails, no further actions are started, but this method waits for all
+	 * running actions to finish before it rethrows the first exception. That way, the status
+	 * of all actions correctly reflects what has been done on the remote storage.
+	 */
+	private void executeActions(List<ActionTO> actions, ActionExecutor actionExecutor) throws StorageException {
+		List<ActionTO> multiChunkActions = new ArrayList<ActionTO>();
+		List<ActionTO> otherActions = new ArrayList<ActionTO>();
+
+		for (ActionTO action : actions) {
+			if (transferThreads > 1 && action.getRemoteFile() instanceof MultichunkRemoteFile) {
+				multiChunkActions.add(action);
+			}
+			else {
+				otherActions.add(action);
+			}
+		}
+
+		executeActionsInParallel(multiChunkActions, actionExecutor);
+
+		for (ActionTO action : otherActions) {
+			actionExecutor.execute(action, transferManager);
+		}
+	}
+
+	private void executeActionsInParallel(List<ActionTO> actions, final ActionExecutor actionExecutor) throws StorageException {
+		if (actions.size() <= 1) {
+			for (ActionTO action : actions) {
+				actionExecutor.execute(action, transferManager);
+			}
+
+			return;
+		}
+
+		if (transferManagerPool == null) {
+			transferManagerPool = new TransferManagerPool(config, transferManager);
+		}
+
+		final TransferManagerPool actionTransferManagerPool = transferManagerPool;
+		int threadCount = Math.min(transferThreads, actions.size());
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder().setNameFormat("TxCommit/%d").setDaemon(true).build());
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		final AtomicInteger failedCount = new AtomicInteger(0);
+
+		try {
+			for (final ActionTO action : actions) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						if (failedCount.get() > 0) {
+							return null; // Do not start new actions if another one failed
+						}
+
+						TransferManager actionTransferManager = actionTransferManagerPool.borrow();
+
+						try {
+							actionExecutor.execute(action, actionTransferManager);
+							return null;
+						}
+						catch (Exception e) {
+							failedCount.incrementAndGet();
+							throw e;
+						}
+						finally {
+							actionTransferManagerPool.release(actionTransferManager);
+						}
+					}
+				}));
+			}
+
+			// Wait for all actions (also after a failure!), then rethrow the first exception
+			StorageException firstException = null;
+
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				}
+				catch (ExecutionException e) {
+					if (firstException == null) {
+						firstException = (e.getCause() instanceof StorageException) ? (StorageException) e.getCause() : new StorageException(e.getCause());
+					}
+				}
+				catch (InterruptedException e) {
+					// Stop waiting and cancel running actions; their status is only set once they are done
+					Thread.currentThread().interrupt();
+					executor.shutdownNow();
+
+					throw new StorageException("Interrupted while waiting for transfers to finish", e);
+				}
+			}
+
+			if (firstException != null) {
+				throw firstException;
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	private interface ActionExecutor {
+		public void execute(ActionTO action, TransferManager transferManager) throws StorageException;
+	}
+
 	private static class TransactionStats {
 		private long totalUploadSize;
 		private int totalUploadFileCount;
@@ -0,0 +1,64 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.transfer;
+
+import java.io.InputStream;
+
+import org.syncany.plugins.transfer.files.RemoteFile;
+
+/**
+ * Optional capability of a {@link TransferManager} to download remote files as a
+ * stream, instead of downloading them to a local file first.
+ *
+ * <p>Stream downloads allow the caller to process a remote file while it is being
+ * downloaded, e.g. to decrypt a multichunk directly to its final location in the
+ * local cache, without writing the encrypted file to disk.
+ *
+ * <p>Feature transfer managers (see {@link org.syncany.plugins.transfer.features.FeatureTransferManager FeatureTransferManager})
+ * implement this interface and pass stream downloads to the underlying transfer manager.
+ * Callers must therefore check {@link #isStreamDownloadSupported()} before using
+ * {@link #downloadStream(RemoteFile)}.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public interface StreamingTransferManager extends TransferManager {
+	/**
+	 * Returns whether this transfer manager (or the transfer manager it wraps)
+	 * supports stream downloads.
+	 */
+	public boolean isStreamDownloadSupported();
+
+	/**
+	 * Opens an input stream to an existing remote file. The caller is responsible
+	 * for closing the stream.
+	 *
+	 * <p>Contrary to {@link #download(RemoteFile, java.io.File) download()}, the file
+	 * is not guaranteed to be read completely: If the connection breaks while reading,
+	 * the stream throws an {@link java.io.IOException}, and the caller has to discard
+	 * what it has read so far.
+	 *
+	 * <p>If remoteFile does not exist, a {@link StorageFileNotFoundException} is thrown.
+	 *
+	 * @param remoteFile Existing source file on the remote storage.
+	 *        The only required property of the remote file is the name.
+	 * @return Returns an input stream to read the remote file
+	 * @throws StorageException If the connection fails due to no Internet connection,
+	 *         authentication errors, etc., or if stream downloads are not supported
+	 */
+	public InputStream downloadStream(RemoteFile remoteFile) throws StorageException;
+}
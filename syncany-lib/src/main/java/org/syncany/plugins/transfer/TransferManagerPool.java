@@ -0,0 +1,141 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.transfer;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.config.Config;
+import org.syncany.plugins.transfer.features.PathAware;
+import org.syncany.plugins.transfer.features.ReadAfterWriteConsistent;
+import org.syncany.plugins.transfer.features.Retriable;
+import org.syncany.plugins.transfer.features.TransactionAware;
+
+/**
+ * The transfer manager pool hands out {@link TransferManager}s to threads that
+ * transfer files in parallel. Most transfer managers hold a single connection and
+ * are not thread-safe, so each thread must borrow its own transfer manager, and
+ * give it back via {@link #release(TransferManager)} when the transfer is done.
+ *
+ * <p>If no transfer manager is available, a new one is created using the
+ * {@link TransferManagerFactory} (with the {@link ReadAfterWriteConsistent},
+ * {@link Retriable} and {@link PathAware} features, and optionally with the
+ * {@link TransactionAware} feature). The pool may also be given an existing
+ * transfer manager, which is then handed out first, but never disconnected
+ * by the pool.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class TransferManagerPool {
+	private static final Logger logger = Logger.getLogger(TransferManagerPool.class.getSimpleName());
+
+	private Config config;
+	private boolean transactionAware;
+	private Queue<TransferManager> idleTransferManagers;
+	private List<TransferManager> createdTransferManagers;
+
+	/**
+	 * Creates a new transfer manager pool.
+	 *
+	 * @param config Config used to create new transfer managers
+	 * @param initialTransferManager Existing transfer manager to be used first (not disconnected by the pool), or <tt>null</tt>
+	 */
+	public TransferManagerPool(Config config, TransferManager initialTransferManager) {
+		this(config, initialTransferManager, false);
+	}
+
+	/**
+	 * Creates a new transfer manager pool.
+	 *
+	 * @param config Config used to create new transfer managers
+	 * @param initialTransferManager Existing transfer manager to be used first (not disconnected by the pool), or <tt>null</tt>
+	 * @param transactionAware If <tt>true</tt>, new transfer managers are created with the {@link TransactionAware} feature
+	 */
+	public TransferManagerPool(Config config, TransferManager initialTransferManager, boolean transactionAware) {
+		this.config = config;
+		this.transactionAware = transactionAware;
+		this.idleTransferManagers = new LinkedList<TransferManager>();
+		this.createdTransferManagers = new ArrayList<TransferManager>();
+
+		if (initialTransferManager != null) {
+			idleTransferManagers.offer(initialTransferManager);
+		}
+	}
+
+	/**
+	 * Returns a transfer manager that is currently not used by any other
+	 * thread, and creates a new one if all of them are in use.
+	 */
+	public synchronized TransferManager borrow() throws StorageException {
+		TransferManager idleTransferManager = idleTransferManagers.poll();
+
+		if (idleTransferManager != null) {
+			return idleTransferManager;
+		}
+		else {
+			TransferManager newTransferManager = createTransferManager();
+
+			createdTransferManagers.add(newTransferManager);
+			return newTransferManager;
+		}
+	}
+
+	private TransferManager createTransferManager() throws StorageException {
+		TransferManagerFactory.TransferManagerBuilder transferManagerBuilder = TransferManagerFactory
+				.build(config)
+				.withFeature(ReadAfterWriteConsistent.class)
+				.withFeature(Retriable.class)
+				.withFeature(PathAware.class);
+
+		if (transactionAware) {
+			return transferManagerBuilder.withFeature(TransactionAware.class).asDefault();
+		}
+		else {
+			return transferManagerBuilder.asDefault();
+		}
+	}
+
+	/**
+	 * Returns a previously borrowed transfer manager to the pool.
+	 */
+	public synchronized void release(TransferManager transferManager) {
+		idleTransferManagers.offer(transferManager);
+	}
+
+	/**
+	 * Disconnects all transfer managers created by this pool. Afterwards,
+	 * the pool must not be used anymore.
+	 */
+	public synchronized void disconnect() {
+		for (TransferManager createdTransferManager : createdTransferManagers) {
+			try {
+				createdTransferManager.disconnect();
+			}
+			catch (StorageException e) {
+				logger.log(Level.INFO, "Could not disconnect transfer manager; ignoring.", e);
+			}
+		}
+
+		idleTransferManagers.clear();
+		createdTransferManagers.clear();
+	}
+}
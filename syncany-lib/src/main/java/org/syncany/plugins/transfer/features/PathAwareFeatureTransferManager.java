@@ -18,6 +18,7 @@
 package org.syncany.plugins.transfer.features;
 
 import java.io.File;
+import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
@@ -31,6 +32,7 @@ import org.syncany.config.Config;
 import org.syncany.plugins.transfer.FileType;
 import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.StorageTestResult;
+import org.syncany.plugins.transfer.StreamingTransferManager;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.TransferPlugin;
 import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
@@ -62,7 +64,7 @@ import com.google.common.hash.Hashing;
  * @see PathAwareRemoteFileAttributes
  * @author Christian Roth <christian.roth@port17.de>
  */
-public class PathAwareFeatureTransferManager implements FeatureTransferManager {
+public class PathAwareFeatureTransferManager implements FeatureTransferManager, StreamingTransferManager {
 	private static final Logger logger = Logger.getLogger(PathAwareFeatureTransferManager.class.getSimpleName());
 
 	private final TransferManager underlyingTransferManager;
@@ -123,6 +125,21 @@ public class PathAwareFeatureTransferManager implements FeatureTransferManager {
 		underlyingTransferManager.download(createPathAwareRemoteFile(remoteFile), localFile);
 	}
 
+	@Override
+	public boolean isStreamDownloadSupported() {
+		return underlyingTransferManager instanceof StreamingTransferManager
+				&& ((StreamingTransferManager) underlyingTransferManager).isStreamDownloadSupported();
+	}
+
+	@Override
+	public InputStream downloadStream(final RemoteFile remoteFile) throws StorageException {
+		if (!isStreamDownloadSupported()) {
+			throw new StorageException("Stream downloads are not supported by " + underlyingTransferManager.getClass().getSimpleName());
+		}
+
+		return ((StreamingTransferManager) underlyingTransferManager).downloadStream(createPathAwareRemoteFile(remoteFile));
+	}
+
 	@Override
 	public void move(final RemoteFile sourceFile, final RemoteFile targetFile) throws StorageException {
 		final RemoteFile pathAwareSourceFile = createPathAwareRemoteFile(sourceFile);
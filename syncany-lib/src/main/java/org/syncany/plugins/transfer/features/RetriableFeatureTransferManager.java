@@ -18,6 +18,7 @@
 package org.syncany.plugins.transfer.features;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -26,6 +27,7 @@ import org.syncany.config.Config;
 import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.StorageMoveException;
 import org.syncany.plugins.transfer.StorageTestResult;
+import org.syncany.plugins.transfer.StreamingTransferManager;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.files.RemoteFile;
 
@@ -40,7 +42,7 @@ import org.syncany.plugins.transfer.files.RemoteFile;
  *
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
-public class RetriableFeatureTransferManager implements FeatureTransferManager {
+public class RetriableFeatureTransferManager implements FeatureTransferManager, StreamingTransferManager {
 	private static final Logger logger = Logger.getLogger(RetriableFeatureTransferManager.class.getSimpleName());
 
 	private interface RetriableMethod {
@@ -105,6 +107,26 @@ public class RetriableFeatureTransferManager implements FeatureTransferManager {
 		});
 	}
 
+	@Override
+	public boolean isStreamDownloadSupported() {
+		return underlyingTransferManager instanceof StreamingTransferManager
+				&& ((StreamingTransferManager) underlyingTransferManager).isStreamDownloadSupported();
+	}
+
+	@Override
+	public InputStream downloadStream(final RemoteFile remoteFile) throws StorageException {
+		if (!isStreamDownloadSupported()) {
+			throw new StorageException("Stream downloads are not supported by " + underlyingTransferManager.getClass().getSimpleName());
+		}
+
+		return (InputStream) retryMethod(new RetriableMethod() {
+			@Override
+			public Object execute() throws StorageException {
+				return ((StreamingTransferManager) underlyingTransferManager).downloadStream(remoteFile);
+			}
+		});
+	}
+
 	@Override
 	public void move(final RemoteFile sourceFile, final RemoteFile targetFile) throws StorageException {
 		retryMethod(new RetriableMethod() {
@@ -19,6 +19,7 @@ package org.syncany.plugins.transfer.features;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.ArrayList;
@@ -40,6 +41,7 @@ import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.StorageFileNotFoundException;
 import org.syncany.plugins.transfer.StorageMoveException;
 import org.syncany.plugins.transfer.StorageTestResult;
+import org.syncany.plugins.transfer.StreamingTransferManager;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.files.RemoteFile;
 import org.syncany.plugins.transfer.files.TempRemoteFile;
@@ -54,7 +56,7 @@ import org.syncany.plugins.transfer.to.TransactionTO;
  *
  * @author Pim Otte
  */
-public class TransactionAwareFeatureTransferManager implements FeatureTransferManager {
+public class TransactionAwareFeatureTransferManager implements FeatureTransferManager, StreamingTransferManager {
 	private static final Logger logger = Logger.getLogger(TransactionAwareFeatureTransferManager.class.getSimpleName());
 
 	private final TransferManager underlyingTransferManager;
@@ -100,6 +102,40 @@ public class TransactionAwareFeatureTransferManager implements FeatureTransferMa
 	 * if a file does not exist.
 	 */
 	private void downloadDeletedTempFileInTransaction(RemoteFile remoteFile, File localFile) throws StorageException {
+		underlyingTransferManager.download(findDeletedTempFileInTransaction(remoteFile), localFile);
+	}
+
+	@Override
+	public boolean isStreamDownloadSupported() {
+		return underlyingTransferManager instanceof StreamingTransferManager
+				&& ((StreamingTransferManager) underlyingTransferManager).isStreamDownloadSupported();
+	}
+
+	@Override
+	public InputStream downloadStream(final RemoteFile remoteFile) throws StorageException {
+		if (!isStreamDownloadSupported()) {
+			throw new StorageException("Stream downloads are not supported by " + underlyingTransferManager.getClass().getSimpleName());
+		}
+
+		StreamingTransferManager streamingTransferManager = (StreamingTransferManager) underlyingTransferManager;
+
+		try {
+			return streamingTransferManager.downloadStream(remoteFile);
+		}
+		catch (StorageFileNotFoundException e) {
+			logger.log(Level.FINE, "Could not find the Storage file", e);
+			return streamingTransferManager.downloadStream(findDeletedTempFileInTransaction(remoteFile));
+		}
+	}
+
+	/**
+	 * Downloads all transaction files and looks for the corresponding temporary file
+	 * for the given remote file. If the file is being deleted in one of the transactions,
+	 * the temporary file is returned. If not, a {@link StorageFileNotFoundException} is thrown.
+	 *
+	 * <p>This method is <b>expensive</b>, but it is only called if a file does not exist.
+	 */
+	private TempRemoteFile findDeletedTempFileInTransaction(RemoteFile remoteFile) throws StorageException {
 		logger.log(Level.INFO, "File {0} not found, checking if it is being deleted ...", remoteFile.getName());
 
 		Set<TransactionTO> transactions = retrieveRemoteTransactions().keySet();
@@ -115,12 +151,12 @@ public class TransactionAwareFeatureTransferManager implements FeatureTransferMa
 			}
 		}
 
-		// Download file, or throw exception
+		// Return temp. file, or throw exception
 		if (tempRemoteFile != null) {
 			logger.log(Level.INFO, "-> File {0} in process of being deleted; downloading corresponding temp. file {1} ...",
 					new Object[] { remoteFile.getName(), tempRemoteFile.getName() });
 
-			underlyingTransferManager.download(tempRemoteFile, localFile);
+			return tempRemoteFile;
 		}
 		else {
 			logger.log(Level.WARNING, "-> File {0} does not exist and is not in any transaction. Throwing exception.", remoteFile.getName());
@@ -0,0 +1,5 @@
+-- Aggregates over the chunk table that change whenever chunks are added or removed;
+-- used to check whether the persisted chunk index matches the database.
+
+select count(*) as chunk_count, max(databaseversion_id) as max_databaseversion_id, sum(size) as total_size
+from chunk
@@ -0,0 +1,5 @@
+select fcc.chunk_checksum as checksum, c.size
+from filecontent_chunk fcc
+join chunk c on c.checksum=fcc.chunk_checksum
+where fcc.filecontent_checksum=?
+order by fcc.num asc
\ No newline at end of file
@@ -6,7 +6,7 @@
 -- + http://stackoverflow.com/a/2655567/1440785
 
 merge into filecontent_chunk as filecontent_chunk_target
-using (values(?, ?, ?)) as filecontent_chunk_ref(filecontent_checksum, chunk_checksum, num)
+using (values(cast(? as varbinary(64)), cast(? as varbinary(64)), ?)) as filecontent_chunk_ref(filecontent_checksum, chunk_checksum, num)
 on (
 	    filecontent_chunk_target.filecontent_checksum = filecontent_chunk_ref.filecontent_checksum 
 	and filecontent_chunk_target.chunk_checksum = filecontent_chunk_ref.chunk_checksum
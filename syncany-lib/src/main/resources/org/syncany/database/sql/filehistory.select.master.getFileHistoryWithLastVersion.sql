@@ -1,3 +1,7 @@
-select *
-from fileversion_master_last
-where path=?
+select fv.*
+from fileversion_head fvh
+join fileversion_master fv
+	on fvh.filehistory_id=fv.filehistory_id
+	and fvh.version=fv.version
+where fvh.path=?
+	and fvh.status<>'DELETED'
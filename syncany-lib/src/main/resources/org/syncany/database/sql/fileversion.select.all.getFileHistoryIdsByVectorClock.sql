@@ -0,0 +1,4 @@
+select distinct fv.filehistory_id
+from fileversion fv
+join databaseversion dbv on fv.databaseversion_id=dbv.id
+where dbv.vectorclock_serialized=?
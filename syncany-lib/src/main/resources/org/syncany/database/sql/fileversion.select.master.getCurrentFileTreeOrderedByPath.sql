@@ -0,0 +1 @@
+select * from fileversion_master_last order by path, char_length(path)
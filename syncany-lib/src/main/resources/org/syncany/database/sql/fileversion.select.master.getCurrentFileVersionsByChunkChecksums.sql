@@ -0,0 +1,4 @@
+select distinct fv.*
+from fileversion_master_last fv
+join filecontent_chunk fcc on fcc.filecontent_checksum=fv.filecontent_checksum
+where fv.type='FILE' and fcc.chunk_checksum in ( unnest(?) )
\ No newline at end of file
@@ -0,0 +1,16 @@
+-- Same as getFilteredFileTree, but for the current file tree (no date given),
+-- using the materialized last versions in fileversion_head
+
+select *
+from fileversion 
+where 
+	status<>?
+	and path like ?
+	and filehistory_id like ?	
+	and substr_count(path, '/')>=?
+	and substr_count(path, '/')<=?		
+	and type in (unnest(?))			
+	and (filehistory_id, version) in (
+		select filehistory_id, version
+		from fileversion_head
+	)
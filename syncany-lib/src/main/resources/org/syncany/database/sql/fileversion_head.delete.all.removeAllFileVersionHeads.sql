@@ -0,0 +1 @@
+delete from fileversion_head
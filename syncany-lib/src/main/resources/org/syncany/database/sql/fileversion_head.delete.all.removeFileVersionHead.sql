@@ -0,0 +1,2 @@
+delete from fileversion_head
+where filehistory_id=?
@@ -0,0 +1,7 @@
+insert into fileversion_head (filehistory_id, version, path, status)
+select fv.filehistory_id, fv.version, max(fv.path), max(fv.status)
+from fileversion_master_maxversion fvmax
+join fileversion_master fv 
+	on fvmax.filehistory_id=fv.filehistory_id 
+	and fvmax.version=fv.version
+group by fv.filehistory_id, fv.version
@@ -0,0 +1,14 @@
+-- Selects the last MASTER version of the given file history. If a file version appears
+-- in more than one database version, path and status are the same, so the group by
+-- only removes the duplicates.
+
+insert into fileversion_head (filehistory_id, version, path, status)
+select fv.filehistory_id, fv.version, max(fv.path), max(fv.status)
+from fileversion_master fv
+where fv.filehistory_id=?
+	and fv.version=(
+		select max(fvmax.version)
+		from fileversion_master fvmax
+		where fvmax.filehistory_id=?
+	)
+group by fv.filehistory_id, fv.version
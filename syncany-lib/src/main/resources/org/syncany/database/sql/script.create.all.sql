@@ -10,7 +10,7 @@ CREATE CACHED TABLE IF NOT EXISTS databaseversion (
 );
 
 CREATE CACHED TABLE IF NOT EXISTS  chunk (
-  checksum varchar(40) NOT NULL,
+  checksum varbinary(64) NOT NULL,
   databaseversion_id int NOT NULL,
   size bigint NOT NULL,
   PRIMARY KEY (checksum),
@@ -26,7 +26,7 @@ CREATE CACHED TABLE IF NOT EXISTS  databaseversion_vectorclock (
 );
 
 CREATE CACHED TABLE IF NOT EXISTS  filecontent (
-  checksum varchar(40) NOT NULL,
+  checksum varbinary(64) NOT NULL,
   databaseversion_id int NOT NULL,
   size bigint NOT NULL,
   PRIMARY KEY (checksum),
@@ -34,8 +34,8 @@ CREATE CACHED TABLE IF NOT EXISTS  filecontent (
 );
 
 CREATE CACHED TABLE IF NOT EXISTS  filecontent_chunk (
-  filecontent_checksum varchar(40) NOT NULL,
-  chunk_checksum varchar(40) NOT NULL,
+  filecontent_checksum varbinary(64) NOT NULL,
+  chunk_checksum varbinary(64) NOT NULL,
   num int NOT NULL,
   PRIMARY KEY (filecontent_checksum, chunk_checksum, num),
   FOREIGN KEY (filecontent_checksum) REFERENCES filecontent (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION,
@@ -59,7 +59,7 @@ CREATE CACHED TABLE IF NOT EXISTS  fileversion (
   size bigint NOT NULL,
   lastmodified datetime NOT NULL,
   linktarget varchar(1024),
-  filecontent_checksum varchar(40) DEFAULT NULL,
+  filecontent_checksum varbinary(64) DEFAULT NULL,
   updated datetime NOT NULL,
   posixperms varchar(45) DEFAULT NULL,
   dosattrs varchar(45) DEFAULT NULL,
@@ -68,8 +68,19 @@ CREATE CACHED TABLE IF NOT EXISTS  fileversion (
   FOREIGN KEY (filecontent_checksum) REFERENCES filecontent (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
 );
 
+-- Materialized head of each file history: last MASTER version (incl. deleted
+-- versions), maintained by the DAOs whenever file versions or database versions change
+
+CREATE CACHED TABLE IF NOT EXISTS  fileversion_head (
+  filehistory_id varchar(40) NOT NULL,
+  version int NOT NULL,
+  path varchar(1024) NOT NULL,
+  status varchar(45) NOT NULL,
+  PRIMARY KEY (filehistory_id)
+);
+
 CREATE CACHED TABLE IF NOT EXISTS  multichunk (
-  id varchar(40) NOT NULL,
+  id varbinary(20) NOT NULL,
   databaseversion_id int NOT NULL,
   size bigint NOT NULL,  
   PRIMARY KEY (id),
@@ -77,15 +88,15 @@ CREATE CACHED TABLE IF NOT EXISTS  multichunk (
 );
 
 CREATE CACHED TABLE IF NOT EXISTS  multichunk_chunk (
-  multichunk_id varchar(40) NOT NULL,
-  chunk_checksum varchar(40) NOT NULL,
+  multichunk_id varbinary(20) NOT NULL,
+  chunk_checksum varbinary(64) NOT NULL,
   PRIMARY KEY (multichunk_id, chunk_checksum),
   FOREIGN KEY (multichunk_id) REFERENCES multichunk (id) ON DELETE NO ACTION ON UPDATE NO ACTION,
   FOREIGN KEY (chunk_checksum) REFERENCES chunk (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
 );
 
 CREATE CACHED TABLE IF NOT EXISTS  multichunk_muddy (
-  id varchar(40) NOT NULL,
+  id varbinary(20) NOT NULL,
   machine_name varchar(255) NOT NULL,
   machine_version int NOT NULL,
   PRIMARY KEY (id)
@@ -111,6 +122,7 @@ CREATE INDEX idx_databaseversion_vectorclock_serialized ON databaseversion (vect
 CREATE INDEX idx_fileversion_path ON fileversion (path);
 CREATE INDEX idx_fileversion_status ON fileversion (status);
 CREATE INDEX idx_fileversion_filecontent_checksum ON fileversion (filecontent_checksum);
+CREATE INDEX idx_fileversion_head_path ON fileversion_head (path);
 
 
 -- Views
@@ -135,11 +147,11 @@ CREATE VIEW fileversion_master_maxversion AS
   
 CREATE VIEW fileversion_master_last AS
   SELECT fv.* 
-  FROM fileversion_master_maxversion fvmax
+  FROM fileversion_head fvh
   JOIN fileversion_master fv 
-    ON fvmax.filehistory_id=fv.filehistory_id 
-       AND fvmax.version=fv.version 
-  WHERE fv.status<>'DELETED';    
+    ON fvh.filehistory_id=fv.filehistory_id 
+       AND fvh.version=fv.version 
+  WHERE fvh.status<>'DELETED';    
   
   
 -- Full Views   
@@ -1,6 +1,7 @@
 DELETE FROM multichunk_muddy;
 DELETE FROM multichunk_chunk;
 DELETE FROM multichunk;
+DELETE FROM fileversion_head;
 DELETE FROM fileversion;
 DELETE FROM filehistory;
 DELETE FROM filecontent_chunk;
@@ -0,0 +1,153 @@
+-- Migrates a database created with hex-encoded checksum and multichunk
+-- identifier columns (varchar) to binary columns (varbinary).
+
+-- HSQLDB cannot alter the type of a column that is referenced by a view or
+-- by a foreign key, so the affected tables are renamed, re-created and
+-- filled from the old tables. The conversion from the hex strings to the
+-- binary values is done implicitly by the INSERT statements.
+
+-- Drop dependent views and indices
+
+DROP VIEW fileversion_full;
+DROP VIEW fileversion_master_last;
+DROP VIEW fileversion_master_maxversion;
+DROP VIEW fileversion_master;
+
+DROP INDEX idx_fileversion_path;
+DROP INDEX idx_fileversion_status;
+DROP INDEX idx_fileversion_filecontent_checksum;
+
+-- Rename old tables
+
+ALTER TABLE chunk RENAME TO chunk_old;
+ALTER TABLE filecontent RENAME TO filecontent_old;
+ALTER TABLE filecontent_chunk RENAME TO filecontent_chunk_old;
+ALTER TABLE fileversion RENAME TO fileversion_old;
+ALTER TABLE multichunk RENAME TO multichunk_old;
+ALTER TABLE multichunk_chunk RENAME TO multichunk_chunk_old;
+ALTER TABLE multichunk_muddy RENAME TO multichunk_muddy_old;
+
+-- Create new tables (must match script.create.all.sql)
+
+CREATE CACHED TABLE chunk (
+  checksum varbinary(64) NOT NULL,
+  databaseversion_id int NOT NULL,
+  size bigint NOT NULL,
+  PRIMARY KEY (checksum),
+  FOREIGN KEY (databaseversion_id) REFERENCES databaseversion (id) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE CACHED TABLE filecontent (
+  checksum varbinary(64) NOT NULL,
+  databaseversion_id int NOT NULL,
+  size bigint NOT NULL,
+  PRIMARY KEY (checksum),
+  FOREIGN KEY (databaseversion_id) REFERENCES databaseversion (id) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE CACHED TABLE filecontent_chunk (
+  filecontent_checksum varbinary(64) NOT NULL,
+  chunk_checksum varbinary(64) NOT NULL,
+  num int NOT NULL,
+  PRIMARY KEY (filecontent_checksum, chunk_checksum, num),
+  FOREIGN KEY (filecontent_checksum) REFERENCES filecontent (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION,
+  FOREIGN KEY (chunk_checksum) REFERENCES chunk (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE CACHED TABLE fileversion (
+  filehistory_id varchar(40) NOT NULL,
+  version int NOT NULL,
+  databaseversion_id int NOT NULL,
+  path varchar(1024) NOT NULL,
+  type varchar(45) NOT NULL,
+  status varchar(45) NOT NULL,
+  size bigint NOT NULL,
+  lastmodified datetime NOT NULL,
+  linktarget varchar(1024),
+  filecontent_checksum varbinary(64) DEFAULT NULL,
+  updated datetime NOT NULL,
+  posixperms varchar(45) DEFAULT NULL,
+  dosattrs varchar(45) DEFAULT NULL,
+  PRIMARY KEY (filehistory_id, version, databaseversion_id),
+  FOREIGN KEY (filehistory_id, databaseversion_id) REFERENCES filehistory (id, databaseversion_id) ON DELETE NO ACTION ON UPDATE NO ACTION,
+  FOREIGN KEY (filecontent_checksum) REFERENCES filecontent (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE CACHED TABLE multichunk (
+  id varbinary(20) NOT NULL,
+  databaseversion_id int NOT NULL,
+  size bigint NOT NULL,
+  PRIMARY KEY (id),
+  FOREIGN KEY (databaseversion_id) REFERENCES databaseversion (id) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE CACHED TABLE multichunk_chunk (
+  multichunk_id varbinary(20) NOT NULL,
+  chunk_checksum varbinary(64) NOT NULL,
+  PRIMARY KEY (multichunk_id, chunk_checksum),
+  FOREIGN KEY (multichunk_id) REFERENCES multichunk (id) ON DELETE NO ACTION ON UPDATE NO ACTION,
+  FOREIGN KEY (chunk_checksum) REFERENCES chunk (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE CACHED TABLE multichunk_muddy (
+  id varbinary(20) NOT NULL,
+  machine_name varchar(255) NOT NULL,
+  machine_version int NOT NULL,
+  PRIMARY KEY (id)
+);
+
+-- Copy data (hex strings are converted to binary)
+
+INSERT INTO chunk SELECT * FROM chunk_old;
+INSERT INTO filecontent SELECT * FROM filecontent_old;
+INSERT INTO filecontent_chunk SELECT * FROM filecontent_chunk_old;
+INSERT INTO fileversion SELECT * FROM fileversion_old;
+INSERT INTO multichunk SELECT * FROM multichunk_old;
+INSERT INTO multichunk_chunk SELECT * FROM multichunk_chunk_old;
+INSERT INTO multichunk_muddy SELECT * FROM multichunk_muddy_old;
+
+-- Drop old tables
+
+DROP TABLE multichunk_muddy_old;
+DROP TABLE multichunk_chunk_old;
+DROP TABLE multichunk_old;
+DROP TABLE fileversion_old;
+DROP TABLE filecontent_chunk_old;
+DROP TABLE filecontent_old;
+DROP TABLE chunk_old;
+
+-- Re-create indices and views (must match script.create.all.sql)
+
+CREATE INDEX idx_fileversion_path ON fileversion (path);
+CREATE INDEX idx_fileversion_status ON fileversion (status);
+CREATE INDEX idx_fileversion_filecontent_checksum ON fileversion (filecontent_checksum);
+
+CREATE VIEW fileversion_master AS
+  SELECT fv0.*
+  FROM fileversion fv0
+  JOIN databaseversion dbv
+    ON fv0.databaseversion_id=dbv.id
+       AND dbv.status='MASTER';
+
+CREATE VIEW fileversion_master_maxversion AS
+  SELECT DISTINCT filehistory_id, MAX(version) version
+  FROM fileversion_master
+  GROUP BY filehistory_id;
+
+CREATE VIEW fileversion_master_last AS
+  SELECT fv.*
+  FROM fileversion_master_maxversion fvmax
+  JOIN fileversion_master fv
+    ON fvmax.filehistory_id=fv.filehistory_id
+       AND fvmax.version=fv.version
+  WHERE fv.status<>'DELETED';
+
+create view fileversion_full as
+	select
+		fhf.databaseversion_status,
+		fhf.databaseversion_localtime,
+		fhf.databaseversion_client,
+		fhf.databaseversion_vectorclock_serialized,
+		fv.*
+	from filehistory_full fhf
+	join fileversion fv on fhf.id=fv.filehistory_id and fhf.databaseversion_id=fv.databaseversion_id;
@@ -0,0 +1,33 @@
+-- Adds the materialized 'fileversion_head' table to a database created by an
+-- older version, fills it from the existing file versions, and re-creates the
+-- 'fileversion_master_last' view on top of it.
+
+CREATE CACHED TABLE fileversion_head (
+  filehistory_id varchar(40) NOT NULL,
+  version int NOT NULL,
+  path varchar(1024) NOT NULL,
+  status varchar(45) NOT NULL,
+  PRIMARY KEY (filehistory_id)
+);
+
+CREATE INDEX idx_fileversion_head_path ON fileversion_head (path);
+
+INSERT INTO fileversion_head (filehistory_id, version, path, status)
+  SELECT fv.filehistory_id, fv.version, MAX(fv.path), MAX(fv.status)
+  FROM fileversion_master_maxversion fvmax
+  JOIN fileversion_master fv
+    ON fvmax.filehistory_id=fv.filehistory_id
+       AND fvmax.version=fv.version
+  GROUP BY fv.filehistory_id, fv.version;
+
+-- Re-create view (must match script.create.all.sql)
+
+DROP VIEW fileversion_master_last;
+
+CREATE VIEW fileversion_master_last AS
+  SELECT fv.*
+  FROM fileversion_head fvh
+  JOIN fileversion_master fv
+    ON fvh.filehistory_id=fv.filehistory_id
+       AND fvh.version=fv.version
+  WHERE fvh.status<>'DELETED';
@@ -0,0 +1,177 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark.chunk;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.syncany.chunk.Adler32Fingerprinter;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.Fingerprinter;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.unit.util.TestFileUtil;
+
+/**
+ * Measures the chunking throughput of the {@link TttdChunker} on a 1 GB file of
+ * random data. Since each invocation chunks the entire file and counts as
+ * {@link #FILE_SIZE_MB} operations, the reported score is in MB/s.
+ *
+ * <p>The <tt>legacy</tt> benchmark re-implements the chunker's former read path (one
+ * <tt>InputStream.read()</tt> call per byte, one new <tt>Tmax</tt>-sized buffer per chunk)
+ * as a baseline for the current implementation. The baseline reads through a
+ * <tt>BufferedInputStream</tt>; the original read from an unbuffered <tt>FileInputStream</tt>
+ * and was even slower than that.
+ *
+ * <p>Run with <tt>gradle :syncany-lib:benchmark</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class TttdChunkerBenchmark {
+	private static final int FILE_SIZE_MB = 1024;
+	private static final int AVG_CHUNK_SIZE = 16 * 1024;
+
+	private File tempDir;
+	private File inputFile;
+
+	@Setup
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, FILE_SIZE_MB * 1024L * 1024L);
+	}
+
+	@TearDown
+	public void tearDown() {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILE_SIZE_MB)
+	public void current(Blackhole blackhole) throws IOException {
+		ChunkEnumeration chunkEnumeration = new TttdChunker(AVG_CHUNK_SIZE).createChunks(inputFile);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			blackhole.consume(chunk.getChecksum());
+		}
+
+		chunkEnumeration.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILE_SIZE_MB)
+	public void legacy(Blackhole blackhole) throws Exception {
+		int Tmin = (int) Math.round(460.0 * AVG_CHUNK_SIZE / 1015.0);
+		int Tmax = (int) Math.round(2800.0 * AVG_CHUNK_SIZE / 1015.0);
+		int D = (int) Math.round(540.0 * AVG_CHUNK_SIZE / 1015.0);
+		int windowSize = TttdChunker.DEFAULT_WINDOW_SIZE;
+
+		MessageDigest chunkDigest = MessageDigest.getInstance(TttdChunker.DEFAULT_DIGEST_ALG);
+		MessageDigest fileDigest = MessageDigest.getInstance(TttdChunker.DEFAULT_DIGEST_ALG);
+		Fingerprinter fingerprinter = new Adler32Fingerprinter();
+
+		try (InputStream in = new BufferedInputStream(new FileInputStream(inputFile))) {
+			byte[] c = new byte[8192];
+			int clen = 0;
+			int cpos = -1;
+
+			while (clen != -1) {
+				chunkDigest.reset();
+				fingerprinter.reset();
+
+				byte[] buf = new byte[Tmax];
+				int bufpos = -1;
+
+				while (bufpos < buf.length - 1) {
+					if (cpos == -1 || cpos == clen - 1) {
+						cpos = -1;
+						clen = readPerByte(c, in);
+
+						if (clen == -1) {
+							break;
+						}
+
+						fileDigest.update(c, 0, clen);
+					}
+
+					bufpos++;
+					cpos++;
+					buf[bufpos] = c[cpos];
+
+					if (bufpos < Tmin) {
+						continue;
+					}
+					else if (bufpos == Tmin) {
+						fingerprinter.check(buf, bufpos - windowSize, windowSize);
+					}
+					else {
+						fingerprinter.roll(buf[bufpos]);
+					}
+
+					if ((fingerprinter.getValue() % D) == D - 1) {
+						break;
+					}
+				}
+
+				chunkDigest.update(buf, 0, bufpos + 1);
+				blackhole.consume(chunkDigest.digest());
+			}
+
+			blackhole.consume(fileDigest.digest());
+		}
+	}
+
+	private int readPerByte(byte[] readToBuffer, InputStream inputStream) throws IOException {
+		int bytesRead = 0;
+
+		while (bytesRead < readToBuffer.length) {
+			int byteRead = inputStream.read();
+
+			if (byteRead == -1) {
+				return (bytesRead != 0) ? bytesRead : -1;
+			}
+
+			readToBuffer[bytesRead] = (byte) byteRead;
+			bytesRead++;
+		}
+
+		return (bytesRead != 0) ? bytesRead : -1;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark.config;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.syncany.config.IgnoredFiles;
+import org.syncany.tests.unit.util.TestFileUtil;
+
+/**
+ * Measures the number of {@link IgnoredFiles#isFileIgnored(String, String)} checks
+ * per second for an ignore file with 300 rules (100 exact paths, 100 wildcard rules and
+ * 100 regular expressions) and 10,000 paths, none of which are ignored.
+ *
+ * <p>The <tt>legacy</tt> benchmark re-implements the former check (two loops over all exact
+ * paths, and one <tt>String.matches()</tt> call per pattern) as a baseline.
+ *
+ * <p>Run with <tt>gradle :syncany-lib:benchmark</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IgnoredFilesBenchmark {
+	private static final int RULE_COUNT = 100;
+	private static final int PATH_COUNT = 10000;
+
+	private File tempDir;
+	private IgnoredFiles ignoredFiles;
+
+	private Set<String> legacyIgnorePaths;
+	private Set<String> legacyIgnorePatterns;
+
+	private String[] filePaths;
+	private String[] fileNames;
+
+	@Setup
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+
+		StringBuilder ignoreFileContent = new StringBuilder();
+		legacyIgnorePaths = new HashSet<String>();
+		legacyIgnorePatterns = new HashSet<String>();
+
+		for (int i = 0; i < RULE_COUNT; i++) {
+			ignoreFileContent.append("ignored-folder-" + i + "/file.txt\n");
+			ignoreFileContent.append("*.ignored-extension-" + i + "\n");
+			ignoreFileContent.append("regex:.*/ignored-regex-" + i + "/.*\\.(bak|tmp)\n");
+
+			legacyIgnorePaths.add("ignored-folder-" + i + "/file.txt");
+			legacyIgnorePatterns.add("^.*\\.ignored-extension-" + i + "$");
+			legacyIgnorePatterns.add(".*/ignored-regex-" + i + "/.*\\.(bak|tmp)");
+		}
+
+		File ignoreFile = new File(tempDir, ".syignore");
+		TestFileUtil.createFileWithContent(ignoreFile, ignoreFileContent.toString());
+
+		ignoredFiles = new IgnoredFiles(ignoreFile);
+
+		filePaths = new String[PATH_COUNT];
+		fileNames = new String[PATH_COUNT];
+
+		for (int i = 0; i < PATH_COUNT; i++) {
+			fileNames[i] = "file-" + i + ".txt";
+			filePaths[i] = "folder-" + (i % 100) + "/subfolder-" + (i % 7) + "/" + fileNames[i];
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PATH_COUNT)
+	public void current(Blackhole blackhole) {
+		for (int i = 0; i < PATH_COUNT; i++) {
+			blackhole.consume(ignoredFiles.isFileIgnored(filePaths[i], fileNames[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PATH_COUNT)
+	public void legacy(Blackhole blackhole) {
+		for (int i = 0; i < PATH_COUNT; i++) {
+			blackhole.consume(isFileIgnoredLegacy(filePaths[i], fileNames[i]));
+		}
+	}
+
+	private boolean isFileIgnoredLegacy(String filePath, String fileName) {
+		for (String path : legacyIgnorePaths) {
+			if (path.equals(filePath)) {
+				return true;
+			}
+		}
+
+		for (String path : legacyIgnorePaths) {
+			if (path.equals(fileName)) {
+				return true;
+			}
+		}
+
+		for (String pattern : legacyIgnorePatterns) {
+			if (filePath.matches(pattern)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.syncany.crypto.CipherSession;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.MultiCipherOutputStream;
+
+/**
+ * Measures the encryption throughput of the {@link MultiCipherOutputStream} with AES-128/GCM
+ * on 64 MB of random data, written in 16 KB pieces, for the unsegmented (version 1) and the
+ * segmented (version 2) stream format. The reported score is in MB/s.
+ *
+ * <p>Run with <tt>gradle :syncany-lib:benchmark</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultiCipherOutputStreamBenchmark {
+	private static final int DATA_SIZE_MB = 64;
+	private static final int WRITE_SIZE = 16 * 1024;
+
+	private List<CipherSpec> cipherSpecs;
+	private CipherSession cipherSession;
+	private byte[] data;
+
+	@Setup
+	public void setUp() throws Exception {
+		CipherUtil.init();
+
+		cipherSpecs = Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) });
+		cipherSession = new CipherSession(CipherUtil.createMasterKey("some password"));
+		data = CipherUtil.createRandomArray(DATA_SIZE_MB * 1024 * 1024);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(DATA_SIZE_MB)
+	public void unsegmented(Blackhole blackhole) throws IOException {
+		encrypt(blackhole, MultiCipherOutputStream.STREAM_VERSION_UNSEGMENTED);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(DATA_SIZE_MB)
+	public void segmented(Blackhole blackhole) throws IOException {
+		encrypt(blackhole, MultiCipherOutputStream.STREAM_VERSION_SEGMENTED);
+	}
+
+	private void encrypt(Blackhole blackhole, byte streamVersion) throws IOException {
+		OutputStream cipherOutputStream = new MultiCipherOutputStream(new BlackholeOutputStream(blackhole), cipherSpecs, cipherSession,
+				streamVersion, MultiCipherOutputStream.DEFAULT_SEGMENT_SIZE);
+
+		for (int offset = 0; offset < data.length; offset += WRITE_SIZE) {
+			cipherOutputStream.write(data, offset, Math.min(WRITE_SIZE, data.length - offset));
+		}
+
+		cipherOutputStream.close();
+	}
+
+	private static class BlackholeOutputStream extends OutputStream {
+		private Blackhole blackhole;
+
+		public BlackholeOutputStream(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void write(int b) {
+			blackhole.consume(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			blackhole.consume(len);
+		}
+	}
+}
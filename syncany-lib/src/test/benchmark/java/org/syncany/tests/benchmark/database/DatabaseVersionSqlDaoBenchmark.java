@@ -0,0 +1,157 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark.database;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileContent.FileChecksum;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileStatus;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.MultiChunkEntry;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.SqlDatabase;
+import org.syncany.database.VectorClock;
+import org.syncany.database.dao.DatabaseVersionSqlDao;
+import org.syncany.tests.util.TestConfigUtil;
+
+/**
+ * Measures how fast a large initial {@link DatabaseVersion} is persisted to an empty
+ * local database, as it happens when a new client connects to an existing repository
+ * (see <tt>DownOperation.persistDatabaseVersion()</tt>). Each file has its own file
+ * content with {@link #CHUNKS_PER_FILE} chunks, and every {@link #FILES_PER_MULTICHUNK}
+ * files share a multichunk. Since each invocation writes {@link #FILE_COUNT} files and
+ * counts as that many operations, the reported score is in files/s.
+ *
+ * <p>The database version is written using {@link DatabaseVersionSqlDao#writeDatabaseVersion(DatabaseVersion)},
+ * i.e. with one statement per table and batches of {@link DatabaseVersionSqlDao#DEFAULT_BATCH_SIZE} rows.
+ *
+ * <p>Run with <tt>gradle :syncany-lib:benchmark -Pbenchmarks=DatabaseVersionSqlDaoBenchmark</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class DatabaseVersionSqlDaoBenchmark {
+	private static final int FILE_COUNT = 100000;
+	private static final int CHUNKS_PER_FILE = 4;
+	private static final int FILES_PER_MULTICHUNK = 50;
+
+	private DatabaseVersion databaseVersion;
+	private Config config;
+	private SqlDatabase database;
+
+	@Setup
+	public void setUp() throws Exception {
+		databaseVersion = createDatabaseVersion();
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpDatabase() throws Exception {
+		config = TestConfigUtil.createTestLocalConfig();
+		database = new SqlDatabase(config);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownDatabase() throws Exception {
+		database.getConnection().close();
+		TestConfigUtil.deleteTestLocalConfigAndData(config);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILE_COUNT)
+	public void writeDatabaseVersion() throws Exception {
+		database.writeDatabaseVersion(databaseVersion);
+		database.commit();
+	}
+
+	private DatabaseVersion createDatabaseVersion() {
+		DatabaseVersion databaseVersion = new DatabaseVersion();
+		VectorClock vectorClock = new VectorClock();
+
+		vectorClock.setClock("A", 1);
+
+		databaseVersion.setVectorClock(vectorClock);
+		databaseVersion.setTimestamp(new Date());
+		databaseVersion.setClient("A");
+
+		MultiChunkEntry multiChunk = null;
+		int chunkNumber = 0;
+
+		for (int fileNumber = 0; fileNumber < FILE_COUNT; fileNumber++) {
+			if (fileNumber % FILES_PER_MULTICHUNK == 0) {
+				multiChunk = new MultiChunkEntry(MultiChunkId.secureRandomMultiChunkId(), 0);
+				databaseVersion.addMultiChunk(multiChunk);
+			}
+
+			FileContent fileContent = new FileContent();
+			fileContent.setChecksum(FileChecksum.parseFileChecksum(String.format("%040x", fileNumber)));
+
+			for (int i = 0; i < CHUNKS_PER_FILE; i++) {
+				ChunkEntry chunk = new ChunkEntry(ChunkChecksum.parseChunkChecksum(String.format("%040x", chunkNumber++)), 1024);
+
+				databaseVersion.addChunk(chunk);
+				multiChunk.addChunk(chunk.getChecksum());
+				fileContent.addChunk(chunk.getChecksum());
+			}
+
+			fileContent.setSize(CHUNKS_PER_FILE * 1024);
+			databaseVersion.addFileContent(fileContent);
+
+			PartialFileHistory fileHistory = new PartialFileHistory(FileHistoryId.secureRandomFileId());
+			FileVersion fileVersion = new FileVersion();
+
+			fileVersion.setVersion(1L);
+			fileVersion.setPath("folder" + (fileNumber % 100) + "/file" + fileNumber);
+			fileVersion.setChecksum(fileContent.getChecksum());
+			fileVersion.setStatus(FileStatus.NEW);
+			fileVersion.setLastModified(new Date());
+			fileVersion.setUpdated(new Date());
+			fileVersion.setSize(fileContent.getSize());
+			fileVersion.setType(FileType.FILE);
+
+			fileHistory.addFileVersion(fileVersion);
+			databaseVersion.addFileHistory(fileHistory);
+		}
+
+		return databaseVersion;
+	}
+}
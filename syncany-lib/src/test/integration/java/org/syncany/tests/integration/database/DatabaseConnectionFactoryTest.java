@@ -0,0 +1,237 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import org.junit.Test;
+import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseConnectionFactory;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileContent.FileChecksum;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.dao.ChunkSqlDao;
+import org.syncany.database.dao.FileContentSqlDao;
+import org.syncany.database.dao.FileVersionSqlDao;
+import org.syncany.database.dao.MultiChunkSqlDao;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestSqlUtil;
+import org.syncany.util.FileUtil;
+
+public class DatabaseConnectionFactoryTest {
+	@Test
+	public void testMigrateHexChecksumColumns() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+
+		String databaseFilePath = FileUtil.getDatabasePath(testConfig.getDatabaseFile().toString());
+		String connectionString = DatabaseConnectionFactory.DATABASE_CONNECTION_FILE_STRING.replaceAll("%DATABASEFILE%", databaseFilePath);
+
+		Connection oldDatabaseConnection = DriverManager.getConnection(connectionString);
+		oldDatabaseConnection.setAutoCommit(true);
+
+		TestSqlUtil.runSqlFromResource(oldDatabaseConnection, "test.create.all.hexchecksums.sql");
+		TestSqlUtil.runSqlFromResource(oldDatabaseConnection, "test.insert.set3.sql");
+
+		assertEquals("VARCHAR", TestSqlUtil.runSqlSelect("select type_name from information_schema.system_columns "
+				+ "where table_name='CHUNK' and column_name='CHECKSUM'", oldDatabaseConnection));
+
+		oldDatabaseConnection.close();
+
+		// Run
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Test
+		assertEquals("VARBINARY", TestSqlUtil.runSqlSelect("select type_name from information_schema.system_columns "
+				+ "where table_name='CHUNK' and column_name='CHECKSUM'", databaseConnection));
+		assertEquals("VARBINARY", TestSqlUtil.runSqlSelect("select type_name from information_schema.system_columns "
+				+ "where table_name='MULTICHUNK' and column_name='ID'", databaseConnection));
+		assertEquals("VARBINARY", TestSqlUtil.runSqlSelect("select type_name from information_schema.system_columns "
+				+ "where table_name='FILEVERSION' and column_name='FILECONTENT_CHECKSUM'", databaseConnection));
+
+		ChunkEntry chunk = new ChunkSqlDao(databaseConnection).getChunk(ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457"));
+		assertNotNull(chunk);
+		assertEquals(8387, chunk.getSize());
+
+		MultiChunkId multiChunkId = new MultiChunkSqlDao(databaseConnection).getMultiChunkId(ChunkChecksum
+				.parseChunkChecksum("eba69a8e359ce3258520138a50ed9860127ab6e0"));
+		assertEquals(MultiChunkId.parseMultiChunkId("0d79eed3fd8ac866b5872ea3f3f079c46dd15ac9"), multiChunkId);
+
+		FileContent fileContent = new FileContentSqlDao(databaseConnection).getFileContent(
+				FileChecksum.parseFileChecksum("9974b55a79994b4bfe007983539ca21b2679ba35"), true);
+		assertNotNull(fileContent);
+		assertEquals(976, (long) fileContent.getSize());
+		assertEquals(1, fileContent.getChunks().size());
+
+		assertEquals("4", TestSqlUtil.runSqlSelect("select count(*) from fileversion_master "
+				+ "where filecontent_checksum=X'9974b55a79994b4bfe007983539ca21b2679ba35'", databaseConnection));
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	@Test
+	public void testMigrateOldDatabaseOpenedReadOnly() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		createHexChecksumDatabase(testConfig).close();
+
+		// Run
+		Connection databaseConnection = testConfig.createDatabaseConnection(true);
+
+		// Test
+		assertTrue(databaseConnection.isReadOnly());
+		assertEquals("VARBINARY", TestSqlUtil.runSqlSelect("select type_name from information_schema.system_columns "
+				+ "where table_name='CHUNK' and column_name='CHECKSUM'", databaseConnection));
+		assertEquals("1", TestSqlUtil.runSqlSelect("select count(*) from information_schema.system_tables "
+				+ "where table_type='TABLE' and table_name='FILEVERSION_HEAD'", databaseConnection));
+		assertEquals(String.valueOf(DatabaseConnectionFactory.DATABASE_RESULT_MAX_MEMORY_ROWS), TestSqlUtil.runSqlSelect(
+				"select property_value from information_schema.system_properties where property_name='hsqldb.result_max_memory_rows'",
+				databaseConnection));
+
+		ChunkEntry chunk = new ChunkSqlDao(databaseConnection).getChunk(ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457"));
+		assertNotNull(chunk);
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	@Test
+	public void testSetResultMaxMemoryRowsOpenedReadOnly() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Reset setting, as in databases created by older versions
+		Statement statement = databaseConnection.createStatement();
+
+		statement.execute("SET DATABASE DEFAULT RESULT MEMORY ROWS 0");
+		statement.execute("SHUTDOWN");
+
+		// Run
+		databaseConnection = testConfig.createDatabaseConnection(true);
+
+		// Test
+		assertTrue(databaseConnection.isReadOnly());
+		assertEquals(String.valueOf(DatabaseConnectionFactory.DATABASE_RESULT_MAX_MEMORY_ROWS), TestSqlUtil.runSqlSelect(
+				"select property_value from information_schema.system_properties where property_name='hsqldb.result_max_memory_rows'",
+				databaseConnection));
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	@Test
+	public void testRestoreInterruptedMigration() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection oldDatabaseConnection = createHexChecksumDatabase(testConfig);
+
+		File migrationBackupDir = new File(testConfig.getDatabaseFile().getAbsolutePath() + ".migration");
+		String backupPath = FileUtil.getDatabasePath(migrationBackupDir.getAbsolutePath()) + "/";
+
+		// Back up the database and crash in the middle of the migration
+		Statement statement = oldDatabaseConnection.createStatement();
+
+		statement.execute("BACKUP DATABASE TO '" + backupPath + "' BLOCKING AS FILES");
+		statement.execute("DROP VIEW fileversion_full");
+		statement.execute("ALTER TABLE chunk RENAME TO chunk_old");
+		statement.execute("SHUTDOWN");
+
+		// Run
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Test
+		assertFalse(migrationBackupDir.exists());
+		assertEquals("0", TestSqlUtil.runSqlSelect("select count(*) from information_schema.system_tables "
+				+ "where table_name='CHUNK_OLD'", databaseConnection));
+		assertEquals("VARBINARY", TestSqlUtil.runSqlSelect("select type_name from information_schema.system_columns "
+				+ "where table_name='CHUNK' and column_name='CHECKSUM'", databaseConnection));
+
+		ChunkEntry chunk = new ChunkSqlDao(databaseConnection).getChunk(ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457"));
+		assertNotNull(chunk);
+		assertEquals(8387, chunk.getSize());
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	@Test
+	public void testMigrateFileVersionHeadTable() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set2.sql");
+
+		String expectedHeads = TestSqlUtil.runSqlSelect("select filehistory_id, version from fileversion_master_maxversion "
+				+ "order by filehistory_id", databaseConnection);
+		int expectedFileTreeSize = new FileVersionSqlDao(databaseConnection).getCurrentFileTree().size();
+
+		// Remove table and re-create view as created by older versions
+		Statement statement = databaseConnection.createStatement();
+
+		statement.execute("drop view fileversion_master_last");
+		statement.execute("drop table fileversion_head");
+		statement.execute("create view fileversion_master_last as select fv.* from fileversion_master_maxversion fvmax "
+				+ "join fileversion_master fv on fvmax.filehistory_id=fv.filehistory_id and fvmax.version=fv.version "
+				+ "where fv.status<>'DELETED'");
+
+		databaseConnection.commit();
+		databaseConnection.close();
+
+		// Run
+		databaseConnection = testConfig.createDatabaseConnection();
+
+		// Test
+		assertEquals(expectedHeads, TestSqlUtil.runSqlSelect("select filehistory_id, version from fileversion_head "
+				+ "order by filehistory_id", databaseConnection));
+		assertEquals(expectedFileTreeSize, new FileVersionSqlDao(databaseConnection).getCurrentFileTree().size());
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	private Connection createHexChecksumDatabase(Config testConfig) throws Exception {
+		String databaseFilePath = FileUtil.getDatabasePath(testConfig.getDatabaseFile().toString());
+		String connectionString = DatabaseConnectionFactory.DATABASE_CONNECTION_FILE_STRING.replaceAll("%DATABASEFILE%", databaseFilePath);
+
+		Connection oldDatabaseConnection = DriverManager.getConnection(connectionString);
+		oldDatabaseConnection.setAutoCommit(true);
+
+		TestSqlUtil.runSqlFromResource(oldDatabaseConnection, "test.create.all.hexchecksums.sql");
+		TestSqlUtil.runSqlFromResource(oldDatabaseConnection, "test.insert.set3.sql");
+
+		return oldDatabaseConnection;
+	}
+}
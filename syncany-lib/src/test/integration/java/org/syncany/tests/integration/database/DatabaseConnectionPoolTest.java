@@ -0,0 +1,181 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+
+import org.junit.Test;
+import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkIndex;
+import org.syncany.database.DatabaseConnectionPool;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.SqlDatabase;
+import org.syncany.operations.log.LogOperation;
+import org.syncany.operations.log.LogOperationOptions;
+import org.syncany.operations.ls.LsOperation;
+import org.syncany.operations.ls.LsOperationOptions;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestDatabaseUtil;
+import org.syncany.tests.util.TestSqlUtil;
+
+public class DatabaseConnectionPoolTest {
+	@Test
+	public void testReuseConnectionsPerMode() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		DatabaseConnectionPool connectionPool = new DatabaseConnectionPool(testConfig.getDatabaseFile(), 2);
+
+		// Run
+		Connection readWriteConnection = connectionPool.borrow(false);
+		Connection readOnlyConnection = connectionPool.borrow(true);
+
+		connectionPool.release(readWriteConnection);
+		connectionPool.release(readOnlyConnection);
+
+		// Test
+		assertFalse(readWriteConnection.isReadOnly());
+		assertTrue(readOnlyConnection.isReadOnly());
+
+		assertEquals(1, connectionPool.getIdleConnectionCount(true));
+		assertEquals(1, connectionPool.getIdleConnectionCount(false));
+
+		assertSame(readOnlyConnection, connectionPool.borrow(true));
+		assertSame(readWriteConnection, connectionPool.borrow(false));
+
+		assertEquals(2, connectionPool.getCreatedConnectionCount());
+		assertEquals(2, connectionPool.getReusedConnectionCount());
+		assertEquals(2, connectionPool.getReleasedConnectionCount());
+
+		// Tear down
+		readWriteConnection.close();
+		readOnlyConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	@Test
+	public void testReleaseRollsBackAndClosesExcessConnections() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		DatabaseConnectionPool connectionPool = new DatabaseConnectionPool(testConfig.getDatabaseFile(), 1);
+
+		Connection connection1 = connectionPool.borrow(false);
+		Connection connection2 = connectionPool.borrow(false);
+
+		// Run
+		connection1.createStatement().execute("insert into known_databases (client, filenumber) values ('A', 1)");
+
+		connectionPool.release(connection1);
+		connectionPool.release(connection2);
+
+		// Test
+		assertEquals("0", TestSqlUtil.runSqlSelect("select count(*) from known_databases", connection1));
+
+		assertFalse(connection1.isClosed());
+		assertTrue(connection2.isClosed());
+		assertEquals(1, connectionPool.getIdleConnectionCount(false));
+		assertEquals(1, connectionPool.getClosedConnectionCount());
+
+		connectionPool.close();
+
+		assertTrue(connection1.isClosed());
+		assertEquals(0, connectionPool.getIdleConnectionCount(false));
+
+		Connection connection3 = connectionPool.borrow(false);
+		assertNotSame(connection1, connection3);
+
+		// Tear down
+		connection3.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	@Test
+	public void testOperationsShareReadOnlyConnection() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		DatabaseConnectionPool connectionPool = testConfig.getDatabaseConnectionPool();
+
+		SqlDatabase localDatabase = new SqlDatabase(testConfig);
+		localDatabase.close();
+
+		// Run
+		for (int i = 0; i < 5; i++) {
+			new LsOperation(testConfig, new LsOperationOptions()).execute();
+			new LogOperation(testConfig, new LogOperationOptions()).execute();
+		}
+
+		// Test
+		assertEquals(2, connectionPool.getCreatedConnectionCount()); // 1x read-write, 1x read-only
+		assertEquals(1, connectionPool.getIdleConnectionCount(true));
+		assertEquals(1, connectionPool.getIdleConnectionCount(false));
+		assertEquals(9, connectionPool.getReusedConnectionCount());
+
+		// Tear down
+		connectionPool.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	@Test
+	public void testCloseInvalidatesChunkIndexOfRolledBackChunks() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+
+		ChunkChecksum committedChunkChecksum = ChunkChecksum.parseChunkChecksum("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+		ChunkChecksum rolledBackChunkChecksum = ChunkChecksum.parseChunkChecksum("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+
+		DatabaseVersion committedDatabaseVersion = TestDatabaseUtil.createDatabaseVersion();
+		committedDatabaseVersion.addChunk(new ChunkEntry(committedChunkChecksum, 1));
+
+		DatabaseVersion rolledBackDatabaseVersion = TestDatabaseUtil.createDatabaseVersion(committedDatabaseVersion);
+		rolledBackDatabaseVersion.addChunk(new ChunkEntry(rolledBackChunkChecksum, 2));
+
+		// Run
+		SqlDatabase committingDatabase = new SqlDatabase(testConfig);
+		committingDatabase.writeDatabaseVersion(committedDatabaseVersion);
+		committingDatabase.commit();
+		committingDatabase.close();
+
+		long stampAfterCommit = ChunkIndex.open(testConfig.getChunkIndexFile()).getStamp();
+
+		SqlDatabase readingDatabase = new SqlDatabase(testConfig, true);
+		assertFalse(readingDatabase.containsChunk(rolledBackChunkChecksum.getBytes())); // Loads shared index
+
+		SqlDatabase rollingBackDatabase = new SqlDatabase(testConfig);
+		rollingBackDatabase.writeDatabaseVersion(rolledBackDatabaseVersion);
+
+		assertTrue(rollingBackDatabase.containsChunk(rolledBackChunkChecksum.getBytes()));
+		rollingBackDatabase.close();
+
+		// Test
+		assertTrue("Index must not be invalidated after commit", stampAfterCommit != 0);
+		assertTrue(readingDatabase.containsChunk(committedChunkChecksum.getBytes()));
+		assertFalse(readingDatabase.containsChunk(rolledBackChunkChecksum.getBytes()));
+
+		// Tear down
+		readingDatabase.close();
+		testConfig.getDatabaseConnectionPool().close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.database.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.syncany.tests.util.TestAssertUtil.assertDatabaseVersionEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.config.Logging;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileContent.FileChecksum;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileStatus;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.MemoryDatabase;
+import org.syncany.database.MultiChunkEntry;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.VectorClock;
+import org.syncany.database.dao.DatabaseBinaryReader;
+import org.syncany.database.dao.DatabaseXmlSerializer;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseFormat;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
+import org.syncany.tests.unit.util.TestFileUtil;
+import org.syncany.tests.util.TestAssertUtil;
+
+public class BinaryDatabaseDaoTest {
+	private File tempDir;
+
+	static {
+		Logging.init();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testWriteAndReadFullDatabaseVersion() throws IOException {
+		// Prepare
+		DatabaseVersion databaseVersion = createDatabaseVersion(null);
+
+		ChunkEntry chunkA = new ChunkEntry(new ChunkChecksum(TestFileUtil.createRandomArray(20)), 12);
+		ChunkEntry chunkB = new ChunkEntry(new ChunkChecksum(TestFileUtil.createRandomArray(32)), 64 * 1024);
+		databaseVersion.addChunk(chunkA);
+		databaseVersion.addChunk(chunkB);
+
+		MultiChunkEntry multiChunk = new MultiChunkEntry(new MultiChunkId(TestFileUtil.createRandomArray(20)), 10 * 1024);
+		multiChunk.addChunk(chunkA.getChecksum());
+		multiChunk.addChunk(chunkB.getChecksum());
+		databaseVersion.addMultiChunk(multiChunk);
+
+		FileContent fileContent = new FileContent();
+		fileContent.setChecksum(new FileChecksum(TestFileUtil.createRandomArray(20)));
+		fileContent.setSize(64 * 1024L + 12);
+		fileContent.addChunk(chunkA.getChecksum());
+		fileContent.addChunk(chunkB.getChecksum());
+		databaseVersion.addFileContent(fileContent);
+
+		PartialFileHistory fileHistoryFile = new PartialFileHistory(FileHistoryId.secureRandomFileId());
+		fileHistoryFile.addFileVersion(createFileVersion(1L, FileType.FILE, FileStatus.NEW, "Pictures/file\u0001with\u0008restricted chars.jpg"));
+
+		FileVersion fileVersion = createFileVersion(2L, FileType.FILE, FileStatus.CHANGED, "Pictures/file.jpg");
+		fileVersion.setChecksum(fileContent.getChecksum());
+		fileVersion.setSize(fileContent.getSize());
+		fileVersion.setUpdated(new Date());
+		fileVersion.setPosixPermissions("rw-r--r--");
+		fileVersion.setDosAttributes("--a-");
+		fileHistoryFile.addFileVersion(fileVersion);
+
+		PartialFileHistory fileHistorySymlink = new PartialFileHistory(FileHistoryId.secureRandomFileId());
+		FileVersion symlinkVersion = createFileVersion(1L, FileType.SYMLINK, FileStatus.NEW, "link");
+		symlinkVersion.setLinkTarget("/some/target");
+		fileHistorySymlink.addFileVersion(symlinkVersion);
+
+		databaseVersion.addFileHistory(fileHistoryFile);
+		databaseVersion.addFileHistory(fileHistorySymlink);
+
+		MemoryDatabase writtenDatabase = new MemoryDatabase();
+		writtenDatabase.addDatabaseVersion(databaseVersion);
+
+		// Run
+		File databaseFile = new File(tempDir, "db-binary");
+		Transformer transformer = new GzipTransformer();
+
+		new DatabaseXmlSerializer(transformer, DatabaseFormat.BINARY).save(writtenDatabase.getDatabaseVersions(), databaseFile);
+
+		MemoryDatabase readDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer(transformer).load(readDatabase, databaseFile, null, null, DatabaseReadType.FULL);
+
+		// Test
+		assertTrue(isBinaryDatabaseFile(databaseFile, transformer));
+		TestAssertUtil.assertDatabaseEquals(writtenDatabase, readDatabase);
+
+		DatabaseVersion readDatabaseVersion = readDatabase.getLastDatabaseVersion();
+
+		assertArrayEquals(multiChunk.getChunks().toArray(), readDatabaseVersion.getMultiChunk(multiChunk.getId()).getChunks().toArray());
+		assertArrayEquals(fileContent.getChunks().toArray(), readDatabaseVersion.getFileContent(fileContent.getChecksum()).getChunks().toArray());
+		assertArrayEquals(fileHistoryFile.getFileVersions().values().toArray(),
+				readDatabaseVersion.getFileHistory(fileHistoryFile.getFileHistoryId()).getFileVersions().values().toArray());
+		assertEquals("/some/target", readDatabaseVersion.getFileHistory(fileHistorySymlink.getFileHistoryId()).getLastVersion().getLinkTarget());
+	}
+
+	@Test
+	public void testReadHeaderOnlyAndPartialDatabase() throws IOException {
+		// Prepare
+		MemoryDatabase writtenDatabase = new MemoryDatabase();
+		List<DatabaseVersion> writtenDatabaseVersions = new ArrayList<DatabaseVersion>();
+
+		for (int i = 0; i < 10; i++) {
+			DatabaseVersion basedOnDatabaseVersion = (i > 0) ? writtenDatabaseVersions.get(i - 1) : null;
+			DatabaseVersion newDatabaseVersion = createDatabaseVersion(basedOnDatabaseVersion);
+
+			newDatabaseVersion.addChunk(new ChunkEntry(new ChunkChecksum(TestFileUtil.createRandomArray(20)), 32 * 1024));
+			newDatabaseVersion.addChunk(new ChunkEntry(new ChunkChecksum(TestFileUtil.createRandomArray(20)), 32 * 1024));
+
+			writtenDatabase.addDatabaseVersion(newDatabaseVersion);
+			writtenDatabaseVersions.add(newDatabaseVersion);
+		}
+
+		File databaseFile = new File(tempDir, "db-binary");
+		new DatabaseXmlSerializer(null, DatabaseFormat.BINARY).save(writtenDatabase.getDatabaseVersions(), databaseFile);
+
+		// Run
+		MemoryDatabase headerOnlyDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer().load(headerOnlyDatabase, databaseFile, null, null, DatabaseReadType.HEADER_ONLY);
+
+		VectorClock fromVersion = writtenDatabaseVersions.get(3).getVectorClock();
+		VectorClock toVersion = writtenDatabaseVersions.get(6).getVectorClock();
+
+		MemoryDatabase partialDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer().load(partialDatabase, databaseFile, fromVersion, toVersion, DatabaseReadType.FULL);
+
+		// Test
+		assertEquals(10, headerOnlyDatabase.getDatabaseVersions().size());
+
+		for (int i = 0; i < 10; i++) {
+			DatabaseVersion headerOnlyDatabaseVersion = headerOnlyDatabase.getDatabaseVersions().get(i);
+
+			assertEquals(writtenDatabaseVersions.get(i).getHeader(), headerOnlyDatabaseVersion.getHeader());
+			assertEquals(0, headerOnlyDatabaseVersion.getChunks().size());
+		}
+
+		assertEquals(4, partialDatabase.getDatabaseVersions().size());
+
+		for (int i = 3; i <= 6; i++) {
+			DatabaseVersion writtenDatabaseVersion = writtenDatabaseVersions.get(i);
+			DatabaseVersion readDatabaseVersion = partialDatabase.getDatabaseVersion(writtenDatabaseVersion.getVectorClock());
+
+			assertNotNull(readDatabaseVersion);
+			assertDatabaseVersionEquals(writtenDatabaseVersion, readDatabaseVersion);
+		}
+	}
+
+	@Test
+	public void testReadXmlDatabaseWithBinarySerializer() throws IOException {
+		// Prepare
+		DatabaseVersion databaseVersion = createDatabaseVersion(null);
+		databaseVersion.addChunk(new ChunkEntry(new ChunkChecksum(TestFileUtil.createRandomArray(20)), 32 * 1024));
+
+		MemoryDatabase writtenDatabase = new MemoryDatabase();
+		writtenDatabase.addDatabaseVersion(databaseVersion);
+
+		File databaseFile = new File(tempDir, "db-xml");
+		new DatabaseXmlSerializer(null, DatabaseFormat.XML).save(writtenDatabase.getDatabaseVersions(), databaseFile);
+
+		// Run
+		MemoryDatabase readDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer(null, DatabaseFormat.BINARY).load(readDatabase, databaseFile, null, null, DatabaseReadType.FULL);
+
+		// Test
+		assertFalse(isBinaryDatabaseFile(databaseFile, null));
+		TestAssertUtil.assertDatabaseEquals(writtenDatabase, readDatabase);
+	}
+
+	private DatabaseVersion createDatabaseVersion(DatabaseVersion basedOnDatabaseVersion) {
+		VectorClock vectorClock = (basedOnDatabaseVersion != null) ? basedOnDatabaseVersion.getVectorClock().clone() : new VectorClock();
+		vectorClock.incrementClock("someclient");
+
+		DatabaseVersion databaseVersion = new DatabaseVersion();
+
+		databaseVersion.setClient("someclient");
+		databaseVersion.setTimestamp(new Date());
+		databaseVersion.setVectorClock(vectorClock);
+
+		return databaseVersion;
+	}
+
+	private FileVersion createFileVersion(long version, FileType type, FileStatus status, String path) {
+		FileVersion fileVersion = new FileVersion();
+
+		fileVersion.setVersion(version);
+		fileVersion.setType(type);
+		fileVersion.setStatus(status);
+		fileVersion.setPath(path);
+		fileVersion.setSize(0L);
+		fileVersion.setLastModified(new Date());
+
+		return fileVersion;
+	}
+
+	private boolean isBinaryDatabaseFile(File databaseFile, Transformer transformer) throws IOException {
+		InputStream databaseInputStream = new FileInputStream(databaseFile);
+
+		if (transformer != null) {
+			databaseInputStream = transformer.createInputStream(databaseInputStream);
+		}
+
+		try {
+			byte[] fileStart = new byte[4];
+			IOUtils.read(databaseInputStream, fileStart);
+
+			return DatabaseBinaryReader.isBinaryFormat(fileStart);
+		}
+		finally {
+			databaseInputStream.close();
+		}
+	}
+}
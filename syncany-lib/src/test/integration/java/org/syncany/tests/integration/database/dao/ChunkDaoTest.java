@@ -18,16 +18,22 @@
 package org.syncany.tests.integration.database.dao;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.sql.Connection;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 import org.syncany.config.Config;
 import org.syncany.database.ChunkEntry;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkIndex;
+import org.syncany.database.ChunkLookupStatistics;
 import org.syncany.database.dao.ChunkSqlDao;
 import org.syncany.tests.util.TestConfigUtil;
 import org.syncany.tests.util.TestDatabaseUtil;
@@ -105,4 +111,89 @@ public class ChunkDaoTest {
 		databaseConnection.close();
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}	
+
+	@Test
+	public void testChunkIndexPersistedAndUpdated() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set3.sql");
+
+		ChunkChecksum existingChunkChecksum = ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457");
+		ChunkChecksum newChunkChecksum = ChunkChecksum.parseChunkChecksum("beefbeefbeefbeefbeefbeefbeefbeefbeefbeef");
+
+		// Run
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile());
+
+		assertNotNull(chunkDao.getChunk(existingChunkChecksum));
+		assertNull(chunkDao.getChunk(newChunkChecksum));
+
+		chunkDao.writeChunks(databaseConnection, 0, Arrays.asList(new ChunkEntry(newChunkChecksum, 1234)));
+		databaseConnection.commit();
+
+		long stampAfterWrite = ChunkIndex.open(testConfig.getChunkIndexFile()).getStamp();
+
+		ChunkSqlDao otherChunkDao = new ChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile());
+		ChunkEntry newChunk = otherChunkDao.getChunk(newChunkChecksum);
+
+		// Test
+		assertTrue(testConfig.getChunkIndexFile().exists());
+		assertTrue(stampAfterWrite != 0);
+		assertEquals("Index must not be rebuilt", stampAfterWrite, ChunkIndex.open(testConfig.getChunkIndexFile()).getStamp());
+
+		assertNotNull(chunkDao.getChunk(newChunkChecksum));
+		assertNotNull(newChunk);
+		assertEquals(1234, newChunk.getSize());
+
+		// Run (unreferenced new chunk is removed)
+		otherChunkDao.removeUnreferencedChunks();
+		databaseConnection.commit();
+
+		// Test
+		assertNull(chunkDao.getChunk(newChunkChecksum));
+		assertNull(otherChunkDao.getChunk(newChunkChecksum));
+		assertNotNull(chunkDao.getChunk(existingChunkChecksum));
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	@Test
+	public void testChunkLookupStatistics() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set3.sql");
+
+		ChunkChecksum existingChunkChecksum = ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457");
+		Random random = new Random();
+
+		// Run
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection);
+
+		assertTrue(chunkDao.containsChunk(existingChunkChecksum.getBytes()));
+		assertNotNull(chunkDao.getChunk(existingChunkChecksum));
+
+		for (int i = 0; i < 1000; i++) {
+			byte[] unknownChecksum = new byte[20];
+			random.nextBytes(unknownChecksum);
+
+			assertFalse(chunkDao.containsChunk(unknownChecksum));
+		}
+
+		ChunkLookupStatistics lookupStatistics = chunkDao.getLookupStatistics();
+
+		// Test
+		assertEquals(1002, lookupStatistics.getLookups());
+		assertEquals(1000, lookupStatistics.getFilterNegatives() + lookupStatistics.getFalsePositives());
+		assertEquals(2 + lookupStatistics.getFalsePositives(), lookupStatistics.getFilterPositives());
+		assertTrue(lookupStatistics.getFilterNegatives() > 950);
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
 }
@@ -18,6 +18,7 @@
 package org.syncany.tests.integration.database.dao;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
@@ -255,6 +256,96 @@ public class DatabaseVersionDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}
 	
+	@Test
+	public void testWriteDatabaseVersionsInBatches() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection);
+		MultiChunkSqlDao multiChunkDao = new MultiChunkSqlDao(databaseConnection);
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(databaseConnection, fileVersionDao);
+		FileContentSqlDao fileContentDao = new FileContentSqlDao(databaseConnection);
+		DatabaseVersionSqlDao databaseVersionDao = new DatabaseVersionSqlDao(databaseConnection, chunkDao, fileContentDao, fileVersionDao, fileHistoryDao, multiChunkDao);
+
+		int chunkCount = 2 * DatabaseVersionSqlDao.DEFAULT_BATCH_SIZE + 500;
+		int folderCount = DatabaseVersionSqlDao.DEFAULT_BATCH_SIZE + 1;
+
+		// First database version: many chunks (more than one batch), one multichunk, one file content, one file
+		DatabaseVersion databaseVersion1 = new DatabaseVersion();
+		databaseVersion1.setVectorClock(TestDatabaseUtil.createVectorClock("A1"));
+		databaseVersion1.setTimestamp(new Date(1489977288000L));
+		databaseVersion1.setClient("A");
+
+		MultiChunkEntry multiChunk = new MultiChunkEntry(MultiChunkId.secureRandomMultiChunkId(), 10);
+		FileContent fileContent = new FileContent();
+
+		fileContent.setChecksum(FileChecksum.parseFileChecksum("aaaaaaaaaaaaaaaaaaaaab2b263ffa4cc48e282f"));
+		fileContent.setSize(chunkCount);
+
+		for (int i = 0; i < chunkCount; i++) {
+			ChunkEntry chunk = new ChunkEntry(ChunkChecksum.parseChunkChecksum(String.format("%040x", i)), 1);
+
+			databaseVersion1.addChunk(chunk);
+			multiChunk.addChunk(chunk.getChecksum());
+			fileContent.addChunk(chunk.getChecksum());
+		}
+
+		databaseVersion1.addMultiChunk(multiChunk);
+		databaseVersion1.addFileContent(fileContent);
+		databaseVersion1.addFileHistory(createFileHistory("file", FileType.FILE, fileContent.getChecksum()));
+
+		// Second database version: many folders (more than one batch)
+		DatabaseVersion databaseVersion2 = new DatabaseVersion();
+		databaseVersion2.setVectorClock(TestDatabaseUtil.createVectorClock("A2"));
+		databaseVersion2.setTimestamp(new Date(1489977289000L));
+		databaseVersion2.setClient("A");
+
+		for (int i = 0; i < folderCount; i++) {
+			databaseVersion2.addFileHistory(createFileHistory("folder" + i, FileType.FOLDER, null));
+		}
+
+		// Run
+		databaseVersionDao.writeDatabaseVersion(databaseVersion1);
+		databaseVersionDao.writeDatabaseVersion(databaseVersion2);
+		databaseConnection.commit();
+
+		// Test
+		assertEquals("" + chunkCount, TestSqlUtil.runSqlSelect("select count(*) from chunk", databaseConnection));
+		assertEquals("" + chunkCount, TestSqlUtil.runSqlSelect("select count(*) from multichunk_chunk", databaseConnection));
+		assertEquals("" + chunkCount, TestSqlUtil.runSqlSelect("select count(*) from filecontent_chunk", databaseConnection));
+		assertEquals("" + chunkCount, TestSqlUtil.runSqlSelect("select max(num)+1 from filecontent_chunk", databaseConnection));
+		assertEquals("" + (folderCount + 1), TestSqlUtil.runSqlSelect("select count(*) from filehistory", databaseConnection));
+		assertEquals("" + (folderCount + 1), TestSqlUtil.runSqlSelect("select count(*) from fileversion", databaseConnection));
+		assertEquals("" + (folderCount + 1), TestSqlUtil.runSqlSelect("select count(*) from fileversion_head", databaseConnection));
+
+		assertEquals("A/(A2)/T=1489977289000", databaseVersionDao.getLastDatabaseVersionHeader().toString());
+		assertEquals(fileContent, fileContentDao.getFileContent(fileContent.getChecksum(), true));
+
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	private PartialFileHistory createFileHistory(String path, FileType type, FileChecksum checksum) {
+		PartialFileHistory fileHistory = new PartialFileHistory(FileHistoryId.secureRandomFileId());
+		FileVersion fileVersion = new FileVersion();
+
+		fileVersion.setVersion(1L);
+		fileVersion.setPath(path);
+		fileVersion.setChecksum(checksum);
+		fileVersion.setStatus(FileStatus.NEW);
+		fileVersion.setLastModified(new Date());
+		fileVersion.setUpdated(new Date());
+		fileVersion.setSize(0L);
+		fileVersion.setType(type);
+
+		fileHistory.addFileVersion(fileVersion);
+		return fileHistory;
+	}
+	
 	@Test
 	public void testGetLocalDatabaseBranch1() throws Exception {
 		// Setup
@@ -400,6 +491,41 @@ public class DatabaseVersionDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}	
 	
+	@Test
+	public void testMarkDatabaseVersionDirtyUpdatesFileVersionHeads() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		String selectHeadsSql = "select filehistory_id, version from fileversion_head order by filehistory_id";
+		String selectMaxVersionsSql = "select filehistory_id, version from fileversion_master_maxversion order by filehistory_id";
+
+		// Run
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set2.sql");
+		
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection);
+		MultiChunkSqlDao multiChunkDao = new MultiChunkSqlDao(databaseConnection);
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(databaseConnection, fileVersionDao);
+		FileContentSqlDao fileContentDao = new FileContentSqlDao(databaseConnection);
+		DatabaseVersionSqlDao databaseVersionDao = new DatabaseVersionSqlDao(databaseConnection, chunkDao, fileContentDao, fileVersionDao, fileHistoryDao, multiChunkDao);
+
+		String headsBefore = TestSqlUtil.runSqlSelect(selectHeadsSql, databaseConnection);
+		
+		databaseVersionDao.markDatabaseVersionDirty(TestDatabaseUtil.createVectorClock("A49"));
+		databaseVersionDao.markDatabaseVersionDirty(TestDatabaseUtil.createVectorClock("A50"));
+		
+		String headsAfter = TestSqlUtil.runSqlSelect(selectHeadsSql, databaseConnection);
+		
+		// Test
+		assertEquals(TestSqlUtil.runSqlSelect(selectMaxVersionsSql, databaseConnection), headsAfter);
+		assertFalse(headsBefore.equals(headsAfter));
+				
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}	
+	
 	@Test
 	public void testRemoveDirtyDatabaseVersions() throws Exception {
 		// Setup
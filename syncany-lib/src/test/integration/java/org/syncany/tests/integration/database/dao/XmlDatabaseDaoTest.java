@@ -20,19 +20,28 @@ package org.syncany.tests.integration.database.dao;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.syncany.tests.util.TestAssertUtil.assertDatabaseVersionEquals;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.Transformer;
 import org.syncany.config.Logging;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
 import org.syncany.database.ChunkEntry;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
 import org.syncany.database.DatabaseVersion;
@@ -414,6 +423,128 @@ public class XmlDatabaseDaoTest {
 		assertEquals(10, readDatabase.getDatabaseVersions().size());
 	}
 
+	@Test
+	public void testReadHeaderOnlyStopsAfterHeaderIndex() throws Exception {
+		// Prepare
+		List<DatabaseVersion> writtenDatabaseVersions = new ArrayList<DatabaseVersion>();
+
+		for (int i = 0; i < 10; i++) {
+			DatabaseVersion basedOnDatabaseVersion = (i > 0) ? writtenDatabaseVersions.get(i - 1) : null;
+			DatabaseVersion newDatabaseVersion = createDatabaseVersion(basedOnDatabaseVersion);
+
+			newDatabaseVersion.addChunk(new ChunkEntry(new ChunkChecksum(TestFileUtil.createRandomArray(20)), 32 * 1024));
+			writtenDatabaseVersions.add(newDatabaseVersion);
+		}
+
+		File databaseFile = new File(tempDir, "db-with-header-index");
+		new DatabaseXmlSerializer().save(writtenDatabaseVersions, databaseFile);
+
+		// Cut off everything after the header index; a header-only read must not need it
+		String databaseXml = FileUtils.readFileToString(databaseFile, "UTF-8");
+		int databaseVersionsIndex = databaseXml.indexOf("<databaseVersions>");
+
+		assertTrue(databaseXml.indexOf("<databaseVersionHeaders>") < databaseVersionsIndex);
+		FileUtils.writeStringToFile(databaseFile, databaseXml.substring(0, databaseVersionsIndex + 50), "UTF-8");
+
+		// Run
+		MemoryDatabase headerOnlyDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer().load(headerOnlyDatabase, databaseFile, null, null, DatabaseReadType.HEADER_ONLY);
+
+		// Test
+		assertEquals(10, headerOnlyDatabase.getDatabaseVersions().size());
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(writtenDatabaseVersions.get(i).getHeader(), headerOnlyDatabase.getDatabaseVersions().get(i).getHeader());
+		}
+
+		try {
+			new DatabaseXmlSerializer().load(new MemoryDatabase(), databaseFile, null, null, DatabaseReadType.FULL);
+			fail("Full read of truncated database file should fail.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testReadHeaderOnlyWithoutHeaderIndex() throws Exception {
+		// Prepare (database file as written by older versions)
+		String databaseXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<database version=\"1\">\n"
+				+ "	<databaseVersions>\n"
+				+ "		<databaseVersion>\n"
+				+ "			<header>\n"
+				+ "				<time value=\"1388589969000\"/>\n"
+				+ "				<client name=\"A\"/>\n"
+				+ "				<vectorClock>\n"
+				+ "					<client name=\"A\" value=\"1\"/>\n"
+				+ "				</vectorClock>\n"
+				+ "			</header>\n"
+				+ "			<chunks>\n"
+				+ "				<chunk checksum=\"fe83f217d464f6fdfa5b2b1f87fe3a1a47371196\" size=\"512\"/>\n"
+				+ "			</chunks>\n"
+				+ "		</databaseVersion>\n"
+				+ "	</databaseVersions>\n"
+				+ "</database>";
+
+		File databaseFile = new File(tempDir, "db-without-header-index");
+		FileUtils.writeStringToFile(databaseFile, databaseXml, "UTF-8");
+
+		// Run
+		MemoryDatabase headerOnlyDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer().load(headerOnlyDatabase, databaseFile, null, null, DatabaseReadType.HEADER_ONLY);
+
+		MemoryDatabase fullDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer().load(fullDatabase, databaseFile, null, null, DatabaseReadType.FULL);
+
+		// Test
+		assertEquals(1, headerOnlyDatabase.getDatabaseVersions().size());
+		assertEquals("(A1)", headerOnlyDatabase.getLastDatabaseVersion().getVectorClock().toString());
+		assertEquals(0, headerOnlyDatabase.getLastDatabaseVersion().getChunks().size());
+
+		assertEquals(1, fullDatabase.getDatabaseVersions().size());
+		assertEquals(1, fullDatabase.getLastDatabaseVersion().getChunks().size());
+	}
+
+	@Test
+	public void testReadHeaderOnlyFromEncryptedDatabase() throws Exception {
+		// Prepare
+		List<DatabaseVersion> writtenDatabaseVersions = new ArrayList<DatabaseVersion>();
+
+		for (int i = 0; i < 10; i++) {
+			DatabaseVersion basedOnDatabaseVersion = (i > 0) ? writtenDatabaseVersions.get(i - 1) : null;
+			DatabaseVersion newDatabaseVersion = createDatabaseVersion(basedOnDatabaseVersion);
+
+			for (int j = 0; j < 500; j++) {
+				newDatabaseVersion.addChunk(new ChunkEntry(new ChunkChecksum(TestFileUtil.createRandomArray(20)), 32 * 1024));
+			}
+
+			writtenDatabaseVersions.add(newDatabaseVersion);
+		}
+
+		List<CipherSpec> cipherSpecs = Arrays.asList(CipherSpecs.getCipherSpec(1), CipherSpecs.getCipherSpec(2));
+		Transformer cipherTransformer = new CipherTransformer(cipherSpecs, CipherUtil.createMasterKey("some password"));
+
+		File databaseFile = new File(tempDir, "db-encrypted");
+		new DatabaseXmlSerializer(cipherTransformer).save(writtenDatabaseVersions, databaseFile);
+
+		// Run
+		MemoryDatabase headerOnlyDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer(cipherTransformer).load(headerOnlyDatabase, databaseFile, null, null, DatabaseReadType.HEADER_ONLY);
+
+		MemoryDatabase fullDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer(cipherTransformer).load(fullDatabase, databaseFile, null, null, DatabaseReadType.FULL);
+
+		// Test
+		assertEquals(10, headerOnlyDatabase.getDatabaseVersions().size());
+		assertEquals(10, fullDatabase.getDatabaseVersions().size());
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(writtenDatabaseVersions.get(i).getHeader(), headerOnlyDatabase.getDatabaseVersions().get(i).getHeader());
+			assertDatabaseVersionEquals(writtenDatabaseVersions.get(i), fullDatabase.getDatabaseVersions().get(i));
+		}
+	}
+
 	private MemoryDatabase writeReadAndCompareDatabase(MemoryDatabase writtenDatabase) throws IOException {
 		File writtenDatabaseFile = new File(tempDir + "/db-" + Math.random() + "-" + Math.abs(new Random().nextInt(Integer.MAX_VALUE)));
 		TestDatabaseUtil.writeDatabaseFileToDisk(writtenDatabase, writtenDatabaseFile, null);
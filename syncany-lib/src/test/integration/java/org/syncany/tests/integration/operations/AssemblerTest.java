@@ -18,6 +18,7 @@
 package org.syncany.tests.integration.operations;
 
 import static org.junit.Assert.*;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -81,4 +82,36 @@ public class AssemblerTest {
 		clientA.deleteTestData();
 		clientB.deleteTestData();
 	}	
+
+	@Test
+	public void testAssemblerFilesSpanningMultipleMultiChunks() throws Exception {
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+		
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+		
+		// Files span multiple multichunks, and multichunks contain chunks of multiple files
+		for (int i = 0; i < 5; i++) {
+			clientA.createNewFile("file" + i + ".jpg", 3 * 1024 * 1024);
+			clientA.createNewFile("small" + i + ".txt", 20 * 1024);
+		}
+		
+		clientA.upWithForceChecksum();
+		
+		File repoMultiChunksFolder = new File(testConnection.getPath(), "multichunks");
+		assertTrue(repoMultiChunksFolder.listFiles().length > 1);
+		
+		clientB.down();
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		
+		// Change one file, and reassemble it from old and new multichunks
+		clientA.changeFile("file0.jpg");
+		clientA.upWithForceChecksum();
+		
+		clientB.down();
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
 }
@@ -381,12 +381,21 @@ public class CleanupOperationTest {
 
 		// Run
 
+		// This test covers a multichunk upload failing inside the transaction after another multichunk of the
+		// same transaction has been uploaded. With pipelined uploads, all multichunks are uploaded before the
+		// transaction starts, so this only happens if the transaction uploads them itself: with pipelining
+		// disabled, or for multichunks whose pre-upload failed. The failing pattern counts uploads, so it
+		// matches this path only. The pipelined path is covered by testCleanupAfterFailedPipelinedUpOperation.
+
+		UpOperationOptions noPipelinedUploadOperationOptions = new UpOperationOptions();
+		noPipelinedUploadOperationOptions.setPipelinedUpload(false);
+
 		// 1. Call A.up(); this fails AFTER the first multichunk
 		clientA.createNewFile("A-file1", 5 * 1024 * 1024);
 		boolean operationFailed = false;
 
 		try {
-			clientA.up();
+			clientA.up(noPipelinedUploadOperationOptions);
 		}
 		catch (Exception e) {
 			operationFailed = true; // That is supposed to happen!
@@ -431,6 +440,84 @@ public class CleanupOperationTest {
 		clientB.deleteTestData();
 	}
 
+	@Test
+	public void testCleanupAfterFailedPipelinedUpOperation() throws Exception {
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(Arrays.asList(new String[] {
+				// List of failing operations (regex)
+				// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+				// 1st upload is the action file, 2nd the pre-upload of a multichunk;
+				// all multichunk uploads after that fail (including retries)
+				"rel=([3-9]|[1-9][0-9]+) .+upload.+multichunk"
+		}));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		UpOperationOptions pipelinedUploadOperationOptions = new UpOperationOptions();
+		pipelinedUploadOperationOptions.setPipelinedUpload(true);
+
+		// Run
+
+		// 1. Call A.up(); this fails AFTER one multichunk has been uploaded while indexing
+		clientA.createNewFile("A-file1", 5 * 1024 * 1024);
+		boolean operationFailed = false;
+
+		try {
+			clientA.up(pipelinedUploadOperationOptions);
+		}
+		catch (Exception e) {
+			operationFailed = true; // That is supposed to happen!
+		}
+
+		File repoMultiChunkDir = new File(testConnection.getPath() + "/multichunks");
+		File repoActionsDir = new File(testConnection.getPath() + "/actions");
+		File repoTemporaryDir = new File(testConnection.getPath() + "/temporary");
+
+		assertTrue(operationFailed);
+		// Atomic operation, so multichunk is not yet present at location
+		assertEquals(0, repoMultiChunkDir.listFiles().length);
+		assertEquals(1, repoActionsDir.listFiles().length);
+		assertTrue(repoTemporaryDir.listFiles().length > 0);
+
+		// 2. Call A.cleanup(); this does not run, because there are local changes
+		CleanupOperationResult cleanupOperationResultA = clientA.cleanup();
+		assertEquals(CleanupResultCode.NOK_LOCAL_CHANGES, cleanupOperationResultA.getResultCode());
+
+		// 3. Call B.cleanup(); this does not run, because of the leftover 'action' file
+		CleanupOperationResult cleanupOperationResultB = clientB.cleanup();
+		assertEquals(CleanupResultCode.NOK_OTHER_OPERATIONS_RUNNING, cleanupOperationResultB.getResultCode());
+
+		// 4. Call B.down(); this does not deliver any results, because no databases have been uploaded
+		DownOperationResult downOperationResult = clientB.down();
+		assertEquals(DownResultCode.OK_NO_REMOTE_CHANGES, downOperationResult.getResultCode());
+
+		// 5. Call 'up' again, this resumes the previously crashed transaction
+		testConnection.setFailingOperationPatterns(Arrays.asList(new String[0]));
+
+		UpOperationResult secondUpResult = clientA.up(pipelinedUploadOperationOptions);
+		assertEquals(UpResultCode.OK_CHANGES_UPLOADED, secondUpResult.getResultCode());
+		assertEquals(2, repoMultiChunkDir.listFiles().length);
+		assertEquals(0, repoActionsDir.listFiles().length);
+		assertEquals(0, repoTemporaryDir.listFiles().length);
+
+		// 6. Call 'cleanup' manually (Nothing happens, since transaction was cleaned on second up)
+		CleanupOperationResult cleanupOperationResult = clientA.cleanup();
+		assertEquals(CleanupOperationResult.CleanupResultCode.OK_NOTHING_DONE, cleanupOperationResult.getResultCode());
+		assertEquals(0, cleanupOperationResult.getRemovedMultiChunksCount());
+		assertEquals(0, repoActionsDir.listFiles().length);
+		assertEquals(0, repoTemporaryDir.listFiles().length);
+
+		// 7. Client B sees the same files
+		clientB.down();
+		TestAssertUtil.assertFileListEquals(clientA.getLocalFiles(), clientB.getLocalFiles());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
 	@Test
 	public void testCleanupMaxDatabaseFiles() throws Exception {
 		// Setup
@@ -0,0 +1,145 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.syncany.config.LocalEventBus;
+import org.syncany.operations.daemon.messages.DownDownloadFileSyncExternalEvent;
+import org.syncany.operations.down.DownOperationOptions;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+import com.google.common.eventbus.Subscribe;
+
+public class DatabaseDownloaderTest {
+	private List<Integer> downloadEventFileIndexes = Collections.synchronizedList(new ArrayList<Integer>());
+
+	@Test
+	public void testParallelDownloadAndReadOfManyDatabases() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+		TestClient clientC = new TestClient("C", testConnection);
+
+		// Interleave A's and B's database versions, so that C has to load many small ranges
+		for (int i = 0; i < 8; i++) {
+			clientA.down();
+			clientA.createNewFile("fileA-" + i, 1024);
+			clientA.up();
+
+			clientB.down();
+			clientB.createNewFile("fileB-" + i, 1024);
+			clientB.changeFile("fileA-" + i);
+			clientB.upWithForceChecksum();
+		}
+
+		clientA.down();
+
+		int databaseCount = new File(testConnection.getPath(), "databases").listFiles().length;
+		assertEquals(16, databaseCount);
+
+		// Run
+		DownOperationOptions downOptions = new DownOperationOptions();
+		downOptions.setDownloadThreads(4);
+
+		LocalEventBus.getInstance().register(this);
+
+		try {
+			clientC.down(downOptions);
+		}
+		finally {
+			LocalEventBus.getInstance().unregister(this);
+		}
+
+		// Test
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientC.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientC.getDatabaseFile());
+
+		assertEquals(databaseCount, downloadEventFileIndexes.size());
+
+		for (int i = 0; i < databaseCount; i++) {
+			assertEquals("Download events must be posted in order", i + 1, (int) downloadEventFileIndexes.get(i));
+		}
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+		clientC.deleteTestData();
+	}
+
+	@Test
+	public void testParallelDownloadFailsIfDatabaseCorrupt() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		for (int i = 0; i < 5; i++) {
+			clientA.createNewFile("file-" + i, 1024);
+			clientA.up();
+		}
+
+		File remoteDatabaseFile = new File(testConnection.getPath(), "databases/database-A-0000000003");
+		assertTrue(remoteDatabaseFile.exists());
+
+		FileUtils.writeStringToFile(remoteDatabaseFile, "This is not a database file.");
+
+		// Run
+		DownOperationOptions downOptions = new DownOperationOptions();
+		downOptions.setDownloadThreads(3);
+
+		boolean downFailed = false;
+
+		try {
+			clientB.down(downOptions);
+		}
+		catch (Exception e) {
+			downFailed = true;
+		}
+
+		// Test
+		assertTrue(downFailed);
+		assertEquals(0, clientB.getLocalFiles().size());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Subscribe
+	public void onDownloadFileEvent(DownDownloadFileSyncExternalEvent event) {
+		if ("database".equals(event.getFileDescription())) {
+			downloadEventFileIndexes.add(event.getCurrentFileIndex());
+		}
+	}
+}
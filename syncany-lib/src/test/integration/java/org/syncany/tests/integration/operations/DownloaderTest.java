@@ -0,0 +1,151 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.syncany.config.LocalEventBus;
+import org.syncany.operations.daemon.messages.DownDownloadFileSyncExternalEvent;
+import org.syncany.operations.down.DownOperationOptions;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.plugins.transfer.StorageException;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+import com.google.common.eventbus.Subscribe;
+
+public class DownloaderTest {
+	private List<Integer> downloadEventFileIndexes = Collections.synchronizedList(new ArrayList<Integer>());
+	private List<Integer> downloadEventMaxFileCounts = Collections.synchronizedList(new ArrayList<Integer>());
+
+	@Test
+	public void testParallelDownloadAndDecrypt() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		for (int i = 0; i < 10; i++) {
+			clientA.createNewFile("file-" + i, 2 * 1024 * 1024);
+		}
+
+		clientA.up();
+
+		int multiChunkCount = new File(testConnection.getPath(), "multichunks").listFiles().length;
+		assertTrue(multiChunkCount > 1);
+
+		// Run
+		DownOperationOptions downOptions = new DownOperationOptions();
+		downOptions.setDownloadThreads(3);
+
+		LocalEventBus.getInstance().register(this);
+
+		try {
+			clientB.down(downOptions);
+		}
+		finally {
+			LocalEventBus.getInstance().unregister(this);
+		}
+
+		// Test
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+
+		assertEquals(multiChunkCount, downloadEventFileIndexes.size());
+
+		for (int i = 0; i < multiChunkCount; i++) {
+			assertEquals("Download events must be posted in order", i + 1, (int) downloadEventFileIndexes.get(i));
+			assertEquals(multiChunkCount, (int) downloadEventMaxFileCounts.get(i));
+		}
+
+		assertEquals("No encrypted multichunks expected in cache", 0, listEncryptedMultiChunksInCache(clientB).size());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testParallelDownloadFailsIfMultiChunkMissing() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		for (int i = 0; i < 10; i++) {
+			clientA.createNewFile("file-" + i, 2 * 1024 * 1024);
+		}
+
+		clientA.up();
+
+		File[] remoteMultiChunkFiles = new File(testConnection.getPath(), "multichunks").listFiles();
+		assertTrue(remoteMultiChunkFiles.length > 1);
+		assertTrue(remoteMultiChunkFiles[0].delete());
+
+		// Run
+		DownOperationOptions downOptions = new DownOperationOptions();
+		downOptions.setDownloadThreads(3);
+
+		boolean downFailed = false;
+
+		try {
+			clientB.down(downOptions);
+		}
+		catch (StorageException e) {
+			downFailed = true;
+		}
+
+		// Test
+		assertTrue(downFailed);
+		assertEquals(0, clientB.getLocalFiles().size());
+		assertEquals("No encrypted multichunks expected in cache", 0, listEncryptedMultiChunksInCache(clientB).size());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Subscribe
+	public void onDownloadFileEvent(DownDownloadFileSyncExternalEvent event) {
+		if ("multichunk".equals(event.getFileDescription())) {
+			downloadEventFileIndexes.add(event.getCurrentFileIndex());
+			downloadEventMaxFileCounts.add(event.getMaxFileCount());
+		}
+	}
+
+	private List<File> listEncryptedMultiChunksInCache(TestClient client) {
+		List<File> encryptedMultiChunkFiles = new ArrayList<File>();
+
+		for (File cacheFile : client.getConfig().getCacheDir().listFiles()) {
+			if (cacheFile.getName().startsWith("multichunk-") && !cacheFile.getName().endsWith("-decrypted")) {
+				encryptedMultiChunkFiles.add(cacheFile);
+			}
+		}
+
+		return encryptedMultiChunkFiles;
+	}
+}
@@ -20,7 +20,9 @@ package org.syncany.tests.integration.operations;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
+import java.util.TreeSet;
 
 import org.junit.Test;
 import org.syncany.config.Config;
@@ -161,4 +163,51 @@ public class StatusOperationTest {
 		// Cleanup 
 		TestConfigUtil.deleteTestLocalConfigAndData(config);
 	}
+
+	@Test
+	public void testStatusWithSimilarPaths() throws Exception {
+		// Setup
+		Config config = TestConfigUtil.createTestLocalConfig();
+		File localDir = config.getLocalDir();
+
+		// Paths that are ordered differently in a depth-first walk and by name: "a" < "a b" < "a.txt" < "a/x" < "a0"
+		new File(localDir, "a").mkdir();
+		new File(localDir, "a/sub").mkdir();
+
+		String[] filePaths = new String[] { "a b", "a.txt", "a/x", "a/sub/y", "a0", "ab", "Z", "a~" };
+
+		for (String filePath : filePaths) {
+			TestFileUtil.createRandomFile(new File(localDir, filePath), 100);
+		}
+
+		new UpOperation(config).execute();
+
+		// Run 'status', nothing changed
+		ChangeSet changeSet = (new StatusOperation(config).execute()).getChangeSet();
+
+		assertEquals(0, changeSet.getNewFiles().size());
+		assertEquals(0, changeSet.getChangedFiles().size());
+		assertEquals(0, changeSet.getDeletedFiles().size());
+		assertEquals(filePaths.length + 2, changeSet.getUnchangedFiles().size());
+
+		// Change, add and delete files
+		Thread.sleep(2000);
+
+		TestFileUtil.changeRandomPartOfBinaryFile(new File(localDir, "a/x"));
+		TestFileUtil.changeRandomPartOfBinaryFile(new File(localDir, "a0"));
+		TestFileUtil.createRandomFile(new File(localDir, "a/sub/z"), 100);
+		TestFileUtil.createRandomFile(new File(localDir, "a-new"), 100);
+		TestFileUtil.deleteFile(new File(localDir, "a.txt"));
+		TestFileUtil.deleteFile(new File(localDir, "a~"));
+
+		changeSet = (new StatusOperation(config).execute()).getChangeSet();
+
+		assertEquals(new TreeSet<String>(Arrays.asList("a/sub/z", "a-new")), changeSet.getNewFiles());
+		assertEquals(new TreeSet<String>(Arrays.asList("a/x", "a0")), changeSet.getChangedFiles());
+		assertEquals(new TreeSet<String>(Arrays.asList("a.txt", "a~")), changeSet.getDeletedFiles());
+		assertEquals(new TreeSet<String>(Arrays.asList("a", "a/sub", "a b", "a/sub/y", "ab", "Z")), changeSet.getUnchangedFiles());
+
+		// Cleanup
+		TestConfigUtil.deleteTestLocalConfigAndData(config);
+	}
 }
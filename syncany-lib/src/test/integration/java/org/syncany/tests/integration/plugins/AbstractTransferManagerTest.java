@@ -18,14 +18,17 @@
 package org.syncany.tests.integration.plugins;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.syncany.plugins.Plugin;
 import org.syncany.plugins.Plugins;
 import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.StreamingTransferManager;
 import org.syncany.plugins.transfer.features.TransactionAwareFeatureTransferManager;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.TransferPlugin;
@@ -142,6 +145,22 @@ public abstract class AbstractTransferManagerTest {
 			String checksumDownloadedFile = StringUtil.toHex(TestFileUtil.createChecksum(downloadedLocalFile));
 
 			assertEquals("Uploaded file differs from original file, for file " + originalLocalFile, checksumOriginalFile, checksumDownloadedFile);
+
+			if (transferManager instanceof StreamingTransferManager && ((StreamingTransferManager) transferManager).isStreamDownloadSupported()) {
+				File streamDownloadedLocalFile = new File(tempToDir, remoteFile.getName() + "-stream");
+				InputStream remoteFileInputStream = ((StreamingTransferManager) transferManager).downloadStream(remoteFile);
+
+				try {
+					FileUtils.copyInputStreamToFile(remoteFileInputStream, streamDownloadedLocalFile);
+				}
+				finally {
+					remoteFileInputStream.close();
+				}
+
+				String checksumStreamDownloadedFile = StringUtil.toHex(TestFileUtil.createChecksum(streamDownloadedLocalFile));
+				assertEquals("Stream-downloaded file differs from original file, for file " + originalLocalFile, checksumOriginalFile,
+						checksumStreamDownloadedFile);
+			}
 		}
 
 		Map<String, T> listLocalFilesAfterUpload = transferManager.list(remoteFileClass);
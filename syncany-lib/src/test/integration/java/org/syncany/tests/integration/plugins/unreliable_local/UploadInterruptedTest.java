@@ -20,6 +20,8 @@ package org.syncany.tests.integration.plugins.unreliable_local;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
 
 import java.io.File;
 import java.io.FilenameFilter;
@@ -31,12 +33,15 @@ import java.util.logging.Logger;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.simpleframework.xml.core.Persister;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.operations.up.UpOperationOptions;
+import org.syncany.plugins.transfer.RemoteTransaction;
 import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.TransferManagerFactory;
 import org.syncany.plugins.transfer.features.TransactionAware;
 import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.plugins.transfer.files.TransactionRemoteFile;
 import org.syncany.plugins.transfer.to.TransactionTO;
 import org.syncany.plugins.unreliable_local.UnreliableLocalTransferSettings;
 import org.syncany.tests.util.TestClient;
@@ -74,7 +79,7 @@ public class UploadInterruptedTest {
 
 			try {
 				Thread.sleep(100);
-				clientA.up();
+				clientA.up(createUpOperationOptions());
 				clientA.down();
 			}
 			catch (StorageException e) {
@@ -115,7 +120,7 @@ public class UploadInterruptedTest {
 		boolean upFailed = false;
 
 		try {
-			clientA.up();
+			clientA.up(createUpOperationOptions());
 		}
 		catch (StorageException e) {
 			upFailed = true;
@@ -170,7 +175,7 @@ public class UploadInterruptedTest {
 		boolean upFailed = false;
 
 		try {
-			clientA.up();
+			clientA.up(createUpOperationOptions());
 		}
 		catch (StorageException e) {
 			upFailed = true;
@@ -193,7 +198,7 @@ public class UploadInterruptedTest {
 		assertTrue(transactionTO.getActions().get(1).getRemoteFile().getName().contains("database-"));
 
 		// 2. Second try succeeds and must clean up the transactions
-		clientA.up();
+		clientA.up(createUpOperationOptions());
 
 		assertEquals(1, new File(testConnection.getPath() + "/databases/").listFiles().length);
 		assertEquals(1, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
@@ -237,7 +242,7 @@ public class UploadInterruptedTest {
 		boolean upFailed = false;
 
 		try {
-			clientA.up();
+			clientA.up(createUpOperationOptions());
 		}
 		catch (StorageException e) {
 			upFailed = true;
@@ -264,7 +269,7 @@ public class UploadInterruptedTest {
 		assertTrue(transactionTO.getActions().get(2).getRemoteFile().getName().contains("database-"));
 
 		// 2. Second try succeeds and must clean up the transactions
-		clientA.up();
+		clientA.up(createUpOperationOptions());
 
 		assertEquals(1, new File(testConnection.getPath() + "/databases/").listFiles().length);
 		assertEquals(2, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
@@ -316,7 +321,7 @@ public class UploadInterruptedTest {
 		boolean firstUpFailed = false;
 
 		try {
-			clientA.up();
+			clientA.up(createUpOperationOptions());
 		}
 		catch (StorageException e) {
 			firstUpFailed = true;
@@ -352,7 +357,7 @@ public class UploadInterruptedTest {
 		boolean secondUpFailed = false;
 
 		// Do not resume, since we want to clean transactions.
-		UpOperationOptions upOptions = new UpOperationOptions();
+		UpOperationOptions upOptions = createUpOperationOptions();
 		upOptions.setResume(false);
 		try {
 			clientA.up(upOptions);
@@ -425,7 +430,7 @@ public class UploadInterruptedTest {
 		boolean firstUpFailed = false;
 
 		try {
-			clientA.up();
+			clientA.up(createUpOperationOptions());
 		}
 		catch (StorageException e) {
 			firstUpFailed = true;
@@ -461,7 +466,7 @@ public class UploadInterruptedTest {
 		boolean secondUpFailed = false;
 
 		// Do not resume, since we want to clean transactions.
-		UpOperationOptions upOptions = new UpOperationOptions();
+		UpOperationOptions upOptions = createUpOperationOptions();
 		upOptions.setResume(false);
 
 		try {
@@ -512,7 +517,7 @@ public class UploadInterruptedTest {
 
 		boolean failed = false;
 		try {
-			clientA.up();
+			clientA.up(createUpOperationOptions());
 		}
 		catch (StorageException e) {
 			failed = true;
@@ -525,7 +530,7 @@ public class UploadInterruptedTest {
 
 		assertEquals(0, clientB.getLocalFiles().size());
 
-		UpOperationOptions upOptions = new UpOperationOptions();
+		UpOperationOptions upOptions = createUpOperationOptions();
 		upOptions.setResume(true);
 		upOptions.setForceUploadEnabled(true);
 		clientA.up(upOptions);
@@ -563,7 +568,7 @@ public class UploadInterruptedTest {
 
 		boolean failed = false;
 		try {
-			clientA.up();
+			clientA.up(createUpOperationOptions());
 		}
 		catch (StorageException e) {
 			failed = true;
@@ -571,7 +576,7 @@ public class UploadInterruptedTest {
 
 		assertTrue(failed);
 
-		UpOperationOptions upOptions = new UpOperationOptions();
+		UpOperationOptions upOptions = createUpOperationOptions();
 		upOptions.setResume(true);
 		upOptions.setForceUploadEnabled(true);
 
@@ -602,4 +607,568 @@ public class UploadInterruptedTest {
 		clientA.deleteTestData();
 		clientB.deleteTestData();
 	}
+
+	@Test
+	public void testUnreliableUpload_ParallelUploadFailsThenResume() throws Exception {
+		/*
+		 * This test uploads many multichunks in parallel. Only the first three uploads
+		 * succeed, so the other parallel uploads fail. Resuming must only upload the
+		 * multichunks that have not been uploaded before.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						// 1st upload is the repo file, 2nd the transaction file; all multichunk
+						// uploads after the first three fail (including retries)
+						"rel=([6-9]|[1-9][0-9]+) .+upload.+multichunk"
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+
+		for (int i = 0; i < 10; i++) {
+			clientA.createNewFile("file-" + i, 2 * 1024 * 1024);
+		}
+
+		UpOperationOptions upOptions = createUpOperationOptions();
+		upOptions.setTransferThreads(4);
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up(upOptions);
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertEquals(0, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertEquals(3, new File(testConnection.getPath() + "/temporary/").listFiles().length);
+
+		// Resume without failures
+		testConnection.setFailingOperationPatterns(Arrays.asList(new String[0]));
+		int uploadCountBeforeResume = testConnection.getTypeOperationCounters().get("upload");
+
+		upOptions.setResume(true);
+		clientA.up(upOptions);
+
+		int multiChunkCount = new File(testConnection.getPath() + "/multichunks/").listFiles().length;
+		int uploadCountDuringResume = testConnection.getTypeOperationCounters().get("upload") - uploadCountBeforeResume;
+
+		assertTrue(multiChunkCount > 4);
+		assertEquals(multiChunkCount - 3 + 2, uploadCountDuringResume); // Missing multichunks, database, transaction file
+		assertEquals(0, new File(testConnection.getPath() + "/temporary/").listFiles().length);
+
+		TestClient clientB = new TestClient("B", testConnection);
+		clientB.down();
+
+		assertEquals(10, clientB.getLocalFiles().size());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_ParallelUploadInterruptedKeepsInterruptFlag() throws Exception {
+		/*
+		 * This test interrupts the thread committing a transaction while it waits for the
+		 * parallel multichunk uploads. The commit must fail, and the interrupt flag must be
+		 * kept, so that the caller can notice the interruption.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(Arrays.asList(new String[0]));
+		TestClient clientA = new TestClient("A", testConnection);
+
+		TransferManager transferManager = TransferManagerFactory.build(clientA.getConfig()).withFeature(TransactionAware.class).asDefault();
+		RemoteTransaction remoteTransaction = new RemoteTransaction(clientA.getConfig(), transferManager, new TransactionTO("A"), 4);
+
+		for (int i = 0; i < 4; i++) {
+			File localFile = clientA.createNewFile("file-" + i, 1024);
+			remoteTransaction.upload(localFile, new MultichunkRemoteFile(MultiChunkId.secureRandomMultiChunkId()));
+		}
+
+		File localTransactionFile = clientA.getConfig().getCache().createTempFile("transaction");
+		TransactionRemoteFile remoteTransactionFile = new TransactionRemoteFile(remoteTransaction);
+
+		// Run
+		boolean commitFailed = false;
+		Thread.currentThread().interrupt();
+
+		try {
+			remoteTransaction.commit(localTransactionFile, remoteTransactionFile);
+		}
+		catch (StorageException e) {
+			commitFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		boolean interrupted = Thread.interrupted(); // Also clears the flag for the other tests
+
+		// Test
+		assertTrue(commitFailed);
+		assertTrue(interrupted);
+		assertEquals(0, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+
+		// Tear down
+		clientA.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_PipelinedUploadFailsThenFallsBackToTransaction() throws Exception {
+		/*
+		 * This test fails when pre-uploading the multichunk while indexing. The multichunk
+		 * must then be uploaded as part of the transaction.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						// 1st upload is the repo file, 2nd is the pre-upload of the multichunk
+						"rel=[234] .+upload.+multichunk" // << 3 retries!!
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		clientA.createNewFile("A-original", 10);
+
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setPipelinedUpload(true);
+
+		clientA.up(upOptions);
+
+		assertEquals(1, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(1, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/temporary/").listFiles().length);
+		assertEquals(1, countCachedMultiChunks(clientA)); // Uploaded in the transaction, so not deleted
+
+		TestClient clientB = new TestClient("B", testConnection);
+		clientB.down();
+
+		assertEquals(1, clientB.getLocalFiles().size());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_PipelinedUploadBeforeTransaction() throws Exception {
+		/*
+		 * This test fails when uploading the transaction file. Since the multichunks are
+		 * uploaded while indexing, they already exist as temporary files at this point.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						".+upload.+, transaction-"
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+
+		for (int i = 0; i < 3; i++) {
+			clientA.createNewFile("file-" + i, 2 * 1024 * 1024);
+		}
+
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setPipelinedUpload(true);
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up(upOptions);
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertEquals(0, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertTrue(new File(testConnection.getPath() + "/temporary/").listFiles().length > 0);
+
+		// Retry without failures
+		testConnection.setFailingOperationPatterns(Arrays.asList(new String[0]));
+		clientA.up(upOptions);
+
+		TestClient clientB = new TestClient("B", testConnection);
+		clientB.down();
+
+		assertEquals(3, clientB.getLocalFiles().size());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_PipelinedFailsAtMultichunkThenResume() throws Exception {
+		/*
+		 * This test fails all multichunk uploads, i.e. the pre-upload while indexing and the
+		 * upload in the transaction. Resuming must upload the multichunk and commit the transaction.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						".+upload.+multichunk"
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.createNewFile("A-original", 10);
+
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setPipelinedUpload(true);
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up(upOptions);
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertEquals(0, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertEquals(1, new File(testConnection.getPath() + "/transactions/").listFiles().length);
+
+		clientB.down();
+		assertEquals(0, clientB.getLocalFiles().size());
+
+		// Resume without failures
+		testConnection.setFailingOperationPatterns(Arrays.asList(new String[0]));
+
+		upOptions.setResume(true);
+		upOptions.setForceUploadEnabled(true);
+		clientA.up(upOptions);
+
+		assertRepoCommitted(testConnection, 1, 1);
+
+		clientB.down();
+		assertFileListEquals(clientA.getLocalFiles(), clientB.getLocalFiles());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_PipelinedFailsAtDatabaseFileThenResume() throws Exception {
+		/*
+		 * This test fails when uploading the database file. The multichunk has been uploaded
+		 * while indexing, so resuming the transaction must not upload it again.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						".+upload.+database"
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.createNewFile("A-original", 10);
+
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setPipelinedUpload(true);
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up(upOptions);
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertEquals(0, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertEquals(1, new File(testConnection.getPath() + "/transactions/").listFiles().length);
+		assertEquals(1, new File(testConnection.getPath() + "/temporary/").listFiles().length); // Pre-uploaded multichunk
+		assertEquals(0, countCachedMultiChunks(clientA)); // Deleted when added to the transaction
+
+		// Resume without failures
+		testConnection.setFailingOperationPatterns(Arrays.asList(new String[0]));
+		int uploadCountBeforeResume = testConnection.getTypeOperationCounters().get("upload");
+
+		upOptions.setResume(true);
+		clientA.up(upOptions);
+
+		int uploadCountDuringResume = testConnection.getTypeOperationCounters().get("upload") - uploadCountBeforeResume;
+
+		assertEquals(2, uploadCountDuringResume); // Action file, database; not the multichunk
+		assertRepoCommitted(testConnection, 1, 1);
+
+		clientB.down();
+		assertFileListEquals(clientA.getLocalFiles(), clientB.getLocalFiles());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_PipelinedFailsAtSecondMultiChunkOfFileThenResume() throws Exception {
+		/*
+		 * This test fails in the middle of a file that spans two multichunks: The first multichunk
+		 * is uploaded while indexing, the pre-upload of the second one and its upload in the transaction
+		 * fail. Resuming must only upload the multichunks that have not been uploaded before.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						// 1st upload is the action file, 2nd the pre-upload of the first multichunk;
+						// all multichunk uploads after that fail (including retries)
+						"rel=([3-9]|[1-9][0-9]+) .+upload.+multichunk"
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.createNewFile("A-original", 5 * 1024 * 1024); // << larger than one multichunk!
+
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setPipelinedUpload(true);
+		upOptions.setTransferThreads(1);
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up(upOptions);
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertEquals(0, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertEquals(1, new File(testConnection.getPath() + "/transactions/").listFiles().length);
+
+		int tempFileCount = new File(testConnection.getPath() + "/temporary/").listFiles().length;
+		assertTrue(tempFileCount >= 1); // At least the pre-uploaded first multichunk
+
+		// Resume without failures
+		testConnection.setFailingOperationPatterns(Arrays.asList(new String[0]));
+		int uploadCountBeforeResume = testConnection.getTypeOperationCounters().get("upload");
+
+		upOptions.setResume(true);
+		clientA.up(upOptions);
+
+		int uploadCountDuringResume = testConnection.getTypeOperationCounters().get("upload") - uploadCountBeforeResume;
+
+		assertEquals(2 + 2 - tempFileCount, uploadCountDuringResume); // Missing multichunks/database, action file
+		assertRepoCommitted(testConnection, 1, 2);
+
+		clientB.down();
+		assertFileListEquals(clientA.getLocalFiles(), clientB.getLocalFiles());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_PipelinedUploadPartlyFailsThenResume() throws Exception {
+		/*
+		 * This test uploads many multichunks in parallel while indexing. Only the first three
+		 * pre-uploads succeed, all other multichunk uploads fail. Resuming must only upload the
+		 * multichunks that have not been uploaded while indexing.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						// 1st upload is the action file, 2nd-4th are pre-uploads; all multichunk
+						// uploads after that fail (including retries)
+						"rel=([5-9]|[1-9][0-9]+) .+upload.+multichunk"
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		for (int i = 0; i < 10; i++) {
+			clientA.createNewFile("file-" + i, 2 * 1024 * 1024);
+		}
+
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setPipelinedUpload(true);
+		upOptions.setTransferThreads(4);
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up(upOptions);
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertEquals(0, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertEquals(1, new File(testConnection.getPath() + "/transactions/").listFiles().length);
+
+		int tempFileCount = new File(testConnection.getPath() + "/temporary/").listFiles().length;
+		assertTrue(tempFileCount >= 3); // Pre-uploaded multichunks (and possibly the database)
+
+		// Resume without failures
+		testConnection.setFailingOperationPatterns(Arrays.asList(new String[0]));
+		int uploadCountBeforeResume = testConnection.getTypeOperationCounters().get("upload");
+
+		upOptions.setResume(true);
+		clientA.up(upOptions);
+
+		int multiChunkCount = new File(testConnection.getPath() + "/multichunks/").listFiles().length;
+		int uploadCountDuringResume = testConnection.getTypeOperationCounters().get("upload") - uploadCountBeforeResume;
+
+		assertTrue(multiChunkCount > 4);
+		assertEquals(multiChunkCount + 2 - tempFileCount, uploadCountDuringResume); // Missing multichunks/database, action file
+		assertRepoCommitted(testConnection, 1, multiChunkCount);
+
+		clientB.down();
+		assertFileListEquals(clientA.getLocalFiles(), clientB.getLocalFiles());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_PipelinedFailsAtTXCommitThenRollsBack() throws Exception {
+		/*
+		 * This test fails when moving the second (pre-uploaded) multichunk to its final location.
+		 * Client B must not see the first multichunk, and the next up() without resuming must roll
+		 * back the transaction and upload everything again.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						"rel=[234].+move.+multichunk"
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.createNewFile("A-original", 5 * 1024 * 1024); // << larger than one multichunk!
+
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setPipelinedUpload(true);
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up(upOptions);
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertEquals(0, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(1, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertEquals(1, new File(testConnection.getPath() + "/transactions/").listFiles().length);
+
+		TransferManager transferManager = TransferManagerFactory.build(clientA.getConfig()).withFeature(TransactionAware.class).asDefault();
+		assertEquals(0, transferManager.list(MultichunkRemoteFile.class).size());
+
+		clientB.down();
+		assertEquals(0, clientB.getLocalFiles().size());
+
+		// Do not resume, since we want to roll back the transaction
+		testConnection.setFailingOperationPatterns(Arrays.asList(new String[0]));
+
+		upOptions.setResume(false);
+		clientA.up(upOptions);
+
+		assertRepoCommitted(testConnection, 1, 2);
+
+		clientB.down();
+		assertFileListEquals(clientA.getLocalFiles(), clientB.getLocalFiles());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	private void assertRepoCommitted(UnreliableLocalTransferSettings testConnection, int expectedDatabaseCount, int expectedMultiChunkCount) {
+		assertEquals(expectedDatabaseCount, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(expectedMultiChunkCount, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/actions/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/transactions/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/temporary/").listFiles().length);
+	}
+
+	private int countCachedMultiChunks(TestClient client) {
+		return client.getConfig().getCacheDir().listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith("multichunk-");
+			}
+		}).length;
+	}
+
+	private UpOperationOptions createUpOperationOptions() {
+		// These tests depend on the exact order of the remote operations, so
+		// multichunks must not be uploaded while indexing; see the 'Pipelined'
+		// tests above for the pipelined upload
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setPipelinedUpload(false);
+
+		return upOptions;
+	}
 }
@@ -0,0 +1,75 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.scenarios;
+
+import static org.junit.Assert.assertEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
+
+import org.junit.Test;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.config.to.RepoTO.ChunkerTO;
+import org.syncany.database.FileVersion;
+import org.syncany.plugins.transfer.TransferSettings;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+public class ChunkerDigestScenarioTest {
+	@Test
+	public void testFastCdcChunkerWithSha256() throws Exception {
+		testChunkerAndDigest(TestConfigUtil.createChunkerTO(FastCdcChunker.TYPE, 16 * 1024, "SHA-256"), 32);
+	}
+
+	@Test
+	public void testTttdChunkerWithSha512() throws Exception {
+		testChunkerAndDigest(TestConfigUtil.createChunkerTO(TttdChunker.TYPE, 16 * 1024, "SHA-512"), 64);
+	}
+
+	private void testChunkerAndDigest(ChunkerTO chunkerTO, int expectedChecksumLength) throws Exception {
+		// Setup
+		TransferSettings testConnection = TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection, chunkerTO);
+		TestClient clientB = new TestClient("B", testConnection, chunkerTO);
+
+		// Run
+		clientA.createNewFile("file1", 300 * 1024);
+		clientA.createNewFile("file2", 10);
+		clientA.up();
+
+		clientB.down();
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		clientB.changeFile("file1");
+		clientB.upWithForceChecksum();
+
+		clientA.down();
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Test
+		FileVersion file1Version = clientA.loadLocalDatabase().getCurrentFileTree().get("file1");
+		assertEquals(expectedChecksumLength, file1Version.getChecksum().getBytes().length);
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+}
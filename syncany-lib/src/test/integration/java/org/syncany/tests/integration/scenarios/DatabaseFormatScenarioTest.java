@@ -0,0 +1,135 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.scenarios;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.syncany.config.to.RepoTO;
+import org.syncany.database.dao.DatabaseBinaryReader;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseFormat;
+import org.syncany.operations.cleanup.CleanupOperationOptions;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+public class DatabaseFormatScenarioTest {
+	@Test
+	public void testBinaryDatabaseFormat() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection, createRepoTO(DatabaseFormat.BINARY));
+		TestClient clientB = new TestClient("B", testConnection, createRepoTO(DatabaseFormat.BINARY));
+		TestClient clientC = new TestClient("C", testConnection, createRepoTO(DatabaseFormat.BINARY));
+
+		// Run
+		clientA.createNewFile("file1", 50 * 1024);
+		clientA.createNewFolder("folder");
+		clientA.createNewFile("folder/file2", 10);
+		clientA.up();
+
+		assertTrue(isBinaryDatabaseFile(clientA, new File(testConnection.getPath(), "databases/database-A-0000000001")));
+
+		clientB.down();
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		clientB.changeFile("file1");
+		clientB.moveFile("folder/file2", "file2");
+		clientB.upWithForceChecksum();
+
+		clientA.down();
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Merge database files, merged file must be binary as well
+		CleanupOperationOptions cleanupOptions = new CleanupOperationOptions();
+		cleanupOptions.setRemoveOldVersions(false);
+		cleanupOptions.setForce(true);
+
+		clientA.cleanup(cleanupOptions);
+
+		assertFalse(new File(testConnection.getPath(), "databases/database-A-0000000001").exists());
+		assertTrue(isBinaryDatabaseFile(clientA, new File(testConnection.getPath(), "databases/database-A-0000000002")));
+
+		clientC.down();
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientC.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientC.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+		clientC.deleteTestData();
+	}
+
+	@Test
+	public void testMixedXmlAndBinaryDatabaseFormat() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection, createRepoTO(DatabaseFormat.XML));
+		TestClient clientB = new TestClient("B", testConnection, createRepoTO(DatabaseFormat.BINARY));
+
+		// Run
+		clientA.createNewFile("file1", 50 * 1024);
+		clientA.up();
+
+		assertFalse(isBinaryDatabaseFile(clientA, new File(testConnection.getPath(), "databases/database-A-0000000001")));
+
+		clientB.down();
+		clientB.createNewFile("file2", 20 * 1024);
+		clientB.up();
+
+		assertTrue(isBinaryDatabaseFile(clientB, new File(testConnection.getPath(), "databases/database-B-0000000001")));
+
+		clientA.down();
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+		assertEquals(2, clientA.getLocalFilesExcludeLockedAndNoRead().size());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	private RepoTO createRepoTO(DatabaseFormat databaseFormat) {
+		RepoTO repoTO = TestConfigUtil.createRepoTO();
+		repoTO.setDatabaseFormat(databaseFormat);
+
+		return repoTO;
+	}
+
+	private boolean isBinaryDatabaseFile(TestClient client, File databaseFile) throws Exception {
+		try (InputStream databaseInputStream = client.getConfig().getTransformer().createInputStream(new FileInputStream(databaseFile))) {
+			byte[] fileStart = new byte[4];
+			IOUtils.read(databaseInputStream, fileStart);
+
+			return DatabaseBinaryReader.isBinaryFormat(fileStart);
+		}
+	}
+}
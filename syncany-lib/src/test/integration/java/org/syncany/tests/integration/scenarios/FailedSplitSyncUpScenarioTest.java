@@ -12,6 +12,7 @@ import java.util.Arrays;
 
 import static junit.framework.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
 
 /**
  * This test is designed for the scenario where a sync up consisting of multiple transactions fails during the
@@ -33,6 +34,7 @@ public class FailedSplitSyncUpScenarioTest {
 		TestClient clientA = new TestClient("A", testConnection);
 		UpOperationOptions options = new UpOperationOptions();
 		options.setTransactionSizeLimit(0L);
+		options.setPipelinedUpload(false); // Depends on the exact order of remote operations
 
 		// Write three files (three transactions), with the first file spanning two multichunks
 		clientA.createNewFile("file1", 5 * 1024 * 1024);
@@ -88,4 +90,83 @@ public class FailedSplitSyncUpScenarioTest {
 		clientA.deleteTestData();
 	}
 
+	@Test
+	public void testPipelinedUpFailsOnFirstTransaction() throws Exception {
+
+		// Inject failure for all multichunks after the first one (1st upload is the action file,
+		// 2nd is the pre-upload of the first multichunk while indexing)
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList("rel=([3-9]|[1-9][0-9]+) .+upload.+multichunk"));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		UpOperationOptions options = new UpOperationOptions();
+		options.setTransactionSizeLimit(0L);
+		options.setPipelinedUpload(true);
+		options.setTransferThreads(1);
+
+		// Write three files (three transactions), with the first file spanning two multichunks
+		clientA.createNewFile("file1", 5 * 1024 * 1024);
+		clientA.createNewFile("file2", 1024);
+		clientA.createNewFile("file3", 1024);
+
+		// 1. Attempt upload, should fail
+		boolean operationFailed = false;
+		try {
+			clientA.up(options);
+		}
+		catch (Exception ex) {
+			operationFailed = true;
+		}
+		assertTrue(operationFailed);
+
+		// 2. Verify local state
+		File stateDir = clientA.getConfig().getStateDir();
+		File cacheDir = clientA.getConfig().getCacheDir();
+		// Expecting: 3 transactions + 3 databases + transaction list + in-progress transaction
+		assertEquals(8, stateDir.listFiles().length);
+		// Expecting: 3 databases + 3 multichunks + in-progress transaction (the pre-uploaded multichunk is
+		// deleted locally once it has been added to the transaction)
+		assertEquals(7, cacheDir.listFiles().length);
+
+		// 3. Verify remote state
+		File repoActionsDir = new File(testConnection.getPath() + "/actions");
+		File repoDatabasesDir = new File(testConnection.getPath() + "/databases");
+		File repoMultichunksDir = new File(testConnection.getPath() + "/multichunks");
+		File repoTemporaryDir = new File(testConnection.getPath() + "/temporary");
+		File repoTransactionsDir = new File(testConnection.getPath() + "/transactions");
+		// Expecting that nothing has been committed, and that the pre-uploaded multichunk exists as temporary
+		assertEquals("One pending action should exist in repo", 1, repoActionsDir.listFiles().length);
+		assertEquals("No database should be committed in repo", 0, repoDatabasesDir.listFiles().length);
+		assertEquals("No multichunk should be committed in repo", 0, repoMultichunksDir.listFiles().length);
+		assertTrue("Pre-uploaded multichunk should exist in repo as temporary", repoTemporaryDir.listFiles().length >= 1);
+		assertEquals("One pending transaction should exist in repo", 1, repoTransactionsDir.listFiles().length);
+
+		// 4. Resume operation
+		testConnection.setFailingOperationPatterns(Arrays.asList(new String[0]));
+		clientA.up(options);
+
+		// 5. Final state should be as if no failure occurred; three database versions, three complete files
+		assertEquals("Three databases should be committed in repo", 3, repoDatabasesDir.listFiles().length);
+		for (int fileNumber = 1; fileNumber <= 3; fileNumber++) {
+			DatabaseRemoteFile databaseRemoteFile = new DatabaseRemoteFile("A", fileNumber);
+			File databaseFile = new File(testConnection.getPath() + "/databases/" + databaseRemoteFile.getName());
+
+			assertTrue("Database file should exist: " + databaseFile, databaseFile.exists());
+		}
+
+		assertEquals("Four multichunks should be committed in repo", 4, repoMultichunksDir.listFiles().length);
+		assertEquals("No temporary files should be left in repo", 0, repoTemporaryDir.listFiles().length);
+		assertEquals("No pending transaction should be left in repo", 0, repoTransactionsDir.listFiles().length);
+
+		// 6. Another client sees all files
+		TestClient clientB = new TestClient("B", testConnection);
+		clientB.down();
+
+		assertFileListEquals(clientA.getLocalFiles(), clientB.getLocalFiles());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
 }
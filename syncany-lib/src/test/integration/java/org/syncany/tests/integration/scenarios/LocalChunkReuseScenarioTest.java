@@ -0,0 +1,113 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.scenarios;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+import org.syncany.operations.down.DownOperationResult;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+public class LocalChunkReuseScenarioTest {
+	@Test
+	public void testSmallChangeInLargeFileOnlyDownloadsNewMultiChunks() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.createNewFile("large-file", 5 * 1024 * 1024);
+		clientA.up();
+		clientB.down();
+
+		int multiChunkCountBefore = getRemoteMultiChunkCount(testConnection);
+
+		// Run: Change a few bytes in the middle of the file
+		try (RandomAccessFile largeFile = new RandomAccessFile(clientA.getLocalFile("large-file"), "rw")) {
+			largeFile.seek(2 * 1024 * 1024);
+			largeFile.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		}
+
+		clientA.upWithForceChecksum();
+
+		int newMultiChunkCount = getRemoteMultiChunkCount(testConnection) - multiChunkCountBefore;
+		clientB.getConfig().getCache().clear(0);
+
+		DownOperationResult downOperationResult = clientB.down();
+
+		// Test
+		assertTrue(multiChunkCountBefore > 1);
+		assertTrue(newMultiChunkCount >= 1);
+		assertTrue("Only new multichunks should have been downloaded.", downOperationResult.getDownloadedMultiChunks().size() <= newMultiChunkCount);
+
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testCopiedFileIsAssembledFromLocalFile() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.createNewFile("file", 2 * 1024 * 1024);
+		clientA.up();
+		clientB.down();
+
+		int multiChunkCountBefore = getRemoteMultiChunkCount(testConnection);
+
+		// Run: Copy and change the original; at B, the copies can be read from the unchanged original
+		clientA.createNewFolder("folder");
+		clientA.copyFile("file", "folder/file-copy");
+		clientA.copyFile("file", "folder/file-copy2");
+		clientA.changeFile("file");
+		clientA.upWithForceChecksum();
+
+		int newMultiChunkCount = getRemoteMultiChunkCount(testConnection) - multiChunkCountBefore;
+		clientB.getConfig().getCache().clear(0);
+
+		DownOperationResult downOperationResult = clientB.down();
+
+		// Test
+		assertEquals("Only the changed file should have been downloaded.", newMultiChunkCount, downOperationResult.getDownloadedMultiChunks().size());
+
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	private int getRemoteMultiChunkCount(LocalTransferSettings testConnection) {
+		return new File(testConnection.getPath(), "multichunks").listFiles().length;
+	}
+}
@@ -18,6 +18,9 @@
 package org.syncany.plugins.unreliable_local;
 
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,6 +40,13 @@ public class UnreliableLocalTransferManager extends LocalTransferManager {
 	}
 
 	private boolean isNextOperationSuccessful(String operationType, String operationDescription) {
+		// Counters are shared by all transfer managers of a connection (e.g. for parallel uploads)
+		synchronized (connection) {
+			return isNextOperationSuccessfulUnsynchronized(operationType, operationDescription);
+		}
+	}
+
+	private boolean isNextOperationSuccessfulUnsynchronized(String operationType, String operationDescription) {
 		// Increase absolute/overall operation counter
 		connection.increaseTotalOperationCounter();
 
@@ -114,6 +124,32 @@ public class UnreliableLocalTransferManager extends LocalTransferManager {
 		}
 	}
 
+	@Override
+	public boolean isStreamDownloadSupported() {
+		return connection.isStreamDownloadSupported() && super.isStreamDownloadSupported();
+	}
+
+	@Override
+	public InputStream downloadStream(RemoteFile remoteFile) throws StorageException {
+		String operationType = "download";
+		String operationDescription = "downloadStream(" + remoteFile.getName() + ")";
+
+		if (isNextOperationSuccessful(operationType, operationDescription)) {
+			InputStream inputStream = super.downloadStream(remoteFile);
+
+			// Reading the stream is a separate operation, so that the connection can break after opening it
+			if (isNextOperationSuccessful("read", "read(" + remoteFile.getName() + ")")) {
+				return inputStream;
+			}
+			else {
+				return new BrokenInputStream(inputStream);
+			}
+		}
+		else {
+			throw new StorageException("Operation failed: " + operationDescription);
+		}
+	}
+
 	@Override
 	public void upload(File localFile, RemoteFile remoteFile) throws StorageException {
 		String operationType = "upload";
@@ -165,4 +201,40 @@ public class UnreliableLocalTransferManager extends LocalTransferManager {
 			throw new StorageException("Operation failed: " + operationDescription);
 		}
 	}
+
+	/**
+	 * Simulates a connection that breaks while a stream download is read: It
+	 * passes on the first bytes of the underlying stream, and then fails.
+	 */
+	private static class BrokenInputStream extends FilterInputStream {
+		private static final int BYTES_BEFORE_FAILURE = 512;
+		private int bytesRead;
+
+		public BrokenInputStream(InputStream underlyingInputStream) {
+			super(underlyingInputStream);
+			this.bytesRead = 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] singleByte = new byte[1];
+			return (read(singleByte, 0, 1) == -1) ? -1 : singleByte[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (bytesRead >= BYTES_BEFORE_FAILURE) {
+				throw new IOException("Operation failed: Connection broken while reading stream.");
+			}
+
+			int read = super.read(b, off, Math.min(len, BYTES_BEFORE_FAILURE - bytesRead));
+
+			if (read == -1) {
+				throw new IOException("Operation failed: Connection broken while reading stream.");
+			}
+
+			bytesRead += read;
+			return read;
+		}
+	}
 }
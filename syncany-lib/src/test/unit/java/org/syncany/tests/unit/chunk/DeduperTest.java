@@ -0,0 +1,240 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Deduper;
+import org.syncany.chunk.DeduperListener;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.MultiChunk;
+import org.syncany.chunk.NoTransformer;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.chunk.ZipMultiChunker;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.tests.unit.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class DeduperTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testParallelDeduplicationEqualsSequentialWithFixedChunker() throws Exception {
+		testParallelDeduplicationEqualsSequential(new FixedChunker(16 * 1024));
+	}
+
+	@Test
+	public void testParallelDeduplicationEqualsSequentialWithTttdChunker() throws Exception {
+		testParallelDeduplicationEqualsSequential(new TttdChunker(16 * 1024));
+	}
+
+	@Test
+	public void testParallelDeduplicationWithTransactionLimit() throws Exception {
+		List<File> inputFiles = createInputFiles();
+		List<String> expectedEvents = deduplicate(new ArrayList<File>(inputFiles), new FixedChunker(16 * 1024), 1, Long.MAX_VALUE);
+
+		// Deduplicate in many small transactions, like the indexer does
+		List<File> remainingFiles = new ArrayList<File>(inputFiles);
+		Deduper deduper = new Deduper(new FixedChunker(16 * 1024), new ZipMultiChunker(512), new NoTransformer(), Long.MAX_VALUE, 3, 4);
+		EventRecordingDeduperListener listener = new EventRecordingDeduperListener();
+
+		while (!remainingFiles.isEmpty()) {
+			deduper.deduplicate(remainingFiles, listener);
+		}
+
+		assertEquals(filterFileEvents(expectedEvents), filterFileEvents(listener.events));
+	}
+
+	@Test
+	public void testChunkerThreadsStoppedWhenTransactionLimitReachedOnLastFile() throws Exception {
+		List<File> inputFiles = new ArrayList<File>();
+
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 100 * 1024));
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 200 * 1024));
+
+		// Limit is reached on the last file, so the deduper returns early and is not called again
+		Deduper deduper = new Deduper(new FixedChunker(16 * 1024), new ZipMultiChunker(512), new NoTransformer(), 1, Long.MAX_VALUE, 4);
+		EventRecordingDeduperListener listener = new EventRecordingDeduperListener();
+
+		deduper.deduplicate(inputFiles, listener);
+		assertFalse(inputFiles.isEmpty());
+
+		deduper.deduplicate(inputFiles, listener);
+		assertTrue(inputFiles.isEmpty());
+		assertFalse(listener.events.contains("finish"));
+
+		for (int i = 0; i < 50 && countChunkerThreads() > 0; i++) {
+			Thread.sleep(100);
+		}
+
+		assertEquals(0, countChunkerThreads());
+	}
+
+	private int countChunkerThreads() {
+		int chunkerThreadCount = 0;
+
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().startsWith("Chunker/")) {
+				chunkerThreadCount++;
+			}
+		}
+
+		return chunkerThreadCount;
+	}
+
+	private void testParallelDeduplicationEqualsSequential(Chunker chunker) throws Exception {
+		List<File> inputFiles = createInputFiles();
+
+		List<String> sequentialEvents = deduplicate(new ArrayList<File>(inputFiles), chunker, 1, Long.MAX_VALUE);
+		List<String> parallelEvents = deduplicate(new ArrayList<File>(inputFiles), chunker, 4, Long.MAX_VALUE);
+
+		assertFalse(sequentialEvents.isEmpty());
+		assertEquals(sequentialEvents, parallelEvents);
+	}
+
+	private List<File> createInputFiles() throws IOException {
+		List<File> inputFiles = new ArrayList<File>();
+
+		for (int i = 0; i < 20; i++) {
+			inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, (i % 5) * 100 * 1024 + i));
+
+			if (i % 7 == 0) {
+				File folder = new File(tempDir, "folder" + i);
+				folder.mkdir();
+
+				inputFiles.add(folder);
+			}
+		}
+
+		inputFiles.add(TestFileUtil.copyFile(inputFiles.get(3), new File(tempDir, "copy-of-file-3")));
+		return inputFiles;
+	}
+
+	private List<String> deduplicate(List<File> inputFiles, Chunker chunker, int threadCount, long maxNumberOfFiles) throws IOException {
+		Deduper deduper = new Deduper(chunker, new ZipMultiChunker(512), new NoTransformer(), Long.MAX_VALUE, maxNumberOfFiles, threadCount);
+		EventRecordingDeduperListener listener = new EventRecordingDeduperListener();
+
+		deduper.deduplicate(inputFiles, listener);
+		return listener.events;
+	}
+
+	private List<String> filterFileEvents(List<String> events) {
+		List<String> fileEvents = new ArrayList<String>();
+
+		for (String event : events) {
+			if (event.startsWith("file")) {
+				fileEvents.add(event);
+			}
+		}
+
+		return fileEvents;
+	}
+
+	private class EventRecordingDeduperListener implements DeduperListener {
+		private List<String> events = new ArrayList<String>();
+		private Set<String> knownChunks = new HashSet<String>();
+		private int multiChunkCount = 0;
+
+		@Override
+		public boolean onFileFilter(File file) {
+			events.add("fileFilter " + file.getName());
+			return true;
+		}
+
+		@Override
+		public boolean onFileStart(File file) {
+			events.add("fileStart " + file.getName());
+			return file.isFile();
+		}
+
+		@Override
+		public void onFileAddChunk(File file, Chunk chunk) {
+			events.add("fileAddChunk " + file.getName() + " " + StringUtil.toHex(chunk.getChecksum()) + " " + chunk.getSize());
+		}
+
+		@Override
+		public void onFileEnd(File file, byte[] checksum) {
+			events.add("fileEnd " + file.getName() + " " + ((checksum != null) ? StringUtil.toHex(checksum) : null));
+		}
+
+		@Override
+		public boolean onChunk(Chunk chunk) {
+			events.add("chunk " + StringUtil.toHex(chunk.getChecksum()));
+			return knownChunks.add(StringUtil.toHex(chunk.getChecksum()));
+		}
+
+		@Override
+		public void onMultiChunkOpen(MultiChunk multiChunk) {
+			events.add("multiChunkOpen " + multiChunk.getId());
+		}
+
+		@Override
+		public MultiChunkId createNewMultiChunkId(Chunk firstChunk) {
+			return new MultiChunkId(new byte[] { (byte) multiChunkCount++ });
+		}
+
+		@Override
+		public File getMultiChunkFile(MultiChunkId multiChunkId) {
+			return new File(tempDir, "multichunk-" + multiChunkId + "-" + System.nanoTime());
+		}
+
+		@Override
+		public void onMultiChunkWrite(MultiChunk multiChunk, Chunk chunk) {
+			events.add("multiChunkWrite " + multiChunk.getId() + " " + StringUtil.toHex(chunk.getChecksum()));
+		}
+
+		@Override
+		public void onMultiChunkClose(MultiChunk multiChunk) {
+			events.add("multiChunkClose " + multiChunk.getId() + " " + multiChunk.getSize());
+		}
+
+		@Override
+		public void onStart(int fileCount) {
+			events.add("start " + fileCount);
+		}
+
+		@Override
+		public void onFinish() {
+			events.add("finish");
+		}
+	}
+}
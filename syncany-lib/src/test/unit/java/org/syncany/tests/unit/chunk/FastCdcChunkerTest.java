@@ -0,0 +1,246 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FastCdcChunker.FastCdcEnumeration;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.unit.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
+
+public class FastCdcChunkerTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testStringSerialization() {
+		final int CHUNK_SIZE = 64*1024;
+
+		Chunker chunker = new FastCdcChunker(CHUNK_SIZE);
+		assertEquals("Other toString() result expected.", "FastCDC-"+CHUNK_SIZE+"-"+FastCdcChunker.DEFAULT_DIGEST_ALG, chunker.toString());
+	}
+
+	@Test
+	public void testGetInstanceAndInit() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "65536");
+
+		Chunker fastCdcChunker = Chunker.getInstance(FastCdcChunker.TYPE);
+		fastCdcChunker.init(settings);
+
+		Chunker tttdChunker = Chunker.getInstance(TttdChunker.TYPE);
+		tttdChunker.init(settings);
+
+		Chunker fixedChunker = Chunker.getInstance(FixedChunker.TYPE);
+		fixedChunker.init(settings);
+
+		assertEquals(new FastCdcChunker(65536).toString(), fastCdcChunker.toString());
+		assertEquals(new TttdChunker(65536).toString(), tttdChunker.toString());
+		assertEquals(new FixedChunker(65536).toString(), fixedChunker.toString());
+		assertNull(Chunker.getInstance("does-not-exist"));
+	}
+
+	@Test
+	public void testInitWithDigestAlgorithm() throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "16384");
+		settings.put(Chunker.PROPERTY_DIGEST, "SHA-256");
+
+		Chunker chunker = Chunker.getInstance(FastCdcChunker.TYPE);
+		chunker.init(settings);
+
+		assertEquals("SHA-256", chunker.getChecksumAlgorithm());
+		assertEquals("FastCDC-16384-SHA-256", chunker.toString());
+
+		// Chunk and file checksums are SHA-256 checksums
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 100*1024);
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+		Chunk lastChunk = null;
+
+		while (chunkEnumeration.hasMoreElements()) {
+			lastChunk = chunkEnumeration.nextElement();
+			assertEquals(32, lastChunk.getChecksum().length);
+		}
+
+		assertArrayEquals(FileUtil.createChecksum(inputFile, "SHA-256"), lastChunk.getFileChecksum());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInitWithInvalidDigestAlgorithm() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "16384");
+		settings.put(Chunker.PROPERTY_DIGEST, "does-not-exist");
+
+		Chunker.getInstance(FastCdcChunker.TYPE).init(settings);
+	}
+
+	@Test
+	public void testCreateChunksFrom5MBFileAndTestChunkSize() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 5*1024*1024;
+		final int AVG_CHUNK_SIZE = 64*1024;
+
+		// Setup
+		File inputRandom5MBFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+
+		File outputCopyOfRandom5MBFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		FileOutputStream outputCopyOfRandom5MBFileOutputStream = new FileOutputStream(outputCopyOfRandom5MBFile);
+
+		Chunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+
+		// Create chunks
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputRandom5MBFile);
+		Chunk lastChunk = null;
+		int chunkCount = 0;
+
+		while (chunkEnumeration.hasMoreElements()) {
+			lastChunk = chunkEnumeration.nextElement();
+			chunkCount++;
+
+			// Checksum and size
+			assertNotNull("Chunk checksum should not be null.", lastChunk.getChecksum());
+			assertTrue("Chunk must not be larger than the max. chunk size.", lastChunk.getSize() <= 8*AVG_CHUNK_SIZE);
+
+			if (lastChunk.getFileChecksum() == null) {
+				assertTrue("Chunk must not be smaller than the min. chunk size.", lastChunk.getSize() >= AVG_CHUNK_SIZE/4);
+			}
+
+			outputCopyOfRandom5MBFileOutputStream.write(lastChunk.getContent(), 0, lastChunk.getSize());
+		}
+
+		outputCopyOfRandom5MBFileOutputStream.close();
+
+		// Number of chunks (expected: 80, allow for some variance)
+		assertTrue("Unexpected number of chunks: " + chunkCount, chunkCount > 40 && chunkCount < 160);
+
+		// Checksums
+		byte[] inputFileChecksum = FileUtil.createChecksum(inputRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+		byte[] outputFileChecksum = FileUtil.createChecksum(outputCopyOfRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+
+		assertArrayEquals("Checksums of input and output file do not match.", inputFileChecksum, outputFileChecksum);
+		assertArrayEquals("Last chunk's getFileChecksum() should be the file checksum.", inputFileChecksum, lastChunk.getFileChecksum());
+	}
+
+	@Test
+	public void testNextChunkEvenIfThereAreNone() throws IOException {
+		// Setup
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 5*1024);
+		Chunker chunker = new FastCdcChunker(64*1024);
+
+		// Create chunks
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkEnumeration.nextElement();
+		}
+
+		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
+		assertFalse("hasElements() should return 'false' if no chunk available.", chunkEnumeration.hasMoreElements());
+	}
+
+	@Test
+	public void testInsertedBytesOnlyChangeNearbyChunks() throws IOException {
+		// Setup
+		byte[] originalBytes = TestFileUtil.createRandomArray(2*1024*1024);
+		byte[] modifiedBytes = new byte[originalBytes.length + 100];
+
+		// Insert 100 random bytes after the first 10 KB
+		System.arraycopy(originalBytes, 0, modifiedBytes, 0, 10*1024);
+		System.arraycopy(TestFileUtil.createRandomArray(100), 0, modifiedBytes, 10*1024, 100);
+		System.arraycopy(originalBytes, 10*1024, modifiedBytes, 10*1024 + 100, originalBytes.length - 10*1024);
+
+		FastCdcChunker chunker = new FastCdcChunker(16*1024);
+
+		List<String> originalChunks = getChunkChecksumsAndSizes(chunker.new FastCdcEnumeration(new ByteArrayInputStream(originalBytes)));
+		List<String> modifiedChunks = getChunkChecksumsAndSizes(chunker.new FastCdcEnumeration(new ByteArrayInputStream(modifiedBytes)));
+
+		// Only the first chunks should differ; a fixed chunker would change all of them
+		Set<String> newChunks = new HashSet<String>(modifiedChunks);
+		newChunks.removeAll(originalChunks);
+
+		assertTrue("Expected only a few changed chunks, but got " + newChunks.size() + " of " + modifiedChunks.size(), newChunks.size() <= 3);
+	}
+
+	@Test
+	public void testChunkBoundariesIndependentOfStreamReadSize() throws IOException {
+		// Setup
+		byte[] inputBytes = TestFileUtil.createRandomArray(1024*1024 + 17);
+		FastCdcChunker chunker = new FastCdcChunker(16*1024);
+
+		// Create chunks with a stream that reads all bytes at once, and one that returns only a few bytes per read
+		FastCdcEnumeration fullReadEnumeration = chunker.new FastCdcEnumeration(new ByteArrayInputStream(inputBytes));
+
+		FastCdcEnumeration shortReadEnumeration = chunker.new FastCdcEnumeration(new ByteArrayInputStream(inputBytes) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1000));
+			}
+		});
+
+		List<String> fullReadChunks = getChunkChecksumsAndSizes(fullReadEnumeration);
+		List<String> shortReadChunks = getChunkChecksumsAndSizes(shortReadEnumeration);
+
+		assertEquals("Chunk boundaries must not depend on how the stream is read.", fullReadChunks, shortReadChunks);
+	}
+
+	private List<String> getChunkChecksumsAndSizes(Enumeration<Chunk> chunkEnumeration) {
+		List<String> chunkChecksumsAndSizes = new ArrayList<String>();
+
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			chunkChecksumsAndSizes.add(StringUtil.toHex(chunk.getChecksum()) + "/" + chunk.getSize());
+		}
+
+		return chunkChecksumsAndSizes;
+	}
+}
@@ -28,7 +28,10 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -39,6 +42,7 @@ import org.syncany.chunk.Chunker;
 import org.syncany.chunk.FixedChunker;
 import org.syncany.tests.unit.util.TestFileUtil;
 import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
 
 public class FixedOffsetChunkerTest {
 	private File tempDir;
@@ -134,6 +138,44 @@ public class FixedOffsetChunkerTest {
 		assertFalse("hasElements() should return 'false' if no chunk available.", chunkEnumeration.hasMoreElements());
 	}
 
+	@Test
+	public void testMemoryMappedChunksEqualStreamChunks() throws Exception {
+		// Setup
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 3 * 1024 * 1024 + 1337);
+
+		FixedChunker streamChunker = new FixedChunker(256 * 1024);
+		streamChunker.setMemoryMapThreshold(-1);
+
+		FixedChunker mappedChunker = new FixedChunker(256 * 1024);
+		mappedChunker.setMemoryMapThreshold(0);
+
+		// Create chunks
+		List<String> streamChunks = new ArrayList<String>();
+		List<String> mappedChunks = new ArrayList<String>();
+		Chunk lastMappedChunk = null;
+
+		for (Enumeration<Chunk> chunkEnumeration = streamChunker.createChunks(inputFile); chunkEnumeration.hasMoreElements();) {
+			streamChunks.add(toChunkString(chunkEnumeration.nextElement()));
+		}
+
+		for (Enumeration<Chunk> chunkEnumeration = mappedChunker.createChunks(inputFile); chunkEnumeration.hasMoreElements();) {
+			lastMappedChunk = chunkEnumeration.nextElement();
+			mappedChunks.add(toChunkString(lastMappedChunk));
+		}
+
+		// Compare
+		assertEquals(13, mappedChunks.size());
+		assertEquals(streamChunks, mappedChunks);
+		assertArrayEquals(FileUtil.createChecksum(inputFile, FixedChunker.DEFAULT_DIGEST_ALG), lastMappedChunk.getFileChecksum());
+	}
+
+	private String toChunkString(Chunk chunk) {
+		byte[] chunkContents = Arrays.copyOf(chunk.getContent(), chunk.getSize());
+		String fileChecksum = (chunk.getFileChecksum() != null) ? StringUtil.toHex(chunk.getFileChecksum()) : null;
+
+		return StringUtil.toHex(chunk.getChecksum()) + "/" + chunk.getSize() + "/" + fileChecksum + "/" + StringUtil.toHex(chunkContents);
+	}
+
 	@Test
 	public void testExceptionInvalidDigestAlgorithm() {
 		boolean exceptionThrown = false;
@@ -43,6 +43,7 @@ import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
 import org.syncany.chunk.Deduper;
 import org.syncany.chunk.DeduperListener;
+import org.syncany.chunk.FastCdcChunker;
 import org.syncany.chunk.GzipTransformer;
 import org.syncany.chunk.MultiChunk;
 import org.syncany.chunk.MultiChunker;
@@ -127,6 +128,7 @@ public class FrameworkCombinationTest {
 		for (int i = 0; i < chunkSizes.length; i++) {
 			for (int j = 0; j < digestAlgs.length; j++) {
 				//chunkers.add(new FixedOffsetChunker(chunkSizes[i], digestAlgs[j]));
+				chunkers.add(new FastCdcChunker(chunkSizes[i], digestAlgs[j]));
 
 				for (int k = 0; k < fingerprinters.length; k++) {
 					chunkers.add(new TttdChunker(chunkSizes[i], TttdChunker.DEFAULT_WINDOW_SIZE, digestAlgs[j], fingerprinters[k]));
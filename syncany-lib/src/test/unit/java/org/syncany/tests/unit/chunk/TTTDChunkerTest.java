@@ -24,10 +24,13 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -36,8 +39,10 @@ import org.junit.Test;
 import org.syncany.chunk.Chunk;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.TttdChunker;
+import org.syncany.chunk.TttdChunker.TTTDEnumeration;
 import org.syncany.tests.unit.util.TestFileUtil;
 import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
 
 public class TTTDChunkerTest {
 	private File tempDir;
@@ -127,4 +132,37 @@ public class TTTDChunkerTest {
 		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
 		assertFalse("hasElements() should return 'false' if no chunk available.", chunkEnumeration.hasMoreElements());
 	}
+	
+	@Test
+	public void testChunkBoundariesIndependentOfStreamReadSize() throws IOException {
+		// Setup
+		byte[] inputBytes = TestFileUtil.createRandomArray(1024*1024 + 17);
+		TttdChunker chunker = new TttdChunker(16*1024);
+
+		// Create chunks with a stream that reads all bytes at once, and one that returns only a few bytes per read
+		TTTDEnumeration fullReadEnumeration = chunker.new TTTDEnumeration(new ByteArrayInputStream(inputBytes));
+		
+		TTTDEnumeration shortReadEnumeration = chunker.new TTTDEnumeration(new ByteArrayInputStream(inputBytes) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1000));
+			}
+		});
+		
+		List<String> fullReadChunks = getChunkChecksumsAndSizes(fullReadEnumeration);
+		List<String> shortReadChunks = getChunkChecksumsAndSizes(shortReadEnumeration);
+		
+		assertEquals("Chunk boundaries must not depend on how the stream is read.", fullReadChunks, shortReadChunks);
+	}
+	
+	private List<String> getChunkChecksumsAndSizes(Enumeration<Chunk> chunkEnumeration) {
+		List<String> chunkChecksumsAndSizes = new ArrayList<String>();
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			chunkChecksumsAndSizes.add(StringUtil.toHex(chunk.getChecksum()) + "/" + chunk.getSize());
+		}
+		
+		return chunkChecksumsAndSizes;
+	}
 }
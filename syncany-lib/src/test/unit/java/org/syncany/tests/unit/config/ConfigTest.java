@@ -19,22 +19,30 @@ package org.syncany.tests.unit.config;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
 import javax.crypto.spec.SecretKeySpec;
 
-import org.junit.Ignore;
 import org.junit.Test;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.FastCdcChunker;
 import org.syncany.config.Config;
 import org.syncany.config.ConfigException;
 import org.syncany.config.to.ConfigTO;
+import org.syncany.config.to.DefaultRepoTOFactory;
 import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.MultiCipherOutputStream;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.tests.util.TestAssertUtil;
 import org.syncany.tests.util.TestConfigUtil;
@@ -166,8 +174,6 @@ public class ConfigTest {
 	}
 
 	@Test
-	@Ignore
-	// TODO [low] ChunkerTO is not used yet; so no test for it.
 	public void testConfigChunkerNull() throws Exception {
 		// Setup
 		File localDir = new File("/some/folder");
@@ -180,7 +186,64 @@ public class ConfigTest {
 		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
 		repoTO.setTransformers(null); // <<< valid
 
-		repoTO.setChunkerTO(null); // <<< INVALID !!
+		repoTO.setChunkerTO(null); // <<< valid, falls back to legacy chunker
+
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+
+		// Test
+		assertNotNull(config.getChunker());
+		assertEquals("FixedChunker", config.getChunker().getClass().getSimpleName());
+		assertEquals("Fixed-524288-SHA1", config.getChunker().toString());
+	}
+
+	@Test
+	public void testConfigChunkerFastCdc() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+
+		ChunkerTO chunkerTO = new ChunkerTO();
+		chunkerTO.setType("fast-cdc");
+		chunkerTO.setSettings(new HashMap<String, String>());
+		chunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, "65536");
+
+		repoTO.setChunkerTO(chunkerTO); // <<< valid
+
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+
+		// Test
+		assertNotNull(config.getChunker());
+		assertEquals("FastCdcChunker", config.getChunker().getClass().getSimpleName());
+		assertEquals("FastCDC-65536-SHA1", config.getChunker().toString());
+	}
+
+	@Test
+	public void testConfigChunkerInvalidType() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+
+		ChunkerTO chunkerTO = new ChunkerTO();
+		chunkerTO.setType("invalid-chunker");
+		chunkerTO.setSettings(new HashMap<String, String>());
+
+		repoTO.setChunkerTO(chunkerTO); // <<< INVALID !!
 
 		// Run!
 		try {
@@ -188,7 +251,84 @@ public class ConfigTest {
 			fail("Config should not been have initialized.");
 		}
 		catch (ConfigException e) {
-			TestAssertUtil.assertErrorStackTraceContains("No multichunker", e);
+			TestAssertUtil.assertErrorStackTraceContains("invalid-chunker", e);
+		}
+	}
+
+	@Test
+	public void testConfigChunkerDigestFormatVersion() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		RepoTO defaultRepoTO = new DefaultRepoTOFactory(false, new ArrayList<CipherSpec>()).createRepoTO();
+		RepoTO digestRepoTO = new DefaultRepoTOFactory(false, new ArrayList<CipherSpec>(), FastCdcChunker.TYPE, "SHA-256",
+				DefaultRepoTOFactory.DEFAULT_DATABASE_FORMAT, DefaultRepoTOFactory.DEFAULT_CIPHER_STREAM_VERSION).createRepoTO();
+
+		// Run!
+		Config config = new Config(localDir, configTO, digestRepoTO);
+
+		// Test
+		assertNull(defaultRepoTO.getFormatVersion());
+		assertEquals((Integer) RepoTO.FORMAT_VERSION_CHUNKER_DIGEST, digestRepoTO.getFormatVersion());
+		assertEquals("SHA-256", config.getChunker().getChecksumAlgorithm());
+	}
+
+	@Test
+	public void testConfigChunkerDigestUnsupported() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+		repoTO.setFormatVersion(RepoTO.FORMAT_VERSION_CHUNKER_DIGEST); // <<< valid
+
+		ChunkerTO chunkerTO = new ChunkerTO();
+		chunkerTO.setType("fast-cdc");
+		chunkerTO.setSettings(new HashMap<String, String>());
+		chunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, "65536");
+		chunkerTO.getSettings().put(Chunker.PROPERTY_DIGEST, "invalid-digest");
+
+		repoTO.setChunkerTO(chunkerTO); // <<< INVALID !!
+
+		// Run!
+		try {
+			new Config(localDir, configTO, repoTO);
+			fail("Config should not been have initialized.");
+		}
+		catch (ConfigException e) {
+			TestAssertUtil.assertErrorStackTraceContains("invalid-digest", e);
+		}
+	}
+
+	@Test
+	public void testConfigFormatVersionUnsupported() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setChunkerTO(TestConfigUtil.createFixedChunkerTO()); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+		repoTO.setFormatVersion(RepoTO.FORMAT_VERSION_SUPPORTED + 1); // <<< INVALID !!
+
+		// Run!
+		try {
+			new Config(localDir, configTO, repoTO);
+			fail("Config should not been have initialized.");
+		}
+		catch (ConfigException e) {
+			TestAssertUtil.assertErrorStackTraceContains("format version", e);
 		}
 	}
 
@@ -303,6 +443,48 @@ public class ConfigTest {
 		}
 	}
 
+	@Test
+	@SuppressWarnings("serial")
+	public void testConfigCipherStreamVersionSegmented() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+		configTO.setMasterKey(createDummyMasterKey()); // <<< valid
+
+		repoTO.setChunkerTO(TestConfigUtil.createFixedChunkerTO()); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setCipherStreamVersion((int) MultiCipherOutputStream.STREAM_VERSION_SEGMENTED); // <<< valid
+
+		TransformerTO cipherTransformerTO = new TransformerTO();
+		cipherTransformerTO.setType("cipher");
+		cipherTransformerTO.setSettings(new HashMap<String, String>() {
+			{
+				put("cipherspecs", "1");
+			}
+		});
+
+		List<TransformerTO> transformers = new ArrayList<TransformerTO>();
+		transformers.add(cipherTransformerTO);
+
+		repoTO.setTransformers(transformers);
+
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+		OutputStream cipherOutputStream = config.getTransformer().createOutputStream(ciphertextOutputStream);
+
+		cipherOutputStream.write(new byte[] { 0x01, 0x02, 0x03 });
+		cipherOutputStream.close();
+
+		// Test
+		assertEquals(MultiCipherOutputStream.STREAM_VERSION_SEGMENTED, ciphertextOutputStream.toByteArray()[MultiCipherOutputStream.STREAM_MAGIC.length]);
+	}
+
 	private SaltedSecretKey createDummyMasterKey() {
 		return new SaltedSecretKey(
 				new SecretKeySpec(
@@ -0,0 +1,92 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.syncany.config.IgnoredFiles;
+import org.syncany.tests.unit.util.TestFileUtil;
+
+public class IgnoredFilesTest {
+	@Test
+	public void testExactPathsAndNames() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		IgnoredFiles ignoredFiles = createIgnoredFiles(tempDir, "folder/file1.txt\nnode_modules\n");
+
+		assertTrue(ignoredFiles.isFileIgnored("folder/file1.txt", "file1.txt"));
+		assertTrue(ignoredFiles.isFileIgnored("node_modules", "node_modules"));
+		assertTrue(ignoredFiles.isFileIgnored("some/folder/node_modules", "node_modules"));
+
+		assertFalse(ignoredFiles.isFileIgnored("file1.txt", "file1.txt"));
+		assertFalse(ignoredFiles.isFileIgnored("folder/file2.txt", "file2.txt"));
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testWildcardsAndRegularExpressions() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		IgnoredFiles ignoredFiles = createIgnoredFiles(tempDir, "*.tmp\nbuild/*\nfile?.log\nregex:.*\\.(bak|swp)\nregex:(?i)THUMBS\\.DB\n");
+
+		assertTrue(ignoredFiles.isFileIgnored("a.tmp", "a.tmp"));
+		assertTrue(ignoredFiles.isFileIgnored("folder/a.tmp", "a.tmp"));
+		assertTrue(ignoredFiles.isFileIgnored("build/classes", "classes"));
+		assertTrue(ignoredFiles.isFileIgnored("file1.log", "file1.log"));
+		assertTrue(ignoredFiles.isFileIgnored("folder/x.bak", "x.bak"));
+		assertTrue(ignoredFiles.isFileIgnored("folder/x.swp", "x.swp"));
+		assertTrue(ignoredFiles.isFileIgnored("Thumbs.db", "Thumbs.db"));
+
+		assertFalse(ignoredFiles.isFileIgnored("a.tmp.txt", "a.tmp.txt"));
+		assertFalse(ignoredFiles.isFileIgnored("folder/build/classes", "classes"));
+		assertFalse(ignoredFiles.isFileIgnored("file10.log", "file10.log"));
+		assertFalse(ignoredFiles.isFileIgnored("folder/x.bakx", "x.bakx"));
+		assertFalse(ignoredFiles.isFileIgnored("thumbs.dbx", "thumbs.dbx"));
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testPatternsThatCannotBeCombined() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		IgnoredFiles ignoredFiles = createIgnoredFiles(tempDir,
+				"regex:(a+)-\\1\nregex:(?<n>x)\nregex:(?<n>y)\nregex:(?x) z # comment\nregex:invalid[\n*.tmp\n");
+
+		assertTrue(ignoredFiles.isFileIgnored("aa-aa", "aa-aa"));
+		assertTrue(ignoredFiles.isFileIgnored("x", "x"));
+		assertTrue(ignoredFiles.isFileIgnored("y", "y"));
+		assertTrue(ignoredFiles.isFileIgnored("z", "z"));
+		assertTrue(ignoredFiles.isFileIgnored("a.tmp", "a.tmp"));
+
+		assertFalse(ignoredFiles.isFileIgnored("aa-a", "aa-a"));
+		assertFalse(ignoredFiles.isFileIgnored("z.tmpx", "z.tmpx"));
+		assertFalse(ignoredFiles.isFileIgnored("invalid[", "invalid["));
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	private IgnoredFiles createIgnoredFiles(File tempDir, String ignoreFileContent) throws Exception {
+		File ignoreFile = new File(tempDir, ".syignore");
+		TestFileUtil.createFileWithContent(ignoreFile, ignoreFileContent);
+
+		return new IgnoredFiles(ignoreFile);
+	}
+}
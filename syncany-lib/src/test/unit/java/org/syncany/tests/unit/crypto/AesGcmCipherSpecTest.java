@@ -0,0 +1,148 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.bouncycastle.crypto.io.InvalidCipherTextIOException;
+import org.junit.Test;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.specs.AesGcmCipherSpec;
+import org.syncany.util.StringUtil;
+
+public class AesGcmCipherSpecTest {
+	private static final int[] PLAINTEXT_SIZES = new int[] { 0, 1, 15, 16, 17, 4080, AesGcmCipherSpec.JCE_BUFFER_SIZE - 1,
+			AesGcmCipherSpec.JCE_BUFFER_SIZE, AesGcmCipherSpec.JCE_BUFFER_SIZE + 1, 3 * AesGcmCipherSpec.JCE_BUFFER_SIZE + 7 };
+
+	static {
+		Logging.init();
+		CipherUtil.init();
+	}
+
+	@Test
+	public void testJceCiphertextEqualsBcCiphertextAes128() throws Exception {
+		testJceCiphertextEqualsBcCiphertext((AesGcmCipherSpec) CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM));
+	}
+
+	@Test
+	public void testJceCiphertextEqualsBcCiphertextAes256() throws Exception {
+		testJceCiphertextEqualsBcCiphertext((AesGcmCipherSpec) CipherSpecs.getCipherSpec(CipherSpecs.AES_256_GCM));
+	}
+
+	@Test
+	public void testJceCiphertextTamperingDetected() throws Exception {
+		AesGcmCipherSpec cipherSpec = (AesGcmCipherSpec) CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+
+		byte[] key = CipherUtil.createRandomArray(cipherSpec.getKeySize() / 8);
+		byte[] iv = CipherUtil.createRandomArray(cipherSpec.getIvSize() / 8);
+		byte[] plaintext = CipherUtil.createRandomArray(10 * 1024);
+
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+
+		OutputStream jceOutputStream = cipherSpec.newCipherOutputStream(ciphertextOutputStream, key, iv);
+		jceOutputStream.write(plaintext);
+		jceOutputStream.close();
+
+		byte[] alteredCiphertext = ciphertextOutputStream.toByteArray();
+		alteredCiphertext[8] = (byte) (alteredCiphertext[8] ^ 0x08);
+
+		try {
+			readFully(cipherSpec.newCipherInputStream(new ByteArrayInputStream(alteredCiphertext), key, iv));
+			fail("Tampering should have been detected.");
+		}
+		catch (InvalidCipherTextIOException e) {
+			// Expected
+		}
+	}
+
+	private void testJceCiphertextEqualsBcCiphertext(AesGcmCipherSpec cipherSpec) throws Exception {
+		for (int plaintextSize : PLAINTEXT_SIZES) {
+			byte[] key = CipherUtil.createRandomArray(cipherSpec.getKeySize() / 8);
+			byte[] iv = CipherUtil.createRandomArray(cipherSpec.getIvSize() / 8);
+			byte[] plaintext = CipherUtil.createRandomArray(plaintextSize);
+
+			// Encrypt with JCE and with Bouncy Castle
+			ByteArrayOutputStream jceCiphertextOutputStream = new ByteArrayOutputStream();
+			ByteArrayOutputStream bcCiphertextOutputStream = new ByteArrayOutputStream();
+
+			OutputStream jceOutputStream = cipherSpec.newCipherOutputStream(jceCiphertextOutputStream, key, iv);
+			OutputStream bcOutputStream = cipherSpec.newBcCipherOutputStream(bcCiphertextOutputStream, key, iv);
+
+			assertFalse("JCE cipher should be available.", jceOutputStream instanceof org.bouncycastle.crypto.io.CipherOutputStream);
+
+			writeInPieces(jceOutputStream, plaintext);
+			writeInPieces(bcOutputStream, plaintext);
+
+			jceOutputStream.close();
+			bcOutputStream.close();
+
+			byte[] jceCiphertext = jceCiphertextOutputStream.toByteArray();
+			byte[] bcCiphertext = bcCiphertextOutputStream.toByteArray();
+
+			// Test: Identical ciphertext, and both decrypt to the plaintext
+			assertArrayEquals("Ciphertext differs for plaintext size " + plaintextSize + ", key " + StringUtil.toHex(key) + ", IV "
+					+ StringUtil.toHex(iv), bcCiphertext, jceCiphertext);
+
+			assertArrayEquals(plaintext, readFully(cipherSpec.newCipherInputStream(new ByteArrayInputStream(jceCiphertext), key, iv)));
+			assertArrayEquals(plaintext, readFully(cipherSpec.newCipherInputStream(new ByteArrayInputStream(bcCiphertext), key, iv)));
+		}
+	}
+
+	private void writeInPieces(OutputStream outputStream, byte[] data) throws IOException {
+		int offset = 0;
+		int pieceSize = 1;
+
+		// Alternate between single bytes and growing arrays, to cover all write paths
+		while (offset < data.length) {
+			if (pieceSize == 1) {
+				outputStream.write(data[offset]);
+				offset++;
+			}
+			else {
+				int length = Math.min(pieceSize, data.length - offset);
+				outputStream.write(data, offset, length);
+				offset += length;
+			}
+
+			pieceSize = (pieceSize > AesGcmCipherSpec.JCE_BUFFER_SIZE) ? 1 : pieceSize * 3;
+		}
+	}
+
+	private byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+
+		while (-1 != (read = inputStream.read(buffer))) {
+			outputStream.write(buffer, 0, read);
+		}
+
+		inputStream.close();
+		return outputStream.toByteArray();
+	}
+}
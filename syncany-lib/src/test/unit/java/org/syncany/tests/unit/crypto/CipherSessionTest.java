@@ -19,6 +19,14 @@ package org.syncany.tests.unit.crypto;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.crypto.spec.SecretKeySpec;
 
@@ -61,6 +69,20 @@ public class CipherSessionTest {
 		assertNotSame(writeSecretKey1Aes128, writeSecretKey1Twofish128);
 	}	
 	
+	@Test(timeout = 10000)
+	public void testCipherSessionWriteKeyReuseCountOfZero() throws Exception {
+		SaltedSecretKey masterKey = createDummyMasterKey();
+		CipherSession cipherSession = new CipherSession(masterKey, 999, 0);
+
+		CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+
+		SaltedSecretKey writeSecretKey1Aes128 = cipherSession.getWriteSecretKey(cipherSpecAes128);
+		SaltedSecretKey writeSecretKey2Aes128 = cipherSession.getWriteSecretKey(cipherSpecAes128);
+
+		assertNotSame(writeSecretKey1Aes128, writeSecretKey2Aes128);
+		assertEquals(2, cipherSession.getWriteCacheMissCount());
+	}
+
 	@Test
 	public void testCipherSessionReadKeyCacheSizeOfThree() throws Exception {
 		SaltedSecretKey masterKey = createDummyMasterKey();		
@@ -83,6 +105,67 @@ public class CipherSessionTest {
 		// TODO [medium] This does NOT TEST the actual read cache. How to test this. The cache is completely hidden/private?!
 	}	
 	
+	@Test
+	public void testCipherSessionReadKeyCacheEvictsLeastRecentlyUsed() throws Exception {
+		SaltedSecretKey masterKey = createDummyMasterKey();		
+		CipherSession cipherSession = new CipherSession(masterKey, 2, 999);
+		
+		CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		
+		byte[] readKeySalt1 = CipherUtil.createRandomArray(12);
+		byte[] readKeySalt2 = CipherUtil.createRandomArray(12);
+		byte[] readKeySalt3 = CipherUtil.createRandomArray(12);
+		
+		SaltedSecretKey readSecretKey1Aes128 = cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1); // miss
+		cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt2); // miss
+		
+		assertSame(readSecretKey1Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1)); // hit, salt 2 is now least recently used
+		
+		cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt3); // miss, evicts salt 2
+		
+		assertSame(readSecretKey1Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1)); // hit
+		cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt2); // miss
+		
+		assertEquals(2, cipherSession.getReadCacheHitCount());
+		assertEquals(4, cipherSession.getReadCacheMissCount());
+	}
+	
+	@Test
+	public void testCipherSessionConcurrentAccessDerivesKeysOnce() throws Exception {
+		SaltedSecretKey masterKey = createDummyMasterKey();		
+		final CipherSession cipherSession = new CipherSession(masterKey, 20, 10);
+		
+		final CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		final byte[][] readKeySalts = new byte[][] { CipherUtil.createRandomArray(12), CipherUtil.createRandomArray(12), CipherUtil.createRandomArray(12) };
+		
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<SaltedSecretKey>> readSecretKeyFutures = new ArrayList<Future<SaltedSecretKey>>();
+		
+		for (int i = 0; i < 300; i++) {
+			final byte[] readKeySalt = readKeySalts[i % readKeySalts.length];
+			
+			readSecretKeyFutures.add(executor.submit(new Callable<SaltedSecretKey>() {
+				@Override
+				public SaltedSecretKey call() throws Exception {
+					cipherSession.getWriteSecretKey(cipherSpecAes128);
+					return cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt);
+				}				
+			}));
+		}
+		
+		for (int i = 0; i < readSecretKeyFutures.size(); i++) {
+			assertSame(readSecretKeyFutures.get(i % readKeySalts.length).get(), readSecretKeyFutures.get(i).get());
+		}
+		
+		executor.shutdown();
+		
+		assertEquals(3, cipherSession.getReadCacheMissCount());
+		assertEquals(297, cipherSession.getReadCacheHitCount());
+		
+		assertEquals(30, cipherSession.getWriteCacheMissCount()); // 300 uses, new key after 10 uses
+		assertEquals(270, cipherSession.getWriteCacheHitCount());
+	}
+	
 	private SaltedSecretKey createDummyMasterKey() {
 		return new SaltedSecretKey(
 			new SecretKeySpec(
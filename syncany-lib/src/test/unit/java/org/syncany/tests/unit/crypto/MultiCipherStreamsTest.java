@@ -17,8 +17,10 @@
  */
 package org.syncany.tests.unit.crypto;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -45,8 +47,11 @@ import org.syncany.chunk.CipherTransformer;
 import org.syncany.chunk.Transformer;
 import org.syncany.config.Logging;
 import org.syncany.crypto.CipherException;
+import org.syncany.crypto.CipherSession;
 import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.MultiCipherInputStream;
 import org.syncany.crypto.MultiCipherOutputStream;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.util.StringUtil;
@@ -93,6 +98,121 @@ public class MultiCipherStreamsTest {
 		// Should not throw an exception
 	}
 	
+	@Test
+	public void testDefaultStreamVersionIsUnsegmented() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) });
+		byte[] ciphertext = doEncrypt(CipherUtil.createRandomArray(1000), new CipherTransformer(cipherSpecs, masterKey));
+
+		assertEquals(MultiCipherOutputStream.STREAM_VERSION_UNSEGMENTED, ciphertext[MultiCipherOutputStream.STREAM_MAGIC.length]);
+	}
+	
+	@Test
+	public void testCipherTransformerSegmentedStreamVersion() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] {
+			CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM),
+			CipherSpecs.getCipherSpec(CipherSpecs.TWOFISH_128_GCM)
+		});
+		
+		Transformer cipherTransformer = new CipherTransformer(cipherSpecs, masterKey, MultiCipherOutputStream.STREAM_VERSION_SEGMENTED);
+		
+		byte[] plaintext = CipherUtil.createRandomArray(3 * MultiCipherOutputStream.DEFAULT_SEGMENT_SIZE + 123);
+		byte[] ciphertext = doEncrypt(plaintext, cipherTransformer);
+
+		assertEquals(MultiCipherOutputStream.STREAM_VERSION_SEGMENTED, ciphertext[MultiCipherOutputStream.STREAM_MAGIC.length]);
+		assertArrayEquals(plaintext, doDecrypt(ciphertext, cipherTransformer));
+	}
+	
+	@Test
+	public void testSegmentedStreamWithDifferentSizes() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] {
+			CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM),
+			CipherSpecs.getCipherSpec(CipherSpecs.TWOFISH_128_GCM)
+		});
+		
+		for (int plaintextSize : new int[] { 0, 1, 999, 1000, 1001, 5500 }) {
+			byte[] plaintext = CipherUtil.createRandomArray(plaintextSize);
+			byte[] ciphertext = doEncrypt(plaintext, cipherSpecs, MultiCipherOutputStream.STREAM_VERSION_SEGMENTED, 1000);
+
+			assertEquals(MultiCipherOutputStream.STREAM_VERSION_SEGMENTED, ciphertext[MultiCipherOutputStream.STREAM_MAGIC.length]);
+			assertArrayEquals("Decrypted data differs for size " + plaintextSize, plaintext, doDecrypt(ciphertext));
+		}
+	}
+	
+	@Test
+	public void testUnsegmentedStreamStillReadable() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) });
+		
+		byte[] plaintext = CipherUtil.createRandomArray(100 * 1024);
+		byte[] ciphertext = doEncrypt(plaintext, cipherSpecs, MultiCipherOutputStream.STREAM_VERSION_UNSEGMENTED, MultiCipherOutputStream.DEFAULT_SEGMENT_SIZE);
+
+		assertEquals(MultiCipherOutputStream.STREAM_VERSION_UNSEGMENTED, ciphertext[MultiCipherOutputStream.STREAM_MAGIC.length]);
+		assertArrayEquals(plaintext, doDecrypt(ciphertext));
+	}
+	
+	@Test
+	public void testSegmentedStreamTruncationDetected() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) });
+		
+		// 5 full segments and a last segment of 500 bytes; each segment has a 16 byte GCM tag
+		byte[] ciphertext = doEncrypt(CipherUtil.createRandomArray(5500), cipherSpecs, MultiCipherOutputStream.STREAM_VERSION_SEGMENTED, 1000);
+		byte[] truncatedCiphertext = Arrays.copyOf(ciphertext, ciphertext.length - 516);
+		
+		try {
+			doDecrypt(truncatedCiphertext);
+			fail("Truncation should have been detected.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testSegmentedStreamReorderingDetected() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) });
+		
+		byte[] ciphertext = doEncrypt(CipherUtil.createRandomArray(5500), cipherSpecs, MultiCipherOutputStream.STREAM_VERSION_SEGMENTED, 1000);
+		byte[] reorderedCiphertext = ciphertext.clone();
+		
+		// Swap the first two segments
+		int headerLength = ciphertext.length - 5 * 1016 - 516;
+		System.arraycopy(ciphertext, headerLength, reorderedCiphertext, headerLength + 1016, 1016);
+		System.arraycopy(ciphertext, headerLength + 1016, reorderedCiphertext, headerLength, 1016);
+		
+		try {
+			doDecrypt(reorderedCiphertext);
+			fail("Reordering should have been detected.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testSegmentedStreamSkip() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) });
+		
+		byte[] plaintext = CipherUtil.createRandomArray(5500);
+		byte[] ciphertext = doEncrypt(plaintext, cipherSpecs, MultiCipherOutputStream.STREAM_VERSION_SEGMENTED, 1000);
+		
+		// Skip into the fourth segment, read across the segment boundary, then skip beyond the end
+		InputStream inputStream = new MultiCipherInputStream(new ByteArrayInputStream(ciphertext), new CipherSession(masterKey));
+		byte[] readData = new byte[1200];
+		
+		assertEquals(3300, inputStream.skip(3300));
+		
+		int readLength = 0;
+		
+		while (readLength < readData.length) {
+			readLength += inputStream.read(readData, readLength, readData.length - readLength);
+		}
+		
+		assertArrayEquals(Arrays.copyOfRange(plaintext, 3300, 4500), readData);
+		assertEquals(1000, inputStream.skip(5000));
+		assertEquals(-1, inputStream.read());
+		
+		inputStream.close();
+	}
+	
 	public void testSaxParserWithMultiCipherTransformer(List<CipherSpec> cipherSuites) throws Exception {
 		String xmlStr = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
 			+ "<database version=\"1\">\n"
@@ -201,6 +321,31 @@ public class MultiCipherStreamsTest {
 		return decryptedData;
 	}	
 	
+	private byte[] doEncrypt(byte[] srcData, List<CipherSpec> cipherSpecs, byte streamVersion, int segmentSize) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = new MultiCipherOutputStream(bos, cipherSpecs, new CipherSession(masterKey), streamVersion, segmentSize);
+		
+		os.write(srcData);
+		os.close();
+		
+		return bos.toByteArray();
+	}
+	
+	private byte[] doDecrypt(byte[] encryptedData) throws IOException {
+		ByteArrayOutputStream bosDecryptedData = new ByteArrayOutputStream();
+		InputStream is = new MultiCipherInputStream(new ByteArrayInputStream(encryptedData), new CipherSession(masterKey));
+		
+		byte[] buffer = new byte[4096];
+		int read = -1;
+				
+		while (-1 != (read = is.read(buffer))) {
+			bosDecryptedData.write(buffer, 0, read);
+		}
+		
+		is.close();
+		return bosDecryptedData.toByteArray();
+	}
+	
 	private SaltedSecretKey createDummyMasterKey() {
 		return new SaltedSecretKey(
 			new SecretKeySpec(
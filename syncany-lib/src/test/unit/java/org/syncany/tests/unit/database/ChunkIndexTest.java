@@ -0,0 +1,329 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.syncany.database.ChunkIndex;
+import org.syncany.tests.unit.util.TestFileUtil;
+
+public class ChunkIndexTest {
+	@Test
+	public void testPutAndGetWithResize() {
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory();
+		List<byte[]> checksums = createRandomChecksums(10000, 20);
+
+		for (int i = 0; i < checksums.size(); i++) {
+			chunkIndex.put(checksums.get(i), i);
+		}
+
+		assertEquals(10000, chunkIndex.size());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			assertEquals(i, chunkIndex.get(checksums.get(i)));
+		}
+
+		assertFalse(chunkIndex.contains(new byte[20]));
+		assertFalse(chunkIndex.contains(new byte[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void testPutExistingUpdatesSize() {
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory();
+		byte[] checksum = new byte[] { 1, 2, 3, 4 };
+
+		chunkIndex.put(checksum, 100);
+		chunkIndex.put(checksum, 200);
+
+		assertEquals(1, chunkIndex.size());
+		assertEquals(200, chunkIndex.get(checksum));
+	}
+
+	@Test
+	public void testLongerChecksumGrowsKeyLength() {
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory();
+		List<byte[]> shortChecksums = createRandomChecksums(100, 20);
+		List<byte[]> longChecksums = createRandomChecksums(100, 64);
+
+		for (byte[] checksum : shortChecksums) {
+			chunkIndex.put(checksum, 1);
+		}
+
+		for (byte[] checksum : longChecksums) {
+			chunkIndex.put(checksum, 2);
+		}
+
+		assertEquals(200, chunkIndex.size());
+
+		for (byte[] checksum : shortChecksums) {
+			assertEquals(1, chunkIndex.get(checksum));
+		}
+
+		for (byte[] checksum : longChecksums) {
+			assertEquals(2, chunkIndex.get(checksum));
+		}
+	}
+
+	@Test
+	public void testClearAndStamp() {
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory();
+		chunkIndex.put(new byte[] { 1, 2, 3, 4 }, 100);
+
+		assertEquals(0, chunkIndex.getStamp());
+
+		chunkIndex.setStamp(1234);
+		assertEquals(1234, chunkIndex.getStamp());
+
+		chunkIndex.invalidate();
+		assertEquals(0, chunkIndex.getStamp());
+
+		chunkIndex.clear();
+		assertEquals(0, chunkIndex.size());
+		assertFalse(chunkIndex.contains(new byte[] { 1, 2, 3, 4 }));
+		assertFalse(chunkIndex.mightContain(new byte[] { 1, 2, 3, 4 }));
+	}
+
+	@Test
+	public void testBloomFilter() {
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory();
+		List<byte[]> knownChecksums = createRandomChecksums(50000, 20);
+		List<byte[]> unknownChecksums = createRandomChecksums(50000, 20);
+
+		for (byte[] checksum : knownChecksums) {
+			chunkIndex.put(checksum, 1);
+		}
+
+		// No false negatives (also after resizing)
+		for (byte[] checksum : knownChecksums) {
+			assertTrue(chunkIndex.mightContain(checksum));
+		}
+
+		// Few false positives
+		int falsePositives = 0;
+
+		for (byte[] checksum : unknownChecksums) {
+			if (chunkIndex.mightContain(checksum)) {
+				falsePositives++;
+			}
+		}
+
+		assertTrue("Too many false positives: " + falsePositives, falsePositives < unknownChecksums.size() * 0.05);
+		assertFalse(chunkIndex.mightContain(new byte[64]));
+	}
+
+	@Test
+	public void testPersistedIndex() throws Exception {
+		// Setup
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "chunkindex");
+		File copiedIndexFile = new File(tempDir, "chunkindex-copy");
+
+		List<byte[]> checksums = createRandomChecksums(5000, 20);
+
+		// Run
+		ChunkIndex chunkIndex = ChunkIndex.open(indexFile);
+
+		for (int i = 0; i < checksums.size(); i++) {
+			chunkIndex.put(checksums.get(i), i);
+		}
+
+		chunkIndex.setStamp(9876);
+
+		// Test
+		assertTrue(indexFile.exists());
+		assertSame(chunkIndex, ChunkIndex.open(indexFile));
+
+		TestFileUtil.copyFile(indexFile, copiedIndexFile);
+		ChunkIndex copiedChunkIndex = ChunkIndex.open(copiedIndexFile);
+
+		assertNotSame(chunkIndex, copiedChunkIndex);
+		assertEquals(9876, copiedChunkIndex.getStamp());
+		assertEquals(5000, copiedChunkIndex.size());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			assertTrue(copiedChunkIndex.mightContain(checksums.get(i)));
+			assertEquals(i, copiedChunkIndex.get(checksums.get(i)));
+		}
+
+		// Tear down
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testInvalidIndexFileIsReplaced() throws Exception {
+		// Setup
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "chunkindex");
+
+		TestFileUtil.createRandomFile(indexFile, 1000);
+
+		// Run
+		ChunkIndex chunkIndex = ChunkIndex.open(indexFile);
+
+		// Test
+		assertEquals(0, chunkIndex.getStamp());
+		assertEquals(0, chunkIndex.size());
+
+		// Tear down
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testMultipleSegments() {
+		// 4 KB segments hold 128 slots (20 byte keys), or 64 slots (64 byte keys)
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory(4096);
+		List<byte[]> shortChecksums = createRandomChecksums(10000, 20);
+		List<byte[]> longChecksums = createRandomChecksums(1000, 64);
+
+		for (int i = 0; i < shortChecksums.size(); i++) {
+			chunkIndex.put(shortChecksums.get(i), i);
+		}
+
+		for (int i = 0; i < longChecksums.size(); i++) {
+			chunkIndex.put(longChecksums.get(i), -i);
+		}
+
+		assertEquals(11000, chunkIndex.size());
+
+		for (int i = 0; i < shortChecksums.size(); i++) {
+			assertTrue(chunkIndex.mightContain(shortChecksums.get(i)));
+			assertEquals(i, chunkIndex.get(shortChecksums.get(i)));
+		}
+
+		for (int i = 0; i < longChecksums.size(); i++) {
+			assertEquals(-i, chunkIndex.get(longChecksums.get(i)));
+		}
+
+		assertFalse(chunkIndex.contains(new byte[20]));
+	}
+
+	@Test
+	public void testPersistedIndexWithMultipleSegments() throws Exception {
+		// Setup
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "chunkindex");
+
+		List<byte[]> checksums = createRandomChecksums(5000, 20);
+
+		// Run
+		ChunkIndex chunkIndex = ChunkIndex.open(indexFile, true, 4096);
+
+		for (int i = 0; i < checksums.size(); i++) {
+			chunkIndex.put(checksums.get(i), i);
+		}
+
+		chunkIndex.setStamp(1234);
+
+		// Test
+		assertSame("Resizing must not replace the shared instance", chunkIndex, ChunkIndex.open(indexFile));
+		assertFalse("Resized index file must have been renamed", new File(tempDir, "chunkindex.resize").exists());
+
+		ChunkIndex.close(indexFile);
+		ChunkIndex reopenedChunkIndex = ChunkIndex.open(indexFile); // Different segment size, same file layout
+
+		assertNotSame(chunkIndex, reopenedChunkIndex);
+		assertEquals(1234, reopenedChunkIndex.getStamp());
+		assertEquals(5000, reopenedChunkIndex.size());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			assertEquals(i, reopenedChunkIndex.get(checksums.get(i)));
+		}
+
+		// Tear down
+		ChunkIndex.close(indexFile);
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testUnmappedIndexIsNotPersisted() throws Exception {
+		// Setup
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "chunkindex");
+
+		List<byte[]> checksums = createRandomChecksums(5000, 20);
+
+		// Run
+		ChunkIndex chunkIndex = ChunkIndex.open(indexFile, false, ChunkIndex.DEFAULT_MAX_SEGMENT_SIZE);
+
+		for (int i = 0; i < checksums.size(); i++) {
+			chunkIndex.put(checksums.get(i), i);
+		}
+
+		chunkIndex.setStamp(1234);
+
+		// Test
+		assertFalse(indexFile.exists());
+		assertSame(chunkIndex, ChunkIndex.open(indexFile));
+		assertEquals(1234, chunkIndex.getStamp());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			assertEquals(i, chunkIndex.get(checksums.get(i)));
+		}
+
+		// Tear down
+		ChunkIndex.close(indexFile);
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testClosedOrDeletedIndexIsReleased() throws Exception {
+		// Setup
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "chunkindex");
+
+		// Run & test
+		ChunkIndex chunkIndex = ChunkIndex.open(indexFile);
+		ChunkIndex.close(indexFile);
+
+		ChunkIndex reopenedChunkIndex = ChunkIndex.open(indexFile);
+		assertNotSame(chunkIndex, reopenedChunkIndex);
+
+		TestFileUtil.deleteDirectory(tempDir);
+		tempDir.mkdirs();
+
+		assertNotSame(reopenedChunkIndex, ChunkIndex.open(indexFile));
+
+		// Tear down
+		ChunkIndex.close(indexFile);
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	private List<byte[]> createRandomChecksums(int count, int length) {
+		Random random = new Random();
+		List<byte[]> checksums = new ArrayList<byte[]>();
+
+		for (int i = 0; i < count; i++) {
+			byte[] checksum = new byte[length];
+			random.nextBytes(checksum);
+
+			checksums.add(checksum);
+		}
+
+		return checksums;
+	}
+}
@@ -25,6 +25,8 @@ import java.util.Map;
 import org.apache.commons.io.FileUtils;
 import org.syncany.Client;
 import org.syncany.config.Config;
+import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.crypto.CipherException;
 import org.syncany.operations.cleanup.CleanupOperation;
 import org.syncany.operations.cleanup.CleanupOperationOptions;
@@ -74,7 +76,15 @@ public class TestClient extends Client {
 	private Config config;
 
 	public TestClient(String machineName, TransferSettings connection) throws Exception {
-		Config testConfig = TestConfigUtil.createTestLocalConfig(machineName, connection);
+		this(machineName, connection, TestConfigUtil.createFixedChunkerTO());
+	}
+
+	public TestClient(String machineName, TransferSettings connection, ChunkerTO chunkerTO) throws Exception {
+		this(machineName, connection, TestConfigUtil.createRepoTO(chunkerTO));
+	}
+
+	public TestClient(String machineName, TransferSettings connection, RepoTO repoTO) throws Exception {
+		Config testConfig = TestConfigUtil.createTestLocalConfig(machineName, connection, repoTO);
 
 		testConfig.setMachineName(machineName);
 		testConfig.setDisplayName(machineName);
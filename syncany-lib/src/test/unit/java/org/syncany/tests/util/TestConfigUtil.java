@@ -96,7 +96,7 @@ public class TestConfigUtil {
 
 	public static ChunkerTO createFixedChunkerTO() {
 		Map<String, String> settings = new HashMap<String, String>();
-		settings.put(Chunker.PROPERTY_SIZE, "32768");
+		settings.put(Chunker.PROPERTY_SIZE, "524288");
 
 		ChunkerTO chunkerTO = new ChunkerTO();
 		chunkerTO.setType("fixed");
@@ -105,15 +105,30 @@ public class TestConfigUtil {
 		return chunkerTO;
 	}
 
+	public static ChunkerTO createChunkerTO(String type, int size, String digestAlgorithm) {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, Integer.toString(size));
+		settings.put(Chunker.PROPERTY_DIGEST, digestAlgorithm);
+
+		ChunkerTO chunkerTO = new ChunkerTO();
+		chunkerTO.setType(type);
+		chunkerTO.setSettings(settings);
+
+		return chunkerTO;
+	}
+
 	public static RepoTO createRepoTO() {
+		return createRepoTO(createFixedChunkerTO());
+	}
+
+	public static RepoTO createRepoTO(ChunkerTO chunkerTO) {
 		// Create Repo TO
 		RepoTO repoTO = new RepoTO();
 		repoTO.setRepoId(new byte[] { 0x01, 0x02, 0x03 });
 
 		// Create ChunkerTO and MultiChunkerTO
 		MultiChunkerTO multiChunkerTO = createZipMultiChunkerTO();
-		ChunkerTO chunkerTO = createFixedChunkerTO();
-		repoTO.setChunkerTO(chunkerTO); // TODO [low] Chunker not configurable right now. Not used.
+		repoTO.setChunkerTO(chunkerTO);
 		repoTO.setMultiChunker(multiChunkerTO);
 
 		// Create TransformerTO
@@ -167,11 +182,17 @@ public class TestConfigUtil {
 	}
 
 	public static Config createTestLocalConfig(String machineName, TransferSettings connection) throws Exception {
+		return createTestLocalConfig(machineName, connection, createFixedChunkerTO());
+	}
+
+	public static Config createTestLocalConfig(String machineName, TransferSettings connection, ChunkerTO chunkerTO) throws Exception {
+		return createTestLocalConfig(machineName, connection, createRepoTO(chunkerTO));
+	}
+
+	public static Config createTestLocalConfig(String machineName, TransferSettings connection, RepoTO repoTO) throws Exception {
 		File tempLocalDir = TestFileUtil.createTempDirectoryInSystemTemp(createUniqueName("client-" + machineName, connection));
 		tempLocalDir.mkdirs();
 
-		RepoTO repoTO = createRepoTO();
-
 		// Create config TO
 		ConfigTO configTO = new ConfigTO();
 		configTO.setMachineName(machineName + CipherUtil.createRandomAlphabeticString(20));
@@ -26,6 +26,7 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 
 import org.syncany.database.DatabaseConnectionFactory;
+import org.syncany.database.dao.FileVersionSqlDao;
 import org.syncany.util.SqlRunner;
 
 public class TestSqlUtil {
@@ -38,6 +39,13 @@ public class TestSqlUtil {
 		}
 
 		SqlRunner.runScript(connection, inputStream);
+
+		// Test data scripts insert file versions directly, so the materialized
+		// last versions have to be re-created (if the schema has them)
+		if (runSqlSelect("select table_name from information_schema.system_tables where table_name='FILEVERSION_HEAD'", connection).length() > 0) {
+			new FileVersionSqlDao(connection).rebuildFileVersionHeads();
+		}
+
 		connection.commit();
 	}
 